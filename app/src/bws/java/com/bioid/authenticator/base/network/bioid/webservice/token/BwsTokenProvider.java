@@ -12,6 +12,8 @@ import com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClie
  */
 public class BwsTokenProvider implements VerificationTokenProvider, EnrollmentTokenProvider, LivenessTokenProvider {
 
+    private static BioIdWebserviceClientExtended sharedBwsClient;
+
     private final String bcid;
 
     /**
@@ -39,9 +41,23 @@ public class BwsTokenProvider implements VerificationTokenProvider, EnrollmentTo
         return createBwsClient(ctx).requestLivenessToken(bcid);
     }
 
+    @NonNull
+    @Override
+    public String getBcid() {
+        return bcid;
+    }
+
+    /**
+     * Returns the process-wide client, so that token requests do not create a new client (and connection) each time.
+     */
     @VisibleForTesting
     BioIdWebserviceClientExtended createBwsClient(@NonNull Context ctx) {
-        return new BioIdWebserviceClientExtended();
+        synchronized (BwsTokenProvider.class) {
+            if (sharedBwsClient == null) {
+                sharedBwsClient = new BioIdWebserviceClientExtended();
+            }
+            return sharedBwsClient;
+        }
     }
 
     //region Parcelable implementation
@@ -0,0 +1,19 @@
+package com.bioid.authenticator;
+
+import android.app.Application;
+
+import com.bioid.authenticator.base.network.HttpRequestHelper;
+
+/**
+ * Sets up the process-wide state before any component is created.
+ */
+public class AuthenticatorApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // must be installed before the first request, otherwise that request would use the transport without session cache
+        HttpRequestHelper.installTlsSessionCache(this);
+    }
+}
@@ -0,0 +1,8 @@
+package com.bioid.authenticator.base.functional;
+
+/**
+ * Functional interface from Java 8.
+ */
+public interface BiConsumer<T, U> {
+    void accept(T t, U u);
+}
@@ -0,0 +1,47 @@
+package com.bioid.authenticator.base.image;
+
+import java.util.Locale;
+
+/**
+ * Quality scores of a single frame calculated by the {@link FrameQualityScorer}.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FrameQuality {
+
+    /**
+     * Variance of the Laplacian (higher values indicate a sharper image).
+     */
+    public final double sharpness;
+    /**
+     * Mean luminance in the range [0, 255].
+     */
+    public final double brightness;
+    /**
+     * Fraction of (nearly) black pixels in the range [0, 1].
+     */
+    public final double underexposed;
+    /**
+     * Fraction of (nearly) white pixels in the range [0, 1].
+     */
+    public final double overexposed;
+    /**
+     * Spread between the 5th and the 95th luminance percentile in the range [0, 255].
+     */
+    public final double contrast;
+
+    // use FrameQualityScorer instead
+    FrameQuality(double sharpness, double brightness, double underexposed, double overexposed, double contrast) {
+        this.sharpness = sharpness;
+        this.brightness = brightness;
+        this.underexposed = underexposed;
+        this.overexposed = overexposed;
+        this.contrast = contrast;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH,
+                "FrameQuality{sharpness=%.1f, brightness=%.1f, underexposed=%.3f, overexposed=%.3f, contrast=%.1f}",
+                sharpness, brightness, underexposed, overexposed, contrast);
+    }
+}
@@ -0,0 +1,209 @@
+package com.bioid.authenticator.base.image;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+
+/**
+ * Cheap image quality assessment which can be used to hold back frames which would be rejected by the BioID Webservice anyway.
+ * <p/>
+ * All scores are calculated on a downscaled version of the grayscale image:
+ * <ul>
+ * <li>sharpness: variance of the Laplacian</li>
+ * <li>exposure: mean luminance and fraction of clipped pixels (based on the histogram)</li>
+ * <li>contrast: spread between the 5th and the 95th luminance percentile</li>
+ * </ul>
+ * The scores are logged and recorded as metrics so that the thresholds can be tuned based on field data.
+ */
+public class FrameQualityScorer {
+
+    @VisibleForTesting
+    static final int ANALYSIS_SIZE = 120;
+
+    private static final int UNDEREXPOSED_LUMINANCE = 16;
+    private static final int OVEREXPOSED_LUMINANCE = 240;
+
+    @VisibleForTesting
+    static final String METRIC_SHARPNESS = "frame_quality.sharpness";
+    @VisibleForTesting
+    static final String METRIC_BRIGHTNESS = "frame_quality.brightness";
+    @VisibleForTesting
+    static final String METRIC_CONTRAST = "frame_quality.contrast";
+    @VisibleForTesting
+    static final String METRIC_ACCEPTED = "frame_quality.accepted";
+    @VisibleForTesting
+    static final String METRIC_REJECTED = "frame_quality.rejected";
+
+    private final LoggingHelper log;
+    private final MetricsHelper metrics;
+    private final ImageTransformer imageTransformer;
+    private final Thresholds thresholds;
+
+    /**
+     * Creates a new FrameQualityScorer using the {@link Thresholds#DEFAULT} thresholds.
+     */
+    public FrameQualityScorer() {
+        this(Thresholds.DEFAULT);
+    }
+
+    /**
+     * Creates a new FrameQualityScorer using the given thresholds.
+     */
+    public FrameQualityScorer(@NonNull Thresholds thresholds) {
+        this(LoggingHelperFactory.create(FrameQualityScorer.class), MetricsHelperFactory.create(), new ImageTransformer(),
+                thresholds);
+    }
+
+    @VisibleForTesting
+    FrameQualityScorer(LoggingHelper log, MetricsHelper metrics, ImageTransformer imageTransformer, Thresholds thresholds) {
+        this.log = log;
+        this.metrics = metrics;
+        this.imageTransformer = imageTransformer;
+        this.thresholds = thresholds;
+    }
+
+    /**
+     * Calculates the quality scores of the given image.
+     */
+    @NonNull
+    public FrameQuality score(@NonNull GrayscaleImage img) {
+        GrayscaleImage small = imageTransformer.downscale(img, ANALYSIS_SIZE);
+
+        int[] histogram = new int[256];
+        for (byte pixel : small.data) {
+            histogram[pixel & 0xff]++;
+        }
+
+        int size = small.width * small.height;
+        long luminanceSum = 0;
+        int underexposed = 0;
+        int overexposed = 0;
+        for (int luminance = 0; luminance < 256; luminance++) {
+            luminanceSum += (long) luminance * histogram[luminance];
+            if (luminance <= UNDEREXPOSED_LUMINANCE) {
+                underexposed += histogram[luminance];
+            } else if (luminance >= OVEREXPOSED_LUMINANCE) {
+                overexposed += histogram[luminance];
+            }
+        }
+
+        FrameQuality quality = new FrameQuality(
+                laplacianVariance(small),
+                (double) luminanceSum / size,
+                (double) underexposed / size,
+                (double) overexposed / size,
+                percentile(histogram, size, 0.95) - percentile(histogram, size, 0.05));
+
+        log.d("%s", quality);
+        metrics.record(METRIC_SHARPNESS, quality.sharpness);
+        metrics.record(METRIC_BRIGHTNESS, quality.brightness);
+        metrics.record(METRIC_CONTRAST, quality.contrast);
+        return quality;
+    }
+
+    /**
+     * Returns true if all scores do satisfy the configured thresholds.
+     */
+    public boolean isAcceptable(@NonNull FrameQuality quality) {
+        String violation = findViolation(quality);
+        if (violation == null) {
+            metrics.count(METRIC_ACCEPTED);
+            return true;
+        }
+
+        log.d("frame rejected because of %s", violation);
+        metrics.count(METRIC_REJECTED);
+        metrics.count(METRIC_REJECTED + "." + violation);
+        return false;
+    }
+
+    private String findViolation(@NonNull FrameQuality quality) {
+        if (quality.sharpness < thresholds.minSharpness) {
+            return "blur";
+        }
+        if (quality.brightness < thresholds.minBrightness || quality.underexposed > thresholds.maxClippedFraction) {
+            return "underexposure";
+        }
+        if (quality.brightness > thresholds.maxBrightness || quality.overexposed > thresholds.maxClippedFraction) {
+            return "overexposure";
+        }
+        if (quality.contrast < thresholds.minContrast) {
+            return "contrast";
+        }
+        return null;
+    }
+
+    private static double laplacianVariance(@NonNull GrayscaleImage img) {
+        if (img.width < 3 || img.height < 3) {
+            return 0.0;
+        }
+
+        long sum = 0;
+        long sumOfSquares = 0;
+        for (int y = 1; y < img.height - 1; y++) {
+            int offset = y * img.width;
+            for (int x = 1; x < img.width - 1; x++) {
+                int i = offset + x;
+                int laplacian = 4 * (img.data[i] & 0xff)
+                        - (img.data[i - 1] & 0xff) - (img.data[i + 1] & 0xff)
+                        - (img.data[i - img.width] & 0xff) - (img.data[i + img.width] & 0xff);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+            }
+        }
+
+        double count = (img.width - 2) * (img.height - 2);
+        double mean = sum / count;
+        return sumOfSquares / count - mean * mean;
+    }
+
+    private static int percentile(@NonNull int[] histogram, int size, double fraction) {
+        int limit = (int) (size * fraction);
+        int cumulated = 0;
+        for (int luminance = 0; luminance < histogram.length; luminance++) {
+            cumulated += histogram[luminance];
+            if (cumulated > limit) {
+                return luminance;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    /**
+     * Thresholds a frame has to satisfy to be accepted by {@link #isAcceptable(FrameQuality)}.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final class Thresholds {
+
+        /**
+         * Rather lenient defaults which only reject frames that are very likely to be rejected by the server.
+         */
+        public static final Thresholds DEFAULT = new Thresholds(15.0, 40.0, 215.0, 0.3, 30.0);
+
+        public final double minSharpness;
+        public final double minBrightness;
+        public final double maxBrightness;
+        public final double maxClippedFraction;
+        public final double minContrast;
+
+        /**
+         * @param minSharpness       minimum variance of the Laplacian
+         * @param minBrightness      minimum mean luminance [0, 255]
+         * @param maxBrightness      maximum mean luminance [0, 255]
+         * @param maxClippedFraction maximum fraction of either black or white pixels [0, 1]
+         * @param minContrast        minimum spread between the 5th and the 95th luminance percentile [0, 255]
+         */
+        public Thresholds(double minSharpness, double minBrightness, double maxBrightness, double maxClippedFraction,
+                          double minContrast) {
+            this.minSharpness = minSharpness;
+            this.minBrightness = minBrightness;
+            this.maxBrightness = maxBrightness;
+            this.maxClippedFraction = maxClippedFraction;
+            this.minContrast = minContrast;
+        }
+    }
+}
@@ -0,0 +1,449 @@
+package com.bioid.authenticator.base.image;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.bioid.authenticator.base.threading.ComputationExecutor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Encodes a {@link GrayscaleImage} as 8-bit grayscale PNG (color type 0).
+ * <p/>
+ * Compared to compressing an ARGB Bitmap this does only deflate a quarter of the data.
+ * The Deflater and all buffers are reused, therefore the encoder is not thread-safe and each thread needs its own instance
+ * (see {@link ImageFormatConverter}). Encode calls are not synchronized, so a slow stream never blocks other threads.
+ * The native memory of the Deflaters is released by {@link #close()}, afterwards the encoder must not be used anymore.
+ * <p/>
+ * Large images are deflated in parallel (like pigz does): the filtered scanlines are split into chunks which are compressed
+ * independently (using the end of the previous chunk as dictionary) and terminated with a sync flush.
+ * Because sync flushed deflate blocks end on a byte boundary, the chunks can simply be concatenated into one zlib stream.
+ */
+@SuppressWarnings("WeakerAccess")
+public class GrayscalePngEncoder implements Closeable {
+
+    /**
+     * PNG row filters (see PNG specification, section 9).
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH,
+        /**
+         * Chooses the filter with the smallest sum of absolute values for each row (heuristic recommended by the specification).
+         */
+        ADAPTIVE
+    }
+
+    public static final Filter DEFAULT_FILTER = Filter.PAETH;
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    /**
+     * Images with less pixels are encoded sequentially because the parallelization overhead would outweigh the gain.
+     */
+    public static final int DEFAULT_MIN_PIXELS_FOR_PARALLEL_ENCODING = 128 * 1024;
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final byte[] CHUNK_IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] CHUNK_IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] CHUNK_IEND = {'I', 'E', 'N', 'D'};
+    private static final int BIT_DEPTH = 8;
+    private static final int COLOR_TYPE_GRAYSCALE = 0;
+    private static final int IDAT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Chunks should not be smaller because every chunk starts without knowledge about the previous data (except the dictionary).
+     */
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNKS = 8;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private final Filter filter;
+    private final int compressionLevel;
+    private final Deflater deflater;
+    @Nullable
+    private final ExecutorService executor;
+    private final int minPixelsForParallelEncoding;
+    private final Adler32 adler = new Adler32();
+    private final List<ChunkCompressor> chunkCompressors = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private final byte[] idatBuffer = new byte[IDAT_BUFFER_SIZE];
+    private final byte[] chunkHeader = new byte[8];
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(IDAT_BUFFER_SIZE);
+
+    // one row plus the leading filter type byte, reallocated only if the image width changes
+    private byte[] previousRow = new byte[0];
+    private byte[][] filteredRows = new byte[Filter.values().length][];
+    // all filtered rows (only used for parallel encoding), grows if needed
+    private byte[] filteredImage = new byte[0];
+    private boolean closed;
+
+    /**
+     * Creates a new encoder using the {@link #DEFAULT_FILTER} and the {@link #DEFAULT_COMPRESSION_LEVEL}.
+     */
+    public GrayscalePngEncoder() {
+        this(DEFAULT_FILTER, DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * Creates a new encoder which does encode large images in parallel using the {@link ComputationExecutor}
+     * (if the device has multiple CPU cores).
+     *
+     * @param filter           row filter applied before deflating
+     * @param compressionLevel deflate level (0 = no compression, 9 = best compression)
+     */
+    public GrayscalePngEncoder(@NonNull Filter filter, @IntRange(from = 0, to = 9) int compressionLevel) {
+        this(filter, compressionLevel, ComputationExecutor.getParallelism() > 1 ? ComputationExecutor.get() : null,
+                DEFAULT_MIN_PIXELS_FOR_PARALLEL_ENCODING);
+    }
+
+    /**
+     * Creates a new encoder.
+     *
+     * @param filter                       row filter applied before deflating
+     * @param compressionLevel             deflate level (0 = no compression, 9 = best compression)
+     * @param executor                     pool used for parallel encoding or null to always encode sequentially
+     * @param minPixelsForParallelEncoding images with less pixels are encoded sequentially
+     */
+    public GrayscalePngEncoder(@NonNull Filter filter, @IntRange(from = 0, to = 9) int compressionLevel,
+                               @Nullable ExecutorService executor, @IntRange(from = 0) int minPixelsForParallelEncoding) {
+        if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("compressionLevel must be within 0 and 9");
+        }
+        this.filter = filter;
+        this.compressionLevel = compressionLevel;
+        this.deflater = new Deflater(compressionLevel);
+        this.executor = executor;
+        this.minPixelsForParallelEncoding = minPixelsForParallelEncoding;
+    }
+
+    /**
+     * Encodes the image as PNG.
+     */
+    @NonNull
+    public byte[] encode(@NonNull GrayscaleImage img) {
+        output.reset();
+        try {
+            encode(img, output);
+        } catch (IOException e) {
+            throw new IllegalStateException("ByteArrayOutputStream must not throw IOException", e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Encodes the image as PNG and writes it to the given stream (the stream will not be closed).
+     */
+    public void encode(@NonNull GrayscaleImage img, @NonNull OutputStream out) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("encoder has been closed");
+        }
+        out.write(SIGNATURE);
+        writeHeader(img, out);
+        int chunkCount = getChunkCount(img);
+        if (chunkCount > 1) {
+            writeImageDataInParallel(img, out, chunkCount);
+        } else {
+            writeImageData(img, out);
+        }
+        writeChunk(out, CHUNK_IEND, idatBuffer, 0);
+    }
+
+    /**
+     * Releases the native memory of the Deflaters (otherwise this would only happen on finalization).
+     * A chunk which is still compressed in the background (e.g. the output stream failed) fails afterwards.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        deflater.end();
+        for (ChunkCompressor compressor : chunkCompressors) {
+            compressor.deflater.end();
+        }
+    }
+
+    private int getChunkCount(@NonNull GrayscaleImage img) {
+        if (executor == null || img.width * img.height < minPixelsForParallelEncoding) {
+            return 1;
+        }
+        int filteredSize = (img.width + 1) * img.height;
+        return Math.max(1, Math.min(MAX_CHUNKS, filteredSize / MIN_CHUNK_SIZE));
+    }
+
+    private void writeHeader(@NonNull GrayscaleImage img, @NonNull OutputStream out) throws IOException {
+        byte[] header = new byte[13];
+        writeInt(header, 0, img.width);
+        writeInt(header, 4, img.height);
+        header[8] = BIT_DEPTH;
+        header[9] = COLOR_TYPE_GRAYSCALE;
+        // compression method, filter method and interlace method are all 0
+        writeChunk(out, CHUNK_IHDR, header, header.length);
+    }
+
+    private void writeImageData(@NonNull GrayscaleImage img, @NonNull OutputStream out) throws IOException {
+        prepareRowBuffers(img.width);
+        deflater.reset();
+
+        for (int y = 0; y < img.height; y++) {
+            byte[] row = filterRow(img, y);
+            deflater.setInput(row, 0, img.width + 1);
+            while (!deflater.needsInput()) {
+                deflateIntoIdatChunks(out);
+            }
+            System.arraycopy(img.data, y * img.width, previousRow, 1, img.width);
+        }
+
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflateIntoIdatChunks(out);
+        }
+    }
+
+    private void writeImageDataInParallel(@NonNull GrayscaleImage img, @NonNull OutputStream out, int chunkCount)
+            throws IOException {
+        prepareRowBuffers(img.width);
+        int rowLength = img.width + 1;
+        int filteredSize = rowLength * img.height;
+        if (filteredImage.length < filteredSize) {
+            filteredImage = new byte[filteredSize];
+        }
+
+        // filtering is cheap compared to deflating and depends on the previous row, therefore it is done sequentially
+        for (int y = 0; y < img.height; y++) {
+            System.arraycopy(filterRow(img, y), 0, filteredImage, y * rowLength, rowLength);
+            System.arraycopy(img.data, y * img.width, previousRow, 1, img.width);
+        }
+
+        while (chunkCompressors.size() < chunkCount) {
+            chunkCompressors.add(new ChunkCompressor(compressionLevel));
+        }
+        int rowsPerChunk = (img.height + chunkCount - 1) / chunkCount;
+        List<Future<ChunkCompressor>> futures = new ArrayList<>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            int start = Math.min(chunk * rowsPerChunk, img.height) * rowLength;
+            int end = Math.min((chunk + 1) * rowsPerChunk, img.height) * rowLength;
+            boolean last = chunk == chunkCount - 1;
+            ChunkCompressor compressor = chunkCompressors.get(chunk);
+            //noinspection ConstantConditions (executor is not null if chunkCount > 1)
+            futures.add(executor.submit(() -> compressor.compress(filteredImage, start, end, last)));
+        }
+
+        // while the chunks are compressed the checksum of the uncompressed data can be calculated
+        adler.reset();
+        adler.update(filteredImage, 0, filteredSize);
+
+        writeChunk(out, CHUNK_IDAT, getZlibHeader(), 2);
+        for (Future<ChunkCompressor> future : futures) {
+            ChunkCompressor compressor = awaitChunk(future);
+            writeChunk(out, CHUNK_IDAT, compressor.output, compressor.outputLength);
+        }
+        byte[] checksum = new byte[4];
+        writeInt(checksum, 0, (int) adler.getValue());
+        writeChunk(out, CHUNK_IDAT, checksum, checksum.length);
+    }
+
+    @NonNull
+    private static ChunkCompressor awaitChunk(@NonNull Future<ChunkCompressor> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for compressed chunk", e);
+        } catch (ExecutionException e) {
+            throw new IOException("compressing chunk failed", e.getCause());
+        }
+    }
+
+    /**
+     * Returns the zlib header (RFC 1950) matching the compression level (like {@link Deflater} does write it).
+     */
+    @NonNull
+    private byte[] getZlibHeader() {
+        int levelFlags;
+        if (compressionLevel <= 1) {
+            levelFlags = 0;
+        } else if (compressionLevel <= 5) {
+            levelFlags = 1;
+        } else if (compressionLevel == 6) {
+            levelFlags = 2;
+        } else {
+            levelFlags = 3;
+        }
+        int cmf = 0x78;  // deflate with 32K window
+        int flg = levelFlags << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;  // the header must be a multiple of 31
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    private void deflateIntoIdatChunks(@NonNull OutputStream out) throws IOException {
+        int length = deflater.deflate(idatBuffer);
+        if (length > 0) {
+            writeChunk(out, CHUNK_IDAT, idatBuffer, length);
+        }
+    }
+
+    private void prepareRowBuffers(int width) {
+        int rowLength = width + 1;
+        if (previousRow.length != rowLength) {
+            previousRow = new byte[rowLength];
+            filteredRows = new byte[Filter.values().length][rowLength];
+        } else {
+            Arrays.fill(previousRow, (byte) 0);  // the row above the first row is defined as zeros
+        }
+    }
+
+    /**
+     * Returns the filtered row (including the leading filter type byte).
+     */
+    @NonNull
+    private byte[] filterRow(@NonNull GrayscaleImage img, int y) {
+        int offset = y * img.width;
+        if (filter != Filter.ADAPTIVE) {
+            return filterRow(filter, img.data, offset, img.width);
+        }
+
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (Filter candidate : Filter.values()) {
+            if (candidate == Filter.ADAPTIVE) {
+                continue;
+            }
+            byte[] row = filterRow(candidate, img.data, offset, img.width);
+            long sum = 0;
+            for (int i = 1; i <= img.width; i++) {
+                sum += Math.abs((int) row[i]);  // interpreting the filtered bytes as signed values
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    @NonNull
+    private byte[] filterRow(@NonNull Filter filter, @NonNull byte[] data, int offset, int width) {
+        byte[] row = filteredRows[filter.ordinal()];
+        row[0] = (byte) filter.ordinal();  // NONE to PAETH are declared in the order of the PNG filter types
+
+        // using index i for the current row and previousRow (both with leading filter type byte), data is shifted by one
+        for (int i = 1; i <= width; i++) {
+            int x = data[offset + i - 1] & 0xff;
+            int left = i > 1 ? data[offset + i - 2] & 0xff : 0;
+            int up = previousRow[i] & 0xff;
+            int upLeft = i > 1 ? previousRow[i - 1] & 0xff : 0;
+
+            int predictor;
+            switch (filter) {
+                case SUB:
+                    predictor = left;
+                    break;
+                case UP:
+                    predictor = up;
+                    break;
+                case AVERAGE:
+                    predictor = (left + up) >>> 1;
+                    break;
+                case PAETH:
+                    predictor = paeth(left, up, upLeft);
+                    break;
+                default:
+                    predictor = 0;
+            }
+            row[i] = (byte) (x - predictor);
+        }
+        return row;
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int estimate = left + up - upLeft;
+        int distanceLeft = Math.abs(estimate - left);
+        int distanceUp = Math.abs(estimate - up);
+        int distanceUpLeft = Math.abs(estimate - upLeft);
+        if (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft) {
+            return left;
+        }
+        return distanceUp <= distanceUpLeft ? up : upLeft;
+    }
+
+    private void writeChunk(@NonNull OutputStream out, @NonNull byte[] type, @NonNull byte[] data, int length)
+            throws IOException {
+        writeInt(chunkHeader, 0, length);
+        System.arraycopy(type, 0, chunkHeader, 4, 4);
+        out.write(chunkHeader);
+        out.write(data, 0, length);
+
+        crc.reset();
+        crc.update(type);
+        crc.update(data, 0, length);
+        writeInt(chunkHeader, 0, (int) crc.getValue());
+        out.write(chunkHeader, 0, 4);
+    }
+
+    private static void writeInt(@NonNull byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Compresses a chunk of the filtered image into raw deflate blocks, the Deflater and output buffer are reused.
+     */
+    private static final class ChunkCompressor {
+
+        private final Deflater deflater;
+        private byte[] output = new byte[MIN_CHUNK_SIZE];
+        private int outputLength;
+
+        private ChunkCompressor(int compressionLevel) {
+            this.deflater = new Deflater(compressionLevel, true);  // raw deflate, header and checksum are written separately
+        }
+
+        @NonNull
+        private ChunkCompressor compress(@NonNull byte[] data, int start, int end, boolean last) {
+            deflater.reset();
+            if (start > 0) {
+                // pigz does the same to compress the start of a chunk nearly as good as in a single stream
+                int dictionaryLength = Math.min(DICTIONARY_SIZE, start);
+                deflater.setDictionary(data, start - dictionaryLength, dictionaryLength);
+            }
+            deflater.setInput(data, start, end - start);
+            outputLength = 0;
+
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    ensureOutputCapacity();
+                    outputLength += deflater.deflate(output, outputLength, output.length - outputLength);
+                }
+            } else {
+                // the sync flush does end the chunk at a byte boundary without marking the block as final
+                int available;
+                int length;
+                do {
+                    ensureOutputCapacity();
+                    available = output.length - outputLength;
+                    length = deflater.deflate(output, outputLength, available, Deflater.SYNC_FLUSH);
+                    outputLength += length;
+                } while (length == available);  // a completely filled buffer means there might be more output
+            }
+            return this;
+        }
+
+        private void ensureOutputCapacity() {
+            if (output.length - outputLength < 1024) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.bioid.authenticator.base.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes images into a file format which can be uploaded (see {@link ImageEncoders} for the available implementations).
+ */
+public interface ImageEncoder {
+
+    /**
+     * Returns the MIME type of the encoded images (e.g. "image/png").
+     */
+    @NonNull
+    String getMimeType();
+
+    /**
+     * Encodes the image and writes it to the given stream (the stream will not be closed).
+     * The encoded image is not held in memory as a whole, so it can be streamed directly into the request body.
+     */
+    void encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException;
+}
@@ -0,0 +1,146 @@
+package com.bioid.authenticator.base.image;
+
+import android.graphics.Bitmap;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Factory for the available {@link ImageEncoder} implementations.
+ */
+public final class ImageEncoders {
+
+    public static final String FORMAT_GRAYSCALE_PNG = "grayscale_png";
+    public static final String FORMAT_PNG = "png";
+    public static final String FORMAT_JPEG = "jpeg";
+    public static final String FORMAT_WEBP = "webp";
+
+    private ImageEncoders() {
+    }
+
+    /**
+     * Encodes only the luminance as 8-bit grayscale PNG (lossless, see {@link GrayscalePngEncoder}).
+     */
+    @NonNull
+    public static ImageEncoder grayscalePng(@NonNull ImageFormatConverter imageFormatConverter) {
+        return new GrayscalePngImageEncoder(imageFormatConverter);
+    }
+
+    /**
+     * Encodes the ARGB image as PNG (lossless).
+     */
+    @NonNull
+    public static ImageEncoder png() {
+        return new BitmapCompressImageEncoder(Bitmap.CompressFormat.PNG, 100, "image/png");
+    }
+
+    /**
+     * Encodes the image as JPEG (lossy).
+     *
+     * @param quality 0 (smallest size) to 100 (best quality)
+     */
+    @NonNull
+    public static ImageEncoder jpeg(@IntRange(from = 0, to = 100) int quality) {
+        return new BitmapCompressImageEncoder(Bitmap.CompressFormat.JPEG, checkQuality(quality), "image/jpeg");
+    }
+
+    /**
+     * Encodes the image as WebP (lossy).
+     *
+     * @param quality 0 (smallest size) to 100 (best quality)
+     */
+    @NonNull
+    public static ImageEncoder webp(@IntRange(from = 0, to = 100) int quality) {
+        return new BitmapCompressImageEncoder(Bitmap.CompressFormat.WEBP, checkQuality(quality), "image/webp");
+    }
+
+    /**
+     * Creates the encoder for the given format name (e.g. taken from the build configuration).
+     *
+     * @param format  one of the FORMAT_* constants
+     * @param quality only used by lossy formats
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    @NonNull
+    public static ImageEncoder forFormat(@NonNull String format, @IntRange(from = 0, to = 100) int quality,
+                                         @NonNull ImageFormatConverter imageFormatConverter) {
+        switch (format.toLowerCase(Locale.ENGLISH)) {
+            case FORMAT_GRAYSCALE_PNG:
+                return grayscalePng(imageFormatConverter);
+            case FORMAT_PNG:
+                return png();
+            case FORMAT_JPEG:
+                return jpeg(quality);
+            case FORMAT_WEBP:
+                return webp(quality);
+            default:
+                throw new IllegalArgumentException("unknown image format: " + format);
+        }
+    }
+
+    private static int checkQuality(int quality) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("quality must be within 0 and 100");
+        }
+        return quality;
+    }
+
+    private static final class GrayscalePngImageEncoder implements ImageEncoder {
+
+        private final ImageFormatConverter imageFormatConverter;
+
+        private GrayscalePngImageEncoder(@NonNull ImageFormatConverter imageFormatConverter) {
+            this.imageFormatConverter = imageFormatConverter;
+        }
+
+        @NonNull
+        @Override
+        public String getMimeType() {
+            return "image/png";
+        }
+
+        @Override
+        public void encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException {
+            imageFormatConverter.grayscaleImageToPng(imageFormatConverter.bitmapToGrayscaleImage(bitmap), out);
+        }
+
+        @Override
+        public String toString() {
+            return FORMAT_GRAYSCALE_PNG;
+        }
+    }
+
+    private static final class BitmapCompressImageEncoder implements ImageEncoder {
+
+        private final Bitmap.CompressFormat format;
+        private final int quality;
+        private final String mimeType;
+
+        private BitmapCompressImageEncoder(@NonNull Bitmap.CompressFormat format, int quality, @NonNull String mimeType) {
+            this.format = format;
+            this.quality = quality;
+            this.mimeType = mimeType;
+        }
+
+        @NonNull
+        @Override
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        @Override
+        public void encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException {
+            if (!bitmap.compress(format, quality, out)) {
+                throw new IOException("could not compress bitmap as " + format);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return format.name().toLowerCase(Locale.ENGLISH) + " (quality " + quality + ")";
+        }
+    }
+}
@@ -8,6 +8,8 @@ import com.bioid.authenticator.base.annotations.Rotation;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
 
+import java.util.Arrays;
+
 /**
  * Provides methods to do various image transformations.
  */
@@ -82,6 +84,108 @@ public class ImageTransformer {
         return rotate180Degrees(rotate90Degrees(img));
     }
 
+    /**
+     * Downscales a {@link GrayscaleImage} by an integer factor so that the shorter edge is at least minShortEdge pixels long.
+     * Each target pixel is the average of the covered source pixels (box filter) which does also suppress sensor noise.
+     * If the image is already small enough the original image will be returned and no transformation operation does happen.
+     * <p/>
+     * No stopwatch is used because this method is called for every analysed preview frame.
+     */
+    @NonNull
+    public GrayscaleImage downscale(@NonNull GrayscaleImage img, int minShortEdge) {
+        int factor = Math.min(img.width, img.height) / minShortEdge;
+        if (factor <= 1) {
+            return img;
+        }
+        return downscaleByFactor(img, factor);
+    }
+
+    /**
+     * Resizes a {@link GrayscaleImage} to the given size using bilinear interpolation.
+     * When downscaling by factor 2 or more the image is box filtered first, otherwise source pixels would be skipped (aliasing).
+     */
+    @NonNull
+    public GrayscaleImage resize(@NonNull GrayscaleImage img, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("width and height must be positive");
+        }
+        if (width == img.width && height == img.height) {
+            return img;
+        }
+
+        int factor = Math.min(img.width / width, img.height / height);
+        GrayscaleImage src = factor > 1 ? downscaleByFactor(img, factor) : img;
+
+        double scaleX = (double) src.width / width;
+        double scaleY = (double) src.height / height;
+        byte[] data = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            double srcY = Math.max(0.0, Math.min((y + 0.5) * scaleY - 0.5, src.height - 1));
+            int y0 = (int) srcY;
+            int y1 = Math.min(y0 + 1, src.height - 1);
+            double fy = srcY - y0;
+            for (int x = 0; x < width; x++) {
+                double srcX = Math.max(0.0, Math.min((x + 0.5) * scaleX - 0.5, src.width - 1));
+                int x0 = (int) srcX;
+                int x1 = Math.min(x0 + 1, src.width - 1);
+                double fx = srcX - x0;
+
+                double top = (src.data[y0 * src.width + x0] & 0xff) * (1 - fx) + (src.data[y0 * src.width + x1] & 0xff) * fx;
+                double bottom = (src.data[y1 * src.width + x0] & 0xff) * (1 - fx) + (src.data[y1 * src.width + x1] & 0xff) * fx;
+                data[y * width + x] = (byte) Math.round(top * (1 - fy) + bottom * fy);
+            }
+        }
+        return new GrayscaleImage(data, width, height);
+    }
+
+    /**
+     * Crops the given region out of a {@link GrayscaleImage}.
+     * If the region covers the whole image the original image will be returned and no transformation operation does happen.
+     */
+    @NonNull
+    public GrayscaleImage crop(@NonNull GrayscaleImage img, int x, int y, int width, int height) {
+        if (x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > img.width || y + height > img.height) {
+            throw new IllegalArgumentException("region must be within the image");
+        }
+        if (width == img.width && height == img.height) {
+            return img;
+        }
+
+        byte[] data = new byte[width * height];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(img.data, (y + row) * img.width + x, data, row * width, width);
+        }
+        return new GrayscaleImage(data, width, height);
+    }
+
+    @NonNull
+    private GrayscaleImage downscaleByFactor(@NonNull GrayscaleImage img, int factor) {
+        int width = img.width / factor;
+        int height = img.height / factor;
+        int area = factor * factor;
+
+        byte[] data = new byte[width * height];
+        int[] rowSums = new int[width];
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(rowSums, 0);
+            for (int dy = 0; dy < factor; dy++) {
+                int offset = (y * factor + dy) * img.width;
+                for (int x = 0, srcX = 0; x < width; x++) {
+                    int sum = 0;
+                    for (int dx = 0; dx < factor; dx++, srcX++) {
+                        sum += img.data[offset + srcX] & 0xff;
+                    }
+                    rowSums[x] += sum;
+                }
+            }
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                data[offset + x] = (byte) (rowSums[x] / area);
+            }
+        }
+        return new GrayscaleImage(data, width, height);
+    }
+
     @SuppressWarnings("SameParameterValue")
     private String getStopwatchSessionId(@NonNull String methodName) {
         return methodName + " (" + SystemClock.elapsedRealtimeNanos() + ")";
@@ -16,6 +16,10 @@ public class IntensityPlane {
     public final int height;
     public final byte[] plane;
     public final int rowStride;
+    /**
+     * Perceptual hash of the plane (see {@link PerceptualHash}) which can be used to detect near-duplicate frames.
+     */
+    public final long hash;
 
     // use IntensityPlane.extract instead
     private IntensityPlane(int width, int height, byte[] plane, int rowStride) {
@@ -23,11 +27,12 @@ public class IntensityPlane {
         this.height = height;
         this.plane = plane;
         this.rowStride = rowStride;
+        this.hash = PerceptualHash.dHash(plane, width, height, rowStride);
     }
 
     /**
      * Extracts the Y-Plane from the YUV_420_8888 image to creates a IntensityPlane.
-     * The actual plane data will be copied into the new IntensityPlane object.
+     * The actual plane data will be copied into the new IntensityPlane object and its perceptual hash will be calculated.
      *
      * @throws IllegalArgumentException if the provided images is not in the YUV_420_888 format
      */
@@ -0,0 +1,73 @@
+package com.bioid.authenticator.base.image;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Perceptual hash (dHash) which does only change if the image content changes noticeably.
+ * <p/>
+ * The luminance is sampled on a grid with a short edge of about {@link #SAMPLING_SIZE} pixels and averaged into 9x8 cells.
+ * Every bit of the hash tells if a cell is brighter than its right neighbour.
+ * The Hamming distance between two hashes is a measure for the visual difference of the images.
+ */
+public final class PerceptualHash {
+
+    /**
+     * Approximate length of the shorter edge of the sampling grid.
+     */
+    public static final int SAMPLING_SIZE = 96;
+
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Calculates the dHash of an 8-bit luminance plane.
+     *
+     * @param plane     luminance values (might contain row padding)
+     * @param width     width of the image
+     * @param height    height of the image
+     * @param rowStride distance between the start of two rows within the plane
+     */
+    public static long dHash(@NonNull byte[] plane, int width, int height, int rowStride) {
+        int step = Math.max(1, Math.min(width, height) / SAMPLING_SIZE);
+
+        long[] cellSums = new long[COLUMNS * ROWS];
+        int[] cellCounts = new int[COLUMNS * ROWS];
+        for (int y = 0; y < height; y += step) {
+            int row = y * ROWS / height;
+            int offset = y * rowStride;
+            for (int x = 0; x < width; x += step) {
+                int cell = row * COLUMNS + x * COLUMNS / width;
+                cellSums[cell] += plane[offset + x] & 0xff;
+                cellCounts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                int cell = row * COLUMNS + column;
+                // comparing sum * count of the other cell avoids the divisions
+                boolean brighter = cellSums[cell] * cellCounts[cell + 1] > cellSums[cell + 1] * cellCounts[cell];
+                hash = (hash << 1) | (brighter ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Calculates the dHash of a {@link GrayscaleImage}.
+     */
+    public static long dHash(@NonNull GrayscaleImage img) {
+        return dHash(img.data, img.width, img.height, img.width);
+    }
+
+    /**
+     * Returns the number of differing bits (0 for identical and 64 for inverse hashes).
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+}
@@ -0,0 +1,38 @@
+package com.bioid.authenticator.base.metrics;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Dumps all metrics to the log, sorted by name.
+ * This exporter is registered by default (see {@link MetricsHelperFactory#addExporter(MetricsExporter)}).
+ */
+public class LoggingMetricsExporter implements MetricsExporter {
+
+    private final LoggingHelper log;
+
+    public LoggingMetricsExporter() {
+        this(LoggingHelperFactory.create(LoggingMetricsExporter.class));
+    }
+
+    @VisibleForTesting
+    LoggingMetricsExporter(@NonNull LoggingHelper log) {
+        this.log = log;
+    }
+
+    @Override
+    public void export(@NonNull Map<String, Long> counters, @NonNull Map<String, MetricsRegistry.Statistics> statistics) {
+        for (Map.Entry<String, Long> counter : new TreeMap<>(counters).entrySet()) {
+            log.i("%s = %d", counter.getKey(), counter.getValue());
+        }
+        for (Map.Entry<String, MetricsRegistry.Statistics> stats : new TreeMap<>(statistics).entrySet()) {
+            log.i("%s = %s", stats.getKey(), stats.getValue());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.bioid.authenticator.base.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.util.Map;
+
+/**
+ * Receives the collected metrics when they are exported (see {@link MetricsHelperFactory#export()}),
+ * e.g. to log, persist or upload them so that thresholds can be tuned based on field data.
+ * <p/>
+ * The values are totals since process start, exporters which need deltas have to keep the previously exported values.
+ */
+public interface MetricsExporter {
+
+    /**
+     * Called with copies of all counters and statistics, which may be kept by the exporter.
+     */
+    void export(@NonNull Map<String, Long> counters, @NonNull Map<String, MetricsRegistry.Statistics> statistics);
+}
@@ -0,0 +1,31 @@
+package com.bioid.authenticator.base.metrics;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Collects counters and sampled values which can be used to tune the app based on field data
+ * (see {@link MetricsExporter} to get them off the device).
+ * In contrast to the {@link com.bioid.authenticator.base.logging.LoggingHelper} metrics are also collected in release builds.
+ * <p/>
+ * To obtain a MetricsHelper instance use the {@link MetricsHelperFactory}.
+ * <p/>
+ * Implementations must be thread-safe!
+ */
+@SuppressWarnings("unused")
+public interface MetricsHelper {
+
+    /**
+     * Increments the counter with the given name by one.
+     */
+    void count(@NonNull String name);
+
+    /**
+     * Increments the counter with the given name by delta.
+     */
+    void count(@NonNull String name, long delta);
+
+    /**
+     * Records a single sample for the value with the given name (e.g. a duration or a score).
+     */
+    void record(@NonNull String name, double value);
+}
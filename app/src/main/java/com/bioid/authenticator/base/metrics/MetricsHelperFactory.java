@@ -0,0 +1,61 @@
+package com.bioid.authenticator.base.metrics;
+
+import android.support.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Factory to obtain {@link MetricsHelper} instances.
+ * <p/>
+ * All instances share the process-wide {@link MetricsRegistry}, whose values are passed to the registered
+ * {@link MetricsExporter exporters} on {@link #export()}.
+ */
+public final class MetricsHelperFactory {
+
+    private static final MetricsRegistry REGISTRY = new MetricsRegistry();
+    private static final List<MetricsExporter> exporters = new CopyOnWriteArrayList<>();
+
+    static {
+        addExporter(new LoggingMetricsExporter());
+    }
+
+    /**
+     * Returns the MetricsHelper writing into the process-wide registry.
+     */
+    @NonNull
+    public static MetricsHelper create() {
+        return REGISTRY;
+    }
+
+    /**
+     * Returns the process-wide registry which can be used to read the collected metrics.
+     */
+    @NonNull
+    public static MetricsRegistry getRegistry() {
+        return REGISTRY;
+    }
+
+    /**
+     * Registers an exporter which gets all following exports (e.g. to persist or upload the metrics).
+     * A {@link LoggingMetricsExporter} is registered by default.
+     */
+    public static void addExporter(@NonNull MetricsExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    public static void removeExporter(@NonNull MetricsExporter exporter) {
+        exporters.remove(exporter);
+    }
+
+    /**
+     * Passes the collected metrics to all registered exporters.
+     * This is done whenever the facial recognition screen is closed, exporters may block (e.g. to write a file),
+     * therefore this method should not be called on the UI thread.
+     */
+    public static void export() {
+        for (MetricsExporter exporter : exporters) {
+            REGISTRY.export(exporter);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.bioid.authenticator.base.metrics;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Thread-safe in memory implementation of the {@link MetricsHelper} interface.
+ * <p/>
+ * Values are aggregated into {@link Statistics} so that memory usage does not grow with the number of samples.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class MetricsRegistry implements MetricsHelper {
+
+    private final Map<String, Long> counters = new HashMap<>();
+    private final Map<String, Statistics> statistics = new HashMap<>();
+
+    // use MetricsHelperFactory instead
+    MetricsRegistry() {
+    }
+
+    @Override
+    public void count(@NonNull String name) {
+        count(name, 1);
+    }
+
+    @Override
+    public synchronized void count(@NonNull String name, long delta) {
+        Long value = counters.get(name);
+        counters.put(name, value == null ? delta : value + delta);
+    }
+
+    @Override
+    public synchronized void record(@NonNull String name, double value) {
+        Statistics stats = statistics.get(name);
+        if (stats == null) {
+            stats = new Statistics();
+            statistics.put(name, stats);
+        }
+        stats.add(value);
+    }
+
+    /**
+     * Returns the current value of the counter with the given name (0 if nothing has been counted yet).
+     */
+    public synchronized long getCounter(@NonNull String name) {
+        Long value = counters.get(name);
+        return value == null ? 0 : value;
+    }
+
+    /**
+     * Returns a copy of the statistics for the value with the given name or null if nothing has been recorded yet.
+     */
+    @Nullable
+    public synchronized Statistics getStatistics(@NonNull String name) {
+        Statistics stats = statistics.get(name);
+        return stats == null ? null : stats.copy();
+    }
+
+    /**
+     * Returns a copy of all counters.
+     */
+    @NonNull
+    public synchronized Map<String, Long> getCounters() {
+        return new HashMap<>(counters);
+    }
+
+    /**
+     * Returns copies of the statistics of all values.
+     */
+    @NonNull
+    public synchronized Map<String, Statistics> getAllStatistics() {
+        Map<String, Statistics> copy = new HashMap<>(statistics.size());
+        for (Map.Entry<String, Statistics> stats : statistics.entrySet()) {
+            copy.put(stats.getKey(), stats.getValue().copy());
+        }
+        return copy;
+    }
+
+    /**
+     * Passes a snapshot of all collected metrics to the exporter.
+     * The exporter is called without holding the lock, so recording metrics is not blocked while it runs.
+     */
+    public void export(@NonNull MetricsExporter exporter) {
+        Map<String, Long> counters;
+        Map<String, Statistics> statistics;
+        synchronized (this) {
+            counters = getCounters();
+            statistics = getAllStatistics();
+        }
+        exporter.export(counters, statistics);
+    }
+
+    /**
+     * Removes all collected metrics.
+     */
+    public synchronized void reset() {
+        counters.clear();
+        statistics.clear();
+    }
+
+    /**
+     * Aggregated samples of a single value.
+     */
+    public static final class Statistics {
+
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+
+        private void add(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+
+        private Statistics copy() {
+            Statistics copy = new Statistics();
+            copy.count = count;
+            copy.sum = sum;
+            copy.min = min;
+            copy.max = max;
+            return copy;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0.0 : sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "Statistics{count=%d, mean=%.2f, min=%.2f, max=%.2f}", count, getMean(), min, max);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.functional.Supplier;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Rolling estimate of the round trip time and the upload throughput, fed by the connection setups and the uploads
+ * of the executed requests (see {@link HttpRequestHelper}).
+ * <p>
+ * Samples are smoothed using an exponentially weighted moving average so the estimate follows changing network conditions
+ * without jumping on every outlier. If no sample has been added for {@link #MAX_SAMPLE_AGE_IN_MILLIS} the estimate is discarded,
+ * because the device might have switched the network in the meantime.
+ * <p>
+ * Additionally the most recent raw samples are kept, so that percentiles can be used where outliers matter
+ * (e.g. for timeouts, see {@link TimeoutPolicy}).
+ * <p>
+ * This class is thread-safe.
+ */
+public class BandwidthEstimator {
+
+    /**
+     * The duration of requests with a body below this size is dominated by the round trip and the server-side processing,
+     * therefore they are not used as sample at all.
+     */
+    @VisibleForTesting
+    static final long MIN_TRANSFER_BYTES = 16 * 1024;
+    @VisibleForTesting
+    static final long MAX_SAMPLE_AGE_IN_MILLIS = 60_000;
+    /**
+     * Weight of a new sample within the moving average.
+     */
+    private static final double SMOOTHING_FACTOR = 0.3;
+    /**
+     * Number of recent samples used to calculate percentiles.
+     */
+    @VisibleForTesting
+    static final int PERCENTILE_WINDOW = 20;
+
+    private static final BandwidthEstimator DEFAULT = new BandwidthEstimator();
+
+    private final Supplier<Long> clockInMillis;
+
+    private double roundTripMillis = Double.NaN;
+    private double throughputBytesPerSecond = Double.NaN;
+    private long lastSampleAt;
+    private final SampleWindow roundTripSamples = new SampleWindow(PERCENTILE_WINDOW);
+    private final SampleWindow throughputSamples = new SampleWindow(PERCENTILE_WINDOW);
+
+    /**
+     * Returns the process-wide estimator which is fed by all requests executed by the {@link HttpRequestHelper}.
+     */
+    @NonNull
+    public static BandwidthEstimator getDefault() {
+        return DEFAULT;
+    }
+
+    private BandwidthEstimator() {
+        this(() -> System.nanoTime() / 1_000_000);
+    }
+
+    @VisibleForTesting
+    BandwidthEstimator(Supplier<Long> clockInMillis) {
+        this.clockInMillis = clockInMillis;
+    }
+
+    /**
+     * Adds a round trip sample, which has to be taken from a step without server-side processing
+     * (e.g. the TCP handshake or a HEAD request on an established connection).
+     * The latency of server-side operations (e.g. a verification) must not be added here, otherwise the timeouts derived from the
+     * round trip time would grow with the processing time of the server (see {@link TimeoutPolicy}).
+     *
+     * @param millis duration of the round trip
+     */
+    public synchronized void addRoundTrip(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        onSample();
+        roundTripMillis = smooth(roundTripMillis, millis);
+        roundTripSamples.add(millis);
+    }
+
+    /**
+     * Adds the timings of a completed request as throughput sample.
+     * Requests with a body below {@link #MIN_TRANSFER_BYTES} are ignored.
+     *
+     * @param bytesSent      size of the request body
+     * @param transferMillis time from the start of the request body transfer until the response status was received
+     */
+    public synchronized void addTransfer(long bytesSent, long transferMillis) {
+        if (bytesSent < MIN_TRANSFER_BYTES || transferMillis <= 0) {
+            return;
+        }
+        onSample();
+
+        // the transfer itself takes the whole time minus one round trip for the response
+        double roundTrip = Double.isNaN(roundTripMillis) ? 0.0 : roundTripMillis;
+        double pureTransferMillis = Math.max(transferMillis - roundTrip, transferMillis / 2.0);
+        double throughput = bytesSent * 1000.0 / pureTransferMillis;
+        throughputBytesPerSecond = smooth(throughputBytesPerSecond, throughput);
+        throughputSamples.add(throughput);
+    }
+
+    /**
+     * Returns the current estimate or null if there are not enough (recent) samples yet.
+     */
+    @Nullable
+    public synchronized Estimate getEstimate() {
+        if (isStale() || Double.isNaN(roundTripMillis) || Double.isNaN(throughputBytesPerSecond)) {
+            return null;
+        }
+        return new Estimate(roundTripMillis, throughputBytesPerSecond);
+    }
+
+    /**
+     * Returns the given percentile (0.0 - 1.0) of the recent round trip samples in milliseconds
+     * or NaN if there are no (recent) samples.
+     */
+    public synchronized double getRoundTripPercentile(double percentile) {
+        return isStale() ? Double.NaN : roundTripSamples.percentile(percentile);
+    }
+
+    /**
+     * Returns the given percentile (0.0 - 1.0) of the recent throughput samples in bytes per second
+     * or NaN if there are no (recent) samples.
+     */
+    public synchronized double getThroughputPercentile(double percentile) {
+        return isStale() ? Double.NaN : throughputSamples.percentile(percentile);
+    }
+
+    /**
+     * Discards the stale estimate before a new sample is added.
+     */
+    private void onSample() {
+        if (isStale()) {
+            roundTripMillis = Double.NaN;
+            throughputBytesPerSecond = Double.NaN;
+            roundTripSamples.clear();
+            throughputSamples.clear();
+        }
+        lastSampleAt = clockInMillis.get();
+    }
+
+    private boolean isStale() {
+        return clockInMillis.get() - lastSampleAt > MAX_SAMPLE_AGE_IN_MILLIS;
+    }
+
+    private static double smooth(double average, double sample) {
+        return Double.isNaN(average) ? sample : average + SMOOTHING_FACTOR * (sample - average);
+    }
+
+    /**
+     * Ring buffer of the most recent samples (not thread-safe).
+     */
+    private static final class SampleWindow {
+
+        private final double[] samples;
+        private int count;
+        private int next;
+
+        private SampleWindow(int size) {
+            this.samples = new double[size];
+        }
+
+        private void add(double sample) {
+            samples[next] = sample;
+            next = (next + 1) % samples.length;
+            count = Math.min(count + 1, samples.length);
+        }
+
+        private void clear() {
+            count = 0;
+            next = 0;
+        }
+
+        /**
+         * Uses the nearest-rank method, so the result is always one of the samples.
+         */
+        private double percentile(double percentile) {
+            if (count == 0) {
+                return Double.NaN;
+            }
+            double[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile * count);
+            return sorted[Math.max(0, Math.min(count, rank) - 1)];
+        }
+    }
+
+    /**
+     * Immutable snapshot of the estimated network conditions.
+     */
+    public static final class Estimate {
+
+        public final double roundTripMillis;
+        public final double throughputBytesPerSecond;
+
+        public Estimate(double roundTripMillis, double throughputBytesPerSecond) {
+            this.roundTripMillis = roundTripMillis;
+            this.throughputBytesPerSecond = throughputBytesPerSecond;
+        }
+
+        /**
+         * Predicts how long the upload of the given amount of bytes will take (including the round trip for the response).
+         */
+        public double predictUploadMillis(long bytes) {
+            return roundTripMillis + bytes * 1000.0 / throughputBytesPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "Estimate{roundTrip=%.0f ms, throughput=%.1f KB/s}",
+                    roundTripMillis, throughputBytesPerSecond / 1024);
+        }
+    }
+}
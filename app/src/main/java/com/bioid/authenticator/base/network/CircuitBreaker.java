@@ -0,0 +1,205 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.functional.Supplier;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+
+/**
+ * Stops sending requests to a single endpoint which failed repeatedly, so that clients fail fast during an outage
+ * instead of running into timeouts (see {@link CircuitBreakers}).
+ * <p>
+ * The breaker is closed as long as the failure rate of the most recent requests is below the threshold.
+ * Otherwise it opens and rejects all requests with a {@link CircuitOpenException} for a while.
+ * Afterwards it is half-open and lets a single probe request through: if the probe succeeds the breaker closes again,
+ * if it fails the breaker stays open for another period.
+ * <p>
+ * Failures are 5xx responses and server timeouts, every other response shows that the endpoint is available.
+ * Transport failures on the client side (e.g. no connectivity) are not recorded, the device being offline is no outage.
+ * This class is thread-safe.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Number of the most recent requests whose outcomes are used to calculate the failure rate.
+     */
+    @VisibleForTesting
+    static final int WINDOW_SIZE = 10;
+    /**
+     * The breaker does not open before this number of requests has been recorded.
+     */
+    @VisibleForTesting
+    static final int MIN_REQUESTS = 5;
+    @VisibleForTesting
+    static final double FAILURE_RATE_THRESHOLD = 0.5;
+    /**
+     * Time the breaker stays open before a probe request is let through.
+     * This is also the time after which a probe without recorded outcome is given up.
+     */
+    @VisibleForTesting
+    static final long OPEN_DURATION_IN_MILLIS = 30_000;
+
+    private static final String METRIC_OPENED = "circuit_breaker.opened";
+    private static final String METRIC_REJECTED = "circuit_breaker.rejected";
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String endpoint;
+    private final LoggingHelper log;
+    private final MetricsHelper metrics;
+    private final Supplier<Long> clockInMillis;
+
+    // ring buffer of the most recent outcomes (true for failures)
+    private final boolean[] outcomes = new boolean[WINDOW_SIZE];
+    private int recorded;
+    private int next;
+    private int failures;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long probeStartedAt;
+
+    CircuitBreaker(@NonNull String endpoint, @NonNull LoggingHelper log, @NonNull MetricsHelper metrics,
+                   @NonNull Supplier<Long> clockInMillis) {
+        this.endpoint = endpoint;
+        this.log = log;
+        this.metrics = metrics;
+        this.clockInMillis = clockInMillis;
+    }
+
+    @NonNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the current state, an open breaker whose open period has elapsed is returned as half-open.
+     */
+    @NonNull
+    public synchronized State getState() {
+        if (state == State.OPEN && clockInMillis.get() - openedAt >= OPEN_DURATION_IN_MILLIS) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Returns true if a request would be let through right now, without reserving the probe of a half-open breaker.
+     */
+    public synchronized boolean isAvailable() {
+        switch (getState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                return !probeInFlight || isProbeGivenUp();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Has to be called before a request is sent, the outcome of a permitted request has to be recorded afterwards
+     * ({@link #onSuccess()}, {@link #onFailure()} or {@link #onAborted()}).
+     *
+     * @throws CircuitOpenException if the request must not be sent
+     */
+    public synchronized void acquirePermission() {
+        State current = getState();
+        if (current == State.CLOSED) {
+            return;
+        }
+        if (current == State.HALF_OPEN && (!probeInFlight || isProbeGivenUp())) {
+            log.i("letting probe request through to %s", endpoint);
+            state = State.HALF_OPEN;
+            probeInFlight = true;
+            probeStartedAt = clockInMillis.get();
+            return;
+        }
+
+        metrics.count(METRIC_REJECTED);
+        throw new CircuitOpenException(endpoint);
+    }
+
+    /**
+     * Records that the endpoint did respond (with a status code below 500).
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            log.i("probe request to %s succeeded, closing circuit breaker", endpoint);
+            close();
+            return;
+        }
+        record(false);
+    }
+
+    /**
+     * Records a 5xx response or a server timeout of the endpoint.
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            log.w("probe request to %s failed, circuit breaker stays open", endpoint);
+            open();
+            return;
+        }
+        record(true);
+
+        if (state == State.CLOSED && recorded >= MIN_REQUESTS && failures >= FAILURE_RATE_THRESHOLD * recorded) {
+            log.w("%d of the last %d requests to %s failed, opening circuit breaker", failures, recorded, endpoint);
+            open();
+        }
+    }
+
+    /**
+     * Records that the request has been aborted by the client (e.g. cancelled) or failed on the client side (e.g. no connectivity),
+     * which does not say anything about the endpoint.
+     */
+    public synchronized void onAborted() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    private void record(boolean failure) {
+        if (recorded == WINDOW_SIZE) {
+            if (outcomes[next]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[next] = failure;
+        if (failure) {
+            failures++;
+        }
+        next = (next + 1) % WINDOW_SIZE;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clockInMillis.get();
+        probeInFlight = false;
+        metrics.count(METRIC_OPENED);
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        probeInFlight = false;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+    }
+
+    private boolean isProbeGivenUp() {
+        return clockInMillis.get() - probeStartedAt >= OPEN_DURATION_IN_MILLIS;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker{endpoint=" + endpoint + ", state=" + getState() + ", failures=" + failures + "/" + recorded + '}';
+    }
+}
@@ -0,0 +1,75 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.functional.Supplier;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Holds one {@link CircuitBreaker} per endpoint (host and path, without the query).
+ * <p>
+ * The breakers are process-wide, because the availability of an endpoint does not depend on the session which uses it.
+ * This class is thread-safe.
+ */
+public class CircuitBreakers {
+
+    private static final CircuitBreakers DEFAULT = new CircuitBreakers(LoggingHelperFactory.create(CircuitBreaker.class),
+            MetricsHelperFactory.create(), System::currentTimeMillis);
+
+    private final LoggingHelper log;
+    private final MetricsHelper metrics;
+    private final Supplier<Long> clockInMillis;
+    private final Map<String, CircuitBreaker> breakers = new HashMap<>();
+
+    /**
+     * Returns the process-wide breakers used by {@link HttpRequestHelper}.
+     */
+    @NonNull
+    public static CircuitBreakers getDefault() {
+        return DEFAULT;
+    }
+
+    @VisibleForTesting
+    CircuitBreakers(LoggingHelper log, MetricsHelper metrics, Supplier<Long> clockInMillis) {
+        this.log = log;
+        this.metrics = metrics;
+        this.clockInMillis = clockInMillis;
+    }
+
+    /**
+     * Returns the breaker of the endpoint the given URL belongs to.
+     */
+    @NonNull
+    public synchronized CircuitBreaker forUrl(@NonNull URL url) {
+        String endpoint = url.getHost() + url.getPath();
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(endpoint, log, metrics, clockInMillis);
+            breakers.put(endpoint, breaker);
+        }
+        return breaker;
+    }
+
+    /**
+     * Checks that none of the endpoints of the given host is known to be unavailable, which can be used to fail fast
+     * before an operation involving multiple endpoints is started.
+     * A half-open breaker does not fail the check, so the operation can probe whether the endpoint has recovered.
+     *
+     * @throws CircuitOpenException if the breaker of one of the endpoints is open
+     */
+    public synchronized void checkHost(@NonNull String host) {
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.getEndpoint().startsWith(host + "/") && breaker.getState() == CircuitBreaker.State.OPEN) {
+                throw new CircuitOpenException(breaker.getEndpoint());
+            }
+        }
+    }
+}
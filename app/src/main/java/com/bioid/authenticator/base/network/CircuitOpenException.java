@@ -0,0 +1,29 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Will be thrown instead of sending a request to an endpoint whose {@link CircuitBreaker} is open.
+ * Because the endpoint did fail repeatedly before, it is handled like a {@link ServerErrorException} (without waiting for it).
+ */
+public class CircuitOpenException extends ServerErrorException {
+
+    private final String endpoint;
+
+    public CircuitOpenException(@NonNull String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * Returns the endpoint which is considered unavailable.
+     */
+    @NonNull
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public String getMessage() {
+        return "circuit breaker is open for " + endpoint;
+    }
+}
@@ -0,0 +1,139 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Timestamps (see {@link System#nanoTime()}) of the phases of establishing the connection of a single {@link HttpRequest}.
+ * <p>
+ * The phases are reported by whichever layer is able to observe them: the OkHttp transport reports all of them
+ * (see {@link HttpTransports#http2()}), while the platform transports only report the TLS handshake if the
+ * {@link SessionCachingSslSocketFactory} is installed. The DNS lookup of the platform transports can not be observed at all.
+ * <p>
+ * The connection is established by the transport during {@link HttpRequest#connect()}, which makes the phases of the request
+ * the {@link #current()} ones of the calling thread, so that the reporting layers find them without knowing the request.
+ * Reports may arrive on other threads (e.g. the OkHttp dispatcher), therefore this class is thread-safe.
+ */
+public class ConnectionPhases {
+
+    private static final ThreadLocal<ConnectionPhases> CURRENT = new ThreadLocal<>();
+
+    private volatile long dnsStartedAt = -1;
+    private volatile long dnsFinishedAt = -1;
+    private volatile long connectStartedAt = -1;
+    private volatile long connectFinishedAt = -1;
+    private volatile long tlsStartedAt = -1;
+    private volatile long tlsFinishedAt = -1;
+    private volatile boolean connectionReused;
+
+    /**
+     * Returns the phases of the connection which is established by the calling thread right now,
+     * or null if the calling thread does not establish the connection of a request.
+     */
+    @Nullable
+    public static ConnectionPhases current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes the given phases the current ones of the calling thread until {@link #end()} is called.
+     */
+    static void begin(@NonNull ConnectionPhases phases) {
+        CURRENT.set(phases);
+    }
+
+    static void end() {
+        CURRENT.remove();
+    }
+
+    public void onDnsStarted() {
+        dnsStartedAt = System.nanoTime();
+    }
+
+    public void onDnsFinished() {
+        dnsFinishedAt = System.nanoTime();
+    }
+
+    /**
+     * The TCP connection is being established (after the DNS lookup).
+     */
+    public void onConnectStarted() {
+        connectStartedAt = System.nanoTime();
+    }
+
+    /**
+     * The connection has been established, including the TLS handshake.
+     */
+    public void onConnectFinished() {
+        connectFinishedAt = System.nanoTime();
+    }
+
+    public void onTlsStarted() {
+        tlsStartedAt = System.nanoTime();
+    }
+
+    public void onTlsFinished() {
+        tlsFinishedAt = System.nanoTime();
+    }
+
+    /**
+     * The request uses a pooled connection, so there was no connection setup at all.
+     */
+    public void onConnectionReused() {
+        connectionReused = true;
+    }
+
+    /**
+     * Returns the duration of the DNS lookup or -1 if it has not been reported.
+     */
+    public long getDnsMillis() {
+        if (connectionReused) {
+            return 0;
+        }
+        return millisBetween(dnsStartedAt, dnsFinishedAt);
+    }
+
+    /**
+     * Returns the duration of establishing the TCP connection or -1 if it has not been reported.
+     * If the DNS lookup is not reported but the TLS handshake is, the time from the start of the connection setup
+     * until the handshake is returned, which does include the DNS lookup.
+     *
+     * @param setupStartedAt start of the whole connection setup (see {@link HttpRequest#connectStartedAt()})
+     */
+    public long getConnectMillis(long setupStartedAt) {
+        if (connectionReused) {
+            return 0;
+        }
+        long connectedAt = tlsStartedAt != -1 ? tlsStartedAt : connectFinishedAt;
+        return millisBetween(connectStartedAt != -1 ? connectStartedAt : setupStartedAt, connectedAt);
+    }
+
+    /**
+     * Returns the duration of the TCP handshake, which takes a single round trip, or -1 if it has not been reported
+     * (or there was no handshake because the connection has been reused).
+     * Unlike {@link #getConnectMillis(long)} this never includes the DNS lookup, so it can be used as round trip sample.
+     */
+    public long getTcpHandshakeMillis() {
+        if (connectionReused) {
+            return -1;
+        }
+        return millisBetween(connectStartedAt, tlsStartedAt != -1 ? tlsStartedAt : connectFinishedAt);
+    }
+
+    /**
+     * Returns the duration of the TLS handshake or -1 if it has not been reported.
+     */
+    public long getTlsMillis() {
+        if (connectionReused) {
+            return 0;
+        }
+        return millisBetween(tlsStartedAt, tlsFinishedAt);
+    }
+
+    private static long millisBetween(long start, long end) {
+        if (start == -1 || end == -1 || end < start) {
+            return -1;
+        }
+        return (end - start) / 1_000_000;
+    }
+}
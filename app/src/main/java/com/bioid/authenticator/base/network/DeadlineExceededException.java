@@ -0,0 +1,12 @@
+package com.bioid.authenticator.base.network;
+
+/**
+ * Will be thrown if a HTTP request has been aborted because it did not complete within its deadline.
+ * Because this is usually caused by a slow or unstable connection it is handled like a {@link NoConnectionException}.
+ */
+public class DeadlineExceededException extends NoConnectionException {
+
+    public DeadlineExceededException(Throwable throwable) {
+        super(throwable);
+    }
+}
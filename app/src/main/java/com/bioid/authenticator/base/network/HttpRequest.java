@@ -36,6 +36,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
@@ -277,6 +279,16 @@ public class HttpRequest {
     private int bufferSize = 8192;
     private long totalSize = -1;
     private long totalWritten = 0;
+
+    private long outputOpenedAt = -1;
+    private long outputClosedAt = -1;
+    private long connectStartedAt = -1;
+    private long connectedAt = -1;
+    private long responseReceivedAt = -1;
+    private int responseCode = -1;
+    private long totalRead = 0;
+    private final ConnectionPhases connectionPhases = new ConnectionPhases();
+    private volatile boolean disconnected;
     private String httpProxyHost;
     private int httpProxyPort;
     private UploadProgress progress = UploadProgress.DEFAULT;
@@ -1053,7 +1065,13 @@ public class HttpRequest {
     public int code() throws HttpRequestException {
         try {
             closeOutput();
-            return getConnection().getResponseCode();
+            connect();
+            final int code = getConnection().getResponseCode();
+            if (responseReceivedAt == -1) {
+                responseReceivedAt = System.nanoTime();
+                responseCode = code;
+            }
+            return code;
         } catch (IOException e) {
             throw new HttpRequestException(e);
         }
@@ -1164,10 +1182,20 @@ public class HttpRequest {
      * @return this request
      */
     public HttpRequest disconnect() {
+        disconnected = true;
         getConnection().disconnect();
         return this;
     }
 
+    /**
+     * Has the connection been disconnected by {@link #disconnect()} (e.g. to abort the request)?
+     *
+     * @return true if disconnected
+     */
+    public boolean isDisconnected() {
+        return disconnected;
+    }
+
     /**
      * Set chunked streaming mode to the given size
      *
@@ -1366,6 +1394,32 @@ public class HttpRequest {
                 }
         }
 
+        stream = new FilterInputStream(stream) {
+
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b != -1)
+                    totalRead++;
+                return b;
+            }
+
+            @Override
+            public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+                final int read = super.read(buffer, offset, length);
+                if (read > 0)
+                    totalRead += read;
+                return read;
+            }
+
+            @Override
+            public long skip(final long n) throws IOException {
+                final long skipped = super.skip(n);
+                totalRead += skipped;
+                return skipped;
+            }
+        };
+
         if (!uncompress || !ENCODING_GZIP.equals(contentEncoding()))
             return stream;
         else
@@ -2112,8 +2166,10 @@ public class HttpRequest {
                 int read;
                 while ((read = input.read(buffer)) != -1) {
                     output.write(buffer, 0, read);
-                    totalWritten += read;
-                    progress.onUpload(totalWritten, totalSize);
+                    if (isSending()) {
+                        totalWritten += read;
+                        progress.onUpload(totalWritten, totalSize);
+                    }
                 }
                 return HttpRequest.this;
             }
@@ -2138,14 +2194,26 @@ public class HttpRequest {
                 int read;
                 while ((read = input.read(buffer)) != -1) {
                     output.write(buffer, 0, read);
-                    totalWritten += read;
-                    progress.onUpload(totalWritten, -1);
+                    if (isSending()) {
+                        totalWritten += read;
+                        progress.onUpload(totalWritten, -1);
+                    }
                 }
                 return HttpRequest.this;
             }
         }.call();
     }
 
+    /**
+     * Is the request body being sent? Otherwise a copy is reading the response body, which must not count as upload
+     * (the output is closed before the response is read).
+     *
+     * @return true if sending
+     */
+    private boolean isSending() {
+        return output != null;
+    }
+
     /**
      * Set the UploadProgress callback for this request
      *
@@ -2160,6 +2228,88 @@ public class HttpRequest {
         return this;
     }
 
+    /**
+     * Get the number of request body bytes written so far
+     *
+     * @return number of bytes
+     */
+    public long bytesWritten() {
+        return totalWritten;
+    }
+
+    /**
+     * Get the time the request output was opened at (see {@link System#nanoTime()})
+     *
+     * @return time in nanoseconds or -1 if the request has no body
+     */
+    public long outputOpenedAt() {
+        return outputOpenedAt;
+    }
+
+    /**
+     * Get the time the request output was closed at, i.e. the request body has been sent (see {@link System#nanoTime()})
+     *
+     * @return time in nanoseconds or -1 if the request has no body or it is still being sent
+     */
+    public long outputClosedAt() {
+        return outputClosedAt;
+    }
+
+    /**
+     * Get the time the connection setup was started at (see {@link System#nanoTime()})
+     *
+     * @return time in nanoseconds or -1 if not connected yet
+     */
+    public long connectStartedAt() {
+        return connectStartedAt;
+    }
+
+    /**
+     * Get the time the connection was established at (see {@link System#nanoTime()}),
+     * which is right after the start if a pooled connection has been reused
+     *
+     * @return time in nanoseconds or -1 if not connected (yet)
+     */
+    public long connectedAt() {
+        return connectedAt;
+    }
+
+    /**
+     * Get the phases of the connection setup as far as they have been reported by the transport
+     *
+     * @return connection phases
+     */
+    public ConnectionPhases connectionPhases() {
+        return connectionPhases;
+    }
+
+    /**
+     * Get the time the response status was received at (see {@link System#nanoTime()})
+     *
+     * @return time in nanoseconds or -1 if no response has been received (yet)
+     */
+    public long responseReceivedAt() {
+        return responseReceivedAt;
+    }
+
+    /**
+     * Get the status code of the response without sending the request
+     *
+     * @return the response code or -1 if no response has been received (yet)
+     */
+    public int receivedCode() {
+        return responseCode;
+    }
+
+    /**
+     * Get the number of response body bytes read so far (as transferred, i.e. before decompression)
+     *
+     * @return number of bytes
+     */
+    public long bytesRead() {
+        return totalRead;
+    }
+
     private HttpRequest incrementTotalSize(final long size) {
         if (totalSize == -1)
             totalSize = 0;
@@ -2189,6 +2339,7 @@ public class HttpRequest {
         else
             output.close();
         output = null;
+        outputClosedAt = System.nanoTime();
         return this;
     }
 
@@ -2207,6 +2358,29 @@ public class HttpRequest {
         }
     }
 
+    /**
+     * Establish the connection, unless this has been done before
+     * <p>
+     * Connecting explicitly separates the connection setup from the transfer of the request,
+     * the {@link ConnectionPhases} reported by the transport while connecting are recorded for this request.
+     *
+     * @return this request
+     * @throws IOException
+     */
+    protected HttpRequest connect() throws IOException {
+        if (connectStartedAt != -1)
+            return this;
+        connectStartedAt = System.nanoTime();
+        ConnectionPhases.begin(connectionPhases);
+        try {
+            getConnection().connect();
+        } finally {
+            ConnectionPhases.end();
+        }
+        connectedAt = System.nanoTime();
+        return this;
+    }
+
     /**
      * Open output stream
      *
@@ -2217,8 +2391,11 @@ public class HttpRequest {
         if (output != null)
             return this;
         getConnection().setDoOutput(true);
+        // request properties can not be read anymore once connected
         final String charset = getParam(
                 getConnection().getRequestProperty(HEADER_CONTENT_TYPE), PARAM_CHARSET);
+        connect();
+        outputOpenedAt = System.nanoTime();
         output = new RequestOutputStream(getConnection().getOutputStream(), charset,
                 bufferSize);
         return this;
@@ -2543,6 +2720,50 @@ public class HttpRequest {
         return this;
     }
 
+    /**
+     * Write the body produced by the given callback to request body
+     * <p>
+     * The body is not buffered in memory as a whole which keeps the memory
+     * usage low for large bodies. Once the request is disconnected, writing
+     * fails so that the body is not produced any further.
+     *
+     * @param body
+     * @return this request
+     * @throws HttpRequestException
+     */
+    public HttpRequest send(final StreamingBody body) throws HttpRequestException {
+        try {
+            openOutput();
+            body.writeTo(new FilterOutputStream(output) {
+
+                @Override
+                public void write(final byte[] buffer, final int offset, final int length) throws IOException {
+                    throwIfDisconnected();
+                    out.write(buffer, offset, length);
+                    totalWritten += length;
+                    progress.onUpload(totalWritten, -1);
+                }
+
+                @Override
+                public void write(final int b) throws IOException {
+                    throwIfDisconnected();
+                    out.write(b);
+                    totalWritten++;
+                    progress.onUpload(totalWritten, -1);
+                }
+
+                private void throwIfDisconnected() throws IOException {
+                    if (disconnected) {
+                        throw new IOException("request has been disconnected");
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new HttpRequestException(e);
+        }
+        return this;
+    }
+
     /**
      * Create writer to request output stream
      *
@@ -2802,6 +3023,22 @@ public class HttpRequest {
         void onUpload(long uploaded, long total);
     }
 
+    /**
+     * Callback interface for writing a request body directly into the request output stream.
+     */
+    public interface StreamingBody {
+
+        /**
+         * Write the body to the given stream
+         * <p>
+         * The stream must not be closed, this is done once the request is sent
+         *
+         * @param output
+         * @throws IOException
+         */
+        void writeTo(OutputStream output) throws IOException;
+    }
+
     /**
      * <p>
      * Encodes and decodes to and from Base64 notation.
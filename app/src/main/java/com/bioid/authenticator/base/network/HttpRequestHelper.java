@@ -1,35 +1,219 @@
 package com.bioid.authenticator.base.network;
 
+import android.content.Context;
 import android.os.SystemClock;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import com.bioid.authenticator.BuildConfig;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
 import com.bioid.authenticator.base.network.HttpRequest.HttpRequestException;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Contains utility methods for {@link HttpRequest} usage.
+ * <p>
+ * All requests are guarded by the {@link CircuitBreaker} of their endpoint, so requests to an endpoint which failed repeatedly
+ * (5xx responses or server timeouts) fail with a {@link CircuitOpenException} without being sent.
+ * <p>
+ * The {@link HttpRequestMetrics} of every executed request are passed to the registered {@link HttpRequestListener listeners}.
  */
 public class HttpRequestHelper {
 
     private static final String UTF8 = "UTF-8";
+    @VisibleForTesting
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    private static final String METRIC_DNS_LOOKUP = "connection_setup.dns_lookup_millis";
+    private static final String METRIC_PRECONNECT = "connection_setup.preconnect_millis";
+    private static final int PRECONNECT_TIMEOUT_IN_MILLIS = 10_000;
+
+    private static final List<HttpRequestListener> listeners = new CopyOnWriteArrayList<>();
+    private static volatile HttpTransport transport;
+    private static boolean tlsSessionCacheInstalled;
+
+    static {
+        setTransport(HttpTransports.forName(BuildConfig.HTTP_TRANSPORT));
+        addListener(new HttpRequestMetricsRecorder());
+    }
 
     private final LoggingHelper log;
     private final JsonSerializer jsonSerializer;
+    private final BandwidthEstimator bandwidthEstimator;
+    private final CircuitBreakers circuitBreakers;
+    private final MetricsHelper metrics = MetricsHelperFactory.create();
 
     public HttpRequestHelper() {
         this.log = LoggingHelperFactory.create(HttpRequestHelper.class);
         this.jsonSerializer = new JsonSerializer();
+        this.bandwidthEstimator = BandwidthEstimator.getDefault();
+        this.circuitBreakers = CircuitBreakers.getDefault();
+    }
+
+    @VisibleForTesting
+    HttpRequestHelper(LoggingHelper log, JsonSerializer jsonSerializer, BandwidthEstimator bandwidthEstimator) {
+        this(log, jsonSerializer, bandwidthEstimator, new CircuitBreakers(log, MetricsHelperFactory.create(), () -> 0L));
     }
 
     @VisibleForTesting
-    HttpRequestHelper(LoggingHelper log, JsonSerializer jsonSerializer) {
+    HttpRequestHelper(LoggingHelper log, JsonSerializer jsonSerializer, BandwidthEstimator bandwidthEstimator,
+                      CircuitBreakers circuitBreakers) {
         this.log = log;
         this.jsonSerializer = jsonSerializer;
+        this.bandwidthEstimator = bandwidthEstimator;
+        this.circuitBreakers = circuitBreakers;
+    }
+
+    /**
+     * Installs the transport used by all following requests (the configured one is installed by default).
+     * Connections are reused by the transport as long as the response bodies are consumed, which all methods of this class do.
+     */
+    public static void setTransport(@NonNull HttpTransport transport) {
+        HttpRequestHelper.transport = transport;
+        HttpRequest.setConnectionFactory(transport);
+    }
+
+    /**
+     * Makes the installed transport use a persistent TLS session cache (see {@link SessionCachingSslSocketFactory}).
+     * This is done once at process start, so that no request uses the transport without cache.
+     * Calling this method more than once has no effect.
+     */
+    public static synchronized void installTlsSessionCache(@NonNull Context ctx) {
+        if (!tlsSessionCacheInstalled) {
+            setTransport(transport.withSslSocketFactory(SessionCachingSslSocketFactory.create(ctx)));
+            tlsSessionCacheInstalled = true;
+        }
+    }
+
+    /**
+     * Registers a listener which gets notified about all following requests.
+     * A {@link HttpRequestMetricsRecorder} is registered by default.
+     */
+    public static void addListener(@NonNull HttpRequestListener listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(@NonNull HttpRequestListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the installed transport.
+     */
+    @NonNull
+    public static HttpTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sends the body using fixed-length streaming mode.
+     * Otherwise HttpURLConnection would buffer a copy of the whole body just to calculate the Content-Length.
+     *
+     * @throws NoConnectionException if no connection could be established
+     * @throws CircuitOpenException  if the endpoint is known to be unavailable (nothing is sent)
+     */
+    @NonNull
+    public HttpRequest send(@NonNull HttpRequest request, @NonNull byte[] body) {
+        return send(request, output -> output.write(body), body.length);
+    }
+
+    /**
+     * Sends the body using fixed-length streaming mode because the size is known in advance (e.g. a spooled payload).
+     * The body is streamed as it is written, without being buffered or chunked.
+     *
+     * @param contentLength the number of bytes the body writes
+     * @throws NoConnectionException if no connection could be established
+     * @throws CircuitOpenException  if the endpoint is known to be unavailable (nothing is sent)
+     */
+    @NonNull
+    public HttpRequest send(@NonNull HttpRequest request, @NonNull HttpRequest.StreamingBody body,
+                            @IntRange(from = 0) int contentLength) {
+        CircuitBreaker circuitBreaker = acquirePermission(request);
+        try {
+            return request.contentLength(contentLength).send(body);
+        } catch (HttpRequestException e) {
+            recordFailure(circuitBreaker, request, e);
+            throw new NoConnectionException(e);
+        }
+    }
+
+    /**
+     * Sends the body using chunked streaming mode because the size is not known in advance.
+     * Chunks go out on the wire while the body is still being written (e.g. while an image is still encoded).
+     *
+     * @throws NoConnectionException if no connection could be established
+     * @throws CircuitOpenException  if the endpoint is known to be unavailable (nothing is sent)
+     */
+    @NonNull
+    public HttpRequest send(@NonNull HttpRequest request, @NonNull HttpRequest.StreamingBody body) {
+        CircuitBreaker circuitBreaker = acquirePermission(request);
+        try {
+            return request.chunk(CHUNK_SIZE).send(body);
+        } catch (HttpRequestException e) {
+            recordFailure(circuitBreaker, request, e);
+            throw new NoConnectionException(e);
+        }
+    }
+
+    /**
+     * Fails fast if one of the endpoints of the given host is known to be unavailable (see {@link CircuitBreakers}).
+     *
+     * @throws CircuitOpenException if the circuit breaker of one of the endpoints is open
+     */
+    public void checkAvailability(@NonNull String url) {
+        try {
+            circuitBreakers.checkHost(new URL(url).getHost());
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Establishes a connection to the host of the given URL in advance (DNS lookup, TCP and TLS handshake),
+     * which is reused by the next request to that host if the transport keeps connections alive.
+     * The timings of the connection setup are recorded as metrics and used as round trip samples (see {@link BandwidthEstimator}).
+     * <p>
+     * Errors are only logged, because the actual request will report them anyway.
+     */
+    public void preconnect(@NonNull String url) {
+        try {
+            long start = System.nanoTime();
+            InetAddress.getAllByName(new URL(url).getHost());
+            long resolved = System.nanoTime();
+
+            HttpRequest request = HttpRequest.head(url)
+                    .connectTimeout(PRECONNECT_TIMEOUT_IN_MILLIS)
+                    .readTimeout(PRECONNECT_TIMEOUT_IN_MILLIS);
+            request.code();
+            discardBody(request);
+            long connected = System.nanoTime();
+
+            // the HEAD request is sent on the established connection and answered without any processing
+            addTcpHandshakeSample(request);
+            bandwidthEstimator.addRoundTrip((request.responseReceivedAt() - request.connectedAt()) / 1_000_000);
+
+            metrics.record(METRIC_DNS_LOOKUP, (resolved - start) / 1_000_000.0);
+            metrics.record(METRIC_PRECONNECT, (connected - start) / 1_000_000.0);
+            log.d("preconnected to %s (DNS lookup %d ms, total %d ms)", url, (resolved - start) / 1_000_000,
+                    (connected - start) / 1_000_000);
+        } catch (IOException | HttpRequestException e) {
+            log.w("preconnect to %s failed: %s", url, e.getMessage());
+        }
     }
 
     /**
@@ -41,11 +225,13 @@ public class HttpRequestHelper {
         String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId(request));
 
         try {
-            request.code();  // does execute the actual request
+            executeAndMeasure(request);
+            discardBody(request);
         } catch (HttpRequestException e) {
             throw new NoConnectionException(e);
         } finally {
             log.stopStopwatch(stopwatchSessionId);
+            notifyListeners(request);
         }
     }
 
@@ -61,12 +247,14 @@ public class HttpRequestHelper {
         String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId(request));
 
         try {
-            switch (request.code()) {
+            switch (executeAndMeasure(request)) {
                 case 200:
                     return request.body(UTF8);
                 case 500:
+                    discardBody(request);
                     throw new ServerErrorException();
                 default:
+                    discardBody(request);
                     throw new Non200StatusException(request.code());
             }
         } catch (HttpRequestException e) {
@@ -74,6 +262,106 @@ public class HttpRequestHelper {
 
         } finally {
             log.stopStopwatch(stopwatchSessionId);
+            notifyListeners(request);
+        }
+    }
+
+    /**
+     * Executes the actual request and feeds its timings into the {@link BandwidthEstimator}.
+     * Only the TCP handshake is taken as round trip sample, the time until the response also contains the server-side processing.
+     * The body of a streamed request is already (partially) sent before, therefore the transfer is measured from opening the output.
+     * <p>
+     * The outcome is recorded by the {@link CircuitBreaker} of the endpoint. A request with body has been permitted
+     * when the body was sent (see {@link #send(HttpRequest, HttpRequest.StreamingBody)}), otherwise this is done here.
+     *
+     * @return the HTTP status code
+     * @throws CircuitOpenException if the endpoint is known to be unavailable (nothing is sent)
+     */
+    private int executeAndMeasure(@NonNull HttpRequest request) {
+        CircuitBreaker circuitBreaker = request.outputOpenedAt() == -1
+                ? acquirePermission(request)
+                : circuitBreakers.forUrl(request.url());
+
+        long start = System.nanoTime();
+        int status;
+        try {
+            status = request.code();
+        } catch (HttpRequestException e) {
+            recordFailure(circuitBreaker, request, e);
+            throw e;
+        }
+        long end = System.nanoTime();
+
+        if (status >= 500) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+
+        long transferStart = request.outputOpenedAt() != -1 ? request.outputOpenedAt() : start;
+        addTcpHandshakeSample(request);
+        bandwidthEstimator.addTransfer(request.bytesWritten(), (end - transferStart) / 1_000_000);
+        return status;
+    }
+
+    private void addTcpHandshakeSample(@NonNull HttpRequest request) {
+        long tcpHandshakeMillis = request.connectionPhases().getTcpHandshakeMillis();
+        if (tcpHandshakeMillis != -1) {
+            bandwidthEstimator.addRoundTrip(tcpHandshakeMillis);
+        }
+    }
+
+    /**
+     * Passes the metrics of the finished request to the listeners, unless it has not been sent at all
+     * (e.g. because of an open {@link CircuitBreaker}).
+     * A failing listener is only logged, it must neither replace the outcome of the request nor skip the other listeners.
+     */
+    private void notifyListeners(@NonNull HttpRequest request) {
+        if (request.connectStartedAt() == -1) {
+            return;
+        }
+
+        HttpRequestMetrics requestMetrics = HttpRequestMetrics.of(request, System.nanoTime());
+        log.d("%s", requestMetrics);
+        for (HttpRequestListener listener : listeners) {
+            try {
+                listener.onRequestFinished(requestMetrics);
+            } catch (RuntimeException e) {
+                log.e(e, "request listener %s failed", listener);
+            }
+        }
+    }
+
+    @NonNull
+    private CircuitBreaker acquirePermission(@NonNull HttpRequest request) {
+        CircuitBreaker circuitBreaker = circuitBreakers.forUrl(request.url());
+        circuitBreaker.acquirePermission();
+        return circuitBreaker;
+    }
+
+    /**
+     * Records a transport failure as failure of the endpoint only if the server did not respond in time on an established
+     * connection. Any other transport failure (e.g. no connectivity, a network handover or an aborted request) is caused
+     * by the client side and does not say anything about the endpoint.
+     */
+    private static void recordFailure(@NonNull CircuitBreaker circuitBreaker, @NonNull HttpRequest request,
+                                      @NonNull HttpRequestException e) {
+        boolean serverTimeout = request.connectedAt() != -1 && e.getCause() instanceof SocketTimeoutException;
+        if (serverTimeout && !request.isDisconnected()) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onAborted();
+        }
+    }
+
+    /**
+     * Reads the remaining response body, otherwise the connection could not be reused by the transport.
+     */
+    private static void discardBody(@NonNull HttpRequest request) {
+        try {
+            request.body();
+        } catch (HttpRequestException ignored) {
+            // the connection will not be reused
         }
     }
 
@@ -104,6 +392,59 @@ public class HttpRequestHelper {
         }
     }
 
+    /**
+     * Executes the given request and decodes the HTTP response body on status code 200.
+     * In contrast to {@link #asJsonIfOk(HttpRequest)} the body is decoded while it is read from the connection,
+     * without creating an intermediate String and JSONObject.
+     *
+     * @throws Non200StatusException if the HTTP status code was not 200
+     * @throws NoConnectionException if no connection could be established
+     * @throws ServerErrorException  if the server failed to process the request
+     * @throws TechnicalException    if the response body does not contain the expected JSON
+     */
+    @NonNull
+    public <T> T readJsonIfOk(@NonNull HttpRequest request, @NonNull JsonDecoder<T> decoder) {
+        String stopwatchSessionId = log.startStopwatch(getStopwatchSessionId(request));
+
+        try {
+            switch (executeAndMeasure(request)) {
+                case 200:
+                    return decodeBody(request, decoder);
+                case 500:
+                    discardBody(request);
+                    throw new ServerErrorException();
+                default:
+                    discardBody(request);
+                    throw new Non200StatusException(request.code());
+            }
+        } catch (HttpRequestException e) {
+            throw new NoConnectionException(e);
+
+        } finally {
+            log.stopStopwatch(stopwatchSessionId);
+            notifyListeners(request);
+        }
+    }
+
+    @NonNull
+    private static <T> T decodeBody(@NonNull HttpRequest request, @NonNull JsonDecoder<T> decoder) {
+        try (Reader body = request.reader(UTF8)) {
+            T result = decoder.decode(new JsonStreamingReader(body));
+
+            // the remaining body (at least the trailing whitespace) has to be read to reuse the connection
+            char[] remaining = new char[256];
+            //noinspection StatementWithEmptyBody
+            while (body.read(remaining) != -1) {
+            }
+            return result;
+
+        } catch (JsonStreamingReader.MalformedJsonException e) {
+            throw new TechnicalException("response body could not be decoded", e);
+        } catch (IOException e) {
+            throw new NoConnectionException(e);
+        }
+    }
+
     /**
      * Will be thrown if a HTTP request completed but not with status code 200.
      */
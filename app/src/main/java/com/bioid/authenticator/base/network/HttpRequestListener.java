@@ -0,0 +1,18 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Gets notified about every request executed by the {@link HttpRequestHelper}, in debug as well as in release builds.
+ * <p>
+ * Listeners are registered using {@link HttpRequestHelper#addListener(HttpRequestListener)}.
+ * They are called on the thread which executed the request, therefore they must be thread-safe and return quickly.
+ */
+public interface HttpRequestListener {
+
+    /**
+     * Called after the request has been completed (the response body has been consumed) or has failed.
+     * Exceptions thrown by a listener are logged but do not affect the request.
+     */
+    void onRequestFinished(@NonNull HttpRequestMetrics metrics);
+}
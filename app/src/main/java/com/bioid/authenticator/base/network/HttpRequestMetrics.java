@@ -0,0 +1,161 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * The timings and sizes of a single request, split into its phases (see {@link HttpRequestListener}).
+ * <p>
+ * The phases allow to tell a slow server (time to first byte) apart from a slow uplink (upload duration) or an expensive
+ * connection setup (DNS lookup, TCP connect and TLS handshake, all of them 0 if a pooled connection has been reused).
+ * Durations which are not applicable or have not been reported by the transport (see {@link ConnectionPhases}) are -1.
+ */
+public class HttpRequestMetrics {
+
+    private final String method;
+    private final String path;
+    private final int status;
+    private final long dnsMillis;
+    private final long connectMillis;
+    private final long tlsMillis;
+    private final long uploadMillis;
+    private final long timeToFirstByteMillis;
+    private final long downloadMillis;
+    private final long totalMillis;
+    private final long bytesSent;
+    private final long bytesReceived;
+
+    @VisibleForTesting
+    HttpRequestMetrics(String method, String path, int status, long dnsMillis, long connectMillis, long tlsMillis,
+                       long uploadMillis, long timeToFirstByteMillis, long downloadMillis, long totalMillis,
+                       long bytesSent, long bytesReceived) {
+        this.method = method;
+        this.path = path;
+        this.status = status;
+        this.dnsMillis = dnsMillis;
+        this.connectMillis = connectMillis;
+        this.tlsMillis = tlsMillis;
+        this.uploadMillis = uploadMillis;
+        this.timeToFirstByteMillis = timeToFirstByteMillis;
+        this.downloadMillis = downloadMillis;
+        this.totalMillis = totalMillis;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+    }
+
+    /**
+     * Collects the metrics of the given request, which has been finished (completed or failed) at the given time.
+     *
+     * @param finishedAt see {@link System#nanoTime()}
+     */
+    @NonNull
+    static HttpRequestMetrics of(@NonNull HttpRequest request, long finishedAt) {
+        ConnectionPhases phases = request.connectionPhases();
+        long requestSentAt = request.outputClosedAt() != -1 ? request.outputClosedAt() : request.connectedAt();
+
+        return new HttpRequestMetrics(
+                request.method(),
+                request.url().getPath(),
+                request.receivedCode(),
+                phases.getDnsMillis(),
+                phases.getConnectMillis(request.connectStartedAt()),
+                phases.getTlsMillis(),
+                millisBetween(request.outputOpenedAt(), request.outputClosedAt()),
+                millisBetween(requestSentAt, request.responseReceivedAt()),
+                millisBetween(request.responseReceivedAt(), finishedAt),
+                millisBetween(request.connectStartedAt(), finishedAt),
+                request.bytesWritten(),
+                request.bytesRead());
+    }
+
+    private static long millisBetween(long start, long end) {
+        if (start == -1 || end == -1) {
+            return -1;
+        }
+        return (end - start) / 1_000_000;
+    }
+
+    @NonNull
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Returns the path of the requested URL (without the query, which might contain sensitive data).
+     */
+    @NonNull
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the HTTP status code or -1 if no response has been received.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    /**
+     * Returns the duration of establishing the TCP connection, which includes the DNS lookup if it has not been reported separately.
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public long getTlsMillis() {
+        return tlsMillis;
+    }
+
+    /**
+     * Returns the duration of sending the request body or -1 if there is no body.
+     * A streamed body is sent while it is produced, so this includes the time needed to produce it (e.g. to encode an image).
+     */
+    public long getUploadMillis() {
+        return uploadMillis;
+    }
+
+    /**
+     * Returns the time from the request having been sent completely until the response status has been received,
+     * which is the processing time of the server plus one round trip.
+     */
+    public long getTimeToFirstByteMillis() {
+        return timeToFirstByteMillis;
+    }
+
+    /**
+     * Returns the time from the response status having been received until the response body has been consumed.
+     */
+    public long getDownloadMillis() {
+        return downloadMillis;
+    }
+
+    /**
+     * Returns the time from the start of the connection setup until the request has been finished.
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the size of the response body as transferred.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    @Override
+    public String toString() {
+        return "HttpRequestMetrics{" + method + " " + path + ", status=" + status +
+                ", dns=" + dnsMillis + "ms, connect=" + connectMillis + "ms, tls=" + tlsMillis +
+                "ms, upload=" + uploadMillis + "ms, ttfb=" + timeToFirstByteMillis + "ms, download=" + downloadMillis +
+                "ms, total=" + totalMillis + "ms, sent=" + bytesSent + "B, received=" + bytesReceived + "B}";
+    }
+}
@@ -0,0 +1,60 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+
+import java.util.Locale;
+
+/**
+ * Records the {@link HttpRequestMetrics} of all requests as metrics, grouped by the last segment of the path
+ * (e.g. {@code http.upload.ttfb_millis} for the BWS upload).
+ * This listener is registered by default (see {@link HttpRequestHelper#addListener(HttpRequestListener)}).
+ */
+public class HttpRequestMetricsRecorder implements HttpRequestListener {
+
+    private final MetricsHelper metrics;
+
+    public HttpRequestMetricsRecorder() {
+        this(MetricsHelperFactory.create());
+    }
+
+    @VisibleForTesting
+    HttpRequestMetricsRecorder(MetricsHelper metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void onRequestFinished(@NonNull HttpRequestMetrics requestMetrics) {
+        String prefix = "http." + getEndpointName(requestMetrics.getPath()) + ".";
+
+        if (requestMetrics.getStatus() == -1) {
+            metrics.count(prefix + "failed");
+        } else {
+            metrics.count(prefix + "status_" + requestMetrics.getStatus());
+        }
+
+        recordIfKnown(prefix + "dns_millis", requestMetrics.getDnsMillis());
+        recordIfKnown(prefix + "connect_millis", requestMetrics.getConnectMillis());
+        recordIfKnown(prefix + "tls_millis", requestMetrics.getTlsMillis());
+        recordIfKnown(prefix + "upload_millis", requestMetrics.getUploadMillis());
+        recordIfKnown(prefix + "ttfb_millis", requestMetrics.getTimeToFirstByteMillis());
+        recordIfKnown(prefix + "download_millis", requestMetrics.getDownloadMillis());
+        metrics.record(prefix + "request_bytes", requestMetrics.getBytesSent());
+        metrics.record(prefix + "response_bytes", requestMetrics.getBytesReceived());
+    }
+
+    private void recordIfKnown(@NonNull String name, long millis) {
+        if (millis != -1) {
+            metrics.record(name, millis);
+        }
+    }
+
+    @NonNull
+    private static String getEndpointName(@NonNull String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ENGLISH);
+        return name.isEmpty() ? "root" : name;
+    }
+}
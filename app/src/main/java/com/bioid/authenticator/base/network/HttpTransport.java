@@ -0,0 +1,26 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Creates the connections of all {@link HttpRequest HTTP requests} and thereby decides how connections are reused.
+ * <p>
+ * The transport is process-wide, it is installed using {@link HttpRequestHelper#setTransport(HttpTransport)}.
+ * Implementations are available from {@link HttpTransports}.
+ */
+public interface HttpTransport extends HttpRequest.ConnectionFactory {
+
+    /**
+     * Returns the name of the transport (one of the TRANSPORT_* constants of {@link HttpTransports}).
+     */
+    @NonNull
+    String getName();
+
+    /**
+     * Returns a transport like this one which uses the given factory for all HTTPS connections (e.g. to cache TLS sessions).
+     */
+    @NonNull
+    HttpTransport withSslSocketFactory(@NonNull SSLSocketFactory sslSocketFactory);
+}
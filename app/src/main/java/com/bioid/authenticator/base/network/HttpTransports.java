@@ -0,0 +1,268 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.OkUrlFactory;
+import okhttp3.Protocol;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * Factory for the available {@link HttpTransport} implementations.
+ */
+public final class HttpTransports {
+
+    public static final String TRANSPORT_DEFAULT = "default";
+    public static final String TRANSPORT_KEEP_ALIVE = "keep_alive";
+    public static final String TRANSPORT_HTTP2 = "http2";
+
+    /**
+     * Enough idle connections for the concurrent uploads of a session.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    /**
+     * Long enough to keep the connection from the token request until the last upload of a session.
+     */
+    private static final long KEEP_ALIVE_DURATION_IN_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private HttpTransports() {
+    }
+
+    /**
+     * Uses the built-in {@link HttpURLConnection} without any tuning.
+     */
+    @NonNull
+    public static HttpTransport platformDefault() {
+        return new PlatformHttpTransport(TRANSPORT_DEFAULT, null);
+    }
+
+    /**
+     * Uses the built-in {@link HttpURLConnection} with its connection pool tuned for the BWS request pattern
+     * (token request, 2 to 8 uploads and the biometric operation within a few seconds).
+     * <p>
+     * The pool of the platform is configured using system properties which are read when the first connection is opened,
+     * therefore this transport has to be installed before any request is executed.
+     */
+    @NonNull
+    public static HttpTransport keepAlive() {
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", Integer.toString(MAX_IDLE_CONNECTIONS));
+        System.setProperty("http.keepAliveDuration", Long.toString(KEEP_ALIVE_DURATION_IN_MILLIS));
+        return new PlatformHttpTransport(TRANSPORT_KEEP_ALIVE, null);
+    }
+
+    /**
+     * Uses OkHttp which multiplexes all requests to a host over a single HTTP/2 connection
+     * (falls back to HTTP/1.1 with keep-alive if the server does not support HTTP/2).
+     * All {@link ConnectionPhases} of the requests are reported.
+     */
+    @NonNull
+    public static HttpTransport http2() {
+        return new OkHttpTransport(new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_IN_MILLIS, TimeUnit.MILLISECONDS))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .eventListenerFactory(call -> {
+                    // the call is created on the thread connecting the request, but executed on the dispatcher
+                    ConnectionPhases phases = ConnectionPhases.current();
+                    return phases != null ? new ConnectionPhasesListener(phases) : EventListener.NONE;
+                })
+                .build());
+    }
+
+    /**
+     * Creates the transport for the given name (e.g. taken from the build configuration).
+     *
+     * @param transport one of the TRANSPORT_* constants
+     * @throws IllegalArgumentException if the transport is unknown
+     */
+    @NonNull
+    public static HttpTransport forName(@NonNull String transport) {
+        switch (transport.toLowerCase(Locale.ENGLISH)) {
+            case TRANSPORT_DEFAULT:
+                return platformDefault();
+            case TRANSPORT_KEEP_ALIVE:
+                return keepAlive();
+            case TRANSPORT_HTTP2:
+                return http2();
+            default:
+                throw new IllegalArgumentException("unknown HTTP transport: " + transport);
+        }
+    }
+
+    @NonNull
+    private static X509TrustManager getPlatformTrustManager() {
+        try {
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init((KeyStore) null);
+            for (TrustManager trustManager : trustManagerFactory.getTrustManagers()) {
+                if (trustManager instanceof X509TrustManager) {
+                    return (X509TrustManager) trustManager;
+                }
+            }
+            throw new IllegalStateException("platform does not provide a X509TrustManager");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("platform trust manager is not available", e);
+        }
+    }
+
+    /**
+     * Reports the connection setup of a single call.
+     */
+    private static final class ConnectionPhasesListener extends EventListener {
+
+        private final ConnectionPhases phases;
+        private boolean connecting;
+
+        private ConnectionPhasesListener(@NonNull ConnectionPhases phases) {
+            this.phases = phases;
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            phases.onDnsStarted();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            phases.onDnsFinished();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connecting = true;
+            phases.onConnectStarted();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            phases.onTlsStarted();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+            phases.onTlsFinished();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, @Nullable Protocol protocol) {
+            phases.onConnectFinished();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            if (!connecting) {
+                phases.onConnectionReused();
+            }
+        }
+    }
+
+    private static final class PlatformHttpTransport implements HttpTransport {
+
+        private final String name;
+        @Nullable
+        private final SSLSocketFactory sslSocketFactory;
+
+        private PlatformHttpTransport(@NonNull String name, @Nullable SSLSocketFactory sslSocketFactory) {
+            this.name = name;
+            this.sslSocketFactory = sslSocketFactory;
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @NonNull
+        @Override
+        public HttpTransport withSslSocketFactory(@NonNull SSLSocketFactory sslSocketFactory) {
+            return new PlatformHttpTransport(name, sslSocketFactory);
+        }
+
+        @Override
+        public HttpURLConnection create(URL url) throws IOException {
+            return configure(HttpRequest.ConnectionFactory.DEFAULT.create(url));
+        }
+
+        @Override
+        public HttpURLConnection create(URL url, Proxy proxy) throws IOException {
+            return configure(HttpRequest.ConnectionFactory.DEFAULT.create(url, proxy));
+        }
+
+        @NonNull
+        private HttpURLConnection configure(@NonNull HttpURLConnection connection) {
+            if (sslSocketFactory != null && connection instanceof HttpsURLConnection) {
+                ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+            }
+            return connection;
+        }
+
+        @Override
+        public String toString() {
+            return "HttpTransport{" + name + '}';
+        }
+    }
+
+    private static final class OkHttpTransport implements HttpTransport {
+
+        private final OkHttpClient client;
+        private final OkUrlFactory urlFactory;
+
+        private OkHttpTransport(@NonNull OkHttpClient client) {
+            this.client = client;
+            this.urlFactory = new OkUrlFactory(client);
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return TRANSPORT_HTTP2;
+        }
+
+        @NonNull
+        @Override
+        public HttpTransport withSslSocketFactory(@NonNull SSLSocketFactory sslSocketFactory) {
+            return new OkHttpTransport(client.newBuilder().sslSocketFactory(sslSocketFactory, getPlatformTrustManager()).build());
+        }
+
+        @Override
+        public HttpURLConnection create(URL url) throws IOException {
+            return urlFactory.open(url);
+        }
+
+        @Override
+        public HttpURLConnection create(URL url, Proxy proxy) throws IOException {
+            // shares the connection pool with the client without a proxy
+            return new OkUrlFactory(client.newBuilder().proxy(proxy).build()).open(url);
+        }
+
+        @Override
+        public String toString() {
+            return "HttpTransport{" + TRANSPORT_HTTP2 + '}';
+        }
+    }
+}
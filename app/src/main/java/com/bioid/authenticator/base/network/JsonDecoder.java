@@ -0,0 +1,20 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Reads a typed result from a JSON response body (see {@link HttpRequestHelper#readJsonIfOk(HttpRequest, JsonDecoder)}).
+ *
+ * @param <T> type of the result
+ */
+public interface JsonDecoder<T> {
+
+    /**
+     * @throws JsonStreamingReader.MalformedJsonException if the JSON does not have the expected structure
+     * @throws IOException                                if the body could not be read
+     */
+    @NonNull
+    T decode(@NonNull JsonStreamingReader reader) throws IOException;
+}
@@ -0,0 +1,104 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JSON object with string fields whose values are written directly into the request body
+ * (e.g. Base64 encoded images while they are encoded).
+ * <p>
+ * In contrast to {@link org.json.JSONObject} neither the values nor the serialized object are held in memory,
+ * so large request bodies do not have to be copied several times.
+ */
+public class JsonStreamingBody implements HttpRequest.StreamingBody {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(UTF_8);
+
+    private final Map<String, HttpRequest.StreamingBody> fields = new LinkedHashMap<>();
+
+    /**
+     * Adds a string field, the value is written (and escaped) when the body is written.
+     */
+    @NonNull
+    public JsonStreamingBody stringField(@NonNull String name, @NonNull HttpRequest.StreamingBody value) {
+        fields.put(name, value);
+        return this;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        OutputStream escapingOutput = new JsonStringEscapingOutputStream(output);
+
+        output.write('{');
+        boolean first = true;
+        for (Map.Entry<String, HttpRequest.StreamingBody> field : fields.entrySet()) {
+            if (!first) {
+                output.write(',');
+            }
+            first = false;
+
+            output.write('"');
+            escapingOutput.write(field.getKey().getBytes(UTF_8));
+            output.write('"');
+            output.write(':');
+            output.write('"');
+            field.getValue().writeTo(escapingOutput);
+            output.write('"');
+        }
+        output.write('}');
+    }
+
+    /**
+     * Escapes the written UTF-8 bytes for use within a JSON string.
+     * Bytes of multi-byte characters are passed as they are because JSON allows all characters except quotes,
+     * backslashes and control characters.
+     */
+    private static final class JsonStringEscapingOutputStream extends FilterOutputStream {
+
+        private JsonStringEscapingOutputStream(@NonNull OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '"' || b == '\\') {
+                out.write('\\');
+                out.write(b);
+            } else if (b >= 0 && b < 0x20) {
+                out.write(new byte[]{'\\', 'u', '0', '0', HEX_DIGITS[b >> 4], HEX_DIGITS[b & 0xf]});
+            } else {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            // write unescaped runs at once, FilterOutputStream would write byte by byte
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if (needsEscaping(b[i])) {
+                    out.write(b, start, i - start);
+                    write(b[i]);
+                    start = i + 1;
+                }
+            }
+            out.write(b, start, off + len - start);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();  // the body writer owns the underlying stream
+        }
+
+        private static boolean needsEscaping(byte b) {
+            return b == '"' || b == '\\' || (b >= 0 && b < 0x20);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Pull parser which reads JSON tokens directly from the response body (the counterpart of {@link JsonStreamingBody}).
+ * <p>
+ * In contrast to {@link org.json.JSONObject} the body is neither copied into a String nor into a DOM,
+ * values which are not needed are skipped without keeping them.
+ * The API follows {@link android.util.JsonReader}, which can not be used within the JVM unit tests.
+ */
+public class JsonStreamingReader implements Closeable {
+
+    /**
+     * The type of the next token in the JSON stream.
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int EMPTY_OBJECT = 0;
+    private static final int NONEMPTY_OBJECT = 1;
+    private static final int DANGLING_NAME = 2;
+    private static final int EMPTY_ARRAY = 3;
+    private static final int NONEMPTY_ARRAY = 4;
+
+    private static final int NONE = -2;
+    private static final int MAX_DEPTH = 32;
+
+    private final Reader in;
+    private final int[] scopes = new int[MAX_DEPTH];
+    private int depth;
+    private boolean valueRead;
+
+    private Token peeked;
+    // first character of a peeked literal (number, boolean or null)
+    private int literalStart;
+    private int pushedBack = NONE;
+
+    public JsonStreamingReader(@NonNull Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     *
+     * @throws MalformedJsonException if the stream does not contain valid JSON
+     */
+    @NonNull
+    public Token peek() throws IOException {
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int c = nextNonWhitespace();
+        if (depth == 0) {
+            if (valueRead) {
+                if (c != -1) {
+                    throw new MalformedJsonException("only a single top-level value is allowed");
+                }
+                return peeked = Token.END_DOCUMENT;
+            }
+            valueRead = true;
+
+        } else {
+            int scope = scopes[depth - 1];
+            switch (scope) {
+                case EMPTY_OBJECT:
+                case NONEMPTY_OBJECT:
+                    if (c == '}') {
+                        return peeked = Token.END_OBJECT;
+                    }
+                    if (scope == NONEMPTY_OBJECT) {
+                        expect(c, ',');
+                        c = nextNonWhitespace();
+                    }
+                    expect(c, '"');
+                    scopes[depth - 1] = DANGLING_NAME;
+                    return peeked = Token.NAME;
+                case DANGLING_NAME:
+                    expect(c, ':');
+                    c = nextNonWhitespace();
+                    scopes[depth - 1] = NONEMPTY_OBJECT;
+                    break;
+                default:
+                    if (c == ']') {
+                        return peeked = Token.END_ARRAY;
+                    }
+                    if (scope == NONEMPTY_ARRAY) {
+                        expect(c, ',');
+                        c = nextNonWhitespace();
+                    }
+                    scopes[depth - 1] = NONEMPTY_ARRAY;
+                    break;
+            }
+        }
+
+        switch (c) {
+            case '{':
+                return peeked = Token.BEGIN_OBJECT;
+            case '[':
+                return peeked = Token.BEGIN_ARRAY;
+            case '"':
+                return peeked = Token.STRING;
+            case 't':
+            case 'f':
+                literalStart = c;
+                return peeked = Token.BOOLEAN;
+            case 'n':
+                literalStart = c;
+                return peeked = Token.NULL;
+            case -1:
+                throw new MalformedJsonException("unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    literalStart = c;
+                    return peeked = Token.NUMBER;
+                }
+                throw new MalformedJsonException("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    /**
+     * Returns true if the current object or array has another element.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        consume(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        consume(Token.END_OBJECT);
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        consume(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        consume(Token.END_ARRAY);
+        depth--;
+    }
+
+    @NonNull
+    public String nextName() throws IOException {
+        consume(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * Returns the next string value, numbers are returned as they are written.
+     */
+    @NonNull
+    public String nextString() throws IOException {
+        if (peek() == Token.NUMBER) {
+            peeked = null;
+            return readLiteral();
+        }
+        consume(Token.STRING);
+        return readString();
+    }
+
+    /**
+     * Like {@link #nextString()} but returns null if the value is null.
+     */
+    @Nullable
+    public String nextStringOrNull() throws IOException {
+        if (peek() == Token.NULL) {
+            nextNull();
+            return null;
+        }
+        return nextString();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        consume(Token.BOOLEAN);
+        String literal = readLiteral();
+        switch (literal) {
+            case "true":
+                return true;
+            case "false":
+                return false;
+            default:
+                throw new MalformedJsonException("invalid literal '" + literal + "'");
+        }
+    }
+
+    public void nextNull() throws IOException {
+        consume(Token.NULL);
+        String literal = readLiteral();
+        if (!literal.equals("null")) {
+            throw new MalformedJsonException("invalid literal '" + literal + "'");
+        }
+    }
+
+    /**
+     * Skips the next value including all nested objects and arrays.
+     */
+    public void skipValue() throws IOException {
+        int nesting = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    nesting++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    nesting++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    nesting--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    nesting--;
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case STRING:
+                case NUMBER:
+                    nextString();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw new MalformedJsonException("unexpected end of document");
+            }
+        } while (nesting > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void consume(@NonNull Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw new MalformedJsonException("expected " + expected + " but was " + token);
+        }
+        peeked = null;
+    }
+
+    private void push(int scope) throws MalformedJsonException {
+        if (depth == MAX_DEPTH) {
+            throw new MalformedJsonException("nesting too deep");
+        }
+        scopes[depth++] = scope;
+    }
+
+    /**
+     * Reads the remaining characters of a string whose opening quote has already been consumed.
+     */
+    @NonNull
+    private String readString() throws IOException {
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            int c = read();
+            switch (c) {
+                case '"':
+                    return value.toString();
+                case '\\':
+                    value.append(readEscapedCharacter());
+                    break;
+                case -1:
+                    throw new MalformedJsonException("unterminated string");
+                default:
+                    value.append((char) c);
+                    break;
+            }
+        }
+    }
+
+    private char readEscapedCharacter() throws IOException {
+        int c = read();
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int codeUnit = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit == -1) {
+                        throw new MalformedJsonException("invalid unicode escape sequence");
+                    }
+                    codeUnit = (codeUnit << 4) | digit;
+                }
+                return (char) codeUnit;
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            default:
+                throw new MalformedJsonException("invalid escape sequence");
+        }
+    }
+
+    /**
+     * Reads the remaining characters of a literal whose first character has already been consumed.
+     */
+    @NonNull
+    private String readLiteral() throws IOException {
+        StringBuilder literal = new StringBuilder().append((char) literalStart);
+        while (true) {
+            int c = read();
+            if (c == -1 || c == ',' || c == '}' || c == ']' || isWhitespace(c)) {
+                pushedBack = c;
+                return literal.toString();
+            }
+            literal.append((char) c);
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (isWhitespace(c));
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != NONE) {
+            int c = pushedBack;
+            pushedBack = NONE;
+            return c;
+        }
+        return in.read();
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    private void expect(int actual, char expected) throws MalformedJsonException {
+        if (actual != expected) {
+            throw new MalformedJsonException(actual == -1 ? "unexpected end of input" : "expected '" + expected + "' but was '" + (char) actual + "'");
+        }
+    }
+
+    /**
+     * Will be thrown if the stream does not contain valid JSON or the JSON does not have the expected structure.
+     */
+    public static final class MalformedJsonException extends IOException {
+
+        public MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+}
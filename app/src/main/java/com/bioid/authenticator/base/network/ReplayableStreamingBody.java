@@ -0,0 +1,112 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Allows a retried request to send the very same payload as the wrapped body.
+ * <p>
+ * The first attempt streams the wrapped body and records it up to {@link #DEFAULT_MAX_RECORDING_SIZE} bytes, so that any retry
+ * replays the recording without writing the wrapped body once more (e.g. without encoding the image again).
+ * A recording is only kept if it has been written completely, otherwise the next attempt writes and records the wrapped body again.
+ * A payload exceeding the limit is not recorded at all, retries write the wrapped body again then.
+ * The recording is held in memory as long as this body is referenced.
+ */
+public class ReplayableStreamingBody implements HttpRequest.StreamingBody {
+
+    /**
+     * Limits the memory held for a single payload, an encoded upload image is well below this size.
+     */
+    @SuppressWarnings("WeakerAccess")
+    public static final int DEFAULT_MAX_RECORDING_SIZE = 2 * 1024 * 1024;
+
+    private final HttpRequest.StreamingBody body;
+    private final int maxRecordingSize;
+    private ByteArrayOutputStream recording;
+    private boolean exceedsMaxRecordingSize;
+
+    public ReplayableStreamingBody(@NonNull HttpRequest.StreamingBody body) {
+        this(body, DEFAULT_MAX_RECORDING_SIZE);
+    }
+
+    @VisibleForTesting
+    ReplayableStreamingBody(@NonNull HttpRequest.StreamingBody body, int maxRecordingSize) {
+        this.body = body;
+        this.maxRecordingSize = maxRecordingSize;
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        if (recording != null) {
+            recording.writeTo(output);  // writes the recorded buffer itself, no copy is made
+            return;
+        }
+        if (exceedsMaxRecordingSize) {
+            body.writeTo(output);
+            return;
+        }
+
+        RecordingOutputStream recordingOutput = new RecordingOutputStream(output, maxRecordingSize);
+        body.writeTo(recordingOutput);
+        if (recordingOutput.recorder != null) {
+            recording = recordingOutput.recorder;
+        } else {
+            exceedsMaxRecordingSize = true;
+        }
+    }
+
+    /**
+     * Writes to the output and records it until the limit is exceeded, a failing output does stop the wrapped body
+     * (e.g. if the request is aborted).
+     */
+    private static final class RecordingOutputStream extends OutputStream {
+
+        private final OutputStream output;
+        private final int maxRecordingSize;
+        private ByteArrayOutputStream recorder = new ByteArrayOutputStream();
+
+        private RecordingOutputStream(@NonNull OutputStream output, int maxRecordingSize) {
+            this.output = output;
+            this.maxRecordingSize = maxRecordingSize;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            output.write(b);
+            if (canRecord(1)) {
+                recorder.write(b);
+            }
+        }
+
+        @Override
+        public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            output.write(buffer, offset, length);
+            if (canRecord(length)) {
+                recorder.write(buffer, offset, length);
+            }
+        }
+
+        private boolean canRecord(int length) {
+            if (recorder != null && recorder.size() + length > maxRecordingSize) {
+                recorder = null;  // releases what has been recorded so far
+            }
+            return recorder != null;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        /**
+         * The output is not closed here, the request does close it after the body has been written.
+         */
+        @Override
+        public void close() {
+        }
+    }
+}
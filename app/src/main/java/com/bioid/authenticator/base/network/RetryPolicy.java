@@ -0,0 +1,89 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Random;
+
+/**
+ * Decides whether a failed request is retried and how long to wait before (exponential backoff with jitter).
+ * <p/>
+ * Only transient transport failures are retried: connection errors and timeouts ({@link NoConnectionException}, except
+ * for an exceeded deadline of the whole call) as well as 5xx responses (except for requests rejected by an open
+ * {@link CircuitBreaker}).
+ * Results like a rejected image are never retried.
+ */
+public class RetryPolicy {
+
+    /**
+     * Does not retry at all.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, new Random());
+
+    private final int maxAttempts;
+    private final long initialDelayInMillis;
+    private final long maxDelayInMillis;
+    private final Random random;
+
+    /**
+     * @param maxAttempts          maximum number of attempts including the first one
+     * @param initialDelayInMillis delay before the first retry which is doubled for every further retry
+     * @param maxDelayInMillis     upper bound of the delay
+     */
+    public RetryPolicy(@IntRange(from = 1) int maxAttempts, @IntRange(from = 0) long initialDelayInMillis,
+                       @IntRange(from = 0) long maxDelayInMillis) {
+        this(maxAttempts, initialDelayInMillis, maxDelayInMillis, new Random());
+    }
+
+    @VisibleForTesting
+    RetryPolicy(int maxAttempts, long initialDelayInMillis, long maxDelayInMillis, @NonNull Random random) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialDelayInMillis = initialDelayInMillis;
+        this.maxDelayInMillis = maxDelayInMillis;
+        this.random = random;
+    }
+
+    /**
+     * Returns true if the request should be attempted again after the given attempt failed with the given exception.
+     *
+     * @param attempt the number of the failed attempt (starting at 1)
+     */
+    public boolean shouldRetry(@IntRange(from = 1) int attempt, @NonNull RuntimeException e) {
+        return attempt < maxAttempts && isTransient(e);
+    }
+
+    /**
+     * Returns the time to wait before the next attempt after the given attempt failed.
+     * Half of the exponential delay is randomized, so that clients which failed at the same time do not retry in lockstep.
+     *
+     * @param attempt the number of the failed attempt (starting at 1)
+     */
+    public long getDelayInMillis(@IntRange(from = 1) int attempt) {
+        long exponentialDelay = Math.min(maxDelayInMillis, initialDelayInMillis << Math.min(attempt - 1, 30));
+        long jitter = exponentialDelay / 2;
+        return exponentialDelay - jitter + (jitter > 0 ? (long) (random.nextDouble() * (jitter + 1)) : 0);
+    }
+
+    private static boolean isTransient(@NonNull RuntimeException e) {
+        if (e instanceof DeadlineExceededException || e instanceof CircuitOpenException) {
+            return false;
+        }
+        if (e instanceof HttpRequestHelper.Non200StatusException) {
+            return ((HttpRequestHelper.Non200StatusException) e).getStatus() >= 500;
+        }
+        return e instanceof NoConnectionException || e instanceof ServerErrorException;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxAttempts=" + maxAttempts +
+                ", initialDelayInMillis=" + initialDelayInMillis +
+                ", maxDelayInMillis=" + maxDelayInMillis +
+                '}';
+    }
+}
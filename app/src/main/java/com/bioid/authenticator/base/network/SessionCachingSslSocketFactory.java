@@ -0,0 +1,126 @@
+package com.bioid.authenticator.base.network;
+
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * SSLSocketFactory which persists TLS sessions in the app directory (see {@link SSLSessionCache}),
+ * so that even the first connection of a new process can resume a session instead of doing a full handshake.
+ * <p>
+ * The duration of each handshake is recorded separately for full and resumed handshakes, to see the saving in the field.
+ * Because the transport keys its connection pool by SSLSocketFactory, the same instance has to be used for all connections.
+ */
+public class SessionCachingSslSocketFactory extends SSLSocketFactory {
+
+    private static final int HANDSHAKE_TIMEOUT_IN_MILLIS = 10_000;
+
+    @VisibleForTesting
+    static final String METRIC_FULL_HANDSHAKE = "tls.full_handshake_millis";
+    @VisibleForTesting
+    static final String METRIC_RESUMED_HANDSHAKE = "tls.resumed_handshake_millis";
+
+    private final SSLSocketFactory delegate;
+    private final MetricsHelper metrics;
+
+    /**
+     * Creates a factory using the persistent session cache of the app.
+     */
+    @NonNull
+    public static SessionCachingSslSocketFactory create(@NonNull Context ctx) {
+        SSLSocketFactory delegate = SSLCertificateSocketFactory.getDefault(HANDSHAKE_TIMEOUT_IN_MILLIS, new SSLSessionCache(ctx));
+        return new SessionCachingSslSocketFactory(delegate, MetricsHelperFactory.create());
+    }
+
+    @VisibleForTesting
+    SessionCachingSslSocketFactory(SSLSocketFactory delegate, MetricsHelper metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return measureHandshake(delegate.createSocket());
+    }
+
+    /**
+     * Used by the transports to layer TLS over an established TCP connection, which is therefore reported as start of the
+     * TLS phase of the current request (see {@link ConnectionPhases}).
+     */
+    @Override
+    public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+        ConnectionPhases phases = ConnectionPhases.current();
+        if (phases != null) {
+            phases.onTlsStarted();
+        }
+        return measureHandshake(delegate.createSocket(socket, host, port, autoClose), phases);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return measureHandshake(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return measureHandshake(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return measureHandshake(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return measureHandshake(delegate.createSocket(address, port, localAddress, localPort));
+    }
+
+    /**
+     * The handshake starts right after the socket has been created, therefore it is measured from the creation on.
+     * A session which has been created before the socket must have been resumed.
+     */
+    @NonNull
+    private Socket measureHandshake(@NonNull Socket socket) {
+        return measureHandshake(socket, null);
+    }
+
+    @NonNull
+    private Socket measureHandshake(@NonNull Socket socket, @Nullable ConnectionPhases phases) {
+        if (socket instanceof SSLSocket) {
+            final long createdAt = System.currentTimeMillis();
+            ((SSLSocket) socket).addHandshakeCompletedListener(event -> {
+                long handshakeMillis = System.currentTimeMillis() - createdAt;
+                boolean resumed = event.getSession().getCreationTime() < createdAt;
+                metrics.record(resumed ? METRIC_RESUMED_HANDSHAKE : METRIC_FULL_HANDSHAKE, handshakeMillis);
+                if (phases != null) {
+                    phases.onTlsFinished();
+                }
+            });
+        }
+        return socket;
+    }
+}
@@ -0,0 +1,198 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Selects the connect and read timeout of a request based on the measured network conditions
+ * (see {@link BandwidthEstimator}) instead of using fixed values.
+ * <p>
+ * Pessimistic percentiles are used (slow round trips and low throughput), because a timeout must not fire on a link which is
+ * slow but working. The result is clamped by the floor and the ceiling configured for the type of the request, so a dead link
+ * is detected within the ceiling and fast links do not get unreasonably short timeouts.
+ * Without recent measurements the ceilings are used.
+ * <p>
+ * The selected timeouts are logged and recorded as metrics, so they can be audited in the field.
+ * This class is thread-safe.
+ */
+public class TimeoutPolicy {
+
+    /**
+     * Percentile of the round trip samples which is used (a slow one).
+     */
+    private static final double ROUND_TRIP_PERCENTILE = 0.9;
+    /**
+     * Percentile of the throughput samples which is used (a low one).
+     */
+    private static final double THROUGHPUT_PERCENTILE = 0.1;
+    /**
+     * The connection setup takes a round trip for the TCP and up to two for the TLS handshake, plus the DNS lookup.
+     */
+    private static final int CONNECT_ROUND_TRIPS = 4;
+    /**
+     * The expected time for the response is multiplied by this factor to tolerate variations.
+     */
+    private static final int READ_SAFETY_FACTOR = 2;
+
+    private static final TimeoutPolicy DEFAULT = new TimeoutPolicy(BandwidthEstimator.getDefault(),
+            LoggingHelperFactory.create(TimeoutPolicy.class), MetricsHelperFactory.create());
+
+    /**
+     * Types of requests which are handled differently, each with a default {@link RequestProfile}.
+     */
+    public enum RequestType {
+        /**
+         * Upload of a single image, the response is sent after the quality check.
+         */
+        UPLOAD(new RequestProfile(3_000, 15_000, 10_000, 30_000, 100 * 1024)),
+        /**
+         * Upload of the images for a PhotoVerify, the response is sent after the whole verification.
+         */
+        PHOTO_VERIFY(new RequestProfile(3_000, 15_000, 15_000, 30_000, 300 * 1024)),
+        /**
+         * Request without a significant body which triggers a server-side operation (e.g. verification or token request).
+         */
+        OPERATION(new RequestProfile(3_000, 15_000, 15_000, 45_000, 0));
+
+        private final RequestProfile defaultProfile;
+
+        RequestType(@NonNull RequestProfile defaultProfile) {
+            this.defaultProfile = defaultProfile;
+        }
+    }
+
+    private final BandwidthEstimator bandwidthEstimator;
+    private final LoggingHelper log;
+    private final MetricsHelper metrics;
+    private final Map<RequestType, RequestProfile> profiles = new EnumMap<>(RequestType.class);
+
+    /**
+     * Returns the process-wide policy which is based on the default {@link BandwidthEstimator}.
+     */
+    @NonNull
+    public static TimeoutPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    @VisibleForTesting
+    TimeoutPolicy(BandwidthEstimator bandwidthEstimator, LoggingHelper log, MetricsHelper metrics) {
+        this.bandwidthEstimator = bandwidthEstimator;
+        this.log = log;
+        this.metrics = metrics;
+        for (RequestType type : RequestType.values()) {
+            profiles.put(type, type.defaultProfile);
+        }
+    }
+
+    /**
+     * Replaces the profile (floors, ceilings and expected body size) used for the given type of request.
+     */
+    public synchronized void setProfile(@NonNull RequestType type, @NonNull RequestProfile profile) {
+        profiles.put(type, profile);
+    }
+
+    /**
+     * Selects the timeouts for the given type of request based on the current network conditions.
+     */
+    @NonNull
+    public Timeouts select(@NonNull RequestType type) {
+        RequestProfile profile;
+        synchronized (this) {
+            profile = profiles.get(type);
+        }
+        double roundTripMillis = bandwidthEstimator.getRoundTripPercentile(ROUND_TRIP_PERCENTILE);
+        double throughputBytesPerSecond = bandwidthEstimator.getThroughputPercentile(THROUGHPUT_PERCENTILE);
+
+        int connectMillis = profile.maxConnectMillis;
+        int readMillis = profile.maxReadMillis;
+        if (!Double.isNaN(roundTripMillis)) {
+            connectMillis = clamp(CONNECT_ROUND_TRIPS * roundTripMillis, profile.minConnectMillis, profile.maxConnectMillis);
+
+            boolean transferPredictable = profile.expectedBodyBytes == 0 || !Double.isNaN(throughputBytesPerSecond);
+            if (transferPredictable) {
+                double transferMillis = profile.expectedBodyBytes == 0
+                        ? 0.0
+                        : profile.expectedBodyBytes * 1000.0 / throughputBytesPerSecond;
+                double responseMillis = READ_SAFETY_FACTOR * (2 * roundTripMillis + transferMillis);
+                readMillis = clamp(responseMillis, profile.minReadMillis, profile.maxReadMillis);
+            }
+        }
+
+        Timeouts timeouts = new Timeouts(connectMillis, readMillis);
+        log.i("selected %s for %s (round trip p90=%.0f ms, throughput p10=%.1f KB/s)",
+                timeouts, type, roundTripMillis, throughputBytesPerSecond / 1024);
+        String metricPrefix = "timeouts." + type.name().toLowerCase(Locale.ENGLISH);
+        metrics.record(metricPrefix + ".connect_millis", connectMillis);
+        metrics.record(metricPrefix + ".read_millis", readMillis);
+        return timeouts;
+    }
+
+    /**
+     * Applies the timeouts selected for the given type of request to the request.
+     */
+    @NonNull
+    public HttpRequest apply(@NonNull HttpRequest request, @NonNull RequestType type) {
+        Timeouts timeouts = select(type);
+        return request.connectTimeout(timeouts.connectMillis).readTimeout(timeouts.readMillis);
+    }
+
+    private static int clamp(double millis, int min, int max) {
+        return (int) Math.max(min, Math.min(max, Math.ceil(millis)));
+    }
+
+    /**
+     * Floors and ceilings of the timeouts for a type of request and the expected size of its request body.
+     * The floor of the read timeout has to include the server-side processing time, because it is not measured.
+     */
+    public static final class RequestProfile {
+
+        private final int minConnectMillis;
+        private final int maxConnectMillis;
+        private final int minReadMillis;
+        private final int maxReadMillis;
+        private final long expectedBodyBytes;
+
+        public RequestProfile(@IntRange(from = 1) int minConnectMillis, @IntRange(from = 1) int maxConnectMillis,
+                              @IntRange(from = 1) int minReadMillis, @IntRange(from = 1) int maxReadMillis,
+                              @IntRange(from = 0) long expectedBodyBytes) {
+            if (minConnectMillis > maxConnectMillis || minReadMillis > maxReadMillis) {
+                throw new IllegalArgumentException("floor must not be greater than ceiling");
+            }
+            this.minConnectMillis = minConnectMillis;
+            this.maxConnectMillis = maxConnectMillis;
+            this.minReadMillis = minReadMillis;
+            this.maxReadMillis = maxReadMillis;
+            this.expectedBodyBytes = expectedBodyBytes;
+        }
+    }
+
+    /**
+     * The selected timeouts of a single request.
+     */
+    public static final class Timeouts {
+
+        public final int connectMillis;
+        public final int readMillis;
+
+        @VisibleForTesting
+        Timeouts(int connectMillis, int readMillis) {
+            this.connectMillis = connectMillis;
+            this.readMillis = readMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "Timeouts{connect=" + connectMillis + " ms, read=" + readMillis + " ms}";
+        }
+    }
+}
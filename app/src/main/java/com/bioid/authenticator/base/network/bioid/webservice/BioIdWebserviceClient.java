@@ -3,28 +3,47 @@ package com.bioid.authenticator.base.network.bioid.webservice;
 import android.graphics.Bitmap;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
-import android.util.ArrayMap;
 
 import com.bioid.authenticator.BuildConfig;
+import com.bioid.authenticator.base.functional.Supplier;
+import com.bioid.authenticator.base.image.ImageEncoder;
+import com.bioid.authenticator.base.image.ImageEncoders;
 import com.bioid.authenticator.base.image.ImageFormatConverter;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+import com.bioid.authenticator.base.network.CircuitBreakers;
+import com.bioid.authenticator.base.network.CircuitOpenException;
 import com.bioid.authenticator.base.network.HttpRequest;
 import com.bioid.authenticator.base.network.HttpRequestHelper;
+import com.bioid.authenticator.base.network.JsonStreamingBody;
 import com.bioid.authenticator.base.network.NoConnectionException;
+import com.bioid.authenticator.base.network.ReplayableStreamingBody;
+import com.bioid.authenticator.base.network.RetryPolicy;
 import com.bioid.authenticator.base.network.ServerErrorException;
 import com.bioid.authenticator.base.network.TechnicalException;
+import com.bioid.authenticator.base.network.TimeoutPolicy;
 import com.bioid.authenticator.base.network.bioid.webservice.token.BwsToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.LivenessToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.VerificationToken;
+import com.bioid.authenticator.base.threading.ComputationExecutor;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Client for the BioID Webservice (BWS).
@@ -34,8 +53,16 @@ public class BioIdWebserviceClient {
     @SuppressWarnings("WeakerAccess")  // used in bws flavor
     static final String BWS_BASE_URL = String.format("https://%s.bioid.com", BuildConfig.BIOID_BWS_INSTANCE_NAME);
 
-    private static final String MIME_TYPE_PNG = "image/png";
+    private static final String CONTENT_TYPE_DATA_URL = "text/plain; charset=utf-8";
+    private static final String CONTENT_TYPE_BINARY = "application/octet-stream";
     private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String METRIC_PHOTO_VERIFY_LATENCY = "photo_verify.latency_millis";
+    private static final String METRIC_RETRIES = "bws.retries";
+    /**
+     * Retries transient failures twice, waiting up to 0.5 s and 1 s (the upload deadline still limits the total time).
+     */
+    private static final RetryPolicy DEFAULT_UPLOAD_RETRY_POLICY = new RetryPolicy(3, 500, 4000);
+    private static final int UNKNOWN_CONTENT_LENGTH = -1;
 
     @VisibleForTesting
     static final int HTTP_STATUS_NO_SAMPLES = 400;
@@ -65,6 +92,31 @@ public class BioIdWebserviceClient {
     private final LoggingHelper log;
     private final Encoder encoder;
     private final ImageFormatConverter imageFormatConverter;
+    private final MetricsHelper metrics = MetricsHelperFactory.create();
+    private volatile ImageEncoder uploadImageEncoder;
+    private volatile RetryPolicy uploadRetryPolicy = DEFAULT_UPLOAD_RETRY_POLICY;
+
+    @VisibleForTesting
+    String bwsBaseUrl = BWS_BASE_URL;
+    /**
+     * Uploads the encoded image as binary body instead of a Base64 data URL which is a third smaller.
+     * This has to be supported by the BWS deployment, therefore it is configured by the build (UPLOAD_IMAGE_BINARY).
+     */
+    @VisibleForTesting
+    boolean binaryUpload = BuildConfig.UPLOAD_IMAGE_BINARY;
+    @VisibleForTesting
+    ImageEncoder photoVerifyImageEncoder = ImageEncoders.png();
+    /**
+     * Selects the connect and read timeouts of all requests based on the measured network conditions.
+     */
+    @VisibleForTesting
+    TimeoutPolicy timeoutPolicy = TimeoutPolicy.getDefault();
+    /**
+     * Used to encode the PhotoVerify images concurrently (null encodes them one after another while they are written).
+     * The image encoder must not use this executor itself, because the tasks would block on each other.
+     */
+    @VisibleForTesting
+    ExecutorService photoVerifyExecutor = ComputationExecutor.getParallelism() > 1 ? ComputationExecutor.get() : null;
 
     /**
      * Creates a new instance of the BioIdWebserviceClient.
@@ -74,6 +126,7 @@ public class BioIdWebserviceClient {
         this.log = LoggingHelperFactory.create(BioIdWebserviceClient.class);
         this.encoder = new Encoder();
         this.imageFormatConverter = new ImageFormatConverter();
+        this.uploadImageEncoder = createConfiguredUploadImageEncoder(imageFormatConverter);
     }
 
     @VisibleForTesting
@@ -83,6 +136,54 @@ public class BioIdWebserviceClient {
         this.log = log;
         this.encoder = encoder;
         this.imageFormatConverter = imageFormatConverter;
+        this.uploadImageEncoder = createConfiguredUploadImageEncoder(imageFormatConverter);
+    }
+
+    /**
+     * Uses the upload image format and quality configured by the build (UPLOAD_IMAGE_FORMAT and UPLOAD_IMAGE_QUALITY).
+     */
+    @NonNull
+    private static ImageEncoder createConfiguredUploadImageEncoder(@NonNull ImageFormatConverter imageFormatConverter) {
+        return ImageEncoders.forFormat(BuildConfig.UPLOAD_IMAGE_FORMAT, BuildConfig.UPLOAD_IMAGE_QUALITY, imageFormatConverter);
+    }
+
+    /**
+     * Changes the encoder used for all following {@link #uploadImage(Bitmap, BwsToken, MovementDirection, int)} calls.
+     * To choose the encoder for a single upload (e.g. a smaller lossy format on slow networks) pass it to
+     * {@link #newUploadImageCall(Bitmap, ImageEncoder, BwsToken, MovementDirection, int)} instead.
+     */
+    public void setUploadImageEncoder(@NonNull ImageEncoder uploadImageEncoder) {
+        log.d("using %s for image uploads", uploadImageEncoder);
+        this.uploadImageEncoder = uploadImageEncoder;
+    }
+
+    /**
+     * Changes the policy used to retry image uploads which failed because of a transient transport failure
+     * ({@link RetryPolicy#NONE} disables retries).
+     */
+    public void setUploadRetryPolicy(@NonNull RetryPolicy uploadRetryPolicy) {
+        log.d("using %s for image uploads", uploadRetryPolicy);
+        this.uploadRetryPolicy = uploadRetryPolicy;
+    }
+
+    /**
+     * Fails fast if an endpoint of BWS is known to be unavailable because it failed repeatedly (see {@link CircuitBreakers}),
+     * so that a biometric operation is not started just to fail later on.
+     * Once the endpoint is probed again, this check does pass.
+     *
+     * @throws CircuitOpenException if BWS is currently considered unavailable
+     */
+    public void checkAvailability() {
+        httpRequestHelper.checkAvailability(bwsBaseUrl);
+    }
+
+    /**
+     * Establishes the connection to BWS in advance, so that the first request of a session (usually the token request)
+     * does not have to wait for the DNS lookup, TCP and TLS handshake.
+     * Must not be called on the main thread, errors are ignored.
+     */
+    public void preconnect() {
+        httpRequestHelper.preconnect(bwsBaseUrl + "/");
     }
 
     /**
@@ -99,23 +200,25 @@ public class BioIdWebserviceClient {
      * @throws TechnicalException         if any other technical error occurred
      */
     public void verify(@NonNull VerificationToken verificationToken) {
-        try {
-            HttpRequest request = createVerificationResultRequest(verificationToken.getToken());
-            JSONObject responseBody = httpRequestHelper.asJsonIfOk(request);
-            handleBiometricOperationResult(responseBody);
-        } catch (HttpRequestHelper.Non200StatusException e) {
-            if (e.getStatus() == HTTP_STATUS_NO_SAMPLES) {
-                throw new NoSamplesException();
-            }
-            throw new TechnicalException(e);
-        }
+        newVerifyCall(verificationToken).execute();
+    }
+
+    /**
+     * Like {@link #verify(VerificationToken)} but returns the call, which can be executed asynchronously and cancelled.
+     */
+    @NonNull
+    public BwsCall<Void> newVerifyCall(@NonNull final VerificationToken verificationToken) {
+        return new BwsCall<>(call -> {
+            fetchBiometricOperationResult(call.attach(createVerificationResultRequest(verificationToken.getToken())));
+            return null;
+        });
     }
 
     @VisibleForTesting
     protected HttpRequest createVerificationResultRequest(@NonNull String token) {
         try {
             return withDefaultTimeout(
-                    HttpRequest.get(BWS_BASE_URL + "/extension/verify")
+                    HttpRequest.get(bwsBaseUrl + "/extension/verify")
                             .authorization("Bearer " + token)
                             .acceptJson());
         } catch (HttpRequest.HttpRequestException e) {
@@ -135,23 +238,25 @@ public class BioIdWebserviceClient {
      * @throws TechnicalException         if any other technical error occurred
      */
     public void livenessDetection(@NonNull LivenessToken livenessToken) {
-        try {
-            HttpRequest request = createLivenessResultRequest(livenessToken.getToken());
-            JSONObject responseBody = httpRequestHelper.asJsonIfOk(request);
-            handleBiometricOperationResult(responseBody);
-        } catch (HttpRequestHelper.Non200StatusException e) {
-            if (e.getStatus() == HTTP_STATUS_NO_SAMPLES) {
-                throw new NoSamplesException();
-            }
-            throw new TechnicalException(e);
-        }
+        newLivenessDetectionCall(livenessToken).execute();
+    }
+
+    /**
+     * Like {@link #livenessDetection(LivenessToken)} but returns the call, which can be executed asynchronously and cancelled.
+     */
+    @NonNull
+    public BwsCall<Void> newLivenessDetectionCall(@NonNull final LivenessToken livenessToken) {
+        return new BwsCall<>(call -> {
+            fetchBiometricOperationResult(call.attach(createLivenessResultRequest(livenessToken.getToken())));
+            return null;
+        });
     }
 
     @VisibleForTesting
     protected HttpRequest createLivenessResultRequest(@NonNull String token) {
         try {
             return withDefaultTimeout(
-                    HttpRequest.get(BWS_BASE_URL + "/extension/livenessdetection")
+                    HttpRequest.get(bwsBaseUrl + "/extension/livenessdetection")
                             .authorization("Bearer " + token)
                             .acceptJson());
         } catch (HttpRequest.HttpRequestException e) {
@@ -171,23 +276,25 @@ public class BioIdWebserviceClient {
      * @throws TechnicalException         if any other technical error occurred
      */
     public void enroll(@NonNull EnrollmentToken enrollmentToken) {
-        try {
-            HttpRequest request = createEnrollmentResultRequest(enrollmentToken.getToken());
-            JSONObject responseBody = httpRequestHelper.asJsonIfOk(request);
-            handleBiometricOperationResult(responseBody);
-        } catch (HttpRequestHelper.Non200StatusException e) {
-            if (e.getStatus() == HTTP_STATUS_NO_SAMPLES) {
-                throw new NoSamplesException();
-            }
-            throw new TechnicalException(e);
-        }
+        newEnrollCall(enrollmentToken).execute();
+    }
+
+    /**
+     * Like {@link #enroll(EnrollmentToken)} but returns the call, which can be executed asynchronously and cancelled.
+     */
+    @NonNull
+    public BwsCall<Void> newEnrollCall(@NonNull final EnrollmentToken enrollmentToken) {
+        return new BwsCall<>(call -> {
+            fetchBiometricOperationResult(call.attach(createEnrollmentResultRequest(enrollmentToken.getToken())));
+            return null;
+        });
     }
 
     @VisibleForTesting
     protected HttpRequest createEnrollmentResultRequest(@NonNull String token) {
         try {
             return withDefaultTimeout(
-                    HttpRequest.get(BWS_BASE_URL + "/extension/enroll")
+                    HttpRequest.get(bwsBaseUrl + "/extension/enroll")
                             .authorization("Bearer " + token)
                             .acceptJson());
         } catch (HttpRequest.HttpRequestException e) {
@@ -198,40 +305,45 @@ public class BioIdWebserviceClient {
     // used in bws flavor
     @SuppressWarnings("WeakerAccess")
     HttpRequest withDefaultTimeout(HttpRequest request) {
-        return request.connectTimeout(40000).readTimeout(60000);
+        return timeoutPolicy.apply(request, TimeoutPolicy.RequestType.OPERATION);
     }
 
-    private void handleBiometricOperationResult(JSONObject json) {
+    private void fetchBiometricOperationResult(@NonNull HttpRequest request) {
         try {
-            boolean success = json.getBoolean(JSON_KEY_SUCCESS);
+            handleBiometricOperationResult(httpRequestHelper.readJsonIfOk(request, BiometricOperationResult.DECODER));
+        } catch (HttpRequestHelper.Non200StatusException e) {
+            if (e.getStatus() == HTTP_STATUS_NO_SAMPLES) {
+                throw new NoSamplesException();
+            }
+            throw new TechnicalException(e);
+        }
+    }
 
-            if (!success) {
+    private void handleBiometricOperationResult(@NonNull BiometricOperationResult result) {
+        if (!result.isSuccess()) {
 
-                if (!json.has(JSON_KEY_ERROR)) {
-                    throw new NotRecognizedException();
-                }
+            String error = result.getError();
+            if (error == null) {
+                throw new NotRecognizedException();
+            }
 
-                String error = json.getString(JSON_KEY_ERROR);
-                switch (error) {
-                    case ERROR_CODE_LIVE_DETECTION_FAILED:
-                        throw new LiveDetectionException();
-                    case ERROR_CODE_CHALLENGE_RESPONSE_FAILED:
-                        throw new ChallengeResponseException();
-                    case ERROR_CODE_NO_TEMPLATE_AVAILABLE:
-                        throw new NoEnrollmentException();
-                    default:
-                        throw new TechnicalException("unknown error code: " + error);
-                }
+            switch (error) {
+                case ERROR_CODE_LIVE_DETECTION_FAILED:
+                    throw new LiveDetectionException();
+                case ERROR_CODE_CHALLENGE_RESPONSE_FAILED:
+                    throw new ChallengeResponseException();
+                case ERROR_CODE_NO_TEMPLATE_AVAILABLE:
+                    throw new NoEnrollmentException();
+                default:
+                    throw new TechnicalException("unknown error code: " + error);
             }
-        } catch (JSONException e) {
-            throw new TechnicalException("missing key on JSON deserialization", e);
         }
     }
 
     /**
      * Uploads an image for enrollment or verification.
      *
-     * @param bitmap    image which should be uploaded
+     * @param bitmap    image which should be uploaded (encoded using the configured {@link ImageEncoder})
      * @param bwsToken  BWS token for enrollment or verification
      * @param direction specifies the movement direction of the head
      * @param index     index of the uploaded image within a series of uploads
@@ -244,16 +356,125 @@ public class BioIdWebserviceClient {
      */
     public void uploadImage(@NonNull Bitmap bitmap, @NonNull BwsToken bwsToken, @NonNull MovementDirection direction,
                             @IntRange(from = 1) int index) {
-        try {
-            HttpRequest request = createUploadImageRequest(prepareImage(bitmap), bwsToken, direction, index);
+        newUploadImageCall(bitmap, bwsToken, direction, index).execute();
+    }
 
-            JSONObject responseBody = httpRequestHelper.asJsonIfOk(request);
-            handleImageUploadResult(responseBody);
-        } catch (HttpRequestHelper.Non200StatusException e) {
-            if (e.getStatus() == HTTP_STATUS_WRONG_CREDENTIALS) {
-                throw new WrongCredentialsException();
-            } else {
-                throw new TechnicalException(e);
+    /**
+     * Like {@link #uploadImage(Bitmap, BwsToken, MovementDirection, int)} but returns the call,
+     * which can be executed asynchronously and cancelled (e.g. if the image is captured again).
+     * The image is encoded using the {@link ImageEncoder} set at the time the call is created.
+     */
+    @NonNull
+    public BwsCall<Void> newUploadImageCall(@NonNull final Bitmap bitmap, @NonNull final BwsToken bwsToken,
+                                            @NonNull final MovementDirection direction, @IntRange(from = 1) final int index) {
+        return newUploadImageCall(bitmap, null, bwsToken, direction, index);
+    }
+
+    /**
+     * Like {@link #newUploadImageCall(Bitmap, BwsToken, MovementDirection, int)} but encodes the image using the given encoder.
+     * The encoder applies to this call only, so concurrent uploads can use different encoders.
+     *
+     * @param imageEncoder encoder for this upload or null to use the configured one (see {@link #setUploadImageEncoder(ImageEncoder)})
+     */
+    @NonNull
+    public BwsCall<Void> newUploadImageCall(@NonNull final Bitmap bitmap, @Nullable final ImageEncoder imageEncoder,
+                                            @NonNull final BwsToken bwsToken, @NonNull final MovementDirection direction,
+                                            @IntRange(from = 1) final int index) {
+        // a retry sends the same payload, it is recorded while the first attempt is written
+        HttpRequest.StreamingBody body = new ReplayableStreamingBody(asUploadBody(bitmap, orConfigured(imageEncoder)));
+        return newUploadCall(body, getUploadContentType(), bwsToken, direction, index);
+    }
+
+    /**
+     * Returns a body writing the payload which {@link #newUploadImageCall(Bitmap, ImageEncoder, BwsToken, MovementDirection, int)}
+     * would send, so it can be kept (e.g. spooled to disk) and uploaded later using
+     * {@link #newUploadCall(HttpRequest.StreamingBody, String, BwsToken, MovementDirection, int)}.
+     * The image is encoded while the body is written, so the payload is not held in memory as a whole.
+     *
+     * @param imageEncoder encoder for this upload or null to use the configured one (see {@link #setUploadImageEncoder(ImageEncoder)})
+     */
+    @NonNull
+    public HttpRequest.StreamingBody newUploadImageBody(@NonNull Bitmap bitmap, @Nullable ImageEncoder imageEncoder) {
+        return asUploadBody(bitmap, orConfigured(imageEncoder));
+    }
+
+    @NonNull
+    private ImageEncoder orConfigured(@Nullable ImageEncoder imageEncoder) {
+        return imageEncoder != null ? imageEncoder : uploadImageEncoder;
+    }
+
+    /**
+     * Returns the content type of the payloads written by {@link #newUploadImageBody(Bitmap, ImageEncoder)}.
+     */
+    @NonNull
+    public String getUploadContentType() {
+        return binaryUpload ? CONTENT_TYPE_BINARY : CONTENT_TYPE_DATA_URL;
+    }
+
+    /**
+     * Like {@link #newUploadImageCall(Bitmap, BwsToken, MovementDirection, int)} but uploads a payload which has already been
+     * encoded (see {@link #newUploadImageBody(Bitmap, ImageEncoder)}).
+     *
+     * @param body        writes the payload, has to write the same payload again if the upload is retried
+     * @param contentType the content type of the payload
+     */
+    @NonNull
+    public BwsCall<Void> newUploadCall(@NonNull HttpRequest.StreamingBody body, @NonNull String contentType,
+                                       @NonNull BwsToken bwsToken, @NonNull MovementDirection direction,
+                                       @IntRange(from = 1) int index) {
+        return newUploadCall(body, UNKNOWN_CONTENT_LENGTH, contentType, bwsToken, direction, index);
+    }
+
+    /**
+     * Like {@link #newUploadCall(HttpRequest.StreamingBody, String, BwsToken, MovementDirection, int)} but for a payload
+     * whose size is known in advance (e.g. a spooled payload), which is sent using fixed-length streaming mode instead of
+     * chunked streaming mode.
+     *
+     * @param contentLength the number of bytes the body writes
+     */
+    @NonNull
+    public BwsCall<Void> newUploadCall(@NonNull final HttpRequest.StreamingBody body, final int contentLength,
+                                       @NonNull final String contentType, @NonNull final BwsToken bwsToken,
+                                       @NonNull final MovementDirection direction, @IntRange(from = 1) final int index) {
+        final RetryPolicy retryPolicy = uploadRetryPolicy;
+        return new BwsCall<>(call -> {
+            try {
+                handleImageUploadResult(sendWithRetry(call, retryPolicy, "upload of image " + index, () -> {
+                    HttpRequest request = createUploadImageRequest(call, body, contentLength, contentType, bwsToken,
+                            direction, index);
+                    return httpRequestHelper.readJsonIfOk(request, UploadResult.DECODER);
+                }));
+                return null;
+            } catch (HttpRequestHelper.Non200StatusException e) {
+                if (e.getStatus() == HTTP_STATUS_WRONG_CREDENTIALS) {
+                    throw new WrongCredentialsException();
+                } else {
+                    throw new TechnicalException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Performs the request exchange and retries it as long as the retry policy allows it (see {@link RetryPolicy}).
+     * Other failures and the failure of the last attempt are thrown as they are.
+     *
+     * @param description used for logging only
+     */
+    @NonNull
+    private <R> R sendWithRetry(@NonNull BwsCall<?> call, @NonNull RetryPolicy retryPolicy, @NonNull String description,
+                                @NonNull Supplier<R> exchange) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return exchange.get();
+            } catch (RuntimeException e) {
+                if (call.isCancelled() || !retryPolicy.shouldRetry(attempt, e)) {
+                    throw e;
+                }
+                long delay = retryPolicy.getDelayInMillis(attempt);
+                log.w("%s failed on attempt %d (%s), retrying in %d ms", description, attempt, e, delay);
+                metrics.count(METRIC_RETRIES);
+                call.backoff(delay);
             }
         }
     }
@@ -268,27 +489,47 @@ public class BioIdWebserviceClient {
      * @throws PhotoVerifyException if verification failed (for any reason)
      */
     public void performPhotoVerify(Bitmap[] selfies, Bitmap idphoto) {
-        byte[] prepraredSelfie1 = prepareImage(selfies[0]);
-        byte[] prepraredSelfie2 = prepareImage(selfies[1]);
-        byte[] preparedIdphoto = prepareImage(idphoto);
+        newPhotoVerifyCall(selfies, idphoto).execute();
+    }
 
+    /**
+     * Like {@link #performPhotoVerify(Bitmap[], Bitmap)} but returns the call, which can be executed asynchronously and cancelled.
+     */
+    @NonNull
+    public BwsCall<Void> newPhotoVerifyCall(@NonNull final Bitmap[] selfies, @NonNull final Bitmap idphoto) {
+        return new BwsCall<>(call -> {
+            performPhotoVerify(call, selfies, idphoto);
+            return null;
+        });
+    }
+
+    private void performPhotoVerify(@NonNull BwsCall<?> call, @NonNull Bitmap[] selfies, @NonNull Bitmap idphoto) {
+        long startedAt = System.nanoTime();
+
+        // the first image is encoded while it is written, meanwhile the other images are encoded concurrently
+        // (none of the images is held in memory as Base64 representation)
+        ExecutorService executor = photoVerifyExecutor;
+        Future<ByteArrayOutputStream> encodedSelfie2 = encodeConcurrently(selfies[1], photoVerifyImageEncoder, executor);
+        Future<ByteArrayOutputStream> encodedIdphoto = encodeConcurrently(idphoto, photoVerifyImageEncoder, executor);
         try {
-            JSONObject requestBody = new JSONObject();
-            requestBody.put("liveimage1", new String(prepraredSelfie1));
-            requestBody.put("liveimage2", new String(prepraredSelfie2));
-            requestBody.put("idphoto", new String(preparedIdphoto));
+            JsonStreamingBody requestBody = new JsonStreamingBody()
+                    .stringField("liveimage1", asDataUrlBody(selfies[0], photoVerifyImageEncoder))
+                    .stringField("liveimage2", asDataUrlBody(encodedSelfie2, selfies[1], photoVerifyImageEncoder))
+                    .stringField("idphoto", asDataUrlBody(encodedIdphoto, idphoto, photoVerifyImageEncoder));
 
-            HttpRequest request = HttpRequest.post(BWS_BASE_URL + "/extension/photoverify", null, true)
+            HttpRequest request = HttpRequest.post(bwsBaseUrl + "/extension/photoverify", null, true)
                     .authorization("Basic " + getBasicToken())
                     .acceptJson()
-                    .contentType("application/json", "utf-8")
-                    .connectTimeout(5000)
-                    .readTimeout(25_000)
-                    .send(requestBody.toString().getBytes());
+                    .contentType("application/json", "utf-8");
+            timeoutPolicy.apply(request, TimeoutPolicy.RequestType.PHOTO_VERIFY);
+            httpRequestHelper.send(call.attach(request), requestBody);
 
             handlePhotoVerifyResult(request);
-        } catch (JSONException e) {
-            e.printStackTrace();
+        } finally {
+            // does not affect encodings which are already done (e.g. if the request failed)
+            cancel(encodedSelfie2);
+            cancel(encodedIdphoto);
+            metrics.record(METRIC_PHOTO_VERIFY_LATENCY, (System.nanoTime() - startedAt) / 1_000_000.0);
         }
     }
 
@@ -300,40 +541,127 @@ public class BioIdWebserviceClient {
         return new String(encoder.encodeAsBase64(stringToken.getBytes()));
     }
 
+    /**
+     * Writes the image in the configured upload format (binary or data URL).
+     */
+    @NonNull
+    private HttpRequest.StreamingBody asUploadBody(@NonNull Bitmap bitmap, @NonNull ImageEncoder imageEncoder) {
+        return binaryUpload ? asBinaryBody(bitmap, imageEncoder) : asDataUrlBody(bitmap, imageEncoder);
+    }
+
+    /**
+     * Writes the encoded image as it is, the image is encoded while the request body is written.
+     */
+    @NonNull
+    private HttpRequest.StreamingBody asBinaryBody(@NonNull final Bitmap bitmap, @NonNull final ImageEncoder imageEncoder) {
+        return new HttpRequest.StreamingBody() {
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                imageEncoder.encode(bitmap, output);
+            }
+        };
+    }
+
+    /**
+     * Writes the encoded image as Base64 data URL, the image is encoded while the request body is written.
+     * Neither the encoded image nor its Base64 representation are held in memory as a whole.
+     */
+    @NonNull
+    private HttpRequest.StreamingBody asDataUrlBody(@NonNull final Bitmap bitmap, @NonNull final ImageEncoder imageEncoder) {
+        return new HttpRequest.StreamingBody() {
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(("data:" + imageEncoder.getMimeType() + ";base64,").getBytes(UTF_8));
+                try (OutputStream base64Output = encoder.encodeAsBase64(output)) {
+                    imageEncoder.encode(bitmap, base64Output);
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts to encode the image into an in-memory buffer using the given executor.
+     *
+     * @return the buffered encoded image or null if there is no executor (the image is encoded while it is written)
+     */
+    @Nullable
+    private static Future<ByteArrayOutputStream> encodeConcurrently(@NonNull final Bitmap bitmap,
+                                                                    @NonNull final ImageEncoder imageEncoder,
+                                                                    @Nullable ExecutorService executor) {
+        if (executor == null) {
+            return null;
+        }
+        return executor.submit(() -> {
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            imageEncoder.encode(bitmap, encoded);
+            return encoded;
+        });
+    }
+
+    /**
+     * Like {@link #asDataUrlBody(Bitmap, ImageEncoder)} but writes the image which has been encoded concurrently
+     * (waiting for the encoding to finish if necessary).
+     *
+     * @param encoded the concurrently encoded image or null to encode the image while it is written
+     */
     @NonNull
-    private byte[] prepareImage(@NonNull Bitmap bitmap) {
-        byte[] imgAsPNG = imageFormatConverter.bitmapToPng(bitmap);
-        return asDataUrl(MIME_TYPE_PNG, imgAsPNG);
+    private HttpRequest.StreamingBody asDataUrlBody(@Nullable final Future<ByteArrayOutputStream> encoded,
+                                                    @NonNull final Bitmap bitmap, @NonNull final ImageEncoder imageEncoder) {
+        if (encoded == null) {
+            return asDataUrlBody(bitmap, imageEncoder);
+        }
+        return new HttpRequest.StreamingBody() {
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                ByteArrayOutputStream encodedImage = awaitEncoding(encoded);
+                output.write(("data:" + imageEncoder.getMimeType() + ";base64,").getBytes(UTF_8));
+                try (OutputStream base64Output = encoder.encodeAsBase64(output)) {
+                    encodedImage.writeTo(base64Output);
+                }
+            }
+        };
     }
 
     @NonNull
-    @SuppressWarnings("SameParameterValue")
-    private byte[] asDataUrl(@NonNull String mimeType, @NonNull byte[] data) {
-        byte[] dataUrlHeader = ("data:" + mimeType + ";base64,").getBytes(UTF_8);
-        byte[] dataAsBase64 = encoder.encodeAsBase64(data);
+    private static ByteArrayOutputStream awaitEncoding(@NonNull Future<ByteArrayOutputStream> encoded) throws IOException {
+        try {
+            return encoded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for encoded image", e);
+        } catch (ExecutionException e) {
+            throw new IOException("encoding image failed", e.getCause());
+        }
+    }
 
-        byte[] dataUrl = new byte[dataUrlHeader.length + dataAsBase64.length];
-        System.arraycopy(dataUrlHeader, 0, dataUrl, 0, dataUrlHeader.length);
-        System.arraycopy(dataAsBase64, 0, dataUrl, dataUrlHeader.length, dataAsBase64.length);
-        return dataUrl;
+    private static void cancel(@Nullable Future<?> future) {
+        if (future != null) {
+            future.cancel(false);
+        }
     }
 
+    /**
+     * @param contentLength the number of bytes written by the image body or -1 if unknown (the body is sent chunked then)
+     */
     @VisibleForTesting
-    protected HttpRequest createUploadImageRequest(@NonNull byte[] imgAsDataUrl, @NonNull BwsToken token,
-                                                   @NonNull MovementDirection direction, @IntRange(from = 1) int index) {
+    protected HttpRequest createUploadImageRequest(@NonNull BwsCall<?> call, @NonNull HttpRequest.StreamingBody img,
+                                                   int contentLength, @NonNull String contentType,
+                                                   @NonNull BwsToken token, @NonNull MovementDirection direction,
+                                                   @IntRange(from = 1) int index) {
         try {
-            Map<String, String> queryParameters = new ArrayMap<>(3);
+            Map<String, String> queryParameters = new HashMap<>(3);
             queryParameters.put("tag", direction.name());
             queryParameters.put("index", Integer.toString(index));
             queryParameters.put("trait", getTraitParamForImageUpload(token));
 
-            return HttpRequest.post(BWS_BASE_URL + "/extension/upload", queryParameters, true)
+            HttpRequest request = HttpRequest.post(bwsBaseUrl + "/extension/upload", queryParameters, true)
                     .authorization("Bearer " + token.getToken())
                     .acceptJson()
-                    .contentType("text/plain", "utf-8")
-                    .connectTimeout(5000)
-                    .readTimeout(25_000)
-                    .send(imgAsDataUrl);
+                    .contentType(contentType);
+            timeoutPolicy.apply(request, TimeoutPolicy.RequestType.UPLOAD);
+            return contentLength == UNKNOWN_CONTENT_LENGTH
+                    ? httpRequestHelper.send(call.attach(request), img)
+                    : httpRequestHelper.send(call.attach(request), img, contentLength);
         } catch (HttpRequest.HttpRequestException e) {
             throw new NoConnectionException(e);
         }
@@ -350,23 +678,23 @@ public class BioIdWebserviceClient {
         }
     }
 
-    private void handleImageUploadResult(@NonNull JSONObject json) {
-        try {
-            boolean accepted = json.getBoolean(JSON_KEY_ACCEPTED);
-            if (!accepted) {
-                String error = json.getString(JSON_KEY_ERROR);
-                switch (error) {
-                    case ERROR_CODE_NO_FACE:
-                        throw new NoFaceFoundException();
-                    case ERROR_CODE_MULTIPLE_FACES:
-                        throw new MultipleFacesFoundException();
-                    default:
-                        log.w("mapped quality check error '%s' to '%s'", error, ERROR_CODE_NO_FACE);
-                        throw new NoFaceFoundException();
-                }
+    private void handleImageUploadResult(@NonNull UploadResult result) {
+        if (!result.isAccepted()) {
+
+            String error = result.getError();
+            if (error == null) {
+                throw new TechnicalException("missing key on JSON deserialization: " + JSON_KEY_ERROR);
+            }
+
+            switch (error) {
+                case ERROR_CODE_NO_FACE:
+                    throw new NoFaceFoundException();
+                case ERROR_CODE_MULTIPLE_FACES:
+                    throw new MultipleFacesFoundException();
+                default:
+                    log.w("mapped quality check error '%s' to '%s'", error, ERROR_CODE_NO_FACE);
+                    throw new NoFaceFoundException();
             }
-        } catch (JSONException e) {
-            throw new TechnicalException("missing key on JSON deserialization", e);
         }
     }
 
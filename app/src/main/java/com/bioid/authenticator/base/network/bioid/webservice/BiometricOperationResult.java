@@ -0,0 +1,62 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import android.support.annotation.Nullable;
+
+import com.bioid.authenticator.base.network.JsonDecoder;
+import com.bioid.authenticator.base.network.JsonStreamingReader;
+
+import static com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient.JSON_KEY_ERROR;
+import static com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient.JSON_KEY_SUCCESS;
+
+/**
+ * Result of a verification, enrollment or liveness detection, e.g. {"Success":false,"Error":"LiveDetectionFailed", ...}.
+ * Keys which are not needed by the client are skipped.
+ */
+final class BiometricOperationResult {
+
+    static final JsonDecoder<BiometricOperationResult> DECODER = reader -> {
+        Boolean success = null;
+        String error = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case JSON_KEY_SUCCESS:
+                    success = reader.nextBoolean();
+                    break;
+                case JSON_KEY_ERROR:
+                    error = reader.nextStringOrNull();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (success == null) {
+            throw new JsonStreamingReader.MalformedJsonException("missing key " + JSON_KEY_SUCCESS);
+        }
+        return new BiometricOperationResult(success, error);
+    };
+
+    private final boolean success;
+    private final String error;
+
+    BiometricOperationResult(boolean success, @Nullable String error) {
+        this.success = success;
+        this.error = error;
+    }
+
+    boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Returns the error code if the operation was not successful (or null if the user was simply not recognized).
+     */
+    @Nullable
+    String getError() {
+        return error;
+    }
+}
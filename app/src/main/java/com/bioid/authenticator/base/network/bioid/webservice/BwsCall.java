@@ -0,0 +1,219 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.bioid.authenticator.base.functional.Consumer;
+import com.bioid.authenticator.base.network.DeadlineExceededException;
+import com.bioid.authenticator.base.network.HttpRequest;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single call to the BWS, which can be executed synchronously ({@link #execute()}) or asynchronously
+ * ({@link #enqueue(Executor, Consumer, Consumer)}) and can be aborted from any thread at any time ({@link #cancel()}).
+ * <p/>
+ * Aborting does disconnect the underlying connection, so a running upload does not continue to use the bandwidth
+ * and the executing thread is released right away.
+ * A call can be executed only once.
+ *
+ * @param <T> type of the result (Void if the call does not have any result)
+ */
+public final class BwsCall<T> {
+
+    /**
+     * Used to abort calls which exceed their deadline.
+     */
+    private static final ScheduledThreadPoolExecutor DEADLINE_TIMER = createDeadlineTimer();
+
+    /**
+     * The actual BWS operation which has to attach every HttpRequest to the call before the request is sent.
+     */
+    public interface Operation<T> {
+
+        T perform(@NonNull BwsCall<T> call);
+    }
+
+    private final Operation<T> operation;
+
+    private long deadlineInMillis;
+    private boolean executed;
+    private HttpRequest request;
+
+    private volatile boolean cancelled;
+    private volatile boolean deadlineExceeded;
+    private final CountDownLatch aborted = new CountDownLatch(1);
+
+    public BwsCall(@NonNull Operation<T> operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Aborts the call if it did not complete within the given time after the execution has been started.
+     * In contrast to the connect and read timeouts this does also limit the time spent on writing the request body.
+     *
+     * @throws IllegalStateException if the call has already been executed
+     */
+    @NonNull
+    public synchronized BwsCall<T> withDeadline(@IntRange(from = 1) long deadlineInMillis) {
+        if (executed) {
+            throw new IllegalStateException("deadline must be set before the call is executed");
+        }
+        this.deadlineInMillis = deadlineInMillis;
+        return this;
+    }
+
+    /**
+     * Executes the call on the calling thread.
+     *
+     * @return the result of the call
+     * @throws CancellationException     if the call has been cancelled
+     * @throws DeadlineExceededException if the call did not complete within its deadline
+     * @throws RuntimeException          any exception of the actual BWS operation
+     */
+    public T execute() {
+        ScheduledFuture<?> deadline = start();
+        try {
+            throwIfAborted();
+            return operation.perform(this);
+        } catch (RuntimeException e) {
+            if (deadlineExceeded) {
+                throw new DeadlineExceededException(e);
+            }
+            if (cancelled && !(e instanceof CancellationException)) {
+                throw (CancellationException) new CancellationException("call has been cancelled").initCause(e);
+            }
+            throw e;
+        } finally {
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            synchronized (this) {
+                request = null;
+            }
+        }
+    }
+
+    /**
+     * Executes the call using the given executor.
+     * The callbacks are executed on the executing thread, none of them is called if the call has been cancelled.
+     *
+     * @return this call, which can be used to cancel it
+     */
+    @NonNull
+    public BwsCall<T> enqueue(@NonNull Executor executor, @NonNull final Consumer<T> onSuccess,
+                              @NonNull final Consumer<RuntimeException> onError) {
+        executor.execute(() -> {
+            T result;
+            try {
+                result = execute();
+            } catch (RuntimeException e) {
+                if (!cancelled) {
+                    onError.accept(e);
+                }
+                return;
+            }
+            if (!cancelled) {
+                onSuccess.accept(result);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Cancels the call, a running HTTP request is aborted immediately.
+     * Does nothing if the call has already completed.
+     */
+    public void cancel() {
+        cancelled = true;
+        abort();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Attaches the request to this call, so that it is aborted if the call gets cancelled.
+     * Must be called before the request is sent.
+     *
+     * @return the given request
+     * @throws CancellationException if the call has already been aborted
+     */
+    @NonNull
+    public HttpRequest attach(@NonNull HttpRequest request) {
+        synchronized (this) {
+            this.request = request;
+        }
+        throwIfAborted();
+        return request;
+    }
+
+    /**
+     * Waits the given time before the operation retries a failed request.
+     * The wait ends immediately if the call gets cancelled or exceeds its deadline in the meantime.
+     *
+     * @throws CancellationException if the call has been aborted
+     */
+    public void backoff(@IntRange(from = 0) long delayInMillis) {
+        try {
+            aborted.await(delayInMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting to retry");
+        }
+        throwIfAborted();
+    }
+
+    @Nullable
+    private synchronized ScheduledFuture<?> start() {
+        if (executed) {
+            throw new IllegalStateException("call has already been executed");
+        }
+        executed = true;
+
+        if (deadlineInMillis <= 0) {
+            return null;
+        }
+        return DEADLINE_TIMER.schedule(() -> {
+            deadlineExceeded = true;
+            abort();
+        }, deadlineInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void throwIfAborted() {
+        if (cancelled || deadlineExceeded) {
+            throw new CancellationException("call has been aborted");
+        }
+    }
+
+    private void abort() {
+        aborted.countDown();
+
+        HttpRequest runningRequest;
+        synchronized (this) {
+            runningRequest = request;
+        }
+        if (runningRequest != null) {
+            // the streams of the connection do throw an IOException on the executing thread
+            runningRequest.disconnect();
+        }
+    }
+
+    @NonNull
+    private static ScheduledThreadPoolExecutor createDeadlineTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "bws-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+}
@@ -2,7 +2,11 @@ package com.bioid.authenticator.base.network.bioid.webservice;
 
 import android.support.annotation.NonNull;
 import android.util.Base64;
+import android.util.Base64OutputStream;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 
 /**
@@ -20,6 +24,15 @@ public class Encoder {
         return Base64.encode(bytes, Base64.NO_WRAP);
     }
 
+    /**
+     * Returns a stream which encodes everything written to it as Base64 (omits all line terminators) into the given stream.
+     * The returned stream has to be closed to write the final padding, this does flush but not close the given stream.
+     */
+    @NonNull
+    OutputStream encodeAsBase64(@NonNull OutputStream out) {
+        return new Base64OutputStream(new NonClosingOutputStream(out), Base64.NO_WRAP);
+    }
+
     /**
      * Decodes the given Base64 URL compatible string (using UTF-8 only).
      */
@@ -29,4 +42,21 @@ public class Encoder {
         byte[] decoded = Base64.decode(encoded, Base64.URL_SAFE);
         return new String(decoded, UTF8);
     }
+
+    private static final class NonClosingOutputStream extends FilterOutputStream {
+
+        private NonClosingOutputStream(@NonNull OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);  // FilterOutputStream would write byte by byte
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import android.support.annotation.Nullable;
+
+import com.bioid.authenticator.base.network.JsonDecoder;
+import com.bioid.authenticator.base.network.JsonStreamingReader;
+
+import static com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient.JSON_KEY_ACCEPTED;
+import static com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient.JSON_KEY_ERROR;
+
+/**
+ * Result of an image upload, e.g. {"Accepted":false,"Error":"NoFaceFound", ...}.
+ * Keys which are not needed by the client are skipped.
+ */
+final class UploadResult {
+
+    static final JsonDecoder<UploadResult> DECODER = reader -> {
+        Boolean accepted = null;
+        String error = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case JSON_KEY_ACCEPTED:
+                    accepted = reader.nextBoolean();
+                    break;
+                case JSON_KEY_ERROR:
+                    error = reader.nextStringOrNull();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (accepted == null) {
+            throw new JsonStreamingReader.MalformedJsonException("missing key " + JSON_KEY_ACCEPTED);
+        }
+        return new UploadResult(accepted, error);
+    };
+
+    private final boolean accepted;
+    private final String error;
+
+    UploadResult(boolean accepted, @Nullable String error) {
+        this.accepted = accepted;
+        this.error = error;
+    }
+
+    boolean isAccepted() {
+        return accepted;
+    }
+
+    /**
+     * Returns the error code if the image was not accepted (or null if the BWS did not provide any).
+     */
+    @Nullable
+    String getError() {
+        return error;
+    }
+}
@@ -27,4 +27,11 @@ public interface EnrollmentTokenProvider extends Parcelable {
      * @throws TechnicalException        if any other technical error occurred
      */
     EnrollmentToken requestEnrollmentToken(@NonNull Context ctx);
+
+    /**
+     * Returns the Biometric Class ID (BCID) of the user for whom the tokens are issued.
+     * It is used to tell the data kept on the device for different users apart (e.g. spooled uploads).
+     */
+    @NonNull
+    String getBcid();
 }
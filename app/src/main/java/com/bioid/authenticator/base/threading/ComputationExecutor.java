@@ -0,0 +1,59 @@
+package com.bioid.authenticator.base.threading;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide pool of worker threads for CPU bound work which is split into multiple parts (e.g. image encoding).
+ * <p/>
+ * The pool has one thread per CPU core. Idle threads are terminated so the pool does not cost anything while unused.
+ * Callers must not block within a task on other tasks of this pool.
+ */
+public final class ComputationExecutor {
+
+    private static final int KEEP_ALIVE_IN_SECONDS = 10;
+
+    private static final ExecutorService EXECUTOR = createExecutor();
+
+    private ComputationExecutor() {
+    }
+
+    /**
+     * Returns the process-wide pool.
+     */
+    @NonNull
+    public static ExecutorService get() {
+        return EXECUTOR;
+    }
+
+    /**
+     * Returns the number of threads of the pool.
+     */
+    public static int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    @NonNull
+    private static ExecutorService createExecutor() {
+        int threads = getParallelism();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "computation-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
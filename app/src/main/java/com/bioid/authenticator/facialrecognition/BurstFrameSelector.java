@@ -0,0 +1,122 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.bioid.authenticator.base.image.FrameQuality;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the frames of a burst capture and selects the best one for upload.
+ * <p>
+ * Frames are ranked by sharpness, face size and pose (frontal faces are preferred).
+ * All frames which are not selected will be recycled immediately to release their memory.
+ */
+class BurstFrameSelector {
+
+    /**
+     * Sharpness (variance of the Laplacian) above which a frame is considered perfectly sharp.
+     */
+    private static final double SHARPNESS_SATURATION = 200.0;
+    /**
+     * Relative face width above which the face is considered large enough.
+     */
+    private static final double FACE_WIDTH_SATURATION = 0.5;
+    /**
+     * Sum of yaw and roll (in degrees) at which the pose is considered completely unusable.
+     */
+    private static final double MAX_POSE_DEVIATION = 45.0;
+
+    private static final double SHARPNESS_WEIGHT = 0.5;
+    private static final double FACE_WIDTH_WEIGHT = 0.25;
+    private static final double POSE_WEIGHT = 0.25;
+
+    private final List<Candidate> candidates = new ArrayList<>();
+
+    /**
+     * Adds a frame of the current burst.
+     *
+     * @param score score of the frame (see {@link #score(FrameQuality, FaceDetection.FaceMeasurement)})
+     */
+    void add(@NonNull Bitmap bitmap, double score) {
+        candidates.add(new Candidate(bitmap, score));
+    }
+
+    int size() {
+        return candidates.size();
+    }
+
+    boolean isEmpty() {
+        return candidates.isEmpty();
+    }
+
+    /**
+     * Returns the frame with the highest score and recycles all other frames.
+     * Afterwards the selector is empty and can be used for the next burst.
+     *
+     * @throws IllegalStateException if no frames have been added
+     */
+    @NonNull
+    Bitmap selectBestAndReleaseOthers() {
+        if (candidates.isEmpty()) {
+            throw new IllegalStateException("no frames have been added");
+        }
+
+        Candidate best = candidates.get(0);
+        for (Candidate candidate : candidates) {
+            if (candidate.score > best.score) {
+                best = candidate;
+            }
+        }
+        for (Candidate candidate : candidates) {
+            if (candidate != best) {
+                candidate.bitmap.recycle();
+            }
+        }
+        candidates.clear();
+        return best.bitmap;
+    }
+
+    /**
+     * Recycles all frames (e.g. if the burst has been aborted).
+     */
+    void releaseAll() {
+        for (Candidate candidate : candidates) {
+            candidate.bitmap.recycle();
+        }
+        candidates.clear();
+    }
+
+    /**
+     * Calculates the score of a frame within 0 (worst) and 1 (best).
+     *
+     * @param quality quality of the frame
+     * @param face    the measured face or null if no face was found
+     */
+    static double score(@NonNull FrameQuality quality, @Nullable FaceDetection.FaceMeasurement face) {
+        double sharpnessScore = Math.min(quality.sharpness / SHARPNESS_SATURATION, 1.0);
+        if (face == null) {
+            return SHARPNESS_WEIGHT * sharpnessScore;
+        }
+
+        double faceWidthScore = Math.min(face.relativeWidth / FACE_WIDTH_SATURATION, 1.0);
+        double poseDeviation = Math.abs(face.yaw) + Math.abs(face.roll);
+        double poseScore = 1.0 - Math.min(poseDeviation / MAX_POSE_DEVIATION, 1.0);
+
+        return SHARPNESS_WEIGHT * sharpnessScore + FACE_WIDTH_WEIGHT * faceWidthScore + POSE_WEIGHT * poseScore;
+    }
+
+    private static final class Candidate {
+
+        private final Bitmap bitmap;
+        private final double score;
+
+        private Candidate(@NonNull Bitmap bitmap, double score) {
+            this.bitmap = bitmap;
+            this.score = score;
+        }
+    }
+}
@@ -2,11 +2,17 @@ package com.bioid.authenticator.facialrecognition;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.PointF;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.SparseArray;
 
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+import com.bioid.authenticator.base.network.bioid.webservice.MultipleFacesFoundException;
+import com.bioid.authenticator.base.network.bioid.webservice.NoFaceFoundException;
 import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.face.Face;
 import com.google.android.gms.vision.face.FaceDetector;
@@ -20,14 +26,23 @@ class FaceDetection {
 
     private static final String STOPWATCH_SESSION_ID = "face detection algorithm";
 
+    private static final String METRIC_LOCAL_NO_FACE = "upload.local_reject.no_face";
+    private static final String METRIC_LOCAL_MULTIPLE_FACES = "upload.local_reject.multiple_faces";
+
     private final LoggingHelper log = LoggingHelperFactory.create(FaceDetection.class);
+    private final MetricsHelper metrics = MetricsHelperFactory.create();
     private final FaceDetector detector;
+    private final FaceDetector allFacesDetector;
 
     FaceDetection(Context ctx) {
         this.detector = new FaceDetector.Builder(ctx)
                 .setProminentFaceOnly(true)  // only detect large face that is most central within the frame
                 .setTrackingEnabled(false)
                 .build();
+        this.allFacesDetector = new FaceDetector.Builder(ctx)
+                .setProminentFaceOnly(false)  // detect all faces like the BioID Webservice quality check does
+                .setTrackingEnabled(false)
+                .build();
     }
 
     /**
@@ -58,17 +73,119 @@ class FaceDetection {
         return faceCount > 0;
     }
 
+    /**
+     * Measures size and pose of the most prominent face within the image.
+     *
+     * @param bitmap image which might contain a human face
+     * @return the measurement or null if the image does not contain a face or the detector is not operational
+     */
+    @Nullable
+    FaceMeasurement measureFace(@NonNull Bitmap bitmap) {
+        if (!detector.isOperational()) {
+            return null;
+        }
+
+        Frame frame = new Frame.Builder()
+                .setBitmap(bitmap)
+                .build();
+
+        SparseArray<Face> faces = detector.detect(frame);
+        if (faces.size() == 0) {
+            return null;
+        }
+        Face face = faces.valueAt(0);
+        PointF position = face.getPosition();
+        return new FaceMeasurement(face.getWidth() / bitmap.getWidth(),
+                (position.x + face.getWidth() / 2) / bitmap.getWidth(),
+                (position.y + face.getHeight() / 2) / bitmap.getHeight(), face.getEulerY(), face.getEulerZ());
+    }
+
+    /**
+     * Does reject images locally which would be rejected by the BioID Webservice quality check anyway.
+     * This saves the image encoding and the network round trip of the upload.
+     *
+     * @param bitmap image which should be uploaded
+     * @throws NoFaceFoundException        if the image does not contain a face
+     * @throws MultipleFacesFoundException if the image does contain multiple faces
+     * @throws NotOperationalException     if the binaries needed for Google Mobile Vision API are not downloaded yet
+     */
+    void verifySingleFace(@NonNull Bitmap bitmap) {
+        if (!allFacesDetector.isOperational()) {
+            throw new NotOperationalException();
+        }
+
+        String stopwatchSessionId = log.startStopwatch("local face check");
+        int faceCount = getFaceCount(allFacesDetector, bitmap);
+        log.stopStopwatch(stopwatchSessionId);
+
+        if (faceCount == 0) {
+            metrics.count(METRIC_LOCAL_NO_FACE);
+            throw new NoFaceFoundException();
+        }
+        if (faceCount > 1) {
+            metrics.count(METRIC_LOCAL_MULTIPLE_FACES);
+            throw new MultipleFacesFoundException();
+        }
+    }
+
+    /**
+     * Releases the native resources of the Google Mobile Vision API, afterwards this instance must not be used anymore.
+     */
+    void release() {
+        detector.release();
+        allFacesDetector.release();
+    }
+
     private int getFaceCount(@NonNull Bitmap img) {
+        return getFaceCount(detector, img);
+    }
+
+    private int getFaceCount(@NonNull FaceDetector faceDetector, @NonNull Bitmap img) {
         Frame frame = new Frame.Builder()
                 .setBitmap(img)
                 .build();
 
-        SparseArray<Face> faces = detector.detect(frame);
+        SparseArray<Face> faces = faceDetector.detect(frame);
         log.d("%d faces detected within image %s", faces.size(), img);
 
         return faces.size();
     }
 
+    /**
+     * Size and pose of a detected face.
+     */
+    static final class FaceMeasurement {
+
+        /**
+         * Width of the face relative to the width of the image (0..1).
+         */
+        final float relativeWidth;
+        /**
+         * Horizontal position of the face center relative to the width of the image (0..1).
+         */
+        final float relativeCenterX;
+        /**
+         * Vertical position of the face center relative to the height of the image (0..1).
+         */
+        final float relativeCenterY;
+        /**
+         * Rotation around the vertical axis (head turned left or right) in degrees.
+         */
+        final float yaw;
+        /**
+         * Rotation around the axis pointing out of the image (head tilted sideways) in degrees.
+         */
+        final float roll;
+
+        FaceMeasurement(float relativeWidth, float relativeCenterX, float relativeCenterY, float yaw, float roll) {
+            this.relativeWidth = relativeWidth;
+            this.relativeCenterX = relativeCenterX;
+            this.relativeCenterY = relativeCenterY;
+            this.yaw = yaw;
+            this.roll = roll;
+        }
+    }
+
     /**
      * Will be thrown if the binaries needed for Google Mobile Vision API are not downloaded yet.
      */
@@ -5,18 +5,27 @@ import android.graphics.Bitmap;
 import android.support.annotation.CallSuper;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
+import com.bioid.authenticator.BuildConfig;
 import com.bioid.authenticator.base.annotations.Rotation;
+import com.bioid.authenticator.base.functional.BiConsumer;
 import com.bioid.authenticator.base.functional.Consumer;
+import com.bioid.authenticator.base.image.FrameQuality;
+import com.bioid.authenticator.base.image.FrameQualityScorer;
 import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.image.ImageEncoder;
 import com.bioid.authenticator.base.image.ImageFormatConverter;
 import com.bioid.authenticator.base.image.ImageTransformer;
 import com.bioid.authenticator.base.image.IntensityPlane;
 import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.network.BandwidthEstimator;
+import com.bioid.authenticator.base.network.CircuitOpenException;
 import com.bioid.authenticator.base.network.NoConnectionException;
 import com.bioid.authenticator.base.network.ServerErrorException;
 import com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient;
+import com.bioid.authenticator.base.network.bioid.webservice.BwsCall;
 import com.bioid.authenticator.base.network.bioid.webservice.ChallengeResponseException;
 import com.bioid.authenticator.base.network.bioid.webservice.DeviceNotRegisteredException;
 import com.bioid.authenticator.base.network.bioid.webservice.LiveDetectionException;
@@ -45,6 +54,43 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
     private static final int FACE_TIMEOUT_IN_MILLIS = 4_000;
     private static final int DELAY_TO_NAVIGATE_BACK_IN_MILLIS = 3_000;
     protected static final int DELAY_TO_CHECK_FOR_MOTION_IN_MILLIS = 1_000;
+    /**
+     * Upper bound for the number of consecutive frames held back because of insufficient quality.
+     * Afterwards the next frame will be used anyway (relying on the BioID server quality check) so the user is not stuck.
+     */
+    @VisibleForTesting
+    static final int MAX_FRAMES_HELD_BACK_FOR_QUALITY = 15;
+    /**
+     * Thresholds used to hold back frames of insufficient quality (configured by the build).
+     */
+    private static final FrameQualityScorer.Thresholds FRAME_QUALITY_THRESHOLDS = new FrameQualityScorer.Thresholds(
+            BuildConfig.FRAME_QUALITY_MIN_SHARPNESS, BuildConfig.FRAME_QUALITY_MIN_BRIGHTNESS,
+            BuildConfig.FRAME_QUALITY_MAX_BRIGHTNESS, BuildConfig.FRAME_QUALITY_MAX_CLIPPED_FRACTION,
+            BuildConfig.FRAME_QUALITY_MIN_CONTRAST);
+    /**
+     * Number of motion-positive frames collected by a burst capture (1 disables the burst capture).
+     */
+    private static final int BURST_CAPTURE_FRAMES = BuildConfig.BURST_CAPTURE_FRAMES;
+    /**
+     * Upper bound for the time a burst capture may take (starting with the first motion-positive frame).
+     */
+    private static final int BURST_CAPTURE_WINDOW_IN_MILLIS = BuildConfig.BURST_CAPTURE_WINDOW_IN_MILLIS;
+    /**
+     * Uploaded images are scaled down so that the long edge is at most this long (0 disables this target).
+     */
+    private static final int UPLOAD_MAX_LONG_EDGE = BuildConfig.UPLOAD_MAX_LONG_EDGE;
+    /**
+     * Uploaded images are scaled down so that the face has about this width in pixels (0 disables this target).
+     */
+    private static final int UPLOAD_TARGET_FACE_WIDTH = BuildConfig.UPLOAD_TARGET_FACE_WIDTH;
+    /**
+     * Maximum number of image uploads running in parallel (see {@link UploadScheduler}).
+     */
+    private static final int MAX_UPLOADS_IN_FLIGHT = BuildConfig.MAX_UPLOADS_IN_FLIGHT;
+    /**
+     * Upper bound for a single image upload including writing the image (the read timeout does only cover the response).
+     */
+    protected static final int UPLOAD_DEADLINE_IN_MILLIS = 30_000;
 
     protected final Context ctx;
     protected final LoggingHelper log;
@@ -53,13 +99,23 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
 
     private final ImageFormatConverter imageFormatConverter;
     private final ImageTransformer imageTransformer;
+    private final FrameQualityScorer frameQualityScorer;
+    private final BurstFrameSelector burstFrameSelector = new BurstFrameSelector();
+    private final NearDuplicateFrameFilter nearDuplicateFrameFilter = new NearDuplicateFrameFilter();
     private final FaceDetection faceDetection;
     protected final MotionDetection motionDetection;
     private final BioIdWebserviceClient bioIdWebserviceClient;
+    private final UploadResolutionPolicy uploadResolutionPolicy;
+    private final UploadEncodingPolicy uploadEncodingPolicy = new UploadEncodingPolicy();
+
+    /**
+     * Tracks which images of the current biometric operation have been uploaded successfully.
+     */
+    @VisibleForTesting
+    protected final UploadScheduler uploadScheduler;
 
     protected T bwsToken;
     protected int failedOperations;
-    protected int successfulUploads;
     protected int failedUploads;
 
     @VisibleForTesting
@@ -74,6 +130,30 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
     protected Integer taskIdMotionTimeout;
     @VisibleForTesting
     Integer taskIdFaceTimeout;
+    @VisibleForTesting
+    int framesHeldBackForQuality;
+    @VisibleForTesting
+    int burstCaptureFrames = BURST_CAPTURE_FRAMES;
+    @VisibleForTesting
+    Integer taskIdBurstTimeout;
+    @VisibleForTesting
+    boolean burstWindowElapsed;
+    /**
+     * If enabled images are checked for exactly one face before they are uploaded (requires an operational face detection).
+     */
+    @VisibleForTesting
+    boolean localFaceCheckEnabled = BuildConfig.LOCAL_FACE_CHECK_ENABLED;
+    /**
+     * If enabled frames which are nearly identical to the last processed frame are skipped while waiting for a face or motion.
+     */
+    @VisibleForTesting
+    boolean nearDuplicateFrameSuppressionEnabled = true;
+    /**
+     * If enabled the encoding of uploaded images is adapted to the estimated network conditions (see {@link UploadEncodingPolicy}),
+     * otherwise the configured upload image format is used at full resolution.
+     */
+    @VisibleForTesting
+    boolean adaptiveUploadEncodingEnabled = BuildConfig.ADAPTIVE_UPLOAD_ENCODING;
 
     protected FacialRecognitionBasePresenter(Context ctx, LoggingHelper log, FacialRecognitionContract.View view) {
         this.ctx = ctx;
@@ -82,25 +162,35 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         this.backgroundHandler = new AsynchronousBackgroundHandler();
         this.imageFormatConverter = new ImageFormatConverter();
         this.imageTransformer = new ImageTransformer();
+        this.frameQualityScorer = new FrameQualityScorer(FRAME_QUALITY_THRESHOLDS);
         this.faceDetection = new FaceDetection(ctx);
         this.motionDetection = new MotionDetection();
         this.bioIdWebserviceClient = new BioIdWebserviceClient();
+        this.uploadResolutionPolicy = new UploadResolutionPolicy(UPLOAD_MAX_LONG_EDGE, UPLOAD_TARGET_FACE_WIDTH, faceDetection,
+                imageFormatConverter, imageTransformer);
+        // using a separate handler because resetting the image pair capture must not unsubscribe from running uploads
+        this.uploadScheduler = new UploadScheduler(new AsynchronousBackgroundHandler(), MAX_UPLOADS_IN_FLIGHT);
     }
 
     @VisibleForTesting
     protected FacialRecognitionBasePresenter(Context ctx, LoggingHelper log, FacialRecognitionContract.View view,
                                              BackgroundHandler backgroundHandler, ImageFormatConverter imageFormatConverter,
-                                             ImageTransformer imageTransformer, FaceDetection faceDetection,
-                                             MotionDetection motionDetection, BioIdWebserviceClient bioIdWebserviceClient) {
+                                             ImageTransformer imageTransformer, FrameQualityScorer frameQualityScorer,
+                                             FaceDetection faceDetection, MotionDetection motionDetection,
+                                             BioIdWebserviceClient bioIdWebserviceClient) {
         this.ctx = ctx;
         this.log = log;
         this.view = view;
         this.backgroundHandler = backgroundHandler;
         this.imageFormatConverter = imageFormatConverter;
         this.imageTransformer = imageTransformer;
+        this.frameQualityScorer = frameQualityScorer;
         this.faceDetection = faceDetection;
         this.motionDetection = motionDetection;
         this.bioIdWebserviceClient = bioIdWebserviceClient;
+        this.uploadResolutionPolicy = new UploadResolutionPolicy(UPLOAD_MAX_LONG_EDGE, UPLOAD_TARGET_FACE_WIDTH, faceDetection,
+                imageFormatConverter, imageTransformer);
+        this.uploadScheduler = new UploadScheduler(backgroundHandler, MAX_UPLOADS_IN_FLIGHT);
     }
 
     @CallSuper
@@ -130,6 +220,12 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         view.stopPreview();
     }
 
+    @CallSuper
+    @Override
+    public void onDestroy() {
+        faceDetection.release();
+    }
+
     @CallSuper
     @Override
     public void onCameraPermissionGranted() {
@@ -153,6 +249,25 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
      */
     protected abstract void startBiometricOperation();
 
+    /**
+     * Fails fast if BWS is known to be unavailable (see {@link BioIdWebserviceClient#checkAvailability()}),
+     * before the token is requested and any images are captured.
+     * Shows the error like any other failure of the biometric operation.
+     *
+     * @return true if the biometric operation must not be started
+     */
+    protected boolean failFastIfBwsUnavailable(@NonNull BioIdWebserviceClient client) {
+        try {
+            client.checkAvailability();
+            return false;
+        } catch (CircuitOpenException e) {
+            log.w("not starting biometric operation: %s", e.getMessage());
+            resetBiometricOperation();
+            showWarningOrError(e);
+            return true;
+        }
+    }
+
     /**
      * Tries to detect a human face within a certain time frame.
      */
@@ -221,6 +336,9 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
     public void onImageCaptured(@NonNull IntensityPlane plane, @Rotation int imgRotation) {
         switch (imageDetectionState) {
             case WAITING_FOR_IMAGE_WITH_FACE:
+                if (isNearDuplicateFrame(plane)) {
+                    break;
+                }
                 // do not process any new images while background operations are still running
                 imageDetectionState = ImageDetectionState.OTHER;
                 createRotatedBitmap(plane, imgRotation, this::onPotentialImageWithFaceCaptured);
@@ -229,13 +347,24 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
             case WAITING_FOR_REFERENCE_IMAGE:
                 // do not process any new images while movement instructions are shown (challenge-response only)
                 imageDetectionState = ImageDetectionState.OTHER;
-                createRotatedBitmap(plane, imgRotation, this::onReferenceImageCaptured);
+                createRotatedBitmapOfSufficientQuality(plane, imgRotation, ImageDetectionState.WAITING_FOR_REFERENCE_IMAGE,
+                        (bitmap, quality) -> onReferenceImageCaptured(bitmap));
                 break;
 
             case WAITING_FOR_IMAGE_WITH_MOTION:
+                if (burstWindowElapsed) {
+                    // no more frames are collected for the burst capture
+                    onBurstCompleted();
+                    break;
+                }
+                // near-duplicates are what a burst ranks by sharpness (which the hash cannot see), so they are kept once it started
+                if (burstFrameSelector.size() == 0 && isNearDuplicateFrame(plane)) {
+                    break;
+                }
                 // do not process any new images while background operations are still running
                 imageDetectionState = ImageDetectionState.OTHER;
-                createRotatedBitmap(plane, imgRotation, this::onPotentialImageWithMotionCaptured);
+                createRotatedBitmapOfSufficientQuality(plane, imgRotation, ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION,
+                        this::onPotentialImageWithMotionCaptured);
                 break;
 
             default:
@@ -243,6 +372,13 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         }
     }
 
+    /**
+     * Near-duplicate frames would lead to the same result as the last processed frame and can therefore be skipped.
+     */
+    private boolean isNearDuplicateFrame(@NonNull IntensityPlane plane) {
+        return nearDuplicateFrameSuppressionEnabled && nearDuplicateFrameFilter.isNearDuplicate(plane, imageDetectionState);
+    }
+
     private void createRotatedBitmap(@NonNull final IntensityPlane img, @Rotation final int imgRotation,
                                      @NonNull Consumer<Bitmap> onSuccess) {
         // perform image processing in the background to keep the UI responsive
@@ -255,6 +391,45 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         }, null);
     }
 
+    /**
+     * Like {@link #createRotatedBitmap(IntensityPlane, int, Consumer)} but frames of insufficient quality are held back.
+     * If a frame is held back the presenter is set back into the given state to wait for the next frame.
+     * The quality the frame has been scored with is passed along, so it does not need to be scored again.
+     */
+    private void createRotatedBitmapOfSufficientQuality(@NonNull final IntensityPlane img, @Rotation final int imgRotation,
+                                                        @NonNull final ImageDetectionState stateToWaitFor,
+                                                        @NonNull BiConsumer<Bitmap, FrameQuality> onSuccess) {
+        final boolean enforceQuality = framesHeldBackForQuality < MAX_FRAMES_HELD_BACK_FOR_QUALITY;
+
+        // perform image processing in the background to keep the UI responsive
+        backgroundHandler.runOnBackgroundThread(() -> {
+            GrayscaleImage grayscaleImage = imageFormatConverter.intensityPlaneToGrayscaleImage(img);
+
+            FrameQuality quality = frameQualityScorer.score(grayscaleImage);
+            if (!frameQualityScorer.isAcceptable(quality) && enforceQuality) {
+                return null;  // frame is held back
+            }
+
+            GrayscaleImage rotatedGrayscaleImage = imageTransformer.rotate(grayscaleImage, imgRotation);
+            return new ScoredFrame(imageFormatConverter.grayscaleImageToBitmap(rotatedGrayscaleImage), quality);
+        }, frame -> {
+            if (frame == null) {
+                framesHeldBackForQuality++;
+                // again waiting for next potential image of sufficient quality
+                imageDetectionState = stateToWaitFor;
+                return;
+            }
+
+            if (!enforceQuality) {
+                log.w("using frame regardless of its quality after %d frames have been held back", framesHeldBackForQuality);
+            }
+            framesHeldBackForQuality = 0;
+            onSuccess.accept(frame.bitmap, frame.quality);
+        }, e -> {
+            throw e;  // should lead to app crash
+        }, null);
+    }
+
     private void onPotentialImageWithFaceCaptured(@NonNull final Bitmap img) {
         // check for potential face in the image within the background to keep the UI responsive
         backgroundHandler.runOnBackgroundThread(
@@ -305,22 +480,72 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         }, MOTION_TIMEOUT_IN_MILLIS);
     }
 
-    private void onPotentialImageWithMotionCaptured(@NonNull final Bitmap img) {
+    private void onPotentialImageWithMotionCaptured(@NonNull final Bitmap img, @NonNull final FrameQuality quality) {
         // check for potential motion in the image within the background to keep the UI responsive
         backgroundHandler.runOnBackgroundThread(
                 () -> motionDetection.detect(img),
                 motionDetected -> {
-                    if (motionDetected) {
-                        onImageWithMotionCaptured(img);
-                    } else {
+                    if (!motionDetected) {
                         // again waiting for next potential image with motion
                         imageDetectionState = ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION;
+                    } else if (burstCaptureFrames > 1) {
+                        onBurstFrameCaptured(img, quality);
+                    } else {
+                        onImageWithMotionCaptured(img);
                     }
                 }, e -> {
                     throw e;  // should lead to app crash
                 }, null);
     }
 
+    /**
+     * Collects up to {@link #burstCaptureFrames} motion-positive frames within {@link #BURST_CAPTURE_WINDOW_IN_MILLIS}.
+     * Afterwards only the best frame will be used (see {@link BurstFrameSelector}).
+     *
+     * @param quality the quality the frame has already been scored with (rotation does not affect it)
+     */
+    private void onBurstFrameCaptured(@NonNull final Bitmap img, @NonNull final FrameQuality quality) {
+        // measure the face within the background to keep the UI responsive
+        backgroundHandler.runOnBackgroundThread(
+                () -> BurstFrameSelector.score(quality, faceDetection.measureFace(img)),
+                score -> {
+                    burstFrameSelector.add(img, score);
+
+                    if (burstFrameSelector.size() >= burstCaptureFrames || burstWindowElapsed) {
+                        backgroundHandler.cancelScheduledTask(taskIdBurstTimeout);
+                        onBurstCompleted();
+                        return;
+                    }
+
+                    // again waiting for next image with motion to complete the burst
+                    imageDetectionState = ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION;
+                    if (burstFrameSelector.size() == 1) {
+                        // the time window starts with the first frame of the burst
+                        taskIdBurstTimeout = backgroundHandler.runWithDelay(this::onBurstWindowElapsed,
+                                BURST_CAPTURE_WINDOW_IN_MILLIS);
+                    }
+                }, e -> {
+                    throw e;  // should lead to app crash
+                }, null);
+    }
+
+    private void onBurstWindowElapsed() {
+        burstWindowElapsed = true;
+
+        if (imageDetectionState == ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION) {
+            onBurstCompleted();
+        }
+        // otherwise a frame is still processed and the burst will be completed afterwards
+    }
+
+    private void onBurstCompleted() {
+        log.d("burst capture completed with %d frames", burstFrameSelector.size());
+
+        imageDetectionState = ImageDetectionState.OTHER;
+        burstWindowElapsed = false;
+        onImageWithMotionCaptured(burstFrameSelector.selectBestAndReleaseOthers());
+    }
+
     protected void onImageWithMotionCaptured(@NonNull final Bitmap bitmap) {
         log.d("onImageWithMotionCaptured(img=%s)", bitmap);
 
@@ -349,10 +574,22 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
             view.showLoadingIndicator();
         }
 
-        backgroundHandler.runOnBackgroundThread(
-                () -> bioIdWebserviceClient.uploadImage(bitmap, bwsToken, direction, index),
-                this::onUploadSuccessful,
-                this::onUploadFailed,
+        // uploads of the session run in parallel, so the next image pair can be captured while the previous one is uploading
+        final T token = bwsToken;
+        uploadScheduler.submit(index,
+                () -> {
+                    if (localFaceCheckEnabled && faceDetection.isOperational()) {
+                        // throws the same exceptions as the upload would do, but without any network traffic
+                        faceDetection.verifySingleFace(bitmap);
+                    }
+                    UploadEncodingPolicy.UploadEncoding encoding = selectUploadEncoding(bitmap);
+                    // the encoder is passed per upload, because the client is shared by the concurrent uploads
+                    ImageEncoder encoder = encoding != null ? encoding.createEncoder(imageFormatConverter) : null;
+                    return newUploadCall(bioIdWebserviceClient, uploadResolutionPolicy.apply(bitmap, encoding), encoder,
+                            token, direction, index).withDeadline(UPLOAD_DEADLINE_IN_MILLIS);
+                },
+                () -> onUploadSuccessful(index),
+                e -> onUploadFailed(index, e),
                 () -> {
                     if (showUploadingInfo) {
                         view.hideMessages();
@@ -362,18 +599,54 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
     }
 
     /**
-     * Will be called on every successful image upload.
-     * Called once for the reference image and again for the image with motion.
+     * Creates the call uploading the prepared image, will be called on the background thread.
+     * Can be overridden to keep the encoded image (e.g. see {@link UploadSpool}).
+     *
+     * @param encoder encoder of the selected upload encoding or null to use the encoder configured for the client
      */
-    protected abstract void onUploadSuccessful();
+    @NonNull
+    protected BwsCall<Void> newUploadCall(@NonNull BioIdWebserviceClient client, @NonNull Bitmap bitmap,
+                                          @Nullable ImageEncoder encoder, @NonNull T token,
+                                          @NonNull MovementDirection direction, int index) {
+        return client.newUploadImageCall(bitmap, encoder, token, direction, index);
+    }
+
+    /**
+     * Selects the encoding for the upload based on the current bandwidth estimate.
+     *
+     * @return the selected encoding or null if adaptive upload encoding is disabled
+     */
+    @Nullable
+    private UploadEncodingPolicy.UploadEncoding selectUploadEncoding(@NonNull Bitmap bitmap) {
+        if (!adaptiveUploadEncodingEnabled) {
+            return null;
+        }
+
+        BandwidthEstimator.Estimate estimate = BandwidthEstimator.getDefault().getEstimate();
+        UploadEncodingPolicy.UploadEncoding encoding =
+                uploadEncodingPolicy.select(estimate, bitmap.getWidth() * bitmap.getHeight());
+        log.d("selected upload encoding %s (%s)", encoding, estimate);
+        return encoding;
+    }
+
+    /**
+     * Will be called on every successful image upload, the index is already acknowledged by the {@link #uploadScheduler}.
+     * Called once for the reference image and again for the image with motion (in the order the uploads complete).
+     *
+     * @param index the index of the uploaded image
+     */
+    protected abstract void onUploadSuccessful(int index);
 
     /**
      * Will be called on every failed image upload.
      *
-     * @param e the Exception thrown by {@link BioIdWebserviceClient#uploadImage(Bitmap, BwsToken, MovementDirection, int)}.
+     * @param index the index of the image which could not be uploaded
+     * @param e     the Exception thrown by {@link BioIdWebserviceClient#uploadImage(Bitmap, BwsToken, MovementDirection, int)}
+     *              (e.g. a {@link com.bioid.authenticator.base.network.DeadlineExceededException} if the upload did take too long)
+     *              or by the local face check (see {@link FaceDetection#verifySingleFace(Bitmap)}).
      */
-    protected void onUploadFailed(RuntimeException e) {
-        log.w("onUploadFailed() [successfulUploads=%d, failedUploads=%d]", successfulUploads, ++failedUploads);
+    protected void onUploadFailed(int index, RuntimeException e) {
+        log.w("onUploadFailed(index=%d) [failedUploads=%d]", index, ++failedUploads);
 
         if (failedUploads >= MAX_FAILED_UPLOADS) {
             log.e("exceeded maximum number of failed uploads (MAX_FAILED_UPLOAD=%d)", MAX_FAILED_UPLOADS);
@@ -388,9 +661,9 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         final MovementDirection destinationDirectionForRetry = destinationDirection;
 
         resetCaptureImagePair();
-        if (successfulUploads % 2 == 1) {
-            successfulUploads--;  // in case of failed image with motion
-        }
+        // both images of the pair will be uploaded again
+        uploadScheduler.discard(indexForRetry);
+        uploadScheduler.discard(indexForRetry + 1);
 
         showWarningOrError(e);
         backgroundHandler.runWithDelay(
@@ -398,6 +671,33 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
                 DELAY_TO_RETRY_IN_MILLIS);
     }
 
+    /**
+     * Returns true if the given upload index belongs to the image pair which is captured currently.
+     * Because uploads run in parallel, an upload can also belong to an image pair which has been captured before.
+     */
+    protected boolean isPartOfCurrentImagePair(int uploadIndex) {
+        return uploadIndex == index || uploadIndex == index + 1;
+    }
+
+    /**
+     * Returns true if the image has been rejected because of its quality, another image would have been accepted.
+     */
+    protected static boolean isQualityRejection(@NonNull RuntimeException e) {
+        return e instanceof NoFaceFoundException || e instanceof LiveDetectionException || e instanceof MultipleFacesFoundException;
+    }
+
+    /**
+     * The image pair of a Challenge-Response cannot be captured again after the capturing has moved on to the next pair.
+     * If its upload failed for other reasons than the quality of the images, the error is shown and the operation is aborted.
+     */
+    protected void abortAfterUploadOfPreviousImagePairFailed(int index, @NonNull RuntimeException e) {
+        log.w("upload of image %d of a previous image pair failed (%s), aborting Challenge-Response", index,
+                e.getClass().getSimpleName());
+        resetBiometricOperation();
+        showWarningOrError(e);
+        navigateBackWithDelay(false);
+    }
+
     /**
      * Does reset the views and the presenters state regarding the process of capturing a pair of images.
      * (see also {@link #resetBiometricOperation()})
@@ -423,6 +723,11 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         destinationDirection = null;
         taskIdMotionTimeout = null;
         taskIdFaceTimeout = null;
+        taskIdBurstTimeout = null;
+        burstWindowElapsed = false;
+        framesHeldBackForQuality = 0;
+        burstFrameSelector.releaseAll();
+        nearDuplicateFrameFilter.reset();
 
         // reset ui
         view.hideLoadingIndicator();
@@ -441,8 +746,9 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
 
         // reset presenter
         // (do not reset "bwsToken" and "failedOperations" because the token can be used for multiple retries)
-        successfulUploads = 0;
+        uploadScheduler.reset();
         failedUploads = 0;
+        uploadResolutionPolicy.endSession();
 
         // reset ui
         view.hideMessages();
@@ -534,4 +840,15 @@ public abstract class FacialRecognitionBasePresenter<T extends BwsToken> impleme
         WAITING_FOR_REFERENCE_IMAGE,
         WAITING_FOR_IMAGE_WITH_MOTION
     }
+
+    private static final class ScoredFrame {
+
+        private final Bitmap bitmap;
+        private final FrameQuality quality;
+
+        private ScoredFrame(@NonNull Bitmap bitmap, @NonNull FrameQuality quality) {
+            this.bitmap = bitmap;
+            this.quality = quality;
+        }
+    }
 }
@@ -201,6 +201,11 @@ public interface FacialRecognitionContract {
 
     interface Presenter extends LifecycleAware {
 
+        /**
+         * Callback which is called if the view is destroyed, the presenter must not be used afterwards.
+         */
+        void onDestroy();
+
         /**
          * Callback which is called if the requested camera permission was granted.
          */
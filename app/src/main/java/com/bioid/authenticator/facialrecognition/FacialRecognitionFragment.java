@@ -15,6 +15,7 @@ import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.support.annotation.DrawableRes;
@@ -37,6 +38,8 @@ import com.bioid.authenticator.base.camera.CameraHelper;
 import com.bioid.authenticator.base.image.IntensityPlane;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+import com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient;
 import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
 import com.bioid.authenticator.base.network.bioid.webservice.Task;
 import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentTokenProvider;
@@ -179,6 +182,7 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
         super.onCreate(savedInstanceState);
 
         presenter = createPresenter();
+        warmUpConnection();
 
         setRetainInstance(true);  // does retain the presenter to preserve state across configuration changes
 
@@ -190,6 +194,15 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
         cameraHelper = new CameraHelper(cameraManager);
     }
 
+    /**
+     * The token request is on the critical path before the face detection starts,
+     * therefore the connection to BWS is established (or a cached TLS session resumed) while the camera is opened.
+     * The TLS session cache has already been installed at process start (see {@link com.bioid.authenticator.AuthenticatorApplication}).
+     */
+    private static void warmUpConnection() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> new BioIdWebserviceClient().preconnect());
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         binding = DataBindingUtil.inflate(inflater, R.layout.fragment_facial_recognition, container, false);
@@ -215,6 +228,14 @@ public final class FacialRecognitionFragment extends Fragment implements FacialR
         presenter.onPause();
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        presenter.onDestroy();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(MetricsHelperFactory::export);
+    }
+
     @Override
     public void requestCameraPermission() {
 
@@ -0,0 +1,86 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.image.IntensityPlane;
+import com.bioid.authenticator.base.image.PerceptualHash;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+import com.bioid.authenticator.facialrecognition.FacialRecognitionBasePresenter.ImageDetectionState;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Detects preview frames which are nearly identical to the last processed frame.
+ * <p>
+ * Such frames would lead to the same result (e.g. still no face or still no motion) so the expensive image conversion and
+ * detection stages can be skipped. To not rely on the hash forever every {@link #MAX_CONSECUTIVE_SKIPS}th frame is processed.
+ */
+class NearDuplicateFrameFilter {
+
+    /**
+     * Frames with a smaller Hamming distance (of their perceptual hashes) to the last processed frame are near-duplicates.
+     */
+    @VisibleForTesting
+    static final int MIN_DISTANCE = 3;
+    @VisibleForTesting
+    static final int MAX_CONSECUTIVE_SKIPS = 10;
+
+    private static final String METRIC_PROCESSED = "frame_dedup.processed.%s";
+    private static final String METRIC_SKIPPED = "frame_dedup.skipped.%s";
+
+    private final MetricsHelper metrics;
+    // metric names are built once, because the filter is applied to every preview frame
+    private final Map<ImageDetectionState, String> processedMetrics = new EnumMap<>(ImageDetectionState.class);
+    private final Map<ImageDetectionState, String> skippedMetrics = new EnumMap<>(ImageDetectionState.class);
+
+    private ImageDetectionState lastState;
+    private long lastHash;
+    private int consecutiveSkips;
+
+    NearDuplicateFrameFilter() {
+        this(MetricsHelperFactory.create());
+    }
+
+    @VisibleForTesting
+    NearDuplicateFrameFilter(MetricsHelper metrics) {
+        this.metrics = metrics;
+
+        for (ImageDetectionState state : ImageDetectionState.values()) {
+            String stateName = state.name().toLowerCase(Locale.ENGLISH);
+            processedMetrics.put(state, String.format(METRIC_PROCESSED, stateName));
+            skippedMetrics.put(state, String.format(METRIC_SKIPPED, stateName));
+        }
+    }
+
+    /**
+     * Does return true if the frame is a near-duplicate of the last frame processed within the same state.
+     * Otherwise the frame is remembered as the last processed frame.
+     */
+    boolean isNearDuplicate(@NonNull IntensityPlane plane, @NonNull ImageDetectionState state) {
+        if (state == lastState && consecutiveSkips < MAX_CONSECUTIVE_SKIPS
+                && PerceptualHash.distance(plane.hash, lastHash) < MIN_DISTANCE) {
+            consecutiveSkips++;
+            metrics.count(skippedMetrics.get(state));
+            return true;
+        }
+
+        lastState = state;
+        lastHash = plane.hash;
+        consecutiveSkips = 0;
+        metrics.count(processedMetrics.get(state));
+        return false;
+    }
+
+    /**
+     * Forgets the last processed frame so that the next frame will be processed in any case.
+     */
+    void reset() {
+        lastState = null;
+        lastHash = 0;
+        consecutiveSkips = 0;
+    }
+}
@@ -0,0 +1,109 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.image.ImageEncoder;
+import com.bioid.authenticator.base.image.ImageEncoders;
+import com.bioid.authenticator.base.image.ImageFormatConverter;
+import com.bioid.authenticator.base.network.BandwidthEstimator;
+
+/**
+ * Picks the encoding of the next upload based on the estimated network conditions (see {@link BandwidthEstimator}).
+ * <p>
+ * On fast links (and as long as there is no estimate) images are uploaded as lossless grayscale PNG.
+ * The slower the link the smaller the payload gets (lossy JPEG, lower resolution and finally cropping around the face),
+ * so that the uploads of a challenge-response still finish while the user performs the next movement.
+ */
+class UploadEncodingPolicy {
+
+    /**
+     * Uploads should finish within the time the user has to continue within a challenge.
+     */
+    @VisibleForTesting
+    static final int UPLOAD_TIME_BUDGET_IN_MILLIS = 2_000;
+
+    static final UploadEncoding LOSSLESS = new UploadEncoding("lossless", ImageEncoders.FORMAT_GRAYSCALE_PNG, 100, 1.0,
+            UploadEncoding.NO_CROP, 0.5);
+    static final UploadEncoding COMPRESSED = new UploadEncoding("compressed", ImageEncoders.FORMAT_JPEG, 90, 1.0,
+            UploadEncoding.NO_CROP, 0.2);
+    static final UploadEncoding REDUCED = new UploadEncoding("reduced", ImageEncoders.FORMAT_JPEG, 80, 0.75,
+            UploadEncoding.NO_CROP, 0.14);
+    static final UploadEncoding CROPPED = new UploadEncoding("cropped", ImageEncoders.FORMAT_JPEG, 70, 0.75, 0.5, 0.12);
+
+    /**
+     * From the largest to the smallest payload.
+     */
+    private static final UploadEncoding[] ENCODINGS = {LOSSLESS, COMPRESSED, REDUCED, CROPPED};
+
+    /**
+     * Selects the encoding with the largest payload which can be uploaded within {@link #UPLOAD_TIME_BUDGET_IN_MILLIS}.
+     *
+     * @param estimate the current estimate or null if there is none
+     * @param pixels   number of pixels of the image to upload
+     */
+    @NonNull
+    UploadEncoding select(@Nullable BandwidthEstimator.Estimate estimate, int pixels) {
+        if (estimate == null) {
+            return LOSSLESS;
+        }
+        for (UploadEncoding encoding : ENCODINGS) {
+            if (estimate.predictUploadMillis(encoding.estimateUploadBytes(pixels)) <= UPLOAD_TIME_BUDGET_IN_MILLIS) {
+                return encoding;
+            }
+        }
+        return ENCODINGS[ENCODINGS.length - 1];
+    }
+
+    /**
+     * Parameters used to encode an uploaded image.
+     */
+    static final class UploadEncoding {
+
+        static final double NO_CROP = 0.0;
+
+        final String name;
+        final String format;
+        final int quality;
+        /**
+         * Factor applied to the resolution determined by the {@link UploadResolutionPolicy}.
+         */
+        final double resolutionFactor;
+        /**
+         * Margin around the face (relative to the face width) the image is cropped to or {@link #NO_CROP}.
+         */
+        final double cropMargin;
+        /**
+         * Typical size of an encoded pixel, used to predict the upload size.
+         */
+        private final double bytesPerPixel;
+
+        private UploadEncoding(@NonNull String name, @NonNull String format, int quality, double resolutionFactor,
+                               double cropMargin, double bytesPerPixel) {
+            this.name = name;
+            this.format = format;
+            this.quality = quality;
+            this.resolutionFactor = resolutionFactor;
+            this.cropMargin = cropMargin;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        @NonNull
+        ImageEncoder createEncoder(@NonNull ImageFormatConverter imageFormatConverter) {
+            return ImageEncoders.forFormat(format, quality, imageFormatConverter);
+        }
+
+        /**
+         * Predicts the size of the request body (as Base64 data URL) without taking the crop into account.
+         */
+        long estimateUploadBytes(int pixels) {
+            return (long) (pixels * resolutionFactor * resolutionFactor * bytesPerPixel * 4 / 3);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.image.ImageFormatConverter;
+import com.bioid.authenticator.base.image.ImageTransformer;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelperFactory;
+
+/**
+ * Scales uploaded images down to the smallest size which is still acceptable for the BioID Webservice,
+ * independent of the preview size the camera happens to provide.
+ * <p>
+ * The target is given as maximum length of the long edge and/or as face width in pixels.
+ * The scale is determined by the first upload of a session and then used for all following uploads,
+ * because the BioID Webservice compares the uploaded images of a session with each other (e.g. for the live detection).
+ * For the same reason the region around the face, which is cropped on slow networks (see {@link UploadEncodingPolicy}),
+ * is fixed per session.
+ */
+class UploadResolutionPolicy {
+
+    /**
+     * The long edge is never scaled below this size because the BioID Webservice would reject the images.
+     */
+    @VisibleForTesting
+    static final int MIN_LONG_EDGE = 320;
+
+    private static final String METRIC_SCALE = "upload_resolution.scale";
+    private static final String METRIC_RAW_BYTES_SAVED = "upload_resolution.raw_bytes_saved_per_session";
+
+    private final int maxLongEdge;
+    private final int targetFaceWidth;
+    private final FaceDetection faceDetection;
+    private final ImageFormatConverter imageFormatConverter;
+    private final ImageTransformer imageTransformer;
+    private final MetricsHelper metrics;
+
+    private Double sessionScale;
+    /**
+     * Cropped region of the session (x, y, width and height relative to the image size).
+     */
+    private double[] sessionCrop;
+    private long rawBytesSaved;
+
+    /**
+     * @param maxLongEdge     maximum length of the long edge in pixels (0 disables this target)
+     * @param targetFaceWidth face width in pixels the image is scaled to (0 disables this target)
+     */
+    UploadResolutionPolicy(int maxLongEdge, int targetFaceWidth, @NonNull FaceDetection faceDetection,
+                           @NonNull ImageFormatConverter imageFormatConverter, @NonNull ImageTransformer imageTransformer) {
+        this(maxLongEdge, targetFaceWidth, faceDetection, imageFormatConverter, imageTransformer, MetricsHelperFactory.create());
+    }
+
+    @VisibleForTesting
+    UploadResolutionPolicy(int maxLongEdge, int targetFaceWidth, FaceDetection faceDetection,
+                           ImageFormatConverter imageFormatConverter, ImageTransformer imageTransformer, MetricsHelper metrics) {
+        this.maxLongEdge = maxLongEdge;
+        this.targetFaceWidth = targetFaceWidth;
+        this.faceDetection = faceDetection;
+        this.imageFormatConverter = imageFormatConverter;
+        this.imageTransformer = imageTransformer;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the image scaled (and cropped) according to this policy and the given encoding
+     * (or the given image if no transformation is necessary).
+     * <p>
+     * The resolution factor and crop margin of the encoding are only taken into account for the first upload of a session.
+     *
+     * @param encoding the encoding of the upload or null to use the full resolution of this policy without cropping
+     */
+    @NonNull
+    synchronized Bitmap apply(@NonNull Bitmap bitmap, @Nullable UploadEncodingPolicy.UploadEncoding encoding) {
+        double resolutionFactor = encoding == null ? 1.0 : encoding.resolutionFactor;
+        double cropMargin = encoding == null ? UploadEncodingPolicy.UploadEncoding.NO_CROP : encoding.cropMargin;
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (sessionScale == null) {
+            boolean needsFace = targetFaceWidth > 0 || cropMargin > 0.0;
+            FaceDetection.FaceMeasurement face = needsFace ? faceDetection.measureFace(bitmap) : null;
+            sessionCrop = face != null && cropMargin > 0.0
+                    ? determineCrop(width, height, face, cropMargin) : new double[]{0.0, 0.0, 1.0, 1.0};
+            double relativeFaceWidth = face == null ? 0.0 : face.relativeWidth / sessionCrop[2];
+            sessionScale = determineScale((int) Math.round(width * sessionCrop[2]), (int) Math.round(height * sessionCrop[3]),
+                    maxLongEdge, targetFaceWidth, relativeFaceWidth, resolutionFactor);
+            metrics.record(METRIC_SCALE, sessionScale);
+        }
+
+        int cropX = (int) Math.round(width * sessionCrop[0]);
+        int cropY = (int) Math.round(height * sessionCrop[1]);
+        int cropWidth = Math.min((int) Math.round(width * sessionCrop[2]), width - cropX);
+        int cropHeight = Math.min((int) Math.round(height * sessionCrop[3]), height - cropY);
+        int scaledWidth = Math.min((int) Math.round(cropWidth * sessionScale), cropWidth);
+        int scaledHeight = Math.min((int) Math.round(cropHeight * sessionScale), cropHeight);
+        if (scaledWidth >= width && scaledHeight >= height) {
+            return bitmap;
+        }
+
+        GrayscaleImage img = imageFormatConverter.bitmapToGrayscaleImage(bitmap);
+        GrayscaleImage croppedImg = imageTransformer.crop(img, cropX, cropY, cropWidth, cropHeight);
+        GrayscaleImage scaledImg = imageTransformer.resize(croppedImg, scaledWidth, scaledHeight);
+        rawBytesSaved += (long) width * height - (long) scaledWidth * scaledHeight;
+        return imageFormatConverter.grayscaleImageToBitmap(scaledImg);
+    }
+
+    /**
+     * Reports the saved bytes (of the uncompressed grayscale images) and forgets the scale, so the next upload starts a new session.
+     */
+    synchronized void endSession() {
+        if (sessionScale != null) {
+            metrics.record(METRIC_RAW_BYTES_SAVED, rawBytesSaved);
+        }
+        sessionScale = null;
+        sessionCrop = null;
+        rawBytesSaved = 0;
+    }
+
+    /**
+     * Determines the scale (at most 1, images are never upscaled) which satisfies both targets.
+     *
+     * @param relativeFaceWidth width of the face relative to the image width (0 if no face was found)
+     * @param resolutionFactor  additional factor applied to the scale (e.g. to reduce the payload on slow networks)
+     */
+    @VisibleForTesting
+    static double determineScale(int width, int height, int maxLongEdge, int targetFaceWidth, double relativeFaceWidth,
+                                 double resolutionFactor) {
+        int longEdge = Math.max(width, height);
+        double scale = 1.0;
+        if (maxLongEdge > 0) {
+            scale = Math.min(scale, (double) maxLongEdge / longEdge);
+        }
+        if (targetFaceWidth > 0 && relativeFaceWidth > 0.0) {
+            scale = Math.min(scale, targetFaceWidth / (relativeFaceWidth * width));
+        }
+        scale *= resolutionFactor;
+        return Math.max(scale, Math.min(1.0, (double) MIN_LONG_EDGE / longEdge));
+    }
+
+    /**
+     * Determines the region around the face (the face width plus the margin on each side, in portrait format 3:4)
+     * clamped to the image.
+     *
+     * @return x, y, width and height relative to the image size
+     */
+    @VisibleForTesting
+    static double[] determineCrop(int width, int height, @NonNull FaceDetection.FaceMeasurement face, double margin) {
+        double cropWidth = Math.min(face.relativeWidth * (1 + 2 * margin), 1.0);
+        double cropHeight = Math.min(cropWidth * width * 4 / 3 / height, 1.0);
+        double x = Math.max(0.0, Math.min(face.relativeCenterX - cropWidth / 2, 1.0 - cropWidth));
+        double y = Math.max(0.0, Math.min(face.relativeCenterY - cropHeight / 2, 1.0 - cropHeight));
+        return new double[]{x, y, cropWidth, cropHeight};
+    }
+}
@@ -0,0 +1,221 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.bioid.authenticator.base.functional.Consumer;
+import com.bioid.authenticator.base.functional.Supplier;
+import com.bioid.authenticator.base.network.bioid.webservice.BwsCall;
+import com.bioid.authenticator.base.threading.BackgroundHandler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Runs the image uploads of a biometric operation in parallel, but with a bounded number of uploads in flight.
+ * Further uploads are queued and started in the order of submission as soon as a running upload completes.
+ * <p/>
+ * The completion is tracked for each upload index, so the operation can be completed as soon as the last required index
+ * has been acknowledged, regardless of the order in which the uploads did complete.
+ * Discarded uploads are cancelled, so they do not continue to use bandwidth and threads (see {@link BwsCall#cancel()}).
+ * <p/>
+ * All methods (and all callbacks) are executed on the calling thread of the used {@link BackgroundHandler}.
+ */
+public class UploadScheduler {
+
+    private final BackgroundHandler backgroundHandler;
+    private final int maxInFlight;
+
+    private final Queue<Upload> pending = new ArrayDeque<>();
+    private final List<Upload> running = new ArrayList<>();
+    private final BitSet acknowledged = new BitSet();
+
+    /**
+     * @param backgroundHandler executes the uploads (should not be shared with tasks which are unsubscribed independently)
+     * @param maxInFlight       maximum number of uploads running at the same time
+     */
+    public UploadScheduler(@NonNull BackgroundHandler backgroundHandler, @IntRange(from = 1) int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        this.backgroundHandler = backgroundHandler;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Submits the upload of the image with the given index.
+     * An upload with the same index which is still queued or running will be discarded.
+     * <p/>
+     * The upload supplier runs on the background thread (e.g. to prepare the image) and returns the call which is executed
+     * afterwards on the same thread.
+     * The callbacks are the same as for {@link BackgroundHandler#runOnBackgroundThread(Runnable, Runnable, Consumer, Runnable)}.
+     * The index is acknowledged before onSuccess is called, onSuccess is not called again if the index was acknowledged before.
+     */
+    public void submit(@IntRange(from = 0) int index, @NonNull Supplier<BwsCall<?>> upload,
+                       @Nullable Runnable onSuccess, @Nullable Consumer<RuntimeException> onError, @Nullable Runnable onComplete) {
+        discard(index);
+
+        pending.add(new Upload(index, upload, onSuccess, onError, onComplete));
+        dispatch();
+    }
+
+    /**
+     * Marks the given index as acknowledged without any upload (e.g. to proceed with an upload which did fail).
+     *
+     * @return true if the index was not acknowledged before
+     */
+    public boolean acknowledge(@IntRange(from = 0) int index) {
+        boolean newlyAcknowledged = !acknowledged.get(index);
+        acknowledged.set(index);
+        return newlyAcknowledged;
+    }
+
+    public boolean isAcknowledged(@IntRange(from = 0) int index) {
+        return acknowledged.get(index);
+    }
+
+    /**
+     * Returns true if all indices from 0 to count-1 are acknowledged.
+     */
+    public boolean areAcknowledged(@IntRange(from = 0) int count) {
+        return countAcknowledgedInSequence() >= count;
+    }
+
+    /**
+     * Returns the number of indices which are acknowledged without a gap, starting at index 0.
+     */
+    public int countAcknowledgedInSequence() {
+        return acknowledged.nextClearBit(0);
+    }
+
+    /**
+     * Returns the number of uploads which are currently running.
+     */
+    public int getInFlight() {
+        return running.size();
+    }
+
+    /**
+     * Returns the number of uploads which are waiting for a running upload to complete.
+     */
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Discards the upload with the given index, no callback will be called for it anymore.
+     * The index is no longer acknowledged afterwards.
+     */
+    public void discard(@IntRange(from = 0) int index) {
+        for (Iterator<Upload> it = pending.iterator(); it.hasNext(); ) {
+            if (it.next().index == index) {
+                it.remove();
+            }
+        }
+        for (Iterator<Upload> it = running.iterator(); it.hasNext(); ) {
+            Upload upload = it.next();
+            if (upload.index == index) {
+                cancel(upload);
+                it.remove();
+            }
+        }
+        acknowledged.clear(index);
+    }
+
+    /**
+     * Discards all uploads and acknowledgements (e.g. if the biometric operation is reset).
+     */
+    public void reset() {
+        for (Upload upload : running) {
+            cancel(upload);
+        }
+        running.clear();
+        pending.clear();
+        acknowledged.clear();
+    }
+
+    private void dispatch() {
+        while (running.size() < maxInFlight && !pending.isEmpty()) {
+            start(pending.remove());
+        }
+    }
+
+    private void start(@NonNull final Upload upload) {
+        running.add(upload);
+
+        upload.taskId = backgroundHandler.runOnBackgroundThread(
+                () -> {
+                    BwsCall<?> call = upload.upload.get();
+                    upload.call = call;
+                    if (upload.cancelled) {
+                        call.cancel();  // discarded while the upload was prepared
+                    }
+                    call.execute();
+                },
+                () -> {
+                    if (upload.cancelled) {
+                        return;
+                    }
+                    if (acknowledge(upload.index) && upload.onSuccess != null) {
+                        upload.onSuccess.run();
+                    }
+                    dispatch();
+                },
+                e -> {
+                    if (upload.cancelled) {
+                        return;
+                    }
+                    if (upload.onError != null) {
+                        upload.onError.accept(e);
+                    }
+                    dispatch();
+                },
+                () -> {
+                    if (!running.remove(upload)) {
+                        return;  // discarded in the meantime
+                    }
+                    if (upload.onComplete != null) {
+                        upload.onComplete.run();
+                    }
+                });
+    }
+
+    private void cancel(@NonNull Upload upload) {
+        upload.cancelled = true;
+        BwsCall<?> call = upload.call;
+        if (call != null) {
+            call.cancel();
+        }
+        if (upload.taskId != null) {
+            backgroundHandler.unsubscribeFromBackgroundTask(upload.taskId);
+        }
+    }
+
+    private static final class Upload {
+
+        private final int index;
+        private final Supplier<BwsCall<?>> upload;
+        private final Runnable onSuccess;
+        private final Consumer<RuntimeException> onError;
+        private final Runnable onComplete;
+
+        private Integer taskId;
+        // accessed by the background thread as well
+        private volatile BwsCall<?> call;
+        private volatile boolean cancelled;
+
+        private Upload(int index, @NonNull Supplier<BwsCall<?>> upload, @Nullable Runnable onSuccess,
+                       @Nullable Consumer<RuntimeException> onError, @Nullable Runnable onComplete) {
+            this.index = index;
+            this.upload = upload;
+            this.onSuccess = onSuccess;
+            this.onError = onError;
+            this.onComplete = onComplete;
+        }
+    }
+}
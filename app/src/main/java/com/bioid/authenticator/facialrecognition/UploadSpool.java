@@ -0,0 +1,654 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.bioid.authenticator.base.functional.Supplier;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.network.HttpRequest;
+import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Disk-backed spool for encoded image uploads, so that captured images survive a connectivity gap
+ * and the recreation of the fragment (or even of the process) until they have been uploaded.
+ * <p/>
+ * The spool is an append-only file of records.
+ * Each record holds the encoded payload together with the BCID of the user, the token, the index and the movement direction
+ * of the upload. Acknowledgements are appended as records as well, so written data is never modified.
+ * The payloads are never held on the heap as a whole: they are written into a staging file while they are encoded,
+ * which is copied to the end of the spool file afterwards, and the upload reads them directly from a memory mapping.
+ * The spool is only locked for the copy, so encoding a payload does not block other appends or reads.
+ * <p/>
+ * Records belong to the user (identified by the BCID) and to a token and expire together with the token.
+ * Records of other users are neither returned nor discarded, so an enrollment of another user on the same device
+ * does not pick up or lose the spooled uploads of someone else.
+ * Clearing the spool truncates the file unless a payload is being read at that moment or records of other users are still
+ * valid (the clearing is appended as a record then). The file is also truncated as soon as it is opened without holding
+ * any record which is still valid, so it does not grow across biometric operations.
+ * A record is written completely before its header, so a record which was torn by a crash is ignored.
+ * <p/>
+ * I/O failures are logged and the spool does continue without the affected record (the upload works without spooling).
+ * The file is opened and read on first use and payloads are written while they are produced, therefore the spool
+ * should not be used on the main thread.
+ * This class is thread-safe.
+ */
+public class UploadSpool {
+
+    private static final String FILE_NAME = "upload_spool";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Upper bound for the size of the file, further payloads are not spooled.
+     */
+    @VisibleForTesting
+    static final int MAX_SIZE_IN_BYTES = 16 * 1024 * 1024;
+
+    // record header: length of the record body and its CRC32
+    private static final int HEADER_SIZE = 4 + 4;
+    // record body: type, expiration time, index and token (followed by BCID, direction, content type and payload for payloads)
+    // or type and BCID (for clearings)
+    private static final byte TYPE_PAYLOAD = 1;
+    private static final byte TYPE_ACKNOWLEDGEMENT = 2;
+    private static final byte TYPE_CLEAR = 3;
+
+    private static UploadSpool defaultSpool;
+
+    private final File file;
+    private final File stagingDir;
+    private final LoggingHelper log;
+    private final Supplier<Long> clockInMillis;
+
+    // records by token and index, only the last payload written for an index is kept
+    private final Map<String, Record> records = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long size;
+    // incremented whenever the file is truncated, the mappings of the records created before are invalid afterwards
+    private int generation;
+    // number of payloads currently being read from their mapping, the file must not be truncated meanwhile
+    private int activeReads;
+
+    /**
+     * Returns the process-wide spool, which has to be shared because the file must not be appended by multiple instances.
+     */
+    @NonNull
+    public static synchronized UploadSpool getDefault(@NonNull Context ctx) {
+        if (defaultSpool == null) {
+            Context appCtx = ctx.getApplicationContext();
+            // staging files are only left behind by a crash, the cache directory is cleaned up by the system
+            defaultSpool = new UploadSpool(new File(appCtx.getNoBackupFilesDir(), FILE_NAME), appCtx.getCacheDir(),
+                    LoggingHelperFactory.create(UploadSpool.class), System::currentTimeMillis);
+        }
+        return defaultSpool;
+    }
+
+    @VisibleForTesting
+    UploadSpool(@NonNull File file, @NonNull File stagingDir, @NonNull LoggingHelper log, @NonNull Supplier<Long> clockInMillis) {
+        this.file = file;
+        this.stagingDir = stagingDir;
+        this.log = log;
+        this.clockInMillis = clockInMillis;
+    }
+
+    /**
+     * Appends the encoded payload of an upload, a payload spooled before for the same token and index is replaced.
+     * The payload is written into a staging file without locking the spool (e.g. the image is encoded while it is spooled)
+     * and copied into the spool file afterwards.
+     *
+     * @param bcid            the BCID of the user the upload belongs to
+     * @param token           the token the upload belongs to
+     * @param expiresAtMillis the time (in milliseconds since the epoch) when the token expires
+     * @param payload         writes the payload, it is written exactly once
+     * @return the spooled record or null if the payload could not be spooled
+     */
+    @Nullable
+    public Record append(@NonNull String bcid, @NonNull String token, long expiresAtMillis, @IntRange(from = 0) int index,
+                         @NonNull MovementDirection direction, @NonNull String contentType,
+                         @NonNull HttpRequest.StreamingBody payload) {
+        if (isExpired(expiresAtMillis)) {
+            log.w("token already expired, upload of image %d is not spooled", index);
+            return null;
+        }
+
+        byte[] tokenBytes = token.getBytes(UTF_8);
+        byte[] bcidBytes = bcid.getBytes(UTF_8);
+        byte[] contentTypeBytes = contentType.getBytes(UTF_8);
+        ByteBuffer metadata = ByteBuffer.allocate(
+                1 + 8 + 4 + 2 + tokenBytes.length + 2 + bcidBytes.length + 1 + 2 + contentTypeBytes.length);
+        metadata.put(TYPE_PAYLOAD).putLong(expiresAtMillis).putInt(index);
+        putString(metadata, tokenBytes);
+        putString(metadata, bcidBytes);
+        metadata.put((byte) direction.ordinal());
+        putString(metadata, contentTypeBytes);
+
+        File staging = null;
+        try {
+            staging = File.createTempFile(FILE_NAME, null, stagingDir);
+            try (FileChannel stagingChannel = new RandomAccessFile(staging, "rw").getChannel()) {
+                RecordOutputStream body = new RecordOutputStream(stagingChannel, 0, MAX_SIZE_IN_BYTES - HEADER_SIZE);
+                body.write(metadata.array());
+                payload.writeTo(body);
+                body.flush();
+
+                return appendPayloadRecord(stagingChannel, body, metadata.capacity(), bcid, token, expiresAtMillis, index,
+                        direction, contentType);
+            }
+        } catch (SpoolFullException e) {
+            log.w("spool is full, upload of image %d is not spooled", index);
+            return null;
+        } catch (IOException e) {
+            log.e(e, "failed to spool upload of image %d", index);
+            return null;
+        } finally {
+            if (staging != null && !staging.delete()) {
+                log.w("failed to delete staging file %s", staging);
+            }
+        }
+    }
+
+    @NonNull
+    private synchronized Record appendPayloadRecord(@NonNull FileChannel staging, @NonNull RecordOutputStream body,
+                                                    int metadataLength, @NonNull String bcid, @NonNull String token,
+                                                    long expiresAtMillis, int index, @NonNull MovementDirection direction,
+                                                    @NonNull String contentType) throws IOException {
+        ByteBuffer mapping = appendRecord(staging, body.length, body.getChecksum());
+        mapping.position(metadataLength);
+        Record record = new Record(this, bcid, token, expiresAtMillis, index, direction, contentType, mapping.slice());
+        records.put(key(token, index), record);
+        return record;
+    }
+
+    /**
+     * Records that the upload with the given token and index has been acknowledged by the server.
+     */
+    public synchronized void acknowledge(@NonNull String token, @IntRange(from = 0) int index) {
+        open();
+        Record record = records.get(key(token, index));
+        if (record == null || record.acknowledged) {
+            return;
+        }
+
+        byte[] tokenBytes = token.getBytes(UTF_8);
+        ByteBuffer metadata = ByteBuffer.allocate(1 + 8 + 4 + 2 + tokenBytes.length);
+        metadata.put(TYPE_ACKNOWLEDGEMENT).putLong(record.expiresAtMillis).putInt(index);
+        putString(metadata, tokenBytes);
+
+        try {
+            appendRecord(metadata.array());
+        } catch (IOException e) {
+            // the upload will be repeated if the spool is resumed, which is harmless
+            log.e(e, "failed to spool acknowledgement of image %d", index);
+        }
+        record.acknowledged = true;
+    }
+
+    /**
+     * Returns the spooled record with the given token and index or null if there is no such record which is still valid.
+     */
+    @Nullable
+    public synchronized Record get(@NonNull String token, @IntRange(from = 0) int index) {
+        open();
+        Record record = records.get(key(token, index));
+        return record == null || isExpired(record.expiresAtMillis) ? null : record;
+    }
+
+    /**
+     * Returns all records of the given user which are still valid (including the acknowledged ones).
+     */
+    @NonNull
+    public synchronized List<Record> getRecords(@NonNull String bcid) {
+        open();
+        List<Record> valid = new ArrayList<>(records.size());
+        for (Record record : records.values()) {
+            if (record.bcid.equals(bcid) && !isExpired(record.expiresAtMillis)) {
+                valid.add(record);
+            }
+        }
+        return Collections.unmodifiableList(valid);
+    }
+
+    /**
+     * Discards all records of the given user (e.g. if the biometric operation is completed or abandoned).
+     * The file is truncated if no payload is being read and there are no valid records of other users,
+     * otherwise the space is reclaimed by a later clearing or as soon as the spool is opened again.
+     * Payloads of discarded records can not be written anymore once the file has been truncated.
+     */
+    public synchronized void clear(@NonNull String bcid) {
+        open();
+        if (activeReads == 0 && !hasValidRecords(bcid) && truncate()) {
+            return;
+        }
+        if (!removeRecords(bcid)) {
+            return;
+        }
+
+        byte[] bcidBytes = bcid.getBytes(UTF_8);
+        ByteBuffer metadata = ByteBuffer.allocate(1 + 2 + bcidBytes.length);
+        metadata.put(TYPE_CLEAR);
+        putString(metadata, bcidBytes);
+        try {
+            appendRecord(metadata.array());
+        } catch (IOException e) {
+            log.e(e, "failed to clear spool");
+        }
+    }
+
+    /**
+     * @param exceptOfBcid records of this user are not taken into account (all records are if null)
+     */
+    private boolean hasValidRecords(@Nullable String exceptOfBcid) {
+        for (Record record : records.values()) {
+            if (!record.bcid.equals(exceptOfBcid) && !isExpired(record.expiresAtMillis)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if there was any record of the given user
+     */
+    private boolean removeRecords(@NonNull String bcid) {
+        boolean removed = false;
+        for (Iterator<Record> it = records.values().iterator(); it.hasNext(); ) {
+            if (it.next().bcid.equals(bcid)) {
+                it.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Truncates the file, which invalidates the mappings of all records.
+     *
+     * @return true if the file has been truncated
+     */
+    private boolean truncate() {
+        if (channel == null) {
+            return false;
+        }
+        try {
+            channel.truncate(0);
+        } catch (IOException e) {
+            log.e(e, "failed to truncate spool");
+            return false;
+        }
+        records.clear();
+        size = 0;
+        generation++;
+        return true;
+    }
+
+    private synchronized void startReading(@NonNull Record record) throws IOException {
+        if (record.generation != generation) {
+            throw new IOException("spooled upload of image " + record.index + " has been discarded");
+        }
+        activeReads++;
+    }
+
+    private synchronized void stopReading() {
+        activeReads--;
+    }
+
+    /**
+     * Opens the file (if not already done) and reads the records written before.
+     * Reading stops at the first incomplete or corrupt record and the file is truncated there.
+     */
+    private void open() {
+        if (channel != null) {
+            return;
+        }
+
+        try {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            size = channel.size();
+            if (size > 0) {
+                readRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+            if (!hasValidRecords(null)) {
+                // no spooled data is needed anymore
+                records.clear();
+                size = 0;
+            }
+            channel.truncate(size);
+            log.d("opened spool with %d records (%d bytes)", records.size(), size);
+        } catch (IOException e) {
+            log.e(e, "failed to open spool, continuing with an empty spool");
+            records.clear();
+            size = 0;
+        }
+    }
+
+    private void readRecords(@NonNull MappedByteBuffer mapping) {
+        long end = 0;
+        while (mapping.remaining() >= HEADER_SIZE) {
+            int length = mapping.getInt();
+            int checksum = mapping.getInt();
+            if (length <= 0 || length > mapping.remaining()) {
+                break;
+            }
+
+            ByteBuffer body = mapping.slice();
+            body.limit(length);
+            mapping.position(mapping.position() + length);
+            if (checksum != checksum(body.duplicate())) {
+                log.w("skipping corrupt record at %d", end);
+                break;
+            }
+            readRecord(body);
+            end = mapping.position();
+        }
+        size = end;
+    }
+
+    private void readRecord(@NonNull ByteBuffer body) {
+        byte type = body.get();
+        if (type == TYPE_CLEAR) {
+            removeRecords(getString(body));
+            return;
+        }
+
+        long expiresAtMillis = body.getLong();
+        int index = body.getInt();
+        String token = getString(body);
+        if (type == TYPE_ACKNOWLEDGEMENT) {
+            Record record = records.get(key(token, index));
+            if (record != null) {
+                record.acknowledged = true;
+            }
+            return;
+        }
+
+        String bcid = getString(body);
+        MovementDirection direction = MovementDirection.values()[body.get()];
+        String contentType = getString(body);
+        records.put(key(token, index),
+                new Record(this, bcid, token, expiresAtMillis, index, direction, contentType, body.slice()));
+    }
+
+    /**
+     * Appends a record with the given body at the end of the file.
+     */
+    private void appendRecord(@NonNull byte[] body) throws IOException {
+        long start = reserve(body.length);
+        try {
+            writeFully(channel, ByteBuffer.wrap(body), start + HEADER_SIZE);
+        } catch (IOException e) {
+            channel.truncate(start);
+            throw e;
+        }
+        commit(start, body.length, checksum(ByteBuffer.wrap(body)));
+    }
+
+    /**
+     * Appends a record whose body has been written to the given staging file before.
+     *
+     * @return the mapping of the record body
+     * @throws SpoolFullException if the file would exceed its maximum size
+     */
+    @NonNull
+    private ByteBuffer appendRecord(@NonNull FileChannel staging, int length, int checksum) throws IOException {
+        long start = reserve(length);
+        try {
+            // the body is written behind the end of the file (the header is missing yet), which transferFrom() does not allow
+            channel.position(start + HEADER_SIZE);
+            long copied = 0;
+            while (copied < length) {
+                long n = staging.transferTo(copied, length - copied, channel);
+                if (n <= 0) {
+                    throw new IOException("staging file is incomplete");
+                }
+                copied += n;
+            }
+        } catch (IOException e) {
+            channel.truncate(start);
+            throw e;
+        }
+        commit(start, length, checksum);
+        return channel.map(FileChannel.MapMode.READ_ONLY, start + HEADER_SIZE, length);
+    }
+
+    /**
+     * Returns the position of a new record with a body of the given length.
+     *
+     * @throws SpoolFullException if the file would exceed its maximum size
+     */
+    private long reserve(int length) throws IOException {
+        open();
+        if (channel == null) {
+            throw new IOException("spool is not open");
+        }
+        if (size + HEADER_SIZE + length > MAX_SIZE_IN_BYTES) {
+            throw new SpoolFullException();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the header of a record whose body has been written, the header is written last so a record without header
+     * marks the end of the file.
+     */
+    private void commit(long start, int length, int checksum) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(length).putInt(checksum).flip();
+        writeFully(channel, header, start);
+        size = start + HEADER_SIZE + length;
+    }
+
+    private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private boolean isExpired(long expiresAtMillis) {
+        return clockInMillis.get() >= expiresAtMillis;
+    }
+
+    private static int checksum(@NonNull ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(8 * 1024, Math.max(1, buffer.remaining()))];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void putString(@NonNull ByteBuffer buffer, @NonNull byte[] value) {
+        buffer.putShort((short) value.length).put(value);
+    }
+
+    @NonNull
+    private static String getString(@NonNull ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(value);
+        return new String(value, UTF_8);
+    }
+
+    @NonNull
+    private static String key(@NonNull String token, int index) {
+        return index + ":" + token;
+    }
+
+    /**
+     * Writes a record body at the given position of the (staging) file and calculates its checksum meanwhile.
+     */
+    private static final class RecordOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+        private final long start;
+        private final long maxEnd;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        private final CRC32 crc = new CRC32();
+        // number of bytes accepted, the ones which are still buffered included
+        private int length;
+        private int written;
+
+        private RecordOutputStream(@NonNull FileChannel channel, long start, long maxEnd) {
+            this.channel = channel;
+            this.start = start;
+            this.maxEnd = maxEnd;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] bytes, int offset, int count) throws IOException {
+            if (start + length + count > maxEnd) {
+                throw new SpoolFullException();
+            }
+            crc.update(bytes, offset, count);
+            length += count;
+
+            while (count > 0) {
+                int n = Math.min(count, buffer.remaining());
+                buffer.put(bytes, offset, n);
+                offset += n;
+                count -= n;
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flip();
+            int buffered = buffer.remaining();
+            writeFully(channel, buffer, start + written);
+            written += buffered;
+            buffer.clear();
+        }
+
+        private int getChecksum() {
+            return (int) crc.getValue();
+        }
+    }
+
+    private static final class SpoolFullException extends IOException {
+    }
+
+    /**
+     * A spooled upload whose payload is read from the spool file.
+     */
+    public static class Record {
+
+        private final UploadSpool spool;
+        private final int generation;
+        private final String bcid;
+        private final String token;
+        private final long expiresAtMillis;
+        private final int index;
+        private final MovementDirection direction;
+        private final String contentType;
+        private final ByteBuffer payload;
+        // written by the spool only
+        private volatile boolean acknowledged;
+
+        private Record(@NonNull UploadSpool spool, @NonNull String bcid, @NonNull String token, long expiresAtMillis, int index,
+                       @NonNull MovementDirection direction, @NonNull String contentType, @NonNull ByteBuffer payload) {
+            this.spool = spool;
+            this.generation = spool.generation;
+            this.bcid = bcid;
+            this.token = token;
+            this.expiresAtMillis = expiresAtMillis;
+            this.index = index;
+            this.direction = direction;
+            this.contentType = contentType;
+            this.payload = payload;
+        }
+
+        @NonNull
+        public String getBcid() {
+            return bcid;
+        }
+
+        @NonNull
+        public String getToken() {
+            return token;
+        }
+
+        public long getExpiresAtMillis() {
+            return expiresAtMillis;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        @NonNull
+        public MovementDirection getDirection() {
+            return direction;
+        }
+
+        @NonNull
+        public String getContentType() {
+            return contentType;
+        }
+
+        public boolean isAcknowledged() {
+            return acknowledged;
+        }
+
+        public int getPayloadSize() {
+            return payload.remaining();
+        }
+
+        /**
+         * Returns a body which writes the spooled payload, it can be written multiple times (e.g. for retries).
+         * Writing fails with an IOException once the record has been discarded by {@link UploadSpool#clear()}.
+         */
+        @NonNull
+        public HttpRequest.StreamingBody asBody() {
+            return new HttpRequest.StreamingBody() {
+                @Override
+                public void writeTo(OutputStream output) throws IOException {
+                    spool.startReading(Record.this);
+                    try {
+                        ByteBuffer buffer = payload.duplicate();
+                        byte[] chunk = new byte[Math.min(8 * 1024, Math.max(1, buffer.remaining()))];
+                        while (buffer.hasRemaining()) {
+                            int n = Math.min(chunk.length, buffer.remaining());
+                            buffer.get(chunk, 0, n);
+                            output.write(chunk, 0, n);
+                        }
+                    } finally {
+                        spool.stopReading();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "Record{index=" + index + ", direction=" + direction + ", payload=" + getPayloadSize() + " bytes"
+                    + ", acknowledged=" + acknowledged + '}';
+        }
+    }
+}
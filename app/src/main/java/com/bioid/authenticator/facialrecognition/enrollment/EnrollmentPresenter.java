@@ -1,59 +1,113 @@
 package com.bioid.authenticator.facialrecognition.enrollment;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
+import com.bioid.authenticator.base.image.ImageEncoder;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.logging.LoggingHelperFactory;
+import com.bioid.authenticator.base.network.CircuitOpenException;
+import com.bioid.authenticator.base.network.NoConnectionException;
+import com.bioid.authenticator.base.network.ServerErrorException;
 import com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient;
+import com.bioid.authenticator.base.network.bioid.webservice.BwsCall;
 import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
+import com.bioid.authenticator.base.network.bioid.webservice.token.BwsTokenFactory;
 import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentTokenProvider;
 import com.bioid.authenticator.base.threading.BackgroundHandler;
 import com.bioid.authenticator.facialrecognition.FacialRecognitionBasePresenter;
 import com.bioid.authenticator.facialrecognition.FacialRecognitionContract;
 import com.bioid.authenticator.facialrecognition.FacialRecognitionFragment;
+import com.bioid.authenticator.facialrecognition.UploadSpool;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Presenter for the {@link FacialRecognitionFragment} doing user enrollment.
+ * <p/>
+ * The encoded images are spooled to disk (see {@link UploadSpool}) until they are acknowledged, so uploads failing because of
+ * a connectivity gap are retried without capturing the images again. If the fragment is recreated while the token is still
+ * valid, the enrollment continues with the spooled uploads instead of starting over.
  */
 public class EnrollmentPresenter extends FacialRecognitionBasePresenter<EnrollmentToken> {
 
+    /**
+     * Four image pairs, one for each position.
+     */
+    private static final int UPLOADS_FOR_ENROLLMENT = 8;
+    /**
+     * Number of retries for spooled uploads which failed because of a transient failure, before the image pair is captured again
+     * (including the delay between the retries this covers connectivity gaps of about half a minute).
+     */
+    private static final int MAX_SPOOLED_UPLOAD_RETRIES = 10;
+
     private final EnrollmentTokenProvider tokenProvider;
     private final BioIdWebserviceClient bioIdWebserviceClient;
+    private final UploadSpool uploadSpool;
+    private final BwsTokenFactory tokenFactory = new BwsTokenFactory();
+
+    /**
+     * Number of uploads (complete image pairs) which have been resumed from the {@link UploadSpool}
+     * and have to be acknowledged before the enrollment does continue.
+     */
+    @VisibleForTesting
+    int resumedUploads;
+    @VisibleForTesting
+    int spooledUploadRetries;
 
     public EnrollmentPresenter(Context ctx, FacialRecognitionContract.View view, EnrollmentTokenProvider tokenProvider) {
         super(ctx, LoggingHelperFactory.create(EnrollmentPresenter.class), view);
 
         this.tokenProvider = tokenProvider;
         this.bioIdWebserviceClient = new BioIdWebserviceClient();
+        this.uploadSpool = UploadSpool.getDefault(ctx);
     }
 
     @VisibleForTesting
     EnrollmentPresenter(Context ctx, LoggingHelper log, FacialRecognitionContract.View view, BackgroundHandler backgroundHandler,
-                        EnrollmentTokenProvider tokenProvider, BioIdWebserviceClient bioIdWebserviceClient) {
+                        EnrollmentTokenProvider tokenProvider, BioIdWebserviceClient bioIdWebserviceClient,
+                        UploadSpool uploadSpool) {
 
         // using null dependencies makes sure the base class functionality won't be tested
-        super(ctx, log, view, backgroundHandler, null, null, null, null, null);
+        super(ctx, log, view, backgroundHandler, null, null, null, null, null, null);
 
         this.tokenProvider = tokenProvider;
         this.bioIdWebserviceClient = bioIdWebserviceClient;
+        this.uploadSpool = uploadSpool;
     }
 
     @Override
     protected void startBiometricOperation() {
         log.d("startBiometricOperation()");
 
+        if (failFastIfBwsUnavailable(bioIdWebserviceClient)) {
+            return;
+        }
+
         view.showInitialisationInfo();
 
         backgroundHandler.runOnBackgroundThread(
-                () -> tokenProvider.requestEnrollmentToken(ctx),
+                () -> {
+                    // the token of spooled uploads is used again, so the images uploaded before are still part of the enrollment
+                    EnrollmentToken spooledToken = restoreSpooledToken();
+                    return spooledToken != null ? spooledToken : tokenProvider.requestEnrollmentToken(ctx);
+                },
                 token -> {
                     bwsToken = token;
                     failedOperations = 0;  // bound to token
+                    spooledUploadRetries = 0;
                     log.d("using token: %s", bwsToken);
 
-                    view.promptForEnrollmentProcessExplanation();
+                    if (!resumeSpooledUploads()) {
+                        view.promptForEnrollmentProcessExplanation();
+                    }
                 }, e -> {
                     resetBiometricOperation();
                     showWarningOrError(e);
@@ -61,6 +115,76 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
                 view::hideMessages);
     }
 
+    /**
+     * Returns the token of the most recently spooled upload of the user which is still valid or null if there is none.
+     * Uploads spooled for other users are ignored.
+     */
+    @Nullable
+    private EnrollmentToken restoreSpooledToken() {
+        List<UploadSpool.Record> records = uploadSpool.getRecords(tokenProvider.getBcid());
+        if (records.isEmpty()) {
+            return null;
+        }
+
+        try {
+            return tokenFactory.newEnrollmentToken(records.get(records.size() - 1).getToken());
+        } catch (IllegalArgumentException e) {
+            log.w("discarding spooled uploads with invalid token (%s)", e.getMessage());
+            uploadSpool.clear(tokenProvider.getBcid());
+            return null;
+        }
+    }
+
+    /**
+     * Continues the enrollment with the complete image pairs spooled for the current token.
+     * Pending uploads are submitted again, a single reference image is captured again together with its image with motion.
+     *
+     * @return true if the enrollment does continue, false if there is nothing to resume
+     */
+    private boolean resumeSpooledUploads() {
+        List<UploadSpool.Record> records = getSpooledRecords();
+        BitSet spooled = new BitSet();
+        for (UploadSpool.Record record : records) {
+            spooled.set(record.getIndex());
+        }
+        int spooledInSequence = spooled.nextClearBit(0);
+        resumedUploads = Math.min(spooledInSequence - spooledInSequence % 2, UPLOADS_FOR_ENROLLMENT);
+        if (resumedUploads == 0) {
+            return false;
+        }
+
+        log.i("resuming enrollment with %d spooled uploads", resumedUploads);
+        for (UploadSpool.Record record : records) {
+            if (record.getIndex() >= resumedUploads) {
+                continue;
+            }
+            if (record.isAcknowledged()) {
+                uploadScheduler.acknowledge(record.getIndex());
+            } else {
+                submitSpooledUpload(record, true);
+            }
+        }
+
+        if (uploadScheduler.areAcknowledged(resumedUploads)) {
+            continueWithUploads(resumedUploads);
+        } else {
+            view.showUploadingImagesInfo();
+            view.showLoadingIndicator();
+        }
+        return true;
+    }
+
+    @NonNull
+    private List<UploadSpool.Record> getSpooledRecords() {
+        List<UploadSpool.Record> records = new ArrayList<>();
+        for (UploadSpool.Record record : uploadSpool.getRecords(tokenProvider.getBcid())) {
+            if (record.getToken().equals(bwsToken.getToken())) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
     @Override
     protected void onFaceDetected() {
         throw new IllegalStateException("onFaceDetected() called on EnrollmentPresenter");
@@ -82,26 +206,31 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
     public void promptForProcessExplanationRejected() {
         log.d("promptForProcessExplanationRejected()");
 
+        clearUploadSpool(null);
         view.navigateBack(false);
     }
 
     private void startEnrollmentProcess() {
         log.d("startEnrollmentProcess() [failedOperations=%d]", failedOperations);
 
-        captureImagePair(0, MovementDirection.any, MovementDirection.any);
+        // all images are captured again, once the images spooled before have been discarded
+        resumedUploads = 0;
+        clearUploadSpool(() -> captureImagePair(0, MovementDirection.any, MovementDirection.any));
     }
 
     @Override
     public void promptToTurn90DegreesAccepted() {
         log.d("promptToTurn90DegreesAccepted()");
 
-        captureImagePair(successfulUploads, MovementDirection.any, MovementDirection.any);
+        // continuing with the image pair after the uploaded ones
+        captureImagePair(uploadScheduler.countAcknowledgedInSequence(), MovementDirection.any, MovementDirection.any);
     }
 
     @Override
     public void promptToTurn90DegreesRejected() {
         log.d("promptToTurn90DegreesRejected()");
 
+        clearUploadSpool(null);
         view.navigateBack(false);
     }
 
@@ -110,16 +239,68 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
         view.hideMovementIndicator();
     }
 
+    @NonNull
+    @Override
+    protected BwsCall<Void> newUploadCall(@NonNull BioIdWebserviceClient client, @NonNull Bitmap bitmap,
+                                          @Nullable ImageEncoder encoder, @NonNull EnrollmentToken token,
+                                          @NonNull MovementDirection direction, int index) {
+        // the image is encoded directly into the spool
+        UploadSpool.Record record = uploadSpool.append(tokenProvider.getBcid(), token.getToken(),
+                TimeUnit.SECONDS.toMillis(token.getExpirationTime()), index, direction, client.getUploadContentType(),
+                client.newUploadImageBody(bitmap, encoder));
+        if (record == null) {
+            // uploading without the spool, a failed upload leads to capturing the image pair again
+            return client.newUploadImageCall(bitmap, encoder, token, direction, index);
+        }
+        return newSpooledUploadCall(client, record, token);
+    }
+
+    @NonNull
+    private static BwsCall<Void> newSpooledUploadCall(@NonNull BioIdWebserviceClient client, @NonNull UploadSpool.Record record,
+                                                      @NonNull EnrollmentToken token) {
+        // the size of a spooled payload is known, so the upload does not need to be chunked
+        return client.newUploadCall(record.asBody(), record.getPayloadSize(), record.getContentType(), token,
+                record.getDirection(), record.getIndex());
+    }
+
+    private void submitSpooledUpload(@NonNull final UploadSpool.Record record, final boolean showUploadingInfo) {
+        log.d("submitSpooledUpload(record=%s, showUploadingInfo=%s)", record, showUploadingInfo);
+
+        final EnrollmentToken token = bwsToken;
+        final int index = record.getIndex();
+        uploadScheduler.submit(index,
+                () -> newSpooledUploadCall(bioIdWebserviceClient, record, token).withDeadline(UPLOAD_DEADLINE_IN_MILLIS),
+                () -> onUploadSuccessful(index),
+                e -> onUploadFailed(index, e),
+                () -> {
+                    if (showUploadingInfo) {
+                        view.hideMessages();
+                        view.hideLoadingIndicator();
+                    }
+                });
+    }
+
     @Override
-    protected void onUploadSuccessful() {
-        log.d("onUploadSuccessful() [successfulUploads=%d, failedUploads=%d]", ++successfulUploads, failedUploads);
+    protected void onUploadSuccessful(int index) {
+        log.d("onUploadSuccessful(index=%d) [failedUploads=%d]", index, failedUploads);
+
+        final String token = bwsToken.getToken();
+        backgroundHandler.runOnBackgroundThread(() -> uploadSpool.acknowledge(token, index), null, null, null);
+        // the retries are meant to cover a single connectivity gap
+        spooledUploadRetries = 0;
 
-        if (successfulUploads % 2 == 1) {
+        // the image pairs are captured one after another, so all pairs up to this one (and all resumed ones) have to be uploaded
+        int uploadsUpToThisPair = Math.max(index - index % 2 + 2, resumedUploads);
+        if (!uploadScheduler.areAcknowledged(uploadsUpToThisPair)) {
             log.d("waiting for second image upload to complete");
             return;
         }
 
-        if (successfulUploads < 8) {
+        continueWithUploads(uploadsUpToThisPair);
+    }
+
+    private void continueWithUploads(int uploads) {
+        if (uploads < UPLOADS_FOR_ENROLLMENT) {
             log.i("entering next position");
             view.promptToTurn90Degrees();
             return;
@@ -129,13 +310,46 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
         enroll();
     }
 
+    @Override
+    protected void onUploadFailed(int index, RuntimeException e) {
+        UploadSpool.Record record = uploadSpool.get(bwsToken.getToken(), index);
+        if (record != null && isTransientFailure(e) && spooledUploadRetries < MAX_SPOOLED_UPLOAD_RETRIES) {
+            log.w("upload of image %d failed (%s), retrying spooled upload in %d ms [spooledUploadRetries=%d]",
+                    index, e.getClass().getSimpleName(), DELAY_TO_RETRY_IN_MILLIS, ++spooledUploadRetries);
+            backgroundHandler.runWithDelay(() -> submitSpooledUpload(record, false), DELAY_TO_RETRY_IN_MILLIS);
+            return;
+        }
+
+        if (index < resumedUploads) {
+            // the image pair of a resumed upload is not being captured, so the enrollment has to start over
+            log.w("resumed upload of image %d failed", index);
+            resetBiometricOperation();
+            showWarningOrError(e);
+            retryWithDelay();
+            return;
+        }
+
+        super.onUploadFailed(index, e);
+    }
+
+    /**
+     * An open circuit breaker is not retried, because it would reject the spooled retries until it is half-open again.
+     */
+    private static boolean isTransientFailure(@NonNull RuntimeException e) {
+        return e instanceof NoConnectionException
+                || (e instanceof ServerErrorException && !(e instanceof CircuitOpenException));
+    }
+
     private void enroll() {
         log.d("enroll()");
 
         view.showEnrollingInfo();
 
         backgroundHandler.runOnBackgroundThread(
-                () -> bioIdWebserviceClient.enroll(bwsToken),
+                () -> {
+                    bioIdWebserviceClient.enroll(bwsToken);
+                    uploadSpool.clear(tokenProvider.getBcid());
+                },
                 () -> {
                     log.i("enrollment successful");
                     view.showEnrollmentSuccess();
@@ -145,6 +359,7 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
                     showWarningOrError(e);
                     if (++failedOperations >= bwsToken.getMaxTries()) {
                         log.e("exceeded maximum number of failed operations (maxTries=%d)", bwsToken.getMaxTries());
+                        clearUploadSpool(null);
                         navigateBackWithDelay(false);
                     } else {
                         retryWithDelay();
@@ -153,6 +368,16 @@ public class EnrollmentPresenter extends FacialRecognitionBasePresenter<Enrollme
                 this::resetBiometricOperation);
     }
 
+    /**
+     * Discards all spooled uploads of the user within the background, because the spool does I/O.
+     *
+     * @param onCleared runs on the calling thread once the spool has been cleared (will not be called if null)
+     */
+    private void clearUploadSpool(@Nullable Runnable onCleared) {
+        String bcid = tokenProvider.getBcid();
+        backgroundHandler.runOnBackgroundThread(() -> uploadSpool.clear(bcid), onCleared, null, null);
+    }
+
     private void retryWithDelay() {
         log.d("retryWithDelay()");
 
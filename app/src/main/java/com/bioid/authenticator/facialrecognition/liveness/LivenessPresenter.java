@@ -43,6 +43,10 @@ public class LivenessPresenter extends FacialRecognitionBasePresenter<LivenessTo
     protected void startBiometricOperation() {
         log.i("startBiometricOperation()");
 
+        if (failFastIfBwsUnavailable(bioIdWebserviceClient)) {
+            return;
+        }
+
         view.showInitialisationInfo();
 
         backgroundHandler.runWithDelay(() -> backgroundHandler.runOnBackgroundThread(
@@ -147,40 +151,38 @@ public class LivenessPresenter extends FacialRecognitionBasePresenter<LivenessTo
     }
 
     @Override
-    protected void onUploadSuccessful() {
-        log.d("onUploadSuccessful() [successfulUploads=%d, failedUploads=%d]", ++successfulUploads, failedUploads);
-
-        if (successfulUploads % 2 == 1) {
-            log.d("waiting for second image upload to complete");
-            return;
-        }
-
-        // reference image and image with motion are uploaded
-        if (bwsToken.isChallengeResponse()) {
-            MovementDirection[] currentChallenge = getCurrentChallenge();
-            if (successfulUploads == currentChallenge.length + 1) {
-                // no more image pairs within challenge
-                // using +1 because the first image with direction "any" is never specified in the challenge
-                livenessDetection();
-            } else {
-                log.d("waiting for other image uploads from challenge to complete");
-            }
-        } else {
-            // no challenge response -> one image pair is enough
+    protected void onUploadSuccessful(int index) {
+        log.d("onUploadSuccessful(index=%d) [failedUploads=%d]", index, failedUploads);
+
+        // using +1 because the first image with direction "any" is never specified in the challenge
+        // (no challenge response -> one image pair is enough)
+        int requiredUploads = bwsToken.isChallengeResponse() ? getCurrentChallenge().length + 1 : 2;
+        if (uploadScheduler.areAcknowledged(requiredUploads)) {
+            // all images are uploaded, the last one might not have been the last one captured
             livenessDetection();
+        } else {
+            log.d("waiting for other image uploads to complete");
         }
     }
 
     @Override
-    protected void onUploadFailed(RuntimeException e) {
-        if (bwsToken.isChallengeResponse() && (e instanceof NoFaceFoundException)) {
+    protected void onUploadFailed(int index, RuntimeException e) {
+        // an image pair of the challenge cannot be captured again after the capturing has moved on to the next pair
+        boolean currentImagePair = isPartOfCurrentImagePair(index);
+        boolean proceedWithChallenge = currentImagePair ? e instanceof NoFaceFoundException : isQualityRejection(e);
+        if (bwsToken.isChallengeResponse() && proceedWithChallenge) {
             // capturing the image pair again would not work because of the current challenge
             // -> complete the current challenge even if it will fail for sure
             // -> after unsuccessful liveness detection the user can try again with the next challenge
             log.w("got %s during Challenge-Response, proceeding with challenge", e.getClass().getSimpleName());
-            onUploadSuccessful();
+            if (uploadScheduler.acknowledge(index)) {
+                onUploadSuccessful(index);
+            }
+        } else if (bwsToken.isChallengeResponse() && !currentImagePair) {
+            // e.g. a connection or credential error must not be hidden behind a failing verification
+            abortAfterUploadOfPreviousImagePairFailed(index, e);
         } else {
-            super.onUploadFailed(e);
+            super.onUploadFailed(index, e);
         }
     }
 
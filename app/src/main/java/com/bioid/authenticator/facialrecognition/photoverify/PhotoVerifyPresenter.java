@@ -90,10 +90,10 @@ public class PhotoVerifyPresenter extends FacialRecognitionBasePresenter<NoopTok
     }
 
     @Override
-    protected void onUploadSuccessful() {}
+    protected void onUploadSuccessful(int index) {}
 
     @Override
-    protected void onUploadFailed(RuntimeException e) {}
+    protected void onUploadFailed(int index, RuntimeException e) {}
 
     @Override
     public void promptForProcessExplanationAccepted() {
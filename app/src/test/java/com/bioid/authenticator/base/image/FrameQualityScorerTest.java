@@ -0,0 +1,110 @@
+package com.bioid.authenticator.base.image;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FrameQualityScorerTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private MetricsHelper metrics;
+
+    private FrameQualityScorer scorer;
+
+    @Before
+    public void setUp() throws Exception {
+        scorer = new FrameQualityScorer(log, metrics, new ImageTransformer(), FrameQualityScorer.Thresholds.DEFAULT);
+    }
+
+    @Test
+    public void score_sharpEdgesResultInHigherSharpnessThanSmoothGradient() throws Exception {
+        FrameQuality sharp = scorer.score(stripes(16, 60, 190));
+        FrameQuality smooth = scorer.score(gradient(60, 190));
+
+        assertThat(sharp.sharpness, is(greaterThan(smooth.sharpness)));
+        assertThat(scorer.isAcceptable(sharp), is(true));
+        assertThat(scorer.isAcceptable(smooth), is(false));
+    }
+
+    @Test
+    public void score_calculatesBrightnessAndContrast() throws Exception {
+        FrameQuality quality = scorer.score(stripes(16, 60, 190));
+
+        assertThat(quality.brightness, is(closeTo(125.0, 1.0)));
+        assertThat(quality.contrast, is(closeTo(130.0, 1.0)));
+        assertThat(quality.underexposed, is(0.0));
+        assertThat(quality.overexposed, is(0.0));
+    }
+
+    @Test
+    public void isAcceptable_rejectsUnderexposedFrames() throws Exception {
+        FrameQuality quality = scorer.score(stripes(16, 0, 60));
+
+        assertThat(quality.underexposed, is(closeTo(0.5, 0.01)));
+        assertThat(scorer.isAcceptable(quality), is(false));
+        verify(metrics).count(FrameQualityScorer.METRIC_REJECTED);
+    }
+
+    @Test
+    public void isAcceptable_rejectsOverexposedFrames() throws Exception {
+        FrameQuality quality = scorer.score(stripes(16, 200, 255));
+
+        assertThat(quality.brightness, is(greaterThan(FrameQualityScorer.Thresholds.DEFAULT.maxBrightness)));
+        assertThat(scorer.isAcceptable(quality), is(false));
+    }
+
+    @Test
+    public void isAcceptable_rejectsFramesWithoutContrast() throws Exception {
+        FrameQuality quality = scorer.score(stripes(16, 120, 130));
+
+        assertThat(quality.contrast, is(lessThan(FrameQualityScorer.Thresholds.DEFAULT.minContrast)));
+        assertThat(scorer.isAcceptable(quality), is(false));
+    }
+
+    @Test
+    public void score_recordsMetrics() throws Exception {
+        FrameQuality quality = scorer.score(stripes(16, 60, 190));
+
+        verify(metrics).record(FrameQualityScorer.METRIC_SHARPNESS, quality.sharpness);
+        verify(metrics).record(FrameQualityScorer.METRIC_BRIGHTNESS, quality.brightness);
+        verify(metrics).record(FrameQualityScorer.METRIC_CONTRAST, quality.contrast);
+    }
+
+    private static GrayscaleImage stripes(int stripeWidth, int dark, int bright) {
+        byte[] data = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                data[y * WIDTH + x] = (byte) ((x / stripeWidth) % 2 == 0 ? dark : bright);
+            }
+        }
+        return new GrayscaleImage(data, WIDTH, HEIGHT);
+    }
+
+    private static GrayscaleImage gradient(int from, int to) {
+        byte[] data = new byte[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                data[y * WIDTH + x] = (byte) (from + (to - from) * x / (WIDTH - 1));
+            }
+        }
+        return new GrayscaleImage(data, WIDTH, HEIGHT);
+    }
+}
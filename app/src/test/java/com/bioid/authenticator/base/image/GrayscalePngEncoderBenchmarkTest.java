@@ -0,0 +1,64 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares encode time and output size of the sequential and the parallel PNG encoding.
+ * <p>
+ * Only executed if the "benchmark" system property is set (e.g. "./gradlew testBwsDebugUnitTest -Pbenchmark=true").
+ */
+public class GrayscalePngEncoderBenchmarkTest {
+
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int ITERATIONS = 20;
+    private static final int[][] SIZES = {{320, 240}, {640, 480}, {1280, 720}, {1920, 1080}};
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void benchmarkSequentialVsParallel() throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int[] size : SIZES) {
+                GrayscaleImage img = GrayscalePngEncoderTest.image(size[0], size[1]);
+                GrayscalePngEncoder sequential =
+                        new GrayscalePngEncoder(GrayscalePngEncoder.DEFAULT_FILTER, GrayscalePngEncoder.DEFAULT_COMPRESSION_LEVEL,
+                                null, 0);
+                GrayscalePngEncoder parallel =
+                        new GrayscalePngEncoder(GrayscalePngEncoder.DEFAULT_FILTER, GrayscalePngEncoder.DEFAULT_COMPRESSION_LEVEL,
+                                executor, 0);
+
+                System.out.println(String.format(Locale.ENGLISH, "%dx%d (%d threads): sequential %s, parallel %s",
+                        size[0], size[1], threads, measure(sequential, img), measure(parallel, img)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String measure(GrayscalePngEncoder encoder, GrayscaleImage img) {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            encoder.encode(img);
+        }
+
+        int length = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            length = encoder.encode(img).length;
+        }
+        double millis = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+
+        return String.format(Locale.ENGLISH, "%.2f ms / %d bytes", millis, length);
+    }
+}
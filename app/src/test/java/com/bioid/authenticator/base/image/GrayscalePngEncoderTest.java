@@ -0,0 +1,149 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class GrayscalePngEncoderTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    @Test
+    public void encode_allFiltersCanBeDecoded() throws Exception {
+        GrayscaleImage img = image();
+
+        for (GrayscalePngEncoder.Filter filter : GrayscalePngEncoder.Filter.values()) {
+            byte[] png = new GrayscalePngEncoder(filter, GrayscalePngEncoder.DEFAULT_COMPRESSION_LEVEL).encode(img);
+
+            assertDecodesTo(png, img);
+        }
+    }
+
+    @Test
+    public void encode_allCompressionLevelsCanBeDecoded() throws Exception {
+        GrayscaleImage img = image();
+
+        for (int level = 0; level <= 9; level++) {
+            byte[] png = new GrayscalePngEncoder(GrayscalePngEncoder.DEFAULT_FILTER, level).encode(img);
+
+            assertDecodesTo(png, img);
+        }
+    }
+
+    @Test
+    public void encode_encoderCanBeReusedForImagesOfDifferentSize() throws Exception {
+        GrayscalePngEncoder encoder = new GrayscalePngEncoder();
+        GrayscaleImage img = image();
+        GrayscaleImage rotatedImg = new ImageTransformer().rotate(img, 90);
+
+        assertDecodesTo(encoder.encode(img), img);
+        assertDecodesTo(encoder.encode(rotatedImg), rotatedImg);
+        assertDecodesTo(encoder.encode(img), img);
+    }
+
+    @Test
+    public void encode_filteringDoesReduceTheSizeOfSmoothImages() throws Exception {
+        GrayscaleImage img = image();
+
+        int unfiltered = new GrayscalePngEncoder(GrayscalePngEncoder.Filter.NONE, 6).encode(img).length;
+        int filtered = new GrayscalePngEncoder(GrayscalePngEncoder.Filter.PAETH, 6).encode(img).length;
+
+        assertThat(filtered, is(lessThan(unfiltered)));
+    }
+
+    @Test
+    public void encode_parallelEncodingCanBeDecoded() throws Exception {
+        GrayscaleImage img = largeImage();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int level : new int[]{0, 1, 6, 9}) {
+                GrayscalePngEncoder encoder = new GrayscalePngEncoder(GrayscalePngEncoder.DEFAULT_FILTER, level, executor, 0);
+
+                assertDecodesTo(encoder.encode(img), img);
+                assertDecodesTo(encoder.encode(img), img);  // reusing the chunk compressors
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void encode_parallelEncodingIsNearlyAsSmallAsSequentialEncoding() throws Exception {
+        GrayscaleImage img = largeImage();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            int sequential = new GrayscalePngEncoder(GrayscalePngEncoder.DEFAULT_FILTER, 6, null, 0).encode(img).length;
+            int parallel = new GrayscalePngEncoder(GrayscalePngEncoder.DEFAULT_FILTER, 6, executor, 0).encode(img).length;
+
+            assertThat((double) parallel, is(lessThan(sequential * 1.02)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void encode_closedEncoderCannotBeUsedAnymore() throws Exception {
+        GrayscalePngEncoder encoder = new GrayscalePngEncoder();
+        encoder.encode(image());
+        encoder.close();
+
+        encoder.encode(image());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_invalidCompressionLevelIsRejected() throws Exception {
+        new GrayscalePngEncoder(GrayscalePngEncoder.Filter.NONE, 10);
+    }
+
+    private static void assertDecodesTo(byte[] png, GrayscaleImage expected) throws Exception {
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png));
+
+        assertThat(decoded.getType(), is(BufferedImage.TYPE_BYTE_GRAY));
+        assertThat(decoded.getWidth(), is(expected.width));
+        assertThat(decoded.getHeight(), is(expected.height));
+
+        Raster raster = decoded.getRaster();
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                assertThat(raster.getSample(x, y, 0), is(expected.data[y * expected.width + x] & 0xff));
+            }
+        }
+    }
+
+    private static GrayscaleImage image() {
+        return image(WIDTH, HEIGHT);
+    }
+
+    /**
+     * Image which is large enough to be split into multiple chunks.
+     */
+    private static GrayscaleImage largeImage() {
+        return image(640, 480);
+    }
+
+    /**
+     * Smooth gradient with a little noise (like a camera image).
+     */
+    static GrayscaleImage image(int width, int height) {
+        Random random = new Random(42);
+        byte[] data = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                data[y * width + x] = (byte) (x * 2 + y * 3 + random.nextInt(4));
+            }
+        }
+        return new GrayscaleImage(data, width, height);
+    }
+}
@@ -0,0 +1,62 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ImageTransformerTest {
+
+    private final ImageTransformer imageTransformer = new ImageTransformer();
+
+    @Test
+    public void resize_hasTheRequestedSize() throws Exception {
+        GrayscaleImage resized = imageTransformer.resize(gradient(1920, 1080), 640, 360);
+
+        assertThat(resized.width, is(640));
+        assertThat(resized.height, is(360));
+        assertThat(resized.data.length, is(640 * 360));
+    }
+
+    @Test
+    public void resize_keepsTheImageContent() throws Exception {
+        GrayscaleImage resized = imageTransformer.resize(gradient(1280, 960), 500, 375);
+
+        for (int y = 0; y < resized.height; y++) {
+            for (int x = 0; x < resized.width; x++) {
+                int expected = 255 * x / resized.width;
+                int actual = resized.data[y * resized.width + x] & 0xff;
+                assertThat(Math.abs(actual - expected), is(lessThan(4)));
+            }
+        }
+    }
+
+    @Test
+    public void resize_doesAverageFineDetailsInsteadOfSkippingThem() throws Exception {
+        GrayscaleImage stripes = new GrayscaleImage(new byte[1280 * 960], 1280, 960);
+        for (int i = 0; i < stripes.data.length; i++) {
+            stripes.data[i] = (byte) (i % 2 == 0 ? 0 : 255);  // one pixel wide vertical stripes
+        }
+
+        GrayscaleImage resized = imageTransformer.resize(stripes, 400, 300);
+
+        // without averaging only black or only white pixels would be picked
+        for (byte luminance : resized.data) {
+            assertThat(Math.abs((luminance & 0xff) - 128), is(lessThan(64)));
+        }
+    }
+
+    /**
+     * Horizontal gradient from black (left) to white (right).
+     */
+    private static GrayscaleImage gradient(int width, int height) {
+        GrayscaleImage img = new GrayscaleImage(new byte[width * height], width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.data[y * width + x] = (byte) (255 * x / width);
+            }
+        }
+        return img;
+    }
+}
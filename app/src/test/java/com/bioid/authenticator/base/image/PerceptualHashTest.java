@@ -0,0 +1,78 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class PerceptualHashTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void dHash_identicalImagesHaveTheSameHash() throws Exception {
+        assertThat(PerceptualHash.distance(PerceptualHash.dHash(scene(0, 0)), PerceptualHash.dHash(scene(0, 0))), is(0));
+    }
+
+    @Test
+    public void dHash_sensorNoiseDoesHardlyChangeTheHash() throws Exception {
+        GrayscaleImage noisy = scene(0, 0);
+        Random random = new Random(42);
+        for (int i = 0; i < noisy.data.length; i++) {
+            int luminance = (noisy.data[i] & 0xff) + random.nextInt(9) - 4;
+            noisy.data[i] = (byte) Math.max(0, Math.min(255, luminance));
+        }
+
+        int distance = PerceptualHash.distance(PerceptualHash.dHash(scene(0, 0)), PerceptualHash.dHash(noisy));
+
+        assertThat(distance, is(lessThan(3)));
+    }
+
+    @Test
+    public void dHash_movedContentChangesTheHash() throws Exception {
+        int distance = PerceptualHash.distance(PerceptualHash.dHash(scene(0, 0)), PerceptualHash.dHash(scene(120, 40)));
+
+        assertThat(distance, is(greaterThan(5)));
+    }
+
+    @Test
+    public void dHash_rowPaddingIsIgnored() throws Exception {
+        GrayscaleImage img = scene(0, 0);
+        int rowStride = WIDTH + 64;
+        byte[] padded = new byte[rowStride * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            System.arraycopy(img.data, y * WIDTH, padded, y * rowStride, WIDTH);
+        }
+
+        assertThat(PerceptualHash.dHash(padded, WIDTH, HEIGHT, rowStride), is(PerceptualHash.dHash(img)));
+    }
+
+    @Test
+    public void distance_countsDifferingBits() throws Exception {
+        assertThat(PerceptualHash.distance(0b1011L, 0b0001L), is(2));
+        assertThat(PerceptualHash.distance(0L, -1L), is(64));
+    }
+
+    /**
+     * Bright disk (head) in front of a horizontal gradient (background), shifted by the given offset.
+     */
+    private static GrayscaleImage scene(int offsetX, int offsetY) {
+        byte[] data = new byte[WIDTH * HEIGHT];
+        int centerX = WIDTH / 2 + offsetX;
+        int centerY = HEIGHT / 2 + offsetY;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int dx = x - centerX;
+                int dy = y - centerY;
+                boolean head = dx * dx + dy * dy < 120 * 120;
+                data[y * WIDTH + x] = (byte) (head ? 200 : 40 + x * 100 / WIDTH);
+            }
+        }
+        return new GrayscaleImage(data, WIDTH, HEIGHT);
+    }
+}
@@ -0,0 +1,145 @@
+package com.bioid.authenticator.base.image;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Offline evaluation of the upload image formats comparing payload size and encode time on recorded frames.
+ * <p>
+ * Recorded frames are raw Y-Planes (one byte per pixel) named "&lt;name&gt;_&lt;width&gt;x&lt;height&gt;.y",
+ * the directory is passed using the "recordedFrames" property
+ * (e.g. "./gradlew testBwsDebugUnitTest -Pbenchmark=true -PrecordedFrames=/path/to/frames").
+ * Without recorded frames synthetic images are used, which are only meaningful for the lossless formats.
+ * <p>
+ * JPEG is encoded using javax.imageio which comes close to but is not identical with Bitmap.compress on the device.
+ * WebP is not available on the JVM and has to be evaluated on a device.
+ */
+public class UploadImageFormatEvaluationTest {
+
+    private static final int WARM_UP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+    private static final int[] JPEG_QUALITIES = {95, 90, 80, 70};
+    private static final Pattern FRAME_FILE_NAME = Pattern.compile(".*_(\\d+)x(\\d+)\\.y");
+
+    @Before
+    public void setUp() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+    }
+
+    @Test
+    public void evaluateUploadImageFormats() throws Exception {
+        Map<String, Codec> codecs = new LinkedHashMap<>();
+        final GrayscalePngEncoder png = new GrayscalePngEncoder();
+        codecs.put(ImageEncoders.FORMAT_GRAYSCALE_PNG, new Codec() {
+            @Override
+            public byte[] encode(GrayscaleImage img) throws Exception {
+                return png.encode(img);
+            }
+        });
+        for (final int quality : JPEG_QUALITIES) {
+            codecs.put(ImageEncoders.FORMAT_JPEG + " (quality " + quality + ")", new Codec() {
+                @Override
+                public byte[] encode(GrayscaleImage img) throws Exception {
+                    return encodeAsJpeg(img, quality);
+                }
+            });
+        }
+
+        List<GrayscaleImage> frames = loadRecordedFrames();
+        boolean recorded = !frames.isEmpty();
+        if (!recorded) {
+            frames.add(GrayscalePngEncoderTest.image(640, 480));
+            frames.add(GrayscalePngEncoderTest.image(1280, 720));
+        }
+        System.out.println(String.format(Locale.ENGLISH, "%d %s frames", frames.size(), recorded ? "recorded" : "synthetic"));
+
+        for (Map.Entry<String, Codec> codec : codecs.entrySet()) {
+            long totalBytes = 0;
+            double totalMillis = 0.0;
+            for (GrayscaleImage frame : frames) {
+                for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                    codec.getValue().encode(frame);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < ITERATIONS; i++) {
+                    totalBytes += codec.getValue().encode(frame).length;
+                }
+                totalMillis += (System.nanoTime() - start) / 1_000_000.0;
+            }
+
+            int encodings = frames.size() * ITERATIONS;
+            long averageBytes = totalBytes / encodings;
+            System.out.println(String.format(Locale.ENGLISH, "%-22s %.2f ms / %d bytes (%d bytes as data URL)",
+                    codec.getKey(), totalMillis / encodings, averageBytes, 4 * ((averageBytes + 2) / 3)));
+        }
+    }
+
+    private static List<GrayscaleImage> loadRecordedFrames() throws Exception {
+        List<GrayscaleImage> frames = new ArrayList<>();
+
+        String directory = System.getProperty("recordedFrames", "");
+        File[] files = directory.isEmpty() ? null : new File(directory).listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Matcher matcher = FRAME_FILE_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    int width = Integer.parseInt(matcher.group(1));
+                    int height = Integer.parseInt(matcher.group(2));
+                    byte[] data = Files.readAllBytes(file.toPath());
+                    if (data.length != width * height) {
+                        throw new IllegalStateException(file + " does not contain " + width + "x" + height + " pixels");
+                    }
+                    frames.add(new GrayscaleImage(data, width, height));
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static byte[] encodeAsJpeg(GrayscaleImage img, int quality) throws Exception {
+        BufferedImage bufferedImage = new BufferedImage(img.width, img.height, BufferedImage.TYPE_BYTE_GRAY);
+        byte[] pixels = ((DataBufferByte) bufferedImage.getRaster().getDataBuffer()).getData();
+        System.arraycopy(img.data, 0, pixels, 0, pixels.length);
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream imageOut = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(bufferedImage, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private interface Codec {
+        byte[] encode(GrayscaleImage img) throws Exception;
+    }
+}
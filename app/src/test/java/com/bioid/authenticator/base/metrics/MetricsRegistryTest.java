@@ -0,0 +1,42 @@
+package com.bioid.authenticator.base.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class MetricsRegistryTest {
+
+    private final MetricsRegistry registry = new MetricsRegistry();
+
+    @Test
+    public void export_passesAllMetricsToExporter() throws Exception {
+        registry.count("upload.retries", 2);
+        registry.record("upload.millis", 100);
+        registry.record("upload.millis", 300);
+
+        @SuppressWarnings("unchecked") Map<String, ?>[] exported = new Map[2];
+        registry.export((counters, statistics) -> {
+            exported[0] = counters;
+            exported[1] = statistics;
+        });
+
+        assertThat(exported[0].get("upload.retries"), is(2L));
+        MetricsRegistry.Statistics stats = (MetricsRegistry.Statistics) exported[1].get("upload.millis");
+        assertThat(stats.getCount(), is(2L));
+        assertThat(stats.getMean(), is(200.0));
+    }
+
+    @Test
+    public void export_exportedMetricsAreNotChangedByLaterRecords() throws Exception {
+        registry.record("upload.millis", 100);
+
+        @SuppressWarnings("unchecked") Map<String, MetricsRegistry.Statistics>[] exported = new Map[1];
+        registry.export((counters, statistics) -> exported[0] = statistics);
+        registry.record("upload.millis", 300);
+
+        assertThat(exported[0].get("upload.millis").getCount(), is(1L));
+    }
+}
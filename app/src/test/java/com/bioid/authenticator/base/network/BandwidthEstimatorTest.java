@@ -0,0 +1,104 @@
+package com.bioid.authenticator.base.network;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+public class BandwidthEstimatorTest {
+
+    private static final long UPLOAD_BYTES = 100 * 1024;
+
+    private long now = 1_000_000;
+    private BandwidthEstimator estimator;
+
+    @Before
+    public void setUp() throws Exception {
+        estimator = new BandwidthEstimator(() -> now);
+    }
+
+    @Test
+    public void getEstimate_isNullWithoutSamples() throws Exception {
+        assertThat(estimator.getEstimate(), is(nullValue()));
+    }
+
+    @Test
+    public void getEstimate_needsRoundTripAndTransferSamples() throws Exception {
+        estimator.addRoundTrip(100);
+        assertThat(estimator.getEstimate(), is(nullValue()));
+
+        estimator.addTransfer(UPLOAD_BYTES, 1_100);
+        BandwidthEstimator.Estimate estimate = estimator.getEstimate();
+
+        assertThat(estimate.roundTripMillis, is(closeTo(100, 0.001)));
+        // 100 KB within 1000 ms (the round trip is not part of the transfer)
+        assertThat(estimate.throughputBytesPerSecond, is(closeTo(UPLOAD_BYTES, 0.001)));
+        assertThat(estimate.predictUploadMillis(UPLOAD_BYTES), is(closeTo(1_100, 0.001)));
+    }
+
+    @Test
+    public void addRoundTrip_smoothsOutliers() throws Exception {
+        estimator.addRoundTrip(100);
+        estimator.addTransfer(UPLOAD_BYTES, 1_100);
+        estimator.addRoundTrip(1_000);
+
+        double roundTripMillis = estimator.getEstimate().roundTripMillis;
+
+        assertThat(roundTripMillis, is(greaterThan(100.0)));
+        assertThat(roundTripMillis, is(lessThan(1_000.0)));
+    }
+
+    @Test
+    public void addTransfer_ignoresRequestsWithoutSignificantBody() throws Exception {
+        estimator.addRoundTrip(100);
+        estimator.addTransfer(BandwidthEstimator.MIN_TRANSFER_BYTES - 1, 10_000);
+
+        assertThat(estimator.getRoundTripPercentile(1.0), is(100.0));
+        assertThat(Double.isNaN(estimator.getThroughputPercentile(1.0)), is(true));
+    }
+
+    @Test
+    public void getEstimate_discardsStaleSamples() throws Exception {
+        estimator.addRoundTrip(100);
+        estimator.addTransfer(UPLOAD_BYTES, 1_100);
+
+        now += BandwidthEstimator.MAX_SAMPLE_AGE_IN_MILLIS + 1;
+
+        assertThat(estimator.getEstimate(), is(nullValue()));
+    }
+
+    @Test
+    public void getRoundTripPercentile_usesRawSamples() throws Exception {
+        for (int i = 1; i <= 10; i++) {
+            estimator.addRoundTrip(i * 100);
+        }
+
+        assertThat(estimator.getRoundTripPercentile(0.5), is(500.0));
+        assertThat(estimator.getRoundTripPercentile(0.9), is(900.0));
+    }
+
+    @Test
+    public void getRoundTripPercentile_usesMostRecentSamplesOnly() throws Exception {
+        estimator.addRoundTrip(5_000);
+        for (int i = 0; i < BandwidthEstimator.PERCENTILE_WINDOW; i++) {
+            estimator.addRoundTrip(100);
+        }
+
+        assertThat(estimator.getRoundTripPercentile(1.0), is(100.0));
+    }
+
+    @Test
+    public void getThroughputPercentile_isNaNWithoutRecentSamples() throws Exception {
+        assertThat(Double.isNaN(estimator.getThroughputPercentile(0.1)), is(true));
+
+        estimator.addTransfer(UPLOAD_BYTES, 1_000);
+        now += BandwidthEstimator.MAX_SAMPLE_AGE_IN_MILLIS + 1;
+
+        assertThat(Double.isNaN(estimator.getThroughputPercentile(0.1)), is(true));
+    }
+}
@@ -0,0 +1,179 @@
+package com.bioid.authenticator.base.network;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static junit.framework.Assert.fail;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CircuitBreakerTest {
+
+    private static final String ENDPOINT = "bws.example.com/extension/verify";
+
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private MetricsHelper metrics;
+
+    private long now;
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() throws Exception {
+        breaker = new CircuitBreaker(ENDPOINT, log, metrics, () -> now);
+    }
+
+    @Test
+    public void breakerIsClosedInitially() throws Exception {
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.isAvailable(), is(true));
+        breaker.acquirePermission();
+    }
+
+    @Test
+    public void breakerDoesNotOpenBeforeMinimumNumberOfRequests() throws Exception {
+        recordFailures(CircuitBreaker.MIN_REQUESTS - 1);
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void breakerOpensIfFailureRateReachesThreshold() throws Exception {
+        recordSuccesses(CircuitBreaker.MIN_REQUESTS);
+        recordFailures(CircuitBreaker.MIN_REQUESTS);
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.isAvailable(), is(false));
+    }
+
+    @Test
+    public void breakerStaysClosedIfFailureRateIsBelowThreshold() throws Exception {
+        recordSuccesses(CircuitBreaker.WINDOW_SIZE);
+        recordFailures(CircuitBreaker.WINDOW_SIZE / 2 - 1);
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void onlyMostRecentRequestsAreConsidered() throws Exception {
+        recordFailures(CircuitBreaker.MIN_REQUESTS - 1);
+        recordSuccesses(CircuitBreaker.WINDOW_SIZE);
+        recordFailures(CircuitBreaker.WINDOW_SIZE / 2 - 1);
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void openBreakerRejectsRequests() throws Exception {
+        open();
+
+        try {
+            breaker.acquirePermission();
+        } catch (CircuitOpenException e) {
+            assertThat(e.getEndpoint(), is(ENDPOINT));
+            return;
+        }
+        fail("no CircuitOpenException thrown");
+    }
+
+    @Test
+    public void breakerIsHalfOpenAfterOpenDuration() throws Exception {
+        open();
+
+        now += CircuitBreaker.OPEN_DURATION_IN_MILLIS;
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(breaker.isAvailable(), is(true));
+    }
+
+    @Test
+    public void halfOpenBreakerLetsSingleProbeThrough() throws Exception {
+        open();
+        now += CircuitBreaker.OPEN_DURATION_IN_MILLIS;
+
+        breaker.acquirePermission();
+
+        assertThat(breaker.isAvailable(), is(false));
+        try {
+            breaker.acquirePermission();
+        } catch (CircuitOpenException e) {
+            return;
+        }
+        fail("no CircuitOpenException thrown");
+    }
+
+    @Test
+    public void successfulProbeClosesBreaker() throws Exception {
+        probe();
+
+        breaker.onSuccess();
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.CLOSED));
+        recordFailures(CircuitBreaker.MIN_REQUESTS - 1);
+        assertThat("previous failures must be forgotten", breaker.getState(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void failedProbeReopensBreaker() throws Exception {
+        probe();
+
+        breaker.onFailure();
+
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+        now += CircuitBreaker.OPEN_DURATION_IN_MILLIS;
+        assertThat(breaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+    }
+
+    @Test
+    public void abortedProbeLetsNextProbeThrough() throws Exception {
+        probe();
+
+        breaker.onAborted();
+
+        assertThat(breaker.isAvailable(), is(true));
+        breaker.acquirePermission();
+    }
+
+    @Test
+    public void probeWithoutOutcomeIsGivenUpAfterOpenDuration() throws Exception {
+        probe();
+
+        now += CircuitBreaker.OPEN_DURATION_IN_MILLIS;
+
+        assertThat(breaker.isAvailable(), is(true));
+        breaker.acquirePermission();
+    }
+
+    private void recordSuccesses(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.acquirePermission();
+            breaker.onSuccess();
+        }
+    }
+
+    private void recordFailures(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.acquirePermission();
+            breaker.onFailure();
+        }
+    }
+
+    private void open() {
+        recordFailures(CircuitBreaker.MIN_REQUESTS);
+        assertThat(breaker.getState(), is(CircuitBreaker.State.OPEN));
+    }
+
+    private void probe() {
+        open();
+        now += CircuitBreaker.OPEN_DURATION_IN_MILLIS;
+        breaker.acquirePermission();
+    }
+}
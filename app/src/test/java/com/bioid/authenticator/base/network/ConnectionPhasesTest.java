@@ -0,0 +1,89 @@
+package com.bioid.authenticator.base.network;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ConnectionPhasesTest {
+
+    private final ConnectionPhases phases = new ConnectionPhases();
+
+    @Test
+    public void phasesAreUnknownIfNotReported() throws Exception {
+        assertThat(phases.getDnsMillis(), is(-1L));
+        assertThat(phases.getConnectMillis(-1), is(-1L));
+        assertThat(phases.getTlsMillis(), is(-1L));
+    }
+
+    @Test
+    public void phasesAreZeroIfConnectionHasBeenReused() throws Exception {
+        phases.onConnectionReused();
+
+        assertThat(phases.getDnsMillis(), is(0L));
+        assertThat(phases.getConnectMillis(System.nanoTime()), is(0L));
+        assertThat(phases.getTlsMillis(), is(0L));
+    }
+
+    @Test
+    public void reportedPhasesAreReturned() throws Exception {
+        phases.onDnsStarted();
+        phases.onDnsFinished();
+        phases.onConnectStarted();
+        phases.onTlsStarted();
+        phases.onTlsFinished();
+        phases.onConnectFinished();
+
+        assertThat(phases.getDnsMillis(), is(greaterThanOrEqualTo(0L)));
+        assertThat(phases.getConnectMillis(-1), is(greaterThanOrEqualTo(0L)));
+        assertThat(phases.getTlsMillis(), is(greaterThanOrEqualTo(0L)));
+    }
+
+    @Test
+    public void connectIsMeasuredFromSetupStartUntilTlsIfOnlyTlsIsReported() throws Exception {
+        long setupStartedAt = System.nanoTime() - 5_000_000;
+        phases.onTlsStarted();
+        phases.onTlsFinished();
+
+        assertThat(phases.getDnsMillis(), is(-1L));
+        assertThat(phases.getConnectMillis(setupStartedAt), is(greaterThanOrEqualTo(5L)));
+    }
+
+    @Test
+    public void tcpHandshakeIsUnknownIfOnlyTlsIsReported() throws Exception {
+        phases.onTlsStarted();
+        phases.onTlsFinished();
+
+        assertThat(phases.getTcpHandshakeMillis(), is(-1L));
+    }
+
+    @Test
+    public void tcpHandshakeIsUnknownIfConnectionHasBeenReused() throws Exception {
+        phases.onConnectionReused();
+
+        assertThat(phases.getTcpHandshakeMillis(), is(-1L));
+    }
+
+    @Test
+    public void tcpHandshakeLastsUntilTlsStarts() throws Exception {
+        phases.onConnectStarted();
+        phases.onTlsStarted();
+        phases.onTlsFinished();
+        phases.onConnectFinished();
+
+        assertThat(phases.getTcpHandshakeMillis(), is(greaterThanOrEqualTo(0L)));
+    }
+
+    @Test
+    public void phasesAreOnlyCurrentBetweenBeginAndEnd() throws Exception {
+        assertThat(ConnectionPhases.current(), is(nullValue()));
+
+        ConnectionPhases.begin(phases);
+        assertThat(ConnectionPhases.current(), is(phases));
+
+        ConnectionPhases.end();
+        assertThat(ConnectionPhases.current(), is(nullValue()));
+    }
+}
@@ -3,19 +3,34 @@ package com.bioid.authenticator.base.network;
 import android.support.annotation.NonNull;
 
 import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+
 import static junit.framework.Assert.fail;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -23,6 +38,14 @@ import static org.mockito.Mockito.when;
 public class HttpRequestHelperTest {
 
     private static final String JSON_AS_STRING = "{}";
+    private static final String URL = "https://bws.example.com/extension/verify";
+    private static final JsonDecoder<Boolean> KEY_DECODER = reader -> {
+        reader.beginObject();
+        reader.nextName();
+        boolean value = reader.nextBoolean();
+        reader.endObject();
+        return value;
+    };
 
     @Mock
     private LoggingHelper log;
@@ -32,36 +55,238 @@ public class HttpRequestHelperTest {
     private HttpRequest request;
     @Mock
     private JsonSerializer jsonSerializer;
+    @Mock
+    private BandwidthEstimator bandwidthEstimator;
+    @Mock
+    private MetricsHelper metrics;
+    @Mock
+    private HttpRequestListener listener;
 
     private HttpRequestHelper httpRequestHelper;
 
     @Before
     public void setUp() throws Exception {
 
-        httpRequestHelper = new HttpRequestHelper(log, jsonSerializer) {
+        CircuitBreakers circuitBreakers = new CircuitBreakers(log, metrics, () -> 0L);
+        httpRequestHelper = new HttpRequestHelper(log, jsonSerializer, bandwidthEstimator, circuitBreakers) {
             @Override
             protected String getStopwatchSessionId(@NonNull HttpRequest request) {
                 return "test";
             }
         };
 
+        HttpRequestHelper.addListener(listener);
+
+        when(request.url()).thenReturn(new URL(URL));
+        when(request.connectionPhases()).thenReturn(new ConnectionPhases());
         when(request.code()).thenReturn(200);
         when(request.body("UTF-8")).thenReturn(JSON_AS_STRING);
         when(jsonSerializer.toJsonObject(JSON_AS_STRING)).thenReturn(jsonObject);
     }
 
+    @After
+    public void tearDown() throws Exception {
+        HttpRequestHelper.removeListener(listener);
+    }
+
     @Test
     public void testExecute_doesExecuteRequest() throws Exception {
         httpRequestHelper.execute(request);
         verify(request).code();
     }
 
+    @Test
+    public void testExecute_feedsRequestTimingsIntoBandwidthEstimator() throws Exception {
+        when(request.bytesWritten()).thenReturn(42L);
+        when(request.outputOpenedAt()).thenReturn(-1L);
+
+        httpRequestHelper.execute(request);
+
+        verify(bandwidthEstimator).addTransfer(eq(42L), anyLong());
+    }
+
+    @Test
+    public void testExecute_doesNotTakeResponseTimeForRoundTrip() throws Exception {
+        when(request.outputOpenedAt()).thenReturn(-1L);
+
+        httpRequestHelper.execute(request);
+
+        verify(bandwidthEstimator, never()).addRoundTrip(anyLong());
+    }
+
+    @Test
+    public void testExecute_takesTcpHandshakeForRoundTrip() throws Exception {
+        ConnectionPhases phases = new ConnectionPhases();
+        phases.onConnectStarted();
+        phases.onConnectFinished();
+        when(request.connectionPhases()).thenReturn(phases);
+        when(request.outputOpenedAt()).thenReturn(-1L);
+
+        httpRequestHelper.execute(request);
+
+        verify(bandwidthEstimator).addRoundTrip(anyLong());
+    }
+
     @Test(expected = NoConnectionException.class)
     public void testExecute_throwsExceptionIfNoConnectionCouldBeEstablished() throws Exception {
         doThrow(HttpRequest.HttpRequestException.class).when(request).code();
         httpRequestHelper.execute(request);
     }
 
+    @Test
+    public void testExecute_failsFastAfterRepeatedServerErrors() throws Exception {
+        when(request.code()).thenReturn(500);
+        when(request.outputOpenedAt()).thenReturn(-1L);
+        for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; i++) {
+            try {
+                httpRequestHelper.asTextIfOk(request);
+                fail("no ServerErrorException thrown");
+            } catch (ServerErrorException ignored) {
+            }
+        }
+
+        try {
+            httpRequestHelper.execute(request);
+        } catch (CircuitOpenException e) {
+            verify(request, times(CircuitBreaker.MIN_REQUESTS)).code();
+            return;
+        }
+        fail("no CircuitOpenException thrown");
+    }
+
+    @Test
+    public void testExecute_failsFastAfterRepeatedServerTimeouts() throws Exception {
+        doThrow(new HttpRequest.HttpRequestException(new SocketTimeoutException())).when(request).code();
+        when(request.connectedAt()).thenReturn(1L);
+        when(request.outputOpenedAt()).thenReturn(-1L);
+        for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; i++) {
+            try {
+                httpRequestHelper.execute(request);
+                fail("no NoConnectionException thrown");
+            } catch (NoConnectionException ignored) {
+            }
+        }
+
+        try {
+            httpRequestHelper.execute(request);
+        } catch (CircuitOpenException e) {
+            verify(request, times(CircuitBreaker.MIN_REQUESTS)).code();
+            return;
+        }
+        fail("no CircuitOpenException thrown");
+    }
+
+    @Test
+    public void testExecute_lostConnectivityDoesNotOpenTheCircuit() throws Exception {
+        doThrow(new HttpRequest.HttpRequestException(new UnknownHostException())).when(request).code();
+        when(request.connectedAt()).thenReturn(-1L);
+        when(request.outputOpenedAt()).thenReturn(-1L);
+        for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; i++) {
+            try {
+                httpRequestHelper.execute(request);
+                fail("no NoConnectionException thrown");
+            } catch (NoConnectionException ignored) {
+            }
+        }
+        doReturn(200).when(request).code();
+
+        httpRequestHelper.execute(request);
+    }
+
+    @Test
+    public void testExecute_abortedRequestsDoNotOpenTheCircuit() throws Exception {
+        doThrow(new HttpRequest.HttpRequestException(new SocketTimeoutException())).when(request).code();
+        when(request.connectedAt()).thenReturn(1L);
+        when(request.isDisconnected()).thenReturn(true);
+        when(request.outputOpenedAt()).thenReturn(-1L);
+        for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; i++) {
+            try {
+                httpRequestHelper.execute(request);
+                fail("no NoConnectionException thrown");
+            } catch (NoConnectionException ignored) {
+            }
+        }
+        doReturn(200).when(request).code();
+
+        httpRequestHelper.execute(request);
+    }
+
+    @Test
+    public void testExecute_reportsMetricsToListeners() throws Exception {
+        when(request.method()).thenReturn("POST");
+        when(request.receivedCode()).thenReturn(200);
+        when(request.bytesWritten()).thenReturn(42L);
+
+        httpRequestHelper.execute(request);
+
+        ArgumentCaptor<HttpRequestMetrics> captor = ArgumentCaptor.forClass(HttpRequestMetrics.class);
+        verify(listener).onRequestFinished(captor.capture());
+        assertThat(captor.getValue().getMethod(), is("POST"));
+        assertThat(captor.getValue().getPath(), is("/extension/verify"));
+        assertThat(captor.getValue().getStatus(), is(200));
+        assertThat(captor.getValue().getBytesSent(), is(42L));
+    }
+
+    @Test
+    public void testExecute_reportsMetricsOfFailedRequests() throws Exception {
+        doThrow(HttpRequest.HttpRequestException.class).when(request).code();
+        when(request.receivedCode()).thenReturn(-1);
+
+        try {
+            httpRequestHelper.execute(request);
+            fail("no NoConnectionException thrown");
+        } catch (NoConnectionException ignored) {
+        }
+
+        ArgumentCaptor<HttpRequestMetrics> captor = ArgumentCaptor.forClass(HttpRequestMetrics.class);
+        verify(listener).onRequestFinished(captor.capture());
+        assertThat(captor.getValue().getStatus(), is(-1));
+    }
+
+    @Test
+    public void testExecute_failingListenerDoesNotAffectRequestOrOtherListeners() throws Exception {
+        HttpRequestListener failingListener = requestMetrics -> {
+            throw new IllegalStateException("listener failed");
+        };
+        HttpRequestHelper.removeListener(listener);
+        HttpRequestHelper.addListener(failingListener);
+        HttpRequestHelper.addListener(listener);
+        try {
+            String result = httpRequestHelper.asTextIfOk(request);
+
+            assertThat(result, is(JSON_AS_STRING));
+            verify(listener).onRequestFinished(any(HttpRequestMetrics.class));
+        } finally {
+            HttpRequestHelper.removeListener(failingListener);
+        }
+    }
+
+    @Test
+    public void testExecute_doesNotReportMetricsIfRequestHasNotBeenSent() throws Exception {
+        when(request.connectStartedAt()).thenReturn(-1L);
+
+        httpRequestHelper.execute(request);
+
+        verify(listener, never()).onRequestFinished(any());
+    }
+
+    @Test(expected = CircuitOpenException.class)
+    public void testCheckAvailability_throwsExceptionIfAnEndpointOfTheHostIsUnavailable() throws Exception {
+        when(request.code()).thenReturn(500);
+        for (int i = 0; i < CircuitBreaker.MIN_REQUESTS; i++) {
+            httpRequestHelper.execute(request);
+        }
+
+        httpRequestHelper.checkAvailability("https://bws.example.com/extension");
+    }
+
+    @Test
+    public void testCheckAvailability_passesIfAllEndpointsAreAvailable() throws Exception {
+        httpRequestHelper.execute(request);
+
+        httpRequestHelper.checkAvailability("https://bws.example.com/extension");
+    }
+
     @Test
     public void testAsTextIfOk_returnsResponseBodyOnStatus200() throws Exception {
         String result = httpRequestHelper.asTextIfOk(request);
@@ -133,4 +358,48 @@ public class HttpRequestHelperTest {
         doThrow(JSONException.class).when(jsonSerializer).toJsonObject(JSON_AS_STRING);
         httpRequestHelper.asJsonIfOk(request);
     }
+
+    @Test
+    public void testReadJsonIfOk_returnsDecodedResultOnStatus200() throws Exception {
+        ByteArrayInputStream body = withBody("{\"Key\": true}\n");
+
+        boolean result = httpRequestHelper.readJsonIfOk(request, KEY_DECODER);
+
+        assertThat(result, is(true));
+        assertThat("body must be consumed to reuse the connection", body.available(), is(0));
+    }
+
+    @Test(expected = ServerErrorException.class)
+    public void testReadJsonIfOk_throwsServerErrorExceptionOnStatus500() throws Exception {
+        when(request.code()).thenReturn(500);
+
+        httpRequestHelper.readJsonIfOk(request, KEY_DECODER);
+    }
+
+    @Test
+    public void testReadJsonIfOk_throwsExceptionOnNon200Status() throws Exception {
+        when(request.code()).thenReturn(401);
+
+        try {
+            httpRequestHelper.readJsonIfOk(request, KEY_DECODER);
+
+        } catch (HttpRequestHelper.Non200StatusException e) {
+            assertThat(e.getStatus(), is(401));
+            return;
+        }
+        fail("no Non200StatusException thrown");
+    }
+
+    @Test(expected = TechnicalException.class)
+    public void testReadJsonIfOk_throwsExceptionIfBodyCouldNotBeDecoded() throws Exception {
+        withBody("{\"Key\": \"not a boolean\"}");
+
+        httpRequestHelper.readJsonIfOk(request, KEY_DECODER);
+    }
+
+    private ByteArrayInputStream withBody(String json) throws Exception {
+        ByteArrayInputStream body = new ByteArrayInputStream(json.getBytes("UTF-8"));
+        when(request.reader("UTF-8")).thenReturn(new InputStreamReader(body, "UTF-8"));
+        return body;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,64 @@
+package com.bioid.authenticator.base.network;
+
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HttpRequestMetricsRecorderTest {
+
+    @Mock
+    private MetricsHelper metrics;
+
+    private HttpRequestMetricsRecorder recorder;
+
+    @Before
+    public void setUp() throws Exception {
+        recorder = new HttpRequestMetricsRecorder(metrics);
+    }
+
+    @Test
+    public void phasesAreRecordedPerEndpoint() throws Exception {
+        recorder.onRequestFinished(new HttpRequestMetrics("POST", "/extension/upload", 200,
+                1, 2, 3, 4, 5, 6, 21, 1024, 64));
+
+        verify(metrics).count("http.upload.status_200");
+        verify(metrics).record("http.upload.dns_millis", 1);
+        verify(metrics).record("http.upload.connect_millis", 2);
+        verify(metrics).record("http.upload.tls_millis", 3);
+        verify(metrics).record("http.upload.upload_millis", 4);
+        verify(metrics).record("http.upload.ttfb_millis", 5);
+        verify(metrics).record("http.upload.download_millis", 6);
+        verify(metrics).record("http.upload.request_bytes", 1024);
+        verify(metrics).record("http.upload.response_bytes", 64);
+    }
+
+    @Test
+    public void unknownPhasesAreNotRecorded() throws Exception {
+        recorder.onRequestFinished(new HttpRequestMetrics("GET", "/extension/token", 200,
+                -1, -1, -1, -1, 5, 6, 11, 0, 64));
+
+        verify(metrics, never()).record(eq("http.token.dns_millis"), anyDouble());
+        verify(metrics, never()).record(eq("http.token.connect_millis"), anyDouble());
+        verify(metrics, never()).record(eq("http.token.tls_millis"), anyDouble());
+        verify(metrics, never()).record(eq("http.token.upload_millis"), anyDouble());
+        verify(metrics).record("http.token.ttfb_millis", 5);
+    }
+
+    @Test
+    public void failedRequestsAreCounted() throws Exception {
+        recorder.onRequestFinished(new HttpRequestMetrics("GET", "/", -1,
+                -1, -1, -1, -1, -1, -1, 30_000, 0, 0));
+
+        verify(metrics).count("http.root.failed");
+    }
+}
@@ -0,0 +1,188 @@
+package com.bioid.authenticator.base.network;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Sends requests to a local socket server to check that request bodies are streamed instead of buffered by HttpURLConnection.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class HttpRequestStreamingTest {
+
+    private static final int PART_SIZE = 4 * HttpRequestHelper.CHUNK_SIZE;
+    private static final long TIMEOUT_IN_SECONDS = 5;
+
+    private final CountDownLatch firstBodyBytesReceived = new CountDownLatch(1);
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    @Mock
+    private LoggingHelper log;
+
+    private HttpRequestHelper httpRequestHelper;
+
+    private ServerSocket serverSocket;
+    private Thread serverThread;
+
+    @Before
+    public void setUp() throws Exception {
+        httpRequestHelper = new HttpRequestHelper(log, new JsonSerializer(), new BandwidthEstimator(() -> 0L));
+
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        serverThread = new Thread(this::serveSingleRequest);
+        serverThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        serverThread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_IN_SECONDS));
+    }
+
+    @Test
+    public void testSendStreamingBody_firstBytesReachServerBeforeBodyIsComplete() throws Exception {
+        final boolean[] receivedWhileWriting = new boolean[1];
+
+        HttpRequest request = httpRequestHelper.send(HttpRequest.post(url()), output -> {
+            output.write(new byte[PART_SIZE]);
+            // a buffered body would not be sent before this method returns
+            try {
+                receivedWhileWriting[0] = firstBodyBytesReceived.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            output.write(new byte[PART_SIZE]);
+        });
+
+        assertThat(request.code(), is(200));
+        assertThat(receivedWhileWriting[0], is(true));
+        assertThat(receivedHeaders(), containsString("transfer-encoding: chunked"));
+    }
+
+    @Test
+    public void testSendStreamingBody_writingStopsOnceDisconnected() throws Exception {
+        final HttpRequest request = HttpRequest.post(url());
+        final int[] writtenParts = new int[1];
+
+        try {
+            request.send(output -> {
+                output.write(new byte[PART_SIZE]);
+                writtenParts[0]++;
+                request.disconnect();  // e.g. the call has been cancelled
+                output.write(new byte[PART_SIZE]);
+                writtenParts[0]++;
+            });
+            throw new AssertionError("HttpRequestException expected");
+        } catch (HttpRequest.HttpRequestException expected) {
+            // the body is not written any further
+        }
+
+        assertThat(writtenParts[0], is(1));
+    }
+
+    @Test
+    public void testSendStreamingBodyWithKnownLength_usesFixedLength() throws Exception {
+        final boolean[] receivedWhileWriting = new boolean[1];
+
+        HttpRequest request = httpRequestHelper.send(HttpRequest.post(url()), output -> {
+            output.write(new byte[PART_SIZE]);
+            try {
+                receivedWhileWriting[0] = firstBodyBytesReceived.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            output.write(new byte[PART_SIZE]);
+        }, 2 * PART_SIZE);
+
+        assertThat(request.code(), is(200));
+        assertThat(receivedWhileWriting[0], is(true));
+        assertThat(receivedHeaders(), containsString("content-length: " + 2 * PART_SIZE));
+        assertThat(receivedHeaders(), not(containsString("transfer-encoding")));
+    }
+
+    @Test
+    public void testSendByteArray_usesFixedLength() throws Exception {
+        HttpRequest request = httpRequestHelper.send(HttpRequest.post(url()), new byte[PART_SIZE]);
+
+        assertThat(request.code(), is(200));
+        assertThat(receivedHeaders(), containsString("content-length: " + PART_SIZE));
+        assertThat(receivedHeaders(), not(containsString("transfer-encoding")));
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/upload";
+    }
+
+    private String receivedHeaders() throws Exception {
+        String request = received.toString("ISO-8859-1");
+        return request.substring(0, request.indexOf("\r\n\r\n")).toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Reads the request until the end of the body and answers with status 200.
+     * The end of the body is detected using the Content-Length or the last chunk of a chunked body.
+     */
+    private void serveSingleRequest() {
+        try (Socket socket = serverSocket.accept()) {
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                received.write(buffer, 0, read);
+                String request = received.toString("ISO-8859-1");
+                int headerEnd = request.indexOf("\r\n\r\n");
+                if (headerEnd < 0) {
+                    continue;
+                }
+                if (request.length() > headerEnd + 4) {
+                    firstBodyBytesReceived.countDown();
+                }
+                if (isComplete(request, headerEnd)) {
+                    break;
+                }
+            }
+
+            OutputStream out = socket.getOutputStream();
+            out.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+        } catch (IOException ignored) {
+            // server socket closed by tearDown
+        }
+    }
+
+    private static boolean isComplete(String request, int headerEnd) {
+        String headers = request.substring(0, headerEnd).toLowerCase(Locale.ENGLISH);
+        int bodyLength = request.length() - headerEnd - 4;
+        if (headers.contains("transfer-encoding: chunked")) {
+            return request.endsWith("\r\n0\r\n\r\n");
+        }
+        int index = headers.indexOf("content-length: ");
+        if (index < 0) {
+            return true;
+        }
+        int end = headers.indexOf("\r\n", index);
+        String contentLength = headers.substring(index + "content-length: ".length(), end < 0 ? headers.length() : end);
+        return bodyLength >= Integer.parseInt(contentLength.trim());
+    }
+}
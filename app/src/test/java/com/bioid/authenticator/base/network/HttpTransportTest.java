@@ -0,0 +1,150 @@
+package com.bioid.authenticator.base.network;
+
+import android.support.annotation.NonNull;
+
+import com.bioid.authenticator.BuildConfig;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * Executes several requests against a local server and checks that the keep-alive transport reuses the connection.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class HttpTransportTest {
+
+    private static final int REQUESTS = 4;
+
+    @Mock
+    private LoggingHelper log;
+
+    private HttpServer server;
+    private String baseUrl;
+    private final Set<Integer> clientPorts = new HashSet<>();
+    private final List<HttpRequestMetrics> requestMetrics = new ArrayList<>();
+    private final HttpRequestListener listener = requestMetrics::add;
+
+    private HttpRequestHelper httpRequestHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            synchronized (clientPorts) {
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+            }
+            discard(exchange.getRequestBody());
+
+            boolean found = exchange.getRequestURI().getPath().equals("/ok");
+            byte[] response = (found ? "ok" : "not found").getBytes("UTF-8");
+            exchange.sendResponseHeaders(found ? 200 : 404, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        HttpRequestHelper.setTransport(HttpTransports.keepAlive());
+        HttpRequestHelper.addListener(listener);
+        httpRequestHelper = new HttpRequestHelper(log, new JsonSerializer(), new BandwidthEstimator(() -> 0L)) {
+            @Override
+            protected String getStopwatchSessionId(@NonNull HttpRequest request) {
+                return request.toString();
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        HttpRequestHelper.removeListener(listener);
+        HttpRequestHelper.setTransport(HttpTransports.forName(BuildConfig.HTTP_TRANSPORT));
+        server.stop(0);
+    }
+
+    @Test
+    public void testKeepAlive_reusesConnectionForConsecutiveRequests() throws Exception {
+        for (int i = 0; i < REQUESTS; i++) {
+            assertThat(httpRequestHelper.asTextIfOk(HttpRequest.get(baseUrl + "/ok")), is("ok"));
+            httpRequestHelper.execute(httpRequestHelper.send(HttpRequest.post(baseUrl + "/ok"), new byte[1024]));
+        }
+
+        assertThat(clientPorts.size(), is(1));
+    }
+
+    @Test
+    public void testKeepAlive_reusesConnectionAfterNon200Status() throws Exception {
+        for (int i = 0; i < REQUESTS; i++) {
+            try {
+                httpRequestHelper.asTextIfOk(HttpRequest.get(baseUrl + "/missing"));
+            } catch (HttpRequestHelper.Non200StatusException e) {
+                assertThat(e.getStatus(), is(404));
+            }
+        }
+
+        assertThat(clientPorts.size(), is(1));
+    }
+
+    @Test
+    public void testMetrics_areReportedForEachRequest() throws Exception {
+        httpRequestHelper.execute(httpRequestHelper.send(HttpRequest.post(baseUrl + "/ok"), new byte[1024]));
+        assertThat(httpRequestHelper.asTextIfOk(HttpRequest.get(baseUrl + "/ok")), is("ok"));
+
+        assertThat(requestMetrics.size(), is(2));
+
+        HttpRequestMetrics upload = requestMetrics.get(0);
+        assertThat(upload.getMethod(), is("POST"));
+        assertThat(upload.getPath(), is("/ok"));
+        assertThat(upload.getStatus(), is(200));
+        assertThat(upload.getBytesSent(), is(1024L));
+        assertThat(upload.getBytesReceived(), is(2L));
+        assertThat(upload.getUploadMillis(), is(greaterThanOrEqualTo(0L)));
+        assertThat(upload.getTimeToFirstByteMillis(), is(greaterThanOrEqualTo(0L)));
+        assertThat(upload.getDownloadMillis(), is(greaterThanOrEqualTo(0L)));
+        assertThat(upload.getTotalMillis(), is(greaterThanOrEqualTo(upload.getTimeToFirstByteMillis())));
+
+        HttpRequestMetrics download = requestMetrics.get(1);
+        assertThat(download.getMethod(), is("GET"));
+        assertThat(download.getUploadMillis(), is(-1L));
+        assertThat(download.getBytesSent(), is(0L));
+        assertThat(download.getBytesReceived(), is(2L));
+    }
+
+    @Test
+    public void testForName_returnsTransportWithTheGivenName() throws Exception {
+        assertThat(HttpTransports.forName("DEFAULT").getName(), is(HttpTransports.TRANSPORT_DEFAULT));
+        assertThat(HttpTransports.forName("keep_alive").getName(), is(HttpTransports.TRANSPORT_KEEP_ALIVE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testForName_throwsOnUnknownTransport() throws Exception {
+        HttpTransports.forName("spdy");
+    }
+
+    private static void discard(@NonNull InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        //noinspection StatementWithEmptyBody
+        while (in.read(buffer) != -1) {
+        }
+    }
+}
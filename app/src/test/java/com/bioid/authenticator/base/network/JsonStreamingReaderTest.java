@@ -0,0 +1,91 @@
+package com.bioid.authenticator.base.network;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class JsonStreamingReaderTest {
+
+    @Test
+    public void testReader_readsFlatObject() throws Exception {
+        JsonStreamingReader reader = reader("{ \"Accepted\" : false,\n \"Error\":\"NoFaceFound\" }");
+
+        reader.beginObject();
+        assertThat(reader.nextName(), is("Accepted"));
+        assertThat(reader.nextBoolean(), is(false));
+        assertThat(reader.nextName(), is("Error"));
+        assertThat(reader.nextString(), is("NoFaceFound"));
+        assertThat(reader.hasNext(), is(false));
+        reader.endObject();
+
+        assertThat(reader.peek(), is(JsonStreamingReader.Token.END_DOCUMENT));
+    }
+
+    @Test
+    public void testReader_readsEscapedCharacters() throws Exception {
+        JsonStreamingReader reader = reader("[\"a\\\"b\\\\c\\/d\\n\\u00e4\"]");
+
+        reader.beginArray();
+        assertThat(reader.nextString(), is("a\"b\\c/d\nä"));
+        reader.endArray();
+    }
+
+    @Test
+    public void testReader_returnsNumbersAndNullValues() throws Exception {
+        JsonStreamingReader reader = reader("[-1.5e3, null, 42]");
+
+        reader.beginArray();
+        assertThat(reader.nextString(), is("-1.5e3"));
+        assertThat(reader.nextStringOrNull(), is(nullValue()));
+        assertThat(reader.nextString(), is("42"));
+        reader.endArray();
+    }
+
+    @Test
+    public void testSkipValue_skipsNestedValues() throws Exception {
+        JsonStreamingReader reader = reader("{\"Samples\":[{\"Errors\":[{\"Code\":\"A\"}]}, [], {}],\"Success\":true}");
+
+        reader.beginObject();
+        assertThat(reader.nextName(), is("Samples"));
+        reader.skipValue();
+        assertThat(reader.nextName(), is("Success"));
+        assertThat(reader.nextBoolean(), is(true));
+        reader.endObject();
+    }
+
+    @Test(expected = JsonStreamingReader.MalformedJsonException.class)
+    public void testReader_throwsExceptionOnUnexpectedToken() throws Exception {
+        JsonStreamingReader reader = reader("{\"Accepted\":\"true\"}");
+
+        reader.beginObject();
+        reader.nextName();
+        reader.nextBoolean();
+    }
+
+    @Test(expected = JsonStreamingReader.MalformedJsonException.class)
+    public void testReader_throwsExceptionOnMissingSeparator() throws Exception {
+        JsonStreamingReader reader = reader("{\"Accepted\":true \"Error\":null}");
+
+        reader.beginObject();
+        reader.nextName();
+        reader.nextBoolean();
+        reader.hasNext();
+    }
+
+    @Test(expected = JsonStreamingReader.MalformedJsonException.class)
+    public void testReader_throwsExceptionOnTruncatedBody() throws Exception {
+        JsonStreamingReader reader = reader("{\"Error\":\"NoFa");
+
+        reader.beginObject();
+        reader.nextName();
+        reader.nextString();
+    }
+
+    private static JsonStreamingReader reader(String json) {
+        return new JsonStreamingReader(new StringReader(json));
+    }
+}
@@ -0,0 +1,85 @@
+package com.bioid.authenticator.base.network;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ReplayableStreamingBodyTest {
+
+    private static final String PAYLOAD = "encoded image";
+
+    private int writes;
+    private final HttpRequest.StreamingBody payload = output -> {
+        writes++;
+        output.write(PAYLOAD.getBytes("UTF-8"));
+    };
+    private final ReplayableStreamingBody body = new ReplayableStreamingBody(payload);
+
+    @Test
+    public void testWriteTo_firstAttemptWritesWrappedBody() throws Exception {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        body.writeTo(written);
+
+        assertThat(written.toString("UTF-8"), is(PAYLOAD));
+        assertThat(writes, is(1));
+    }
+
+    @Test
+    public void testWriteTo_retriesReplayPayloadRecordedByFirstAttempt() throws Exception {
+        body.writeTo(new ByteArrayOutputStream());
+        ByteArrayOutputStream firstRetry = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondRetry = new ByteArrayOutputStream();
+
+        body.writeTo(firstRetry);
+        body.writeTo(secondRetry);
+
+        assertThat(firstRetry.toString("UTF-8"), is(PAYLOAD));
+        assertThat(secondRetry.toString("UTF-8"), is(PAYLOAD));
+        assertThat(writes, is(1));
+    }
+
+    @Test
+    public void testWriteTo_incompleteRecordingIsNotReplayed() throws Exception {
+        try {
+            body.writeTo(new FailingOutputStream());
+            throw new AssertionError("IOException expected");
+        } catch (IOException expected) {
+            // request has been aborted while the body was written
+        }
+        ByteArrayOutputStream retried = new ByteArrayOutputStream();
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+
+        body.writeTo(retried);
+        body.writeTo(replayed);
+
+        assertThat(retried.toString("UTF-8"), is(PAYLOAD));
+        assertThat(replayed.toString("UTF-8"), is(PAYLOAD));
+        assertThat(writes, is(2));
+    }
+
+    @Test
+    public void testWriteTo_payloadExceedingMaxRecordingSizeIsWrittenAgain() throws Exception {
+        ReplayableStreamingBody body = new ReplayableStreamingBody(payload, PAYLOAD.length() - 1);
+        body.writeTo(new ByteArrayOutputStream());
+        ByteArrayOutputStream retried = new ByteArrayOutputStream();
+
+        body.writeTo(retried);
+
+        assertThat(retried.toString("UTF-8"), is(PAYLOAD));
+        assertThat(writes, is(2));
+    }
+
+    private static class FailingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            throw new IOException("connection reset");
+        }
+    }
+}
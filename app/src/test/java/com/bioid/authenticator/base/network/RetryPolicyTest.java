@@ -0,0 +1,47 @@
+package com.bioid.authenticator.base.network;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy policy = new RetryPolicy(3, 400, 1000, new Random(42));
+
+    @Test
+    public void testShouldRetry_retriesTransientFailures() throws Exception {
+        assertThat(policy.shouldRetry(1, new NoConnectionException(new IOException())), is(true));
+        assertThat(policy.shouldRetry(1, new ServerErrorException()), is(true));
+        assertThat(policy.shouldRetry(1, new HttpRequestHelper.Non200StatusException(503)), is(true));
+    }
+
+    @Test
+    public void testShouldRetry_doesNotRetryOtherFailures() throws Exception {
+        assertThat(policy.shouldRetry(1, new HttpRequestHelper.Non200StatusException(401)), is(false));
+        assertThat(policy.shouldRetry(1, new TechnicalException("rejected")), is(false));
+        assertThat(policy.shouldRetry(1, new DeadlineExceededException(new IOException())), is(false));
+    }
+
+    @Test
+    public void testShouldRetry_stopsAfterMaxAttempts() throws Exception {
+        assertThat(policy.shouldRetry(2, new ServerErrorException()), is(true));
+        assertThat(policy.shouldRetry(3, new ServerErrorException()), is(false));
+        assertThat(RetryPolicy.NONE.shouldRetry(1, new ServerErrorException()), is(false));
+    }
+
+    @Test
+    public void testGetDelayInMillis_growsExponentiallyWithJitterUpToMaxDelay() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.getDelayInMillis(1), is(allOf(greaterThanOrEqualTo(200L), lessThanOrEqualTo(400L))));
+            assertThat(policy.getDelayInMillis(2), is(allOf(greaterThanOrEqualTo(400L), lessThanOrEqualTo(800L))));
+            assertThat(policy.getDelayInMillis(5), is(allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(1000L))));
+        }
+    }
+}
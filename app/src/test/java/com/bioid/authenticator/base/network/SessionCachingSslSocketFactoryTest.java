@@ -0,0 +1,109 @@
+package com.bioid.authenticator.base.network;
+
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.net.Socket;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SessionCachingSslSocketFactoryTest {
+
+    private static final String HOST = "bws.example.com";
+    private static final int PORT = 443;
+
+    @Mock
+    private SSLSocketFactory delegate;
+    @Mock
+    private MetricsHelper metrics;
+    @Mock
+    private SSLSocket sslSocket;
+    @Mock
+    private Socket plainSocket;
+    @Mock
+    private SSLSession session;
+
+    private SessionCachingSslSocketFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new SessionCachingSslSocketFactory(delegate, metrics);
+    }
+
+    @Test
+    public void createSocket_recordsFullHandshakeForNewSession() throws Exception {
+        when(delegate.createSocket(plainSocket, HOST, PORT, true)).thenReturn(sslSocket);
+
+        Socket socket = factory.createSocket(plainSocket, HOST, PORT, true);
+        when(session.getCreationTime()).thenReturn(System.currentTimeMillis() + 1);
+        completeHandshake();
+
+        assertThat(socket, is(sameInstance(sslSocket)));
+        verify(metrics).record(eq(SessionCachingSslSocketFactory.METRIC_FULL_HANDSHAKE), anyDouble());
+    }
+
+    @Test
+    public void createSocket_recordsResumedHandshakeForSessionCreatedBefore() throws Exception {
+        when(delegate.createSocket(plainSocket, HOST, PORT, true)).thenReturn(sslSocket);
+        when(session.getCreationTime()).thenReturn(System.currentTimeMillis() - 60_000);
+
+        factory.createSocket(plainSocket, HOST, PORT, true);
+        completeHandshake();
+
+        verify(metrics).record(eq(SessionCachingSslSocketFactory.METRIC_RESUMED_HANDSHAKE), anyDouble());
+    }
+
+    @Test
+    public void createSocket_reportsTlsPhaseOfCurrentRequest() throws Exception {
+        when(delegate.createSocket(plainSocket, HOST, PORT, true)).thenReturn(sslSocket);
+        ConnectionPhases phases = new ConnectionPhases();
+
+        ConnectionPhases.begin(phases);
+        try {
+            factory.createSocket(plainSocket, HOST, PORT, true);
+        } finally {
+            ConnectionPhases.end();
+        }
+        completeHandshake();
+
+        assertThat(phases.getTlsMillis(), is(greaterThanOrEqualTo(0L)));
+    }
+
+    @Test
+    public void createSocket_doesNotObservePlainSockets() throws Exception {
+        when(delegate.createSocket(HOST, PORT)).thenReturn(plainSocket);
+
+        Socket socket = factory.createSocket(HOST, PORT);
+
+        assertThat(socket, is(sameInstance(plainSocket)));
+        verify(metrics, never()).record(anyString(), anyDouble());
+    }
+
+    private void completeHandshake() {
+        ArgumentCaptor<HandshakeCompletedListener> listener = ArgumentCaptor.forClass(HandshakeCompletedListener.class);
+        verify(sslSocket).addHandshakeCompletedListener(listener.capture());
+        listener.getValue().handshakeCompleted(new HandshakeCompletedEvent(sslSocket, session));
+    }
+}
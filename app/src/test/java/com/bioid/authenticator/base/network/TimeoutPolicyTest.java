@@ -0,0 +1,101 @@
+package com.bioid.authenticator.base.network;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.metrics.MetricsHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TimeoutPolicyTest {
+
+    private static final long UPLOAD_BYTES = 100 * 1024;
+
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private MetricsHelper metrics;
+
+    private BandwidthEstimator estimator;
+    private TimeoutPolicy policy;
+
+    @Before
+    public void setUp() throws Exception {
+        estimator = new BandwidthEstimator(() -> 0L);
+        policy = new TimeoutPolicy(estimator, log, metrics);
+        policy.setProfile(TimeoutPolicy.RequestType.UPLOAD, new TimeoutPolicy.RequestProfile(3_000, 15_000, 10_000, 30_000, UPLOAD_BYTES));
+    }
+
+    @Test
+    public void testSelect_usesCeilingsWithoutMeasurements() throws Exception {
+        TimeoutPolicy.Timeouts timeouts = policy.select(TimeoutPolicy.RequestType.UPLOAD);
+
+        assertThat(timeouts.connectMillis, is(15_000));
+        assertThat(timeouts.readMillis, is(30_000));
+    }
+
+    @Test
+    public void testSelect_usesFloorsOnFastLink() throws Exception {
+        estimator.addRoundTrip(50);
+        estimator.addTransfer(UPLOAD_BYTES, 150);
+
+        TimeoutPolicy.Timeouts timeouts = policy.select(TimeoutPolicy.RequestType.UPLOAD);
+
+        assertThat(timeouts.connectMillis, is(3_000));
+        assertThat(timeouts.readMillis, is(10_000));
+    }
+
+    @Test
+    public void testSelect_adaptsToSlowButWorkingLink() throws Exception {
+        estimator.addRoundTrip(1_000);
+        // 100 KB within 10 s (10 KB/s) plus the round trip for the response
+        estimator.addTransfer(UPLOAD_BYTES, 11_000);
+
+        TimeoutPolicy.Timeouts timeouts = policy.select(TimeoutPolicy.RequestType.UPLOAD);
+
+        // 4 round trips
+        assertThat(timeouts.connectMillis, is(4_000));
+        // twice the expected 2 round trips and 10 s transfer
+        assertThat(timeouts.readMillis, is(24_000));
+    }
+
+    @Test
+    public void testSelect_usesSlowRoundTripsInsteadOfTheAverage() throws Exception {
+        for (int i = 0; i < 8; i++) {
+            estimator.addRoundTrip(100);
+        }
+        estimator.addRoundTrip(2_000);
+        estimator.addRoundTrip(2_000);
+
+        TimeoutPolicy.Timeouts timeouts = policy.select(TimeoutPolicy.RequestType.OPERATION);
+
+        assertThat(timeouts.connectMillis, is(8_000));
+    }
+
+    @Test
+    public void testSelect_slowOperationDoesNotRaiseUploadConnectTimeout() throws Exception {
+        estimator.addRoundTrip(50);
+        estimator.addTransfer(UPLOAD_BYTES, 150);
+        // a verification without significant body which takes the server 12 s
+        estimator.addTransfer(0, 12_000);
+
+        TimeoutPolicy.Timeouts timeouts = policy.select(TimeoutPolicy.RequestType.UPLOAD);
+
+        assertThat(timeouts.connectMillis, is(3_000));
+    }
+
+    @Test
+    public void testSelect_recordsSelectedTimeouts() throws Exception {
+        policy.select(TimeoutPolicy.RequestType.UPLOAD);
+
+        verify(metrics).record("timeouts.upload.connect_millis", 15_000);
+        verify(metrics).record("timeouts.upload.read_millis", 30_000);
+    }
+}
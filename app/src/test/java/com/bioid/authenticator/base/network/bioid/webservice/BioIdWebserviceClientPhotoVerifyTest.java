@@ -0,0 +1,292 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import com.bioid.authenticator.base.image.ImageEncoder;
+import com.bioid.authenticator.base.image.ImageFormatConverter;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.network.HttpRequest;
+import com.bioid.authenticator.base.network.HttpRequestHelper;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sends a PhotoVerify request to a local stand-in for the BWS endpoint and checks what actually goes over the wire
+ * and how much memory it takes to send it.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BioIdWebserviceClientPhotoVerifyTest {
+
+    private static final String MIME_TYPE = "image/png";
+    private static final int SELFIE_SIZE = 2 * 1024 * 1024;
+    private static final int ID_PHOTO_SIZE = 4 * 1024 * 1024;
+    private static final int ENCODER_CHUNK_SIZE = 64 * 1024;
+    private static final int BODY_START_LENGTH = 64;
+    private static final int BENCHMARK_WARM_UP_ITERATIONS = 3;
+    private static final int BENCHMARK_ITERATIONS = 10;
+
+    @Mock
+    private HttpRequestHelper httpRequestHelper;
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private Encoder encoder;
+    @Mock
+    private Bitmap selfie1, selfie2, idPhoto;
+
+    private HttpServer server;
+    private String receivedContentType;
+    private String receivedBodyStart;
+    private long receivedBodyLength;
+    private long receivedBodyChecksum;
+
+    private BioIdWebserviceClient bioIdWebserviceClient;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/extension/photoverify", exchange -> {
+            receivedContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            readAndCount(exchange.getRequestBody());
+
+            byte[] response = "true".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        bioIdWebserviceClient = new BioIdWebserviceClient(httpRequestHelper, log, encoder, new ImageFormatConverter());
+        bioIdWebserviceClient.bwsBaseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        bioIdWebserviceClient.photoVerifyImageEncoder = new ImageEncoder() {
+            @NonNull
+            @Override
+            public String getMimeType() {
+                return MIME_TYPE;
+            }
+
+            /**
+             * Like a real encoder the image is written in chunks of compressed data.
+             */
+            @Override
+            public void encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException {
+                byte[] chunk = new byte[ENCODER_CHUNK_SIZE];
+                Arrays.fill(chunk, (byte) (bitmap == selfie1 ? 1 : bitmap == selfie2 ? 2 : 3));
+                int size = bitmap == idPhoto ? ID_PHOTO_SIZE : SELFIE_SIZE;
+                for (int written = 0; written < size; written += chunk.length) {
+                    out.write(chunk);
+                }
+            }
+        };
+
+        when(encoder.encodeAsBase64(any(byte[].class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(encoder.encodeAsBase64(any(OutputStream.class))).thenAnswer(invocation -> base64(invocation.getArgument(0)));
+        // the request is actually sent in chunks (like the real helper does), only the circuit breaker is left out
+        when(httpRequestHelper.send(any(HttpRequest.class), any(HttpRequest.StreamingBody.class))).thenAnswer(invocation ->
+                invocation.<HttpRequest>getArgument(0).chunk(16 * 1024).send(invocation.<HttpRequest.StreamingBody>getArgument(1)));
+        // JSON parsing is not available on the JVM, therefore only the request is executed
+        when(httpRequestHelper.asTextIfOk(any(HttpRequest.class))).thenAnswer(invocation -> {
+            assertThat(invocation.<HttpRequest>getArgument(0).code(), is(200));
+            return "true";
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void testPerformPhotoVerify_sendsImagesAsJsonObjectOfDataUrls() throws Exception {
+        bioIdWebserviceClient.performPhotoVerify(new Bitmap[]{selfie1, selfie2}, idPhoto);
+
+        String dataUrlHeader = "data:" + MIME_TYPE + ";base64,";
+        String selfie1Start = Base64.getEncoder().encodeToString(new byte[]{1, 1, 1});
+        assertThat(receivedContentType, is("application/json; charset=utf-8"));
+        assertThat(receivedBodyStart.startsWith("{\"liveimage1\":\"" + dataUrlHeader + selfie1Start), is(true));
+        assertThat(receivedBodyLength, is(expectedBodyLength(dataUrlHeader)));
+    }
+
+    @Test
+    public void testPerformPhotoVerify_sendsSameBodyIfImagesAreEncodedConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            bioIdWebserviceClient.photoVerifyExecutor = null;
+            bioIdWebserviceClient.performPhotoVerify(new Bitmap[]{selfie1, selfie2}, idPhoto);
+            String sequentialBodyStart = receivedBodyStart;
+            long sequentialBodyLength = receivedBodyLength;
+            long sequentialBodyChecksum = receivedBodyChecksum;
+
+            bioIdWebserviceClient.photoVerifyExecutor = executor;
+            bioIdWebserviceClient.performPhotoVerify(new Bitmap[]{selfie1, selfie2}, idPhoto);
+
+            assertThat(receivedBodyStart, is(sequentialBodyStart));
+            assertThat(receivedBodyLength, is(sequentialBodyLength));
+            assertThat(receivedBodyChecksum, is(sequentialBodyChecksum));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPerformPhotoVerify_allocatesOnlyAFractionOfThePayload() throws Exception {
+        // concurrently encoded images are buffered (in their encoded form), here only the streaming is measured
+        bioIdWebserviceClient.photoVerifyExecutor = null;
+        com.sun.management.ThreadMXBean threadMXBean = threadMXBean();
+        assumeTrue(threadMXBean != null && threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        bioIdWebserviceClient.performPhotoVerify(new Bitmap[]{selfie1, selfie2}, idPhoto);
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        // the memory allocated while sending is an upper bound for the additional heap used at the peak,
+        // building the body as JSONObject would have allocated several copies of the payload
+        assertThat(receivedBodyLength, is(expectedBodyLength("data:" + MIME_TYPE + ";base64,")));
+        assertThat(allocated, is(lessThan(receivedBodyLength / 10)));
+    }
+
+    /**
+     * Compares the end-to-end latency of encoding the images one after another while they are written (as before)
+     * with encoding them concurrently, using a CPU bound encoder.
+     * <p>
+     * Only executed if the "benchmark" system property is set (e.g. "./gradlew testBwsDebugUnitTest -Pbenchmark=true").
+     */
+    @Test
+    public void benchmarkSequentialVsConcurrentEncoding() throws Exception {
+        assumeTrue(Boolean.getBoolean("benchmark"));
+        bioIdWebserviceClient.photoVerifyImageEncoder = new ImageEncoder() {
+            @NonNull
+            @Override
+            public String getMimeType() {
+                return MIME_TYPE;
+            }
+
+            @Override
+            public void encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException {
+                byte[] row = new byte[1920];
+                Random random = new Random(bitmap == idPhoto ? 3 : 1);
+                try (DeflaterOutputStream deflater = new DeflaterOutputStream(nonClosing(out),
+                        new Deflater(Deflater.DEFAULT_COMPRESSION))) {
+                    for (int y = 0; y < 1080; y++) {
+                        for (int x = 0; x < row.length; x++) {
+                            row[x] = (byte) (x / 8 + y / 8 + random.nextInt(16));  // gradient with sensor noise
+                        }
+                        deflater.write(row);
+                    }
+                }
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            bioIdWebserviceClient.photoVerifyExecutor = null;
+            double sequentialMillis = measurePhotoVerifyMillis();
+            bioIdWebserviceClient.photoVerifyExecutor = executor;
+            double concurrentMillis = measurePhotoVerifyMillis();
+
+            System.out.println(String.format(Locale.ENGLISH, "PhotoVerify (%d bytes): sequential %.1f ms, concurrent %.1f ms",
+                    receivedBodyLength, sequentialMillis, concurrentMillis));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private double measurePhotoVerifyMillis() {
+        for (int i = 0; i < BENCHMARK_WARM_UP_ITERATIONS; i++) {
+            bioIdWebserviceClient.performPhotoVerify(new Bitmap[]{selfie1, selfie2}, idPhoto);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            bioIdWebserviceClient.performPhotoVerify(new Bitmap[]{selfie1, selfie2}, idPhoto);
+        }
+        return (System.nanoTime() - start) / 1_000_000.0 / BENCHMARK_ITERATIONS;
+    }
+
+    private static long expectedBodyLength(@NonNull String dataUrlHeader) {
+        long base64Selfie = 4L * ((SELFIE_SIZE + 2) / 3);  // including padding
+        long base64IdPhoto = 4L * ((ID_PHOTO_SIZE + 2) / 3);
+        long fields = "{'liveimage1':'','liveimage2':'','idphoto':''}".length();
+        return fields + 3 * dataUrlHeader.length() + 2 * base64Selfie + base64IdPhoto;
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        return threadMXBean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threadMXBean : null;
+    }
+
+    /**
+     * Equivalent to the Android implementation of {@link Encoder#encodeAsBase64(OutputStream)}.
+     */
+    private static OutputStream base64(@NonNull OutputStream out) {
+        return Base64.getEncoder().wrap(nonClosing(out));
+    }
+
+    private static OutputStream nonClosing(@NonNull OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Only keeps the start of the body, the whole body would distort the measured allocations.
+     */
+    private void readAndCount(@NonNull InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        StringBuilder start = new StringBuilder();
+        CRC32 checksum = new CRC32();
+        long length = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            checksum.update(buffer, 0, read);
+            if (length == 0) {
+                start.append(new String(buffer, 0, Math.min(read, BODY_START_LENGTH), "UTF-8"));
+            }
+            length += read;
+        }
+        receivedBodyStart = start.toString();
+        receivedBodyLength = length;
+        receivedBodyChecksum = checksum.getValue();
+    }
+}
@@ -5,11 +5,13 @@ import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 
 import com.bioid.authenticator.base.image.GrayscaleImage;
+import com.bioid.authenticator.base.image.ImageEncoder;
 import com.bioid.authenticator.base.image.ImageFormatConverter;
 import com.bioid.authenticator.base.logging.LoggingHelper;
 import com.bioid.authenticator.base.network.HttpRequest;
 import com.bioid.authenticator.base.network.HttpRequestHelper;
 import com.bioid.authenticator.base.network.NoConnectionException;
+import com.bioid.authenticator.base.network.RetryPolicy;
 import com.bioid.authenticator.base.network.ServerErrorException;
 import com.bioid.authenticator.base.network.TechnicalException;
 import com.bioid.authenticator.base.network.bioid.webservice.token.BwsToken;
@@ -17,15 +19,24 @@ import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentTok
 import com.bioid.authenticator.base.network.bioid.webservice.token.VerificationToken;
 import com.bioid.authenticator.testutil.Mocks;
 
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -42,8 +53,17 @@ public class BioIdWebserviceClientTest {
         }
 
         @Override
-        protected HttpRequest createUploadImageRequest(@NonNull byte[] imgAsDataUrl, @NonNull BwsToken token,
-                                                       @NonNull MovementDirection direction, @IntRange(from = 1) int index) {
+        protected HttpRequest createUploadImageRequest(@NonNull BwsCall<?> call, @NonNull HttpRequest.StreamingBody img,
+                                                       int contentLength, @NonNull String contentType,
+                                                       @NonNull BwsToken token, @NonNull MovementDirection direction,
+                                                       @IntRange(from = 1) int index) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try {
+                img.writeTo(body);
+            } catch (IOException e) {
+                throw new HttpRequest.HttpRequestException(e);
+            }
+            uploadedImg = body.toByteArray();
             return uploadImageRequest;
         }
 
@@ -62,8 +82,8 @@ public class BioIdWebserviceClientTest {
     private static final EnrollmentToken ENROLLMENT_TOKEN = Mocks.enrollmentToken();
     private static final MovementDirection DIRECTION = MovementDirection.any;
     private static final int UPLOAD_INDEX = 1;
-    private static final byte[] PNG = {1, 2, 3};
-    private static final byte[] PNG_AS_BASE64 = {4, 5, 6};
+    private static final byte[] PNG = {'P', 'N', 'G'};
+    private static final byte[] JPEG = {'J', 'P', 'G'};
 
     @Mock
     private HttpRequestHelper httpRequestHelper;
@@ -74,12 +94,6 @@ public class BioIdWebserviceClientTest {
     @Mock
     private ImageFormatConverter imageFormatConverter;
     @Mock
-    private JSONObject uploadResult;
-    @Mock
-    private JSONObject verificationResult;
-    @Mock
-    private JSONObject enrollmentResult;
-    @Mock
     private HttpRequest uploadImageRequest;
     @Mock
     private HttpRequest verificationResultRequest;
@@ -91,24 +105,30 @@ public class BioIdWebserviceClientTest {
     private Bitmap bitmap;
     @Mock
     private BwsToken bwsToken;
+    @Mock
+    private ImageEncoder jpegEncoder;
 
     private BioIdWebserviceClient bioIdWebserviceClient;
+    private byte[] uploadedImg;
+    private UploadResult uploadResult = new UploadResult(true, null);
+    private BiometricOperationResult verificationResult = new BiometricOperationResult(true, null);
+    private BiometricOperationResult enrollmentResult = new BiometricOperationResult(true, null);
 
     @Before
     public void setUp() throws Exception {
         bioIdWebserviceClient = new BioIdWebserviceClientForTest(httpRequestHelper, log, encoder, imageFormatConverter);
+        bioIdWebserviceClient.setUploadRetryPolicy(RetryPolicy.NONE);
 
-        when(httpRequestHelper.asJsonIfOk(verificationResultRequest)).thenReturn(verificationResult);
-        when(httpRequestHelper.asJsonIfOk(enrollmentResultRequest)).thenReturn(enrollmentResult);
-        when(httpRequestHelper.asJsonIfOk(uploadImageRequest)).thenReturn(uploadResult);
-
-        when(imageFormatConverter.bitmapToPng(bitmap)).thenReturn(PNG);
+        when(httpRequestHelper.readJsonIfOk(verificationResultRequest, BiometricOperationResult.DECODER))
+                .thenAnswer(invocation -> verificationResult);
+        when(httpRequestHelper.readJsonIfOk(enrollmentResultRequest, BiometricOperationResult.DECODER))
+                .thenAnswer(invocation -> enrollmentResult);
+        when(httpRequestHelper.readJsonIfOk(uploadImageRequest, UploadResult.DECODER)).thenAnswer(invocation -> uploadResult);
 
-        when(encoder.encodeAsBase64(PNG)).thenReturn(PNG_AS_BASE64);
+        when(imageFormatConverter.bitmapToGrayscaleImage(bitmap)).thenReturn(img);
 
-        when(verificationResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(true);
-        when(enrollmentResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(true);
-        when(uploadResult.getBoolean(BioIdWebserviceClient.JSON_KEY_ACCEPTED)).thenReturn(true);
+        // Base64 encoding is done by the Android framework, therefore the data is written as is
+        when(encoder.encodeAsBase64(any(OutputStream.class))).thenAnswer(invocation -> invocation.getArgument(0));
     }
 
     @Test
@@ -118,69 +138,56 @@ public class BioIdWebserviceClientTest {
 
     @Test(expected = NotRecognizedException.class)
     public void testVerify_throwsExceptionIfNotRecognized() throws Exception {
-        when(verificationResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(false);
-        when(verificationResult.has(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(false);
+        verificationResult = new BiometricOperationResult(false, null);
         verify();
     }
 
     @Test(expected = LiveDetectionException.class)
     public void testVerify_throwsExceptionIfNotRecordedFromALivePerson() throws Exception {
-        when(verificationResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(false);
-        when(verificationResult.has(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(true);
-        when(verificationResult.getString(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(BioIdWebserviceClient.ERROR_CODE_LIVE_DETECTION_FAILED);
+        verificationResult = new BiometricOperationResult(false, BioIdWebserviceClient.ERROR_CODE_LIVE_DETECTION_FAILED);
         verify();
     }
 
     @Test(expected = ChallengeResponseException.class)
     public void testVerify_throwsExceptionIfImagesDoNotFulfillChallengeResponseCriteria() throws Exception {
-        when(verificationResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(false);
-        when(verificationResult.has(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(true);
-        when(verificationResult.getString(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(BioIdWebserviceClient.ERROR_CODE_CHALLENGE_RESPONSE_FAILED);
+        verificationResult = new BiometricOperationResult(false, BioIdWebserviceClient.ERROR_CODE_CHALLENGE_RESPONSE_FAILED);
         verify();
     }
 
     @Test(expected = NoEnrollmentException.class)
     public void testVerify_throwsExceptionIfUserHasNotBeenEnrolled() throws Exception {
-        when(verificationResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(false);
-        when(verificationResult.has(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(true);
-        when(verificationResult.getString(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(BioIdWebserviceClient.ERROR_CODE_NO_TEMPLATE_AVAILABLE);
+        verificationResult = new BiometricOperationResult(false, BioIdWebserviceClient.ERROR_CODE_NO_TEMPLATE_AVAILABLE);
         verify();
     }
 
     @Test(expected = NoSamplesException.class)
     public void testVerify_throwsExceptionIfNoImagesHaveBeenUploaded() throws Exception {
         doThrow(new HttpRequestHelper.Non200StatusException(BioIdWebserviceClient.HTTP_STATUS_NO_SAMPLES))
-                .when(httpRequestHelper).asJsonIfOk(verificationResultRequest);
+                .when(httpRequestHelper).readJsonIfOk(verificationResultRequest, BiometricOperationResult.DECODER);
         verify();
     }
 
     @Test(expected = NoConnectionException.class)
     public void testVerify_throwsExceptionIfNoConnectionCouldBeEstablished() throws Exception {
-        doThrow(NoConnectionException.class).when(httpRequestHelper).asJsonIfOk(verificationResultRequest);
+        doThrow(NoConnectionException.class).when(httpRequestHelper).readJsonIfOk(verificationResultRequest, BiometricOperationResult.DECODER);
         verify();
     }
 
     @Test(expected = ServerErrorException.class)
     public void testVerify_throwsExceptionIfServerCouldNotProcessTheRequest() throws Exception {
-        doThrow(ServerErrorException.class).when(httpRequestHelper).asJsonIfOk(verificationResultRequest);
+        doThrow(ServerErrorException.class).when(httpRequestHelper).readJsonIfOk(verificationResultRequest, BiometricOperationResult.DECODER);
         verify();
     }
 
     @Test(expected = TechnicalException.class)
     public void testVerify_throwsExceptionOnUnhandledResponseCode() throws Exception {
-        doThrow(new HttpRequestHelper.Non200StatusException(404)).when(httpRequestHelper).asJsonIfOk(verificationResultRequest);
+        doThrow(new HttpRequestHelper.Non200StatusException(404)).when(httpRequestHelper).readJsonIfOk(verificationResultRequest, BiometricOperationResult.DECODER);
         verify();
     }
 
     @Test(expected = TechnicalException.class)
     public void testVerify_throwsExceptionIfRequestUnsuccessful() throws Exception {
-        doThrow(TechnicalException.class).when(httpRequestHelper).asJsonIfOk(verificationResultRequest);
-        verify();
-    }
-
-    @Test(expected = TechnicalException.class)
-    public void testVerify_throwsExceptionIfJsonHasMissingKeys() throws Exception {
-        doThrow(JSONException.class).when(verificationResult).getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS);
+        doThrow(TechnicalException.class).when(httpRequestHelper).readJsonIfOk(verificationResultRequest, BiometricOperationResult.DECODER);
         verify();
     }
 
@@ -191,120 +198,200 @@ public class BioIdWebserviceClientTest {
 
     @Test(expected = LiveDetectionException.class)
     public void testEnroll_throwsExceptionIfNotRecordedFromALivePerson() throws Exception {
-        when(enrollmentResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(false);
-        when(enrollmentResult.has(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(true);
-        when(enrollmentResult.getString(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(BioIdWebserviceClient.ERROR_CODE_LIVE_DETECTION_FAILED);
+        enrollmentResult = new BiometricOperationResult(false, BioIdWebserviceClient.ERROR_CODE_LIVE_DETECTION_FAILED);
         enroll();
     }
 
     @Test(expected = ChallengeResponseException.class)
     public void testEnroll_throwsExceptionIfImagesDoNotFulfillChallengeResponseCriteria() throws Exception {
-        when(enrollmentResult.getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS)).thenReturn(false);
-        when(enrollmentResult.has(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(true);
-        when(enrollmentResult.getString(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(BioIdWebserviceClient.ERROR_CODE_CHALLENGE_RESPONSE_FAILED);
+        enrollmentResult = new BiometricOperationResult(false, BioIdWebserviceClient.ERROR_CODE_CHALLENGE_RESPONSE_FAILED);
         enroll();
     }
 
     @Test(expected = NoSamplesException.class)
     public void testEnroll_throwsExceptionIfNoImagesHaveBeenUploaded() throws Exception {
         doThrow(new HttpRequestHelper.Non200StatusException(BioIdWebserviceClient.HTTP_STATUS_NO_SAMPLES))
-                .when(httpRequestHelper).asJsonIfOk(enrollmentResultRequest);
+                .when(httpRequestHelper).readJsonIfOk(enrollmentResultRequest, BiometricOperationResult.DECODER);
         enroll();
     }
 
     @Test(expected = NoConnectionException.class)
     public void testEnroll_throwsExceptionIfNoConnectionCouldBeEstablished() throws Exception {
-        doThrow(NoConnectionException.class).when(httpRequestHelper).asJsonIfOk(enrollmentResultRequest);
+        doThrow(NoConnectionException.class).when(httpRequestHelper).readJsonIfOk(enrollmentResultRequest, BiometricOperationResult.DECODER);
         enroll();
     }
 
     @Test(expected = ServerErrorException.class)
     public void testEnroll_throwsExceptionIfServerCouldNotProcessTheRequest() throws Exception {
-        doThrow(ServerErrorException.class).when(httpRequestHelper).asJsonIfOk(enrollmentResultRequest);
+        doThrow(ServerErrorException.class).when(httpRequestHelper).readJsonIfOk(enrollmentResultRequest, BiometricOperationResult.DECODER);
         enroll();
     }
 
     @Test(expected = TechnicalException.class)
     public void testEnroll_throwsExceptionOnUnhandledResponseCode() throws Exception {
-        doThrow(new HttpRequestHelper.Non200StatusException(404)).when(httpRequestHelper).asJsonIfOk(enrollmentResultRequest);
+        doThrow(new HttpRequestHelper.Non200StatusException(404)).when(httpRequestHelper).readJsonIfOk(enrollmentResultRequest, BiometricOperationResult.DECODER);
         enroll();
     }
 
     @Test(expected = TechnicalException.class)
     public void testEnroll_throwsExceptionIfRequestUnsuccessful() throws Exception {
-        doThrow(TechnicalException.class).when(httpRequestHelper).asJsonIfOk(enrollmentResultRequest);
+        doThrow(TechnicalException.class).when(httpRequestHelper).readJsonIfOk(enrollmentResultRequest, BiometricOperationResult.DECODER);
         enroll();
     }
 
-    @Test(expected = TechnicalException.class)
-    public void testEnroll_throwsExceptionIfJsonHasMissingKeys() throws Exception {
-        doThrow(JSONException.class).when(enrollmentResult).getBoolean(BioIdWebserviceClient.JSON_KEY_SUCCESS);
-        enroll();
+    @Test
+    public void testUploadImage_doesNothingIfUploadSuccessful() throws Exception {
+        uploadImage();
     }
 
     @Test
-    public void testUploadImage_doesNothingIfUploadSuccessful() throws Exception {
+    public void testUploadImage_usesMimeTypeOfUploadImageEncoder() throws Exception {
+        when(jpegEncoder.getMimeType()).thenReturn("image/jpeg");
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(JPEG);
+            return null;
+        }).when(jpegEncoder).encode(eq(bitmap), any(OutputStream.class));
+        bioIdWebserviceClient.setUploadImageEncoder(jpegEncoder);
+
         uploadImage();
+
+        assertThat(new String(uploadedImg, "UTF-8"), is("data:image/jpeg;base64,JPG"));
+    }
+
+    @Test
+    public void testNewUploadImageCall_usesGivenEncoderForThisCallOnly() throws Exception {
+        when(jpegEncoder.getMimeType()).thenReturn("image/jpeg");
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(JPEG);
+            return null;
+        }).when(jpegEncoder).encode(eq(bitmap), any(OutputStream.class));
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(PNG);
+            return null;
+        }).when(imageFormatConverter).grayscaleImageToPng(eq(img), any(OutputStream.class));
+
+        bioIdWebserviceClient.newUploadImageCall(bitmap, jpegEncoder, bwsToken, DIRECTION, UPLOAD_INDEX).execute();
+        assertThat(new String(uploadedImg, "UTF-8"), is("data:image/jpeg;base64,JPG"));
+
+        uploadImage();
+        assertThat(new String(uploadedImg, "UTF-8"), is("data:image/png;base64,PNG"));
+    }
+
+    @Test
+    public void testUploadImage_streamsGrayscalePngIntoRequestBody() throws Exception {
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(PNG);
+            return null;
+        }).when(imageFormatConverter).grayscaleImageToPng(eq(img), any(OutputStream.class));
+
+        uploadImage();
+
+        assertThat(new String(uploadedImg, "UTF-8"), is("data:image/png;base64,PNG"));
     }
 
     @Test(expected = NoFaceFoundException.class)
     public void testUploadImage_throwsExceptionIfNoFaceFound() throws Exception {
-        when(uploadResult.getBoolean(BioIdWebserviceClient.JSON_KEY_ACCEPTED)).thenReturn(false);
-        when(uploadResult.getString(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(BioIdWebserviceClient.ERROR_CODE_NO_FACE);
+        uploadResult = new UploadResult(false, BioIdWebserviceClient.ERROR_CODE_NO_FACE);
         uploadImage();
     }
 
     @Test(expected = MultipleFacesFoundException.class)
     public void testUploadImage_throwsExceptionIfMultipleFacesFound() throws Exception {
-        when(uploadResult.getBoolean(BioIdWebserviceClient.JSON_KEY_ACCEPTED)).thenReturn(false);
-        when(uploadResult.getString(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn(BioIdWebserviceClient.ERROR_CODE_MULTIPLE_FACES);
+        uploadResult = new UploadResult(false, BioIdWebserviceClient.ERROR_CODE_MULTIPLE_FACES);
         uploadImage();
     }
 
     @Test(expected = NoFaceFoundException.class)
     public void testUploadImage_throwsExceptionOnUnknownErrorCode() throws Exception {
-        when(uploadResult.getBoolean(BioIdWebserviceClient.JSON_KEY_ACCEPTED)).thenReturn(false);
-        when(uploadResult.getString(BioIdWebserviceClient.JSON_KEY_ERROR)).thenReturn("this error code is unknown");
+        uploadResult = new UploadResult(false, "this error code is unknown");
         uploadImage();
     }
 
     @Test(expected = WrongCredentialsException.class)
     public void testUploadImage_throwsExceptionIfBwsTokenIsInvalidOrHasExpired() throws Exception {
         doThrow(new HttpRequestHelper.Non200StatusException(BioIdWebserviceClient.HTTP_STATUS_WRONG_CREDENTIALS))
-                .when(httpRequestHelper).asJsonIfOk(uploadImageRequest);
+                .when(httpRequestHelper).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
         uploadImage();
     }
 
     @Test(expected = NoConnectionException.class)
     public void testUploadImage_throwsExceptionIfNoConnectionCouldBeEstablished() throws Exception {
-        doThrow(NoConnectionException.class).when(httpRequestHelper).asJsonIfOk(uploadImageRequest);
+        doThrow(NoConnectionException.class).when(httpRequestHelper).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
         uploadImage();
     }
 
     @Test(expected = ServerErrorException.class)
     public void testUpload_throwsExceptionIfServerCouldNotProcessTheRequest() throws Exception {
-        doThrow(ServerErrorException.class).when(httpRequestHelper).asJsonIfOk(uploadImageRequest);
+        doThrow(ServerErrorException.class).when(httpRequestHelper).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
         uploadImage();
     }
 
     @Test(expected = TechnicalException.class)
     public void testUploadImage_throwsExceptionOnUnhandledResponseCode() throws Exception {
-        doThrow(new HttpRequestHelper.Non200StatusException(404)).when(httpRequestHelper).asJsonIfOk(uploadImageRequest);
+        doThrow(new HttpRequestHelper.Non200StatusException(404)).when(httpRequestHelper).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
         uploadImage();
     }
 
     @Test(expected = TechnicalException.class)
     public void testUploadImage_throwsExceptionIfRequestUnsuccessful() throws Exception {
-        doThrow(TechnicalException.class).when(httpRequestHelper).asJsonIfOk(uploadImageRequest);
+        doThrow(TechnicalException.class).when(httpRequestHelper).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
         uploadImage();
     }
 
     @Test(expected = TechnicalException.class)
-    public void testUploadImage_throwsExceptionIfJsonHasMissingKeys() throws Exception {
-        doThrow(JSONException.class).when(uploadResult).getBoolean(BioIdWebserviceClient.JSON_KEY_ACCEPTED);
+    public void testUploadImage_throwsExceptionIfErrorCodeIsMissing() throws Exception {
+        uploadResult = new UploadResult(false, null);
         uploadImage();
     }
 
+    @Test
+    public void testUploadImage_retriesTransientFailureWithSamePayload() throws Exception {
+        bioIdWebserviceClient.setUploadRetryPolicy(new RetryPolicy(3, 0, 0));
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(1).write(PNG);
+            return null;
+        }).when(imageFormatConverter).grayscaleImageToPng(eq(img), any(OutputStream.class));
+        when(httpRequestHelper.readJsonIfOk(uploadImageRequest, UploadResult.DECODER))
+                .thenThrow(new NoConnectionException(new IOException("connection reset")))
+                .thenThrow(new NoConnectionException(new IOException("connection reset")))
+                .thenAnswer(invocation -> uploadResult);
+
+        uploadImage();
+
+        assertThat(new String(uploadedImg, "UTF-8"), is("data:image/png;base64,PNG"));
+        // the image is encoded once, the retries replay the payload recorded by the first attempt
+        Mockito.verify(imageFormatConverter).grayscaleImageToPng(eq(img), any(OutputStream.class));
+        Mockito.verify(httpRequestHelper, times(3)).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
+    }
+
+    @Test
+    public void testUploadImage_throwsLastFailureIfAllAttemptsFailed() throws Exception {
+        bioIdWebserviceClient.setUploadRetryPolicy(new RetryPolicy(3, 0, 0));
+        doThrow(ServerErrorException.class).when(httpRequestHelper).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
+
+        try {
+            uploadImage();
+        } catch (ServerErrorException expected) {
+            Mockito.verify(httpRequestHelper, times(3)).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
+            return;
+        }
+        throw new AssertionError("ServerErrorException expected");
+    }
+
+    @Test
+    public void testUploadImage_doesNotRetryRejectedImage() throws Exception {
+        bioIdWebserviceClient.setUploadRetryPolicy(new RetryPolicy(3, 0, 0));
+        uploadResult = new UploadResult(false, BioIdWebserviceClient.ERROR_CODE_NO_FACE);
+
+        try {
+            uploadImage();
+        } catch (NoFaceFoundException expected) {
+            Mockito.verify(httpRequestHelper).readJsonIfOk(uploadImageRequest, UploadResult.DECODER);
+            return;
+        }
+        throw new AssertionError("NoFaceFoundException expected");
+    }
+
     private void verify() {
         // actual values are not relevant for test
         bioIdWebserviceClient.verify(VERIFICATION_TOKEN);
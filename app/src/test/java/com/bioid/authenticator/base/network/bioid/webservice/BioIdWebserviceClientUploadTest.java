@@ -0,0 +1,169 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import com.bioid.authenticator.base.image.ImageEncoder;
+import com.bioid.authenticator.base.image.ImageFormatConverter;
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.network.HttpRequest;
+import com.bioid.authenticator.base.network.HttpRequestHelper;
+import com.bioid.authenticator.base.network.bioid.webservice.token.BwsToken;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Uploads images to a local stand-in for the BWS upload endpoint and checks what actually goes over the wire.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class BioIdWebserviceClientUploadTest {
+
+    private static final byte[] IMAGE = new byte[30_000];
+    private static final String MIME_TYPE = "image/jpeg";
+
+    static {
+        new Random(42).nextBytes(IMAGE);
+    }
+
+    @Mock
+    private HttpRequestHelper httpRequestHelper;
+    @Mock
+    private LoggingHelper log;
+    @Mock
+    private Encoder encoder;
+    @Mock
+    private JSONObject uploadResult;
+    @Mock
+    private Bitmap bitmap;
+    @Mock
+    private BwsToken bwsToken;
+
+    private HttpServer server;
+    private String receivedContentType;
+    private String receivedQuery;
+    private byte[] receivedBody;
+
+    private BioIdWebserviceClient bioIdWebserviceClient;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/extension/upload", exchange -> {
+            receivedContentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            receivedQuery = exchange.getRequestURI().getQuery();
+            receivedBody = readFully(exchange.getRequestBody());
+
+            byte[] response = "{\"Accepted\":true}".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+
+        bioIdWebserviceClient = new BioIdWebserviceClient(httpRequestHelper, log, encoder, new ImageFormatConverter());
+        bioIdWebserviceClient.bwsBaseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        bioIdWebserviceClient.setUploadImageEncoder(new ImageEncoder() {
+            @NonNull
+            @Override
+            public String getMimeType() {
+                return MIME_TYPE;
+            }
+
+            @Override
+            public void encode(@NonNull Bitmap bitmap, @NonNull OutputStream out) throws IOException {
+                out.write(IMAGE);
+            }
+        });
+
+        // JSON parsing is not available on the JVM, therefore only the request is executed
+        when(httpRequestHelper.asJsonIfOk(any(HttpRequest.class))).thenAnswer(invocation -> {
+            assertThat(invocation.<HttpRequest>getArgument(0).code(), is(200));
+            return uploadResult;
+        });
+        when(uploadResult.getBoolean(BioIdWebserviceClient.JSON_KEY_ACCEPTED)).thenReturn(true);
+        when(bwsToken.getToken()).thenReturn("token");
+        when(bwsToken.hasFaceTrait()).thenReturn(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBinaryUpload_sendsEncodedImageAsIs() throws Exception {
+        bioIdWebserviceClient.binaryUpload = true;
+
+        bioIdWebserviceClient.uploadImage(bitmap, bwsToken, MovementDirection.left, 2);
+
+        assertThat(receivedContentType, is("application/octet-stream"));
+        assertThat(receivedBody.length, is(IMAGE.length));
+        assertThat(receivedBody, is(IMAGE));
+        assertThat(receivedQuery.contains("tag=left"), is(true));
+        assertThat(receivedQuery.contains("index=2"), is(true));
+        assertThat(receivedQuery.contains("trait=Face"), is(true));
+    }
+
+    @Test
+    public void testDataUrlUpload_sendsBase64EncodedImageWhichIsAThirdLarger() throws Exception {
+        bioIdWebserviceClient.binaryUpload = false;
+        when(encoder.encodeAsBase64(any(OutputStream.class))).thenAnswer(invocation -> base64(invocation.getArgument(0)));
+
+        bioIdWebserviceClient.uploadImage(bitmap, bwsToken, MovementDirection.left, 2);
+
+        String expectedBody = "data:" + MIME_TYPE + ";base64," + Base64.getEncoder().encodeToString(IMAGE);
+        assertThat(receivedContentType, is("text/plain; charset=utf-8"));
+        assertThat(new String(receivedBody, "UTF-8"), is(expectedBody));
+        assertThat(receivedBody.length > IMAGE.length * 4 / 3, is(true));
+    }
+
+    /**
+     * Equivalent to the Android implementation of {@link Encoder#encodeAsBase64(OutputStream)}.
+     */
+    private static OutputStream base64(@NonNull OutputStream out) {
+        return Base64.getEncoder().wrap(new FilterOutputStream(out) {
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        });
+    }
+
+    private static byte[] readFully(@NonNull InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
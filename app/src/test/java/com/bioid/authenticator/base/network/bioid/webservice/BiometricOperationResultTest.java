@@ -0,0 +1,39 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import com.bioid.authenticator.base.network.JsonStreamingReader;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class BiometricOperationResultTest {
+
+    @Test
+    public void testDecoder_readsSuccessfulOperation() throws Exception {
+        BiometricOperationResult result = decode("{\"Success\":true,\"JobID\":\"abc\",\"Samples\":[{\"Errors\":[]}]}");
+
+        assertThat(result.isSuccess(), is(true));
+        assertThat(result.getError(), is(nullValue()));
+    }
+
+    @Test
+    public void testDecoder_readsErrorCodeOfFailedOperation() throws Exception {
+        BiometricOperationResult result = decode("{\"Success\":false,\"Error\":\"LiveDetectionFailed\"}");
+
+        assertThat(result.isSuccess(), is(false));
+        assertThat(result.getError(), is(BioIdWebserviceClient.ERROR_CODE_LIVE_DETECTION_FAILED));
+    }
+
+    @Test(expected = JsonStreamingReader.MalformedJsonException.class)
+    public void testDecoder_throwsExceptionIfSuccessIsMissing() throws Exception {
+        decode("{\"Error\":\"LiveDetectionFailed\"}");
+    }
+
+    private static BiometricOperationResult decode(String json) throws Exception {
+        return BiometricOperationResult.DECODER.decode(new JsonStreamingReader(new StringReader(json)));
+    }
+}
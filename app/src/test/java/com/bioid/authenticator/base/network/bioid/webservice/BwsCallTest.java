@@ -0,0 +1,198 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import com.bioid.authenticator.base.network.DeadlineExceededException;
+import com.bioid.authenticator.base.network.HttpRequest;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+/**
+ * Executes calls against a local server which does not respond until the test has finished,
+ * to check that cancelled calls and calls exceeding their deadline are aborted right away.
+ */
+public class BwsCallTest {
+
+    private static final long SERVER_DELAY_IN_MILLIS = 10_000;
+
+    private HttpServer server;
+    private String url;
+    private final CountDownLatch requestReceived = new CountDownLatch(1);
+    private final CountDownLatch serverReleased = new CountDownLatch(1);
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            requestReceived.countDown();
+            try {
+                serverReleased.await(SERVER_DELAY_IN_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            byte[] response = "ok".getBytes("UTF-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/slow";
+
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverReleased.countDown();
+        executor.shutdownNow();
+        server.stop(0);
+    }
+
+    @Test
+    public void execute_returnsResultOfOperation() throws Exception {
+        BwsCall<String> call = new BwsCall<>(c -> "result");
+
+        assertThat(call.execute(), is("result"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void execute_callCanBeExecutedOnlyOnce() throws Exception {
+        BwsCall<String> call = new BwsCall<>(c -> "result");
+        call.execute();
+
+        call.execute();
+    }
+
+    @Test
+    public void execute_cancelledCallDoesNotSendRequest() throws Exception {
+        BwsCall<Integer> call = newSlowCall();
+        call.cancel();
+
+        try {
+            call.execute();
+        } catch (CancellationException expected) {
+            assertThat(requests.get(), is(0));
+            return;
+        }
+        throw new AssertionError("CancellationException expected");
+    }
+
+    @Test
+    public void cancel_runningRequestIsAborted() throws Exception {
+        BwsCall<Integer> call = newSlowCall();
+        AtomicReference<RuntimeException> error = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        long startedAt = System.currentTimeMillis();
+        executor.execute(() -> {
+            try {
+                call.execute();
+            } catch (RuntimeException e) {
+                error.set(e);
+            }
+            done.countDown();
+        });
+        assertThat(requestReceived.await(5, TimeUnit.SECONDS), is(true));
+
+        call.cancel();
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(System.currentTimeMillis() - startedAt, is(lessThan(SERVER_DELAY_IN_MILLIS)));
+        assertThat(error.get(), is(instanceOf(CancellationException.class)));
+    }
+
+    @Test
+    public void withDeadline_requestExceedingDeadlineIsAborted() throws Exception {
+        BwsCall<Integer> call = newSlowCall().withDeadline(200);
+        long startedAt = System.currentTimeMillis();
+
+        try {
+            call.execute();
+        } catch (DeadlineExceededException expected) {
+            assertThat(System.currentTimeMillis() - startedAt, is(lessThan(SERVER_DELAY_IN_MILLIS)));
+            return;
+        }
+        throw new AssertionError("DeadlineExceededException expected");
+    }
+
+    @Test
+    public void enqueue_resultIsPassedToCallback() throws Exception {
+        AtomicReference<String> result = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        new BwsCall<String>(c -> "result").enqueue(executor, r -> {
+            result.set(r);
+            done.countDown();
+        }, e -> done.countDown());
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(result.get(), is("result"));
+    }
+
+    @Test
+    public void enqueue_callbacksAreNotCalledForCancelledCall() throws Exception {
+        AtomicInteger callbacks = new AtomicInteger();
+
+        BwsCall<Integer> call = newSlowCall().enqueue(executor,
+                r -> callbacks.incrementAndGet(), e -> callbacks.incrementAndGet());
+        assertThat(requestReceived.await(5, TimeUnit.SECONDS), is(true));
+        call.cancel();
+
+        executor.shutdown();
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+        assertThat(callbacks.get(), is(0));
+    }
+
+    @Test
+    public void backoff_waitEndsAsSoonAsCallIsCancelled() throws Exception {
+        CountDownLatch backoffStarted = new CountDownLatch(1);
+        BwsCall<String> call = new BwsCall<>(c -> {
+            backoffStarted.countDown();
+            c.backoff(SERVER_DELAY_IN_MILLIS);
+            return "retried";
+        });
+        AtomicReference<RuntimeException> error = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        long startedAt = System.currentTimeMillis();
+        executor.execute(() -> {
+            try {
+                call.execute();
+            } catch (RuntimeException e) {
+                error.set(e);
+            }
+            done.countDown();
+        });
+        assertThat(backoffStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        call.cancel();
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(System.currentTimeMillis() - startedAt, is(lessThan(SERVER_DELAY_IN_MILLIS)));
+        assertThat(error.get(), is(instanceOf(CancellationException.class)));
+    }
+
+    private BwsCall<Integer> newSlowCall() {
+        return new BwsCall<>(call -> call.attach(HttpRequest.get(url)).code());
+    }
+}
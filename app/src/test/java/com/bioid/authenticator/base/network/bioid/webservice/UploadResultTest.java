@@ -0,0 +1,39 @@
+package com.bioid.authenticator.base.network.bioid.webservice;
+
+import com.bioid.authenticator.base.network.JsonStreamingReader;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class UploadResultTest {
+
+    @Test
+    public void testDecoder_readsAcceptedUpload() throws Exception {
+        UploadResult result = decode("{\"Accepted\":true,\"Error\":null,\"Warnings\":[\"ImageTooSmall\"]}");
+
+        assertThat(result.isAccepted(), is(true));
+        assertThat(result.getError(), is(nullValue()));
+    }
+
+    @Test
+    public void testDecoder_readsErrorCodeOfRejectedUpload() throws Exception {
+        UploadResult result = decode("{\"Error\":\"NoFaceFound\",\"Accepted\":false}");
+
+        assertThat(result.isAccepted(), is(false));
+        assertThat(result.getError(), is(BioIdWebserviceClient.ERROR_CODE_NO_FACE));
+    }
+
+    @Test(expected = JsonStreamingReader.MalformedJsonException.class)
+    public void testDecoder_throwsExceptionIfAcceptedIsMissing() throws Exception {
+        decode("{\"Error\":\"NoFaceFound\"}");
+    }
+
+    private static UploadResult decode(String json) throws Exception {
+        return UploadResult.DECODER.decode(new JsonStreamingReader(new StringReader(json)));
+    }
+}
@@ -4,6 +4,8 @@ import android.content.Context;
 import android.graphics.Bitmap;
 
 import com.bioid.authenticator.base.annotations.Rotation;
+import com.bioid.authenticator.base.image.FrameQuality;
+import com.bioid.authenticator.base.image.FrameQualityScorer;
 import com.bioid.authenticator.base.image.GrayscaleImage;
 import com.bioid.authenticator.base.image.ImageFormatConverter;
 import com.bioid.authenticator.base.image.ImageTransformer;
@@ -13,6 +15,7 @@ import com.bioid.authenticator.base.network.NoConnectionException;
 import com.bioid.authenticator.base.network.ServerErrorException;
 import com.bioid.authenticator.base.network.TechnicalException;
 import com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient;
+import com.bioid.authenticator.base.network.bioid.webservice.BwsCall;
 import com.bioid.authenticator.base.network.bioid.webservice.ChallengeResponseException;
 import com.bioid.authenticator.base.network.bioid.webservice.DeviceNotRegisteredException;
 import com.bioid.authenticator.base.network.bioid.webservice.LiveDetectionException;
@@ -66,7 +69,6 @@ public class FacialRecognitionBasePresenterTest {
     private static final MovementDirection DESTINATION_DIRECTION = MovementDirection.left;
     private static final int TASK_ID_MOTION_TIMEOUT = 99;
     private static final int TASK_ID_FACE_TIMEOUT = 88;
-    private static final int SUCCESSFUL_IMAGE_UPLOADS = 2;
     private static final int FAILED_IMAGE_UPLOADS = 1;
 
     @Mock
@@ -82,6 +84,8 @@ public class FacialRecognitionBasePresenterTest {
     @Mock
     private ImageTransformer imageTransformer;
     @Mock
+    private FrameQualityScorer frameQualityScorer;
+    @Mock
     private FaceDetection faceDetection;
     @Mock
     private MotionDetection motionDetection;
@@ -95,6 +99,10 @@ public class FacialRecognitionBasePresenterTest {
     private GrayscaleImage rotatedImageAsGrayscale;
     @Mock
     private Bitmap rotatedImageAsBitmap;
+    @Mock
+    private Bitmap otherRotatedImageAsBitmap;
+    @Mock
+    private FrameQuality frameQuality;
 
     private FacialRecognitionBasePresenterForTest presenter;
 
@@ -103,24 +111,29 @@ public class FacialRecognitionBasePresenterTest {
         private boolean startBiometricOperationCalled = false;
         private boolean onFaceDetectedCalled = false;
         private boolean onNoFaceDetectedCalled = false;
-        private boolean onUploadSuccessfulCalled = false;
+        private Integer onUploadSuccessfulCalledWith = null;
         private boolean onImageWithMotionProcessedCalled = false;
         private boolean disableMotionTimeout = true;
 
         private FacialRecognitionBasePresenterForTest(Context ctx, LoggingHelper log, FacialRecognitionContract.View view,
                                                       BackgroundHandler backgroundHandler, ImageFormatConverter imageFormatConverter,
-                                                      ImageTransformer imageTransformer, FaceDetection faceDetection,
-                                                      MotionDetection motionDetection, BioIdWebserviceClient bioIdWebserviceClient) {
-            super(ctx, log, view, backgroundHandler, imageFormatConverter, imageTransformer, faceDetection, motionDetection,
-                    bioIdWebserviceClient);
+                                                      ImageTransformer imageTransformer, FrameQualityScorer frameQualityScorer,
+                                                      FaceDetection faceDetection, MotionDetection motionDetection,
+                                                      BioIdWebserviceClient bioIdWebserviceClient) {
+            super(ctx, log, view, backgroundHandler, imageFormatConverter, imageTransformer, frameQualityScorer, faceDetection,
+                    motionDetection, bioIdWebserviceClient);
 
             this.bwsToken = BWS_TOKEN;
             this.currentDirection = CURRENT_DIRECTION;
             this.destinationDirection = DESTINATION_DIRECTION;
             this.taskIdMotionTimeout = TASK_ID_MOTION_TIMEOUT;
             this.taskIdFaceTimeout = TASK_ID_FACE_TIMEOUT;
-            this.successfulUploads = SUCCESSFUL_IMAGE_UPLOADS;
+            this.uploadScheduler.acknowledge(0);
+            this.uploadScheduler.acknowledge(1);
             this.failedUploads = FAILED_IMAGE_UPLOADS;
+            this.burstCaptureFrames = 1;  // burst capture is covered by separate tests
+            this.nearDuplicateFrameSuppressionEnabled = false;  // mocked frames do all have the same hash
+            this.adaptiveUploadEncodingEnabled = false;  // depends on the process-wide bandwidth estimate
         }
 
         @Override
@@ -139,7 +152,7 @@ public class FacialRecognitionBasePresenterTest {
         }
 
         @Override
-        void setupMotionTimeout() {
+        protected void setupMotionTimeout() {
             if (!disableMotionTimeout) {
                 super.setupMotionTimeout();
             }
@@ -151,8 +164,8 @@ public class FacialRecognitionBasePresenterTest {
         }
 
         @Override
-        protected void onUploadSuccessful() {
-            onUploadSuccessfulCalled = true;
+        protected void onUploadSuccessful(int index) {
+            onUploadSuccessfulCalledWith = index;
         }
 
         @Override
@@ -175,7 +188,15 @@ public class FacialRecognitionBasePresenterTest {
     @Before
     public void setUp() throws Exception {
         presenter = new FacialRecognitionBasePresenterForTest(ctx, log, view, backgroundHandler, imageFormatConverter,
-                imageTransformer, faceDetection, motionDetection, bioIdWebserviceClient);
+                imageTransformer, frameQualityScorer, faceDetection, motionDetection, bioIdWebserviceClient);
+
+        // the upload call delegates to the synchronous upload, so the upload can be stubbed and verified as before
+        when(bioIdWebserviceClient.newUploadImageCall(any(Bitmap.class), any(), any(BwsToken.class), any(MovementDirection.class),
+                anyInt())).thenAnswer(invocation -> new BwsCall<Void>(call -> {
+            bioIdWebserviceClient.uploadImage(invocation.getArgument(0), invocation.getArgument(2), invocation.getArgument(3),
+                    invocation.<Integer>getArgument(4));
+            return null;
+        }));
     }
 
     @Test
@@ -229,6 +250,13 @@ public class FacialRecognitionBasePresenterTest {
         verify(view).stopPreview();
     }
 
+    @Test
+    public void onDestroy_faceDetectionIsReleased() throws Exception {
+        presenter.onDestroy();
+
+        verify(faceDetection).release();
+    }
+
     @Test
     public void onCameraPermissionGranted_permissionStateIsSetToGranted() throws Exception {
         presenter.onCameraPermissionGranted();
@@ -380,6 +408,19 @@ public class FacialRecognitionBasePresenterTest {
         assertThat(presenter.imageDetectionState, is(ImageDetectionState.WAITING_FOR_IMAGE_WITH_FACE));
     }
 
+    @Test
+    public void onImageCaptured_ifFrameIsNearDuplicateOfLastProcessedFrame_frameWillBeSkipped() throws Exception {
+        presenter.nearDuplicateFrameSuppressionEnabled = true;
+        when(faceDetection.containsFace(rotatedImageAsBitmap)).thenReturn(false);
+        mockStateWaitingForImageWithFace();
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);  // same hash as the processed frame
+
+        verify(faceDetection).containsFace(rotatedImageAsBitmap);
+        assertThat(presenter.imageDetectionState, is(ImageDetectionState.WAITING_FOR_IMAGE_WITH_FACE));
+    }
+
     @Test
     public void onImageCaptured_ifWaitingForReferenceImage_motionDetectionTemplateWillBeCreated() throws Exception {
         mockStateWaitingForReferenceImage();
@@ -405,7 +446,8 @@ public class FacialRecognitionBasePresenterTest {
         presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
 
         verify(bioIdWebserviceClient).uploadImage(rotatedImageAsBitmap, BWS_TOKEN, CURRENT_DIRECTION, INDEX);
-        assertThat(presenter.onUploadSuccessfulCalled, is(true));
+        assertThat(presenter.onUploadSuccessfulCalledWith, is(INDEX));
+        assertThat(presenter.uploadScheduler.isAcknowledged(INDEX), is(true));
     }
 
     @Test
@@ -451,7 +493,76 @@ public class FacialRecognitionBasePresenterTest {
         presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
 
         verify(bioIdWebserviceClient).uploadImage(rotatedImageAsBitmap, BWS_TOKEN, DESTINATION_DIRECTION, INDEX + 1);
-        assertThat(presenter.onUploadSuccessfulCalled, is(true));
+        assertThat(presenter.onUploadSuccessfulCalledWith, is(INDEX + 1));
+        assertThat(presenter.uploadScheduler.isAcknowledged(INDEX + 1), is(true));
+    }
+
+    @Test
+    public void onImageCaptured_ifBurstCaptureIsEnabled_bestFrameOfBurstWillBeUploaded() throws Exception {
+        presenter.burstCaptureFrames = 2;
+        backgroundHandler.doNothingOnRunWithDelay();
+        mockStateWaitingForImageWithMotion();
+        mockBurstFrames();
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        assertThat(presenter.imageDetectionState, is(ImageDetectionState.WAITING_FOR_IMAGE_WITH_MOTION));
+        verify(bioIdWebserviceClient, never()).uploadImage(any(), any(), any(), anyInt());
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        verify(bioIdWebserviceClient).uploadImage(rotatedImageAsBitmap, BWS_TOKEN, DESTINATION_DIRECTION, INDEX + 1);
+        verify(otherRotatedImageAsBitmap).recycle();
+        verify(rotatedImageAsBitmap, never()).recycle();
+    }
+
+    @Test
+    public void onImageCaptured_ifBurstCaptureIsEnabled_eachFrameIsScoredOnlyOnce() throws Exception {
+        presenter.burstCaptureFrames = 2;
+        backgroundHandler.doNothingOnRunWithDelay();
+        mockStateWaitingForImageWithMotion();
+        mockBurstFrames();
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        verify(frameQualityScorer, times(2)).score(imageAsGrayscale);
+        verify(imageFormatConverter, never()).bitmapToGrayscaleImage(any());
+    }
+
+    @Test
+    public void onImageCaptured_ifBurstCaptureIsEnabled_nearDuplicateFramesAreCollectedForTheBurst() throws Exception {
+        presenter.burstCaptureFrames = 3;
+        presenter.nearDuplicateFrameSuppressionEnabled = true;
+        backgroundHandler.doNothingOnRunWithDelay();
+        mockStateWaitingForImageWithMotion();
+        mockBurstFrames();
+
+        // all frames have the same hash
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        verify(frameQualityScorer, times(3)).score(imageAsGrayscale);
+        verify(bioIdWebserviceClient).uploadImage(rotatedImageAsBitmap, BWS_TOKEN, DESTINATION_DIRECTION, INDEX + 1);
+    }
+
+    @Test
+    public void onImageCaptured_ifBurstWindowElapsed_burstIsCompletedWithoutFurtherFrames() throws Exception {
+        presenter.burstCaptureFrames = 3;
+        backgroundHandler.doNothingOnRunWithDelay();
+        mockStateWaitingForImageWithMotion();
+        mockBurstFrames();
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+        presenter.burstWindowElapsed = true;  // would normally be set by delayed runnable if execution is asynchronous
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        verify(bioIdWebserviceClient).uploadImage(rotatedImageAsBitmap, BWS_TOKEN, DESTINATION_DIRECTION, INDEX + 1);
+        verify(otherRotatedImageAsBitmap).recycle();
+        assertThat(presenter.burstWindowElapsed, is(false));
+        assertThat(presenter.onImageWithMotionProcessedCalled, is(true));
     }
 
     @Test
@@ -500,6 +611,58 @@ public class FacialRecognitionBasePresenterTest {
         assertThat(presenter.failedUploads, is(1));
     }
 
+    @Test
+    public void onImageCaptured_ifLocalFaceCheckFails_imageWillNotBeUploaded() throws Exception {
+        presenter.failedUploads = 0;
+        presenter.localFaceCheckEnabled = true;
+        mockStateWaitingForReferenceImage();
+        when(faceDetection.isOperational()).thenReturn(true);
+        doThrow(new MultipleFacesFoundException()).when(faceDetection).verifySingleFace(rotatedImageAsBitmap);
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        verify(bioIdWebserviceClient, never()).uploadImage(any(Bitmap.class), any(BwsToken.class),
+                any(MovementDirection.class), anyInt());
+        verify(view).showMultipleFacesFoundWarning();
+        assertThat(presenter.failedUploads, is(1));
+    }
+
+    @Test
+    public void onImageCaptured_ifLocalFaceCheckIsDisabled_faceDetectionIsNotUsedForUploads() throws Exception {
+        presenter.localFaceCheckEnabled = false;
+        mockStateWaitingForReferenceImage();
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        verify(faceDetection, never()).verifySingleFace(any(Bitmap.class));
+        verify(bioIdWebserviceClient).uploadImage(rotatedImageAsBitmap, BWS_TOKEN, CURRENT_DIRECTION, INDEX);
+    }
+
+    @Test
+    public void onImageCaptured_ifQualityIsInsufficient_frameIsHeldBackAndStateIsReset() throws Exception {
+        mockStateWaitingForReferenceImage();
+        when(frameQualityScorer.isAcceptable(frameQuality)).thenReturn(false);
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        verify(bioIdWebserviceClient, never()).uploadImage(any(Bitmap.class), any(BwsToken.class),
+                any(MovementDirection.class), anyInt());
+        assertThat(presenter.imageDetectionState, is(ImageDetectionState.WAITING_FOR_REFERENCE_IMAGE));
+        assertThat(presenter.framesHeldBackForQuality, is(1));
+    }
+
+    @Test
+    public void onImageCaptured_ifTooManyFramesHaveBeenHeldBack_frameIsUsedRegardlessOfQuality() throws Exception {
+        mockStateWaitingForReferenceImage();
+        when(frameQualityScorer.isAcceptable(frameQuality)).thenReturn(false);
+        presenter.framesHeldBackForQuality = FacialRecognitionBasePresenter.MAX_FRAMES_HELD_BACK_FOR_QUALITY;
+
+        presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
+
+        verify(bioIdWebserviceClient).uploadImage(rotatedImageAsBitmap, BWS_TOKEN, CURRENT_DIRECTION, INDEX);
+        assertThat(presenter.framesHeldBackForQuality, is(0));
+    }
+
     @Test
     public void onImageCaptured_ifStateIsOther_doNothing() throws Exception {
         presenter.onImageCaptured(imageAsIntensityPlane, IMAGE_ROTATION);
@@ -534,7 +697,7 @@ public class FacialRecognitionBasePresenterTest {
     public void onUploadFailed_ifThreeUploadsDidFail_biometricOperationWillBeAborted() throws Exception {
         presenter.failedUploads = 3;
 
-        presenter.onUploadFailed(new NotRecognizedException());
+        presenter.onUploadFailed(INDEX, new NotRecognizedException());
 
         assertBiometricOperationReset();
         verify(view).showNotRecognizedWarning();  // exception is used as an example, showWarningOrError() is tested separately
@@ -542,19 +705,20 @@ public class FacialRecognitionBasePresenterTest {
     }
 
     @Test
-    public void onUploadFailed_ifThreeOrLessUploadsDidFailAndTheReferenceImageUploadWasSuccessful_decreaseTheCounter()
+    public void onUploadFailed_ifThreeOrLessUploadsDidFailAndTheReferenceImageUploadWasSuccessful_discardImagePair()
             throws Exception {
-        presenter.failedOperations = 1;
-        presenter.successfulUploads = 3;
+        presenter.index = 2;
+        presenter.uploadScheduler.acknowledge(2);
 
-        presenter.onUploadFailed(new NotRecognizedException());
+        presenter.onUploadFailed(3, new NotRecognizedException());
 
-        assertThat(presenter.successfulUploads, is(2));
+        assertThat(presenter.uploadScheduler.isAcknowledged(2), is(false));
+        assertThat(presenter.uploadScheduler.areAcknowledged(2), is(true));  // previous image pair is kept
     }
 
     @Test
     public void onUploadFailed_warningIsShown() throws Exception {
-        presenter.onUploadFailed(new NotRecognizedException());
+        presenter.onUploadFailed(INDEX, new NotRecognizedException());
 
         verify(view).showNotRecognizedWarning();  // exception is used as an example, showWarningOrError() is tested separately
     }
@@ -566,7 +730,7 @@ public class FacialRecognitionBasePresenterTest {
         presenter.destinationDirection = MovementDirection.up;
         presenter.failedUploads = 1;
 
-        presenter.onUploadFailed(new NotRecognizedException());
+        presenter.onUploadFailed(INDEX, new NotRecognizedException());
 
         assertThat(presenter.index, is(42));
         assertThat(presenter.currentDirection, is(MovementDirection.right));
@@ -702,6 +866,8 @@ public class FacialRecognitionBasePresenterTest {
         presenter.imageDetectionState = ImageDetectionState.WAITING_FOR_REFERENCE_IMAGE;
 
         when(imageFormatConverter.intensityPlaneToGrayscaleImage(imageAsIntensityPlane)).thenReturn(imageAsGrayscale);
+        when(frameQualityScorer.score(imageAsGrayscale)).thenReturn(frameQuality);
+        when(frameQualityScorer.isAcceptable(frameQuality)).thenReturn(true);
         when(imageTransformer.rotate(imageAsGrayscale, IMAGE_ROTATION)).thenReturn(rotatedImageAsGrayscale);
         when(imageFormatConverter.grayscaleImageToBitmap(rotatedImageAsGrayscale)).thenReturn(rotatedImageAsBitmap);
     }
@@ -712,10 +878,25 @@ public class FacialRecognitionBasePresenterTest {
         when(motionDetection.detect(rotatedImageAsBitmap)).thenReturn(true);
 
         when(imageFormatConverter.intensityPlaneToGrayscaleImage(imageAsIntensityPlane)).thenReturn(imageAsGrayscale);
+        when(frameQualityScorer.score(imageAsGrayscale)).thenReturn(frameQuality);
+        when(frameQualityScorer.isAcceptable(frameQuality)).thenReturn(true);
         when(imageTransformer.rotate(imageAsGrayscale, IMAGE_ROTATION)).thenReturn(rotatedImageAsGrayscale);
         when(imageFormatConverter.grayscaleImageToBitmap(rotatedImageAsGrayscale)).thenReturn(rotatedImageAsBitmap);
     }
 
+    /**
+     * The first frame of the burst is turned sideways, the second one is frontal.
+     */
+    private void mockBurstFrames() {
+        when(imageFormatConverter.grayscaleImageToBitmap(rotatedImageAsGrayscale))
+                .thenReturn(otherRotatedImageAsBitmap, rotatedImageAsBitmap);
+        when(motionDetection.detect(otherRotatedImageAsBitmap)).thenReturn(true);
+        when(faceDetection.measureFace(otherRotatedImageAsBitmap))
+                .thenReturn(new FaceDetection.FaceMeasurement(0.4f, 0.5f, 0.5f, 25.0f, 0.0f));
+        when(faceDetection.measureFace(rotatedImageAsBitmap))
+                .thenReturn(new FaceDetection.FaceMeasurement(0.4f, 0.5f, 0.5f, 0.0f, 0.0f));
+    }
+
     private void assertCaptureImagePairReset() {
         verify(backgroundHandler).unsubscribeFromAllBackgroundTasks();
         verify(backgroundHandler).cancelAllScheduledTasks();
@@ -737,8 +918,8 @@ public class FacialRecognitionBasePresenterTest {
         assertCaptureImagePairReset();
 
         assertThat(presenter.bwsToken, is(BWS_TOKEN));   // no reset
-        assertThat(presenter.successfulUploads, is(0));  // reset to 0
-        assertThat(presenter.failedUploads, is(0));      // reset to 0
+        assertThat(presenter.uploadScheduler.isAcknowledged(0), is(false));  // reset
+        assertThat(presenter.failedUploads, is(0));                         // reset to 0
 
         verify(view).hideMessages();
     }
@@ -0,0 +1,57 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.network.BandwidthEstimator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class UploadEncodingPolicyTest {
+
+    private static final int PIXELS = 640 * 480;
+
+    private UploadEncodingPolicy policy;
+
+    @Before
+    public void setUp() throws Exception {
+        policy = new UploadEncodingPolicy();
+    }
+
+    @Test
+    public void select_usesLosslessEncodingWithoutEstimate() throws Exception {
+        assertThat(policy.select(null, PIXELS), is(UploadEncodingPolicy.LOSSLESS));
+    }
+
+    @Test
+    public void select_usesLosslessEncodingOnFastNetwork() throws Exception {
+        BandwidthEstimator.Estimate estimate = estimate(50, 1024 * 1024);
+
+        assertThat(policy.select(estimate, PIXELS), is(UploadEncodingPolicy.LOSSLESS));
+    }
+
+    @Test
+    public void select_usesLargestEncodingWhichFitsIntoTimeBudget() throws Exception {
+        // the lossless image (~200 KB) would take too long, the compressed one (~80 KB) fits
+        BandwidthEstimator.Estimate estimate = estimate(200, 64 * 1024);
+
+        UploadEncodingPolicy.UploadEncoding encoding = policy.select(estimate, PIXELS);
+
+        assertThat(encoding, is(UploadEncodingPolicy.COMPRESSED));
+        assertThat(estimate.predictUploadMillis(encoding.estimateUploadBytes(PIXELS)),
+                is(lessThan((double) UploadEncodingPolicy.UPLOAD_TIME_BUDGET_IN_MILLIS)));
+    }
+
+    @Test
+    public void select_usesSmallestEncodingIfNothingFitsIntoTimeBudget() throws Exception {
+        BandwidthEstimator.Estimate estimate = estimate(1500, 4 * 1024);
+
+        assertThat(policy.select(estimate, PIXELS), is(UploadEncodingPolicy.CROPPED));
+    }
+
+    private static BandwidthEstimator.Estimate estimate(double roundTripMillis, double throughputBytesPerSecond) {
+        return new BandwidthEstimator.Estimate(roundTripMillis, throughputBytesPerSecond);
+    }
+}
@@ -0,0 +1,84 @@
+package com.bioid.authenticator.facialrecognition;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+
+public class UploadResolutionPolicyTest {
+
+    private static final double DELTA = 0.001;
+
+    @Test
+    public void determineScale_scalesLongEdgeDownToMaximum() throws Exception {
+        assertThat(UploadResolutionPolicy.determineScale(1920, 1080, 640, 0, 0.0, 1.0), is(closeTo(640.0 / 1920, DELTA)));
+        assertThat(UploadResolutionPolicy.determineScale(1080, 1920, 640, 0, 0.0, 1.0), is(closeTo(640.0 / 1920, DELTA)));
+    }
+
+    @Test
+    public void determineScale_doesNotUpscale() throws Exception {
+        assertThat(UploadResolutionPolicy.determineScale(640, 480, 1280, 0, 0.0, 1.0), is(1.0));
+        assertThat(UploadResolutionPolicy.determineScale(640, 480, 0, 400, 0.5, 1.0), is(1.0));
+    }
+
+    @Test
+    public void determineScale_scalesFaceDownToTargetWidth() throws Exception {
+        // face is 0.5 * 960 = 480 pixels wide
+        assertThat(UploadResolutionPolicy.determineScale(960, 1280, 0, 240, 0.5, 1.0), is(closeTo(0.5, DELTA)));
+    }
+
+    @Test
+    public void determineScale_usesTheSmallerScaleOfBothTargets() throws Exception {
+        assertThat(UploadResolutionPolicy.determineScale(1920, 1080, 960, 240, 0.4, 1.0), is(closeTo(240.0 / 768, DELTA)));
+        assertThat(UploadResolutionPolicy.determineScale(1920, 1080, 640, 480, 0.4, 1.0), is(closeTo(640.0 / 1920, DELTA)));
+    }
+
+    @Test
+    public void determineScale_ignoresFaceTargetIfNoFaceWasFound() throws Exception {
+        assertThat(UploadResolutionPolicy.determineScale(1920, 1080, 960, 240, 0.0, 1.0), is(closeTo(0.5, DELTA)));
+    }
+
+    @Test
+    public void determineScale_doesNotScaleBelowMinimumLongEdge() throws Exception {
+        double scale = UploadResolutionPolicy.determineScale(1920, 1080, 0, 100, 0.8, 1.0);
+
+        assertThat(scale, is(closeTo((double) UploadResolutionPolicy.MIN_LONG_EDGE / 1920, DELTA)));
+    }
+
+    @Test
+    public void determineScale_appliesResolutionFactor() throws Exception {
+        assertThat(UploadResolutionPolicy.determineScale(1920, 1080, 960, 0, 0.0, 0.75), is(closeTo(0.375, DELTA)));
+    }
+
+    @Test
+    public void determineScale_doesNotScaleBelowMinimumLongEdgeDueToResolutionFactor() throws Exception {
+        double scale = UploadResolutionPolicy.determineScale(640, 480, 640, 0, 0.0, 0.25);
+
+        assertThat(scale, is(closeTo((double) UploadResolutionPolicy.MIN_LONG_EDGE / 640, DELTA)));
+    }
+
+    @Test
+    public void determineCrop_cropsPortraitRegionAroundFace() throws Exception {
+        FaceDetection.FaceMeasurement face = new FaceDetection.FaceMeasurement(0.25f, 0.5f, 0.5f, 0f, 0f);
+
+        double[] crop = UploadResolutionPolicy.determineCrop(1280, 960, face, 0.5);
+
+        // 0.25 * (1 + 2 * 0.5) = 0.5 of the width, the height is 4/3 * 640 = 853 pixels
+        assertThat(crop[0], is(closeTo(0.25, DELTA)));
+        assertThat(crop[2], is(closeTo(0.5, DELTA)));
+        assertThat(crop[3], is(closeTo(853.333 / 960, DELTA)));
+        assertThat(crop[1], is(closeTo((1.0 - 853.333 / 960) / 2, DELTA)));
+    }
+
+    @Test
+    public void determineCrop_clampsRegionToImage() throws Exception {
+        FaceDetection.FaceMeasurement face = new FaceDetection.FaceMeasurement(0.2f, 0.1f, 0.9f, 0f, 0f);
+
+        double[] crop = UploadResolutionPolicy.determineCrop(960, 1280, face, 0.5);
+
+        assertThat(crop[0], is(0.0));
+        assertThat(crop[1] + crop[3], is(closeTo(1.0, DELTA)));
+        assertThat(crop[2], is(closeTo(0.4, DELTA)));
+    }
+}
@@ -0,0 +1,267 @@
+package com.bioid.authenticator.facialrecognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.bioid.authenticator.base.functional.Consumer;
+import com.bioid.authenticator.base.functional.Supplier;
+import com.bioid.authenticator.base.network.bioid.webservice.BwsCall;
+import com.bioid.authenticator.base.threading.BackgroundHandler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class UploadSchedulerTest {
+
+    private static final int MAX_IN_FLIGHT = 2;
+
+    private ManualBackgroundHandler backgroundHandler;
+    private UploadScheduler scheduler;
+
+    private final List<Integer> successfulUploads = new ArrayList<>();
+    private final List<Integer> failedUploads = new ArrayList<>();
+    private final List<BwsCall<Void>> calls = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        backgroundHandler = new ManualBackgroundHandler();
+        scheduler = new UploadScheduler(backgroundHandler, MAX_IN_FLIGHT);
+    }
+
+    @Test
+    public void submit_numberOfUploadsInFlightIsBounded() throws Exception {
+        submit(0);
+        submit(1);
+        submit(2);
+        submit(3);
+
+        assertThat(scheduler.getInFlight(), is(MAX_IN_FLIGHT));
+        assertThat(scheduler.getPending(), is(2));
+        assertThat(backgroundHandler.started, is(2));
+    }
+
+    @Test
+    public void submit_pendingUploadIsStartedAsSoonAsRunningUploadCompletes() throws Exception {
+        submit(0);
+        submit(1);
+        submit(2);
+
+        backgroundHandler.complete(1);
+
+        assertThat(scheduler.getInFlight(), is(MAX_IN_FLIGHT));
+        assertThat(scheduler.getPending(), is(0));
+        assertThat(backgroundHandler.started, is(3));
+    }
+
+    @Test
+    public void submit_indicesAreAcknowledgedInTheOrderOfCompletion() throws Exception {
+        submit(0);
+        submit(1);
+
+        backgroundHandler.complete(1);
+
+        assertThat(successfulUploads, contains(1));
+        assertThat(scheduler.isAcknowledged(1), is(true));
+        assertThat(scheduler.areAcknowledged(2), is(false));
+
+        backgroundHandler.complete(0);
+
+        assertThat(successfulUploads, contains(1, 0));
+        assertThat(scheduler.areAcknowledged(2), is(true));
+        assertThat(scheduler.countAcknowledgedInSequence(), is(2));
+    }
+
+    @Test
+    public void submit_failedUploadIsNotAcknowledgedButFreesItsSlot() throws Exception {
+        submit(0);
+        submit(1);
+        submit(2);
+
+        backgroundHandler.fail(0, new IllegalStateException());
+
+        assertThat(failedUploads, contains(0));
+        assertThat(scheduler.isAcknowledged(0), is(false));
+        assertThat(backgroundHandler.started, is(3));
+    }
+
+    @Test
+    public void submit_uploadWithSameIndexReplacesRunningUpload() throws Exception {
+        submit(0);
+        submit(0);
+
+        backgroundHandler.complete(0);  // replaced upload
+        assertThat(successfulUploads, is(empty()));
+
+        backgroundHandler.complete(1);
+        assertThat(successfulUploads, contains(0));
+    }
+
+    @Test
+    public void acknowledge_returnsFalseIfIndexWasAcknowledgedBefore() throws Exception {
+        assertThat(scheduler.acknowledge(3), is(true));
+        assertThat(scheduler.acknowledge(3), is(false));
+    }
+
+    @Test
+    public void discard_indexIsNoLongerAcknowledged() throws Exception {
+        scheduler.acknowledge(0);
+        scheduler.acknowledge(1);
+
+        scheduler.discard(1);
+
+        assertThat(scheduler.isAcknowledged(0), is(true));
+        assertThat(scheduler.isAcknowledged(1), is(false));
+    }
+
+    @Test
+    public void reset_uploadsAndAcknowledgementsAreDiscarded() throws Exception {
+        submit(0);
+        submit(1);
+        submit(2);
+        scheduler.acknowledge(5);
+
+        scheduler.reset();
+        backgroundHandler.complete(0);
+
+        assertThat(successfulUploads, is(empty()));
+        assertThat(scheduler.getInFlight(), is(0));
+        assertThat(scheduler.getPending(), is(0));
+        assertThat(scheduler.isAcknowledged(5), is(false));
+    }
+
+    @Test
+    public void discard_uploadWhichIsPreparedIsCancelled() throws Exception {
+        submit(0);
+
+        scheduler.discard(0);
+        backgroundHandler.complete(0);
+
+        assertThat(calls.get(0).isCancelled(), is(true));
+        assertThat(successfulUploads, is(empty()));
+        assertThat(failedUploads, is(empty()));
+    }
+
+    @Test
+    public void discard_runningUploadIsCancelled() throws Exception {
+        scheduler.submit(0, () -> new BwsCall<>(call -> {
+            scheduler.discard(0);  // e.g. because the image is captured again
+            assertThat(call.isCancelled(), is(true));
+            return null;
+        }), () -> successfulUploads.add(0), e -> failedUploads.add(0), null);
+
+        backgroundHandler.complete(0);
+
+        assertThat(successfulUploads, is(empty()));
+    }
+
+    private void submit(final int index) {
+        scheduler.submit(index, () -> {
+            BwsCall<Void> call = new BwsCall<>(c -> null);
+            calls.add(call);
+            return call;
+        }, () -> successfulUploads.add(index), e -> failedUploads.add(index), null);
+    }
+
+    /**
+     * Fake BackgroundHandler whose background tasks complete only if this is triggered by the test.
+     */
+    private static class ManualBackgroundHandler implements BackgroundHandler {
+
+        private final List<Task> tasks = new ArrayList<>();
+        private int started;
+
+        /**
+         * Completes the n-th started background task successfully.
+         */
+        private void complete(int n) {
+            Task task = tasks.get(n);
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                fail(n, e);
+                return;
+            }
+            if (task.subscribed) {
+                task.onComplete.run();
+                task.onSuccess.run();
+            }
+        }
+
+        /**
+         * Completes the n-th started background task with the given exception.
+         */
+        private void fail(int n, RuntimeException e) {
+            Task task = tasks.get(n);
+            if (task.subscribed) {
+                task.onComplete.run();
+                task.onError.accept(e);
+            }
+        }
+
+        @Override
+        public int runWithDelay(@NonNull Runnable runnable, @IntRange(from = 0) long delayInMillis) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancelScheduledTask(int taskId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancelAllScheduledTasks() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> int runOnBackgroundThread(@NonNull Supplier<T> supplier, @NonNull Consumer<T> onSuccess,
+                                             @Nullable Consumer<RuntimeException> onError, @Nullable Runnable onComplete) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int runOnBackgroundThread(@NonNull Runnable runnable, @Nullable Runnable onSuccess,
+                                         @Nullable Consumer<RuntimeException> onError, @Nullable Runnable onComplete) {
+            tasks.add(new Task(runnable, onSuccess, onError, onComplete));
+            started++;
+            return tasks.size() - 1;
+        }
+
+        @Override
+        public void unsubscribeFromBackgroundTask(int taskId) {
+            tasks.get(taskId).subscribed = false;
+        }
+
+        @Override
+        public void unsubscribeFromAllBackgroundTasks() {
+            for (Task task : tasks) {
+                task.subscribed = false;
+            }
+        }
+    }
+
+    private static class Task {
+
+        private final Runnable runnable;
+        private final Runnable onSuccess;
+        private final Consumer<RuntimeException> onError;
+        private final Runnable onComplete;
+        private boolean subscribed = true;
+
+        private Task(Runnable runnable, Runnable onSuccess, Consumer<RuntimeException> onError, Runnable onComplete) {
+            this.runnable = runnable;
+            this.onSuccess = onSuccess;
+            this.onError = onError;
+            this.onComplete = onComplete;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.bioid.authenticator.facialrecognition;
+
+import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UploadSpoolTest {
+
+    private static final String BCID = "bws/1/user";
+    private static final String OTHER_BCID = "bws/1/other";
+    private static final String TOKEN = "token";
+    private static final long EXPIRES_AT = 60_000L;
+    private static final String CONTENT_TYPE = "application/octet-stream";
+
+    @Mock
+    private LoggingHelper log;
+
+    private File file;
+    private File stagingDir;
+    private long now;
+    private UploadSpool spool;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("upload_spool", null);
+        stagingDir = Files.createTempDirectory("upload_spool_staging").toFile();
+        spool = newSpool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        stagingDir.delete();
+    }
+
+    @Test
+    public void append_payloadCanBeWrittenMultipleTimes() throws Exception {
+        UploadSpool.Record record = append(3, "image");
+
+        assertThat(record.getIndex(), is(3));
+        assertThat(record.getDirection(), is(MovementDirection.left));
+        assertThat(record.getContentType(), is(CONTENT_TYPE));
+        assertThat(write(record), is("image"));
+        assertThat(write(record), is("image"));
+    }
+
+    @Test
+    public void append_payloadWithSameIndexIsReplaced() throws Exception {
+        append(0, "first");
+        append(0, "second");
+
+        assertThat(spool.getRecords(BCID).size(), is(1));
+        assertThat(write(spool.get(TOKEN, 0)), is("second"));
+    }
+
+    @Test
+    public void append_payloadIsNotSpooledIfTokenIsExpired() throws Exception {
+        now = EXPIRES_AT;
+
+        assertThat(append(0, "image"), is(nullValue()));
+    }
+
+    @Test
+    public void append_payloadIsNotSpooledIfMaximumSizeIsExceeded() throws Exception {
+        byte[] payload = new byte[UploadSpool.MAX_SIZE_IN_BYTES];
+
+        assertThat(spool.append(BCID, TOKEN, EXPIRES_AT, 0, MovementDirection.any, CONTENT_TYPE, output -> output.write(payload)),
+                is(nullValue()));
+        assertThat(append(0, "image"), is(notNullValue()));
+        assertThat(write(newSpool().get(TOKEN, 0)), is("image"));
+    }
+
+    @Test
+    public void append_payloadIsNotSpooledIfItCouldNotBeWritten() throws Exception {
+        append(0, "reference");
+
+        assertThat(spool.append(BCID, TOKEN, EXPIRES_AT, 1, MovementDirection.any, CONTENT_TYPE, output -> {
+            output.write(new byte[16 * 1024]);
+            throw new IOException("encoding failed");
+        }), is(nullValue()));
+
+        assertThat(newSpool().getRecords(BCID).size(), is(1));
+    }
+
+    @Test
+    public void append_largePayloadIsWrittenCompletely() throws Exception {
+        byte[] payload = new byte[100 * 1024 + 7];
+        new Random(42).nextBytes(payload);
+
+        UploadSpool.Record record = spool.append(BCID, TOKEN, EXPIRES_AT, 0, MovementDirection.any, CONTENT_TYPE,
+                output -> output.write(payload));
+
+        assertThat(writeBytes(record), is(payload));
+        assertThat(writeBytes(newSpool().get(TOKEN, 0)), is(payload));
+    }
+
+    @Test
+    public void append_stagingFileIsDeleted() throws Exception {
+        append(0, "image");
+
+        assertThat(stagingDir.list().length, is(0));
+    }
+
+    @Test
+    public void append_spoolIsNotLockedWhilePayloadIsWritten() throws Exception {
+        append(0, "reference");
+        AtomicReference<UploadSpool.Record> readMeanwhile = new AtomicReference<>();
+
+        spool.append(BCID, TOKEN, EXPIRES_AT, 1, MovementDirection.any, CONTENT_TYPE, output -> {
+            Thread reader = new Thread(() -> readMeanwhile.set(spool.get(TOKEN, 0)));
+            reader.start();
+            try {
+                reader.join(5_000);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            output.write(1);
+        });
+
+        assertThat(readMeanwhile.get(), is(notNullValue()));
+        assertThat(spool.getRecords(BCID).size(), is(2));
+    }
+
+    @Test
+    public void records_surviveReopeningTheSpool() throws Exception {
+        append(0, "reference");
+        append(1, "motion");
+        spool.acknowledge(TOKEN, 0);
+
+        List<UploadSpool.Record> records = newSpool().getRecords(BCID);
+
+        assertThat(records.size(), is(2));
+        assertThat(records.get(0).isAcknowledged(), is(true));
+        assertThat(records.get(1).isAcknowledged(), is(false));
+        assertThat(records.get(1).getToken(), is(TOKEN));
+        assertThat(write(records.get(1)), is("motion"));
+    }
+
+    @Test
+    public void records_canBeAppendedAfterReopeningTheSpool() throws Exception {
+        append(0, "reference");
+        spool = newSpool();
+        append(1, "motion");
+
+        assertThat(write(newSpool().get(TOKEN, 0)), is("reference"));
+        assertThat(write(newSpool().get(TOKEN, 1)), is("motion"));
+    }
+
+    @Test
+    public void clear_recordsAreDiscardedPermanently() throws Exception {
+        append(0, "image");
+
+        spool.clear(BCID);
+
+        assertThat(spool.getRecords(BCID), is(empty()));
+        assertThat(newSpool().getRecords(BCID), is(empty()));
+        assertThat(file.length(), is(0L));
+    }
+
+    @Test
+    public void clear_fileIsTruncatedEvenIfItIsNotOpenedAgain() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            append(0, "reference");
+            append(1, "motion");
+            spool.clear(BCID);
+
+            assertThat(file.length(), is(0L));
+        }
+    }
+
+    @Test
+    public void clear_fileIsNotTruncatedWhilePayloadIsRead() throws Exception {
+        UploadSpool.Record record = append(0, "image");
+        long length = file.length();
+
+        record.asBody().writeTo(new OutputStream() {
+            @Override
+            public void write(int b) {
+                spool.clear(BCID);
+            }
+        });
+
+        assertThat(spool.getRecords(BCID), is(empty()));
+        assertThat(file.length(), is(greaterThan(length)));
+        assertThat(newSpool().getRecords(BCID), is(empty()));
+    }
+
+    @Test
+    public void clear_recordsOfOtherUsersAreKept() throws Exception {
+        append(OTHER_BCID, "other token", 0, "other");
+        append(0, "image");
+
+        spool.clear(BCID);
+
+        assertThat(spool.getRecords(BCID), is(empty()));
+        assertThat(newSpool().getRecords(BCID), is(empty()));
+        assertThat(write(newSpool().get("other token", 0)), is("other"));
+    }
+
+    @Test
+    public void clear_payloadOfDiscardedRecordCanNotBeWritten() throws Exception {
+        UploadSpool.Record record = append(0, "image");
+
+        spool.clear(BCID);
+
+        try {
+            write(record);
+            throw new AssertionError("IOException expected");
+        } catch (IOException expected) {
+            // the mapping is not accessed after the file has been truncated
+        }
+    }
+
+    @Test
+    public void getRecords_recordsOfOtherUsersAreNotReturned() throws Exception {
+        append(OTHER_BCID, "other token", 0, "other");
+        append(0, "image");
+
+        List<UploadSpool.Record> records = newSpool().getRecords(BCID);
+
+        assertThat(records.size(), is(1));
+        assertThat(records.get(0).getBcid(), is(BCID));
+        assertThat(write(records.get(0)), is("image"));
+    }
+
+    @Test
+    public void getRecords_expiredRecordsAreNotReturned() throws Exception {
+        append(0, "image");
+
+        now = EXPIRES_AT;
+
+        assertThat(spool.getRecords(BCID), is(empty()));
+        assertThat(spool.get(TOKEN, 0), is(nullValue()));
+    }
+
+    @Test
+    public void getRecords_fileIsTruncatedIfAllRecordsAreExpired() throws Exception {
+        append(0, "image");
+        now = EXPIRES_AT;
+
+        newSpool().getRecords(BCID);
+
+        assertThat(file.length(), is(0L));
+    }
+
+    @Test
+    public void getRecords_tornRecordIsIgnored() throws Exception {
+        append(0, "reference");
+        append(1, "motion");
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 3);
+        }
+
+        List<UploadSpool.Record> records = newSpool().getRecords(BCID);
+
+        assertThat(records.size(), is(1));
+        assertThat(write(records.get(0)), is("reference"));
+    }
+
+    @Test
+    public void getRecords_corruptRecordIsIgnored() throws Exception {
+        append(0, "reference");
+        append(1, "motion");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(file.length() - 1);
+            raf.write('X');
+        }
+
+        List<UploadSpool.Record> records = newSpool().getRecords(BCID);
+
+        assertThat(records.size(), is(1));
+        assertThat(write(records.get(0)), is("reference"));
+    }
+
+    private UploadSpool newSpool() {
+        return new UploadSpool(file, stagingDir, log, () -> now);
+    }
+
+    private UploadSpool.Record append(int index, String payload) throws Exception {
+        return append(BCID, TOKEN, index, payload);
+    }
+
+    private UploadSpool.Record append(String bcid, String token, int index, String payload) throws Exception {
+        byte[] bytes = payload.getBytes("UTF-8");
+        return spool.append(bcid, token, EXPIRES_AT, index, MovementDirection.left, CONTENT_TYPE, output -> output.write(bytes));
+    }
+
+    private static String write(UploadSpool.Record record) throws Exception {
+        return new String(writeBytes(record), "UTF-8");
+    }
+
+    private static byte[] writeBytes(UploadSpool.Record record) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        record.asBody().writeTo(output);
+        return output.toByteArray();
+    }
+}
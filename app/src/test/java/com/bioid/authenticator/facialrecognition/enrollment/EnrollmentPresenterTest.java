@@ -5,12 +5,15 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 
 import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.network.CircuitOpenException;
+import com.bioid.authenticator.base.network.NoConnectionException;
 import com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient;
 import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
 import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.EnrollmentTokenProvider;
 import com.bioid.authenticator.base.threading.BackgroundHandler;
 import com.bioid.authenticator.facialrecognition.FacialRecognitionContract;
+import com.bioid.authenticator.facialrecognition.UploadSpool;
 import com.bioid.authenticator.testutil.Mocks;
 import com.bioid.authenticator.testutil.SynchronousBackgroundHandler;
 
@@ -23,9 +26,13 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.IOException;
+
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
@@ -36,6 +43,7 @@ import static org.mockito.Mockito.when;
 public class EnrollmentPresenterTest {
 
     private static final EnrollmentToken ENROLLMENT_TOKEN = Mocks.enrollmentToken();
+    private static final String BCID = "bws/1/user";
 
     @Mock
     private Context ctx;
@@ -49,6 +57,10 @@ public class EnrollmentPresenterTest {
     private EnrollmentTokenProvider tokenProvider;
     @Mock
     private BioIdWebserviceClient bioIdWebserviceClient;
+    @Mock
+    private UploadSpool uploadSpool;
+    @Mock
+    private UploadSpool.Record spooledRecord;
 
     @InjectMocks
     private EnrollmentPresenterForTest presenter;
@@ -65,8 +77,8 @@ public class EnrollmentPresenterTest {
 
         private EnrollmentPresenterForTest(Context ctx, LoggingHelper log, FacialRecognitionContract.View view,
                                            BackgroundHandler backgroundHandler, EnrollmentTokenProvider tokenProvider,
-                                           BioIdWebserviceClient bioIdWebserviceClient) {
-            super(ctx, log, view, backgroundHandler, tokenProvider, bioIdWebserviceClient);
+                                           BioIdWebserviceClient bioIdWebserviceClient, UploadSpool uploadSpool) {
+            super(ctx, log, view, backgroundHandler, tokenProvider, bioIdWebserviceClient, uploadSpool);
 
             this.bwsToken = ENROLLMENT_TOKEN;
         }
@@ -98,12 +110,16 @@ public class EnrollmentPresenterTest {
             this.bwsToken = bwsToken;
         }
 
-        private void setSuccessfulUploads(int successfulUploads) {
-            this.successfulUploads = successfulUploads;
+        private void setAcknowledgedUploads(int acknowledgedUploads) {
+            for (int index = 0; index < acknowledgedUploads; index++) {
+                uploadScheduler.acknowledge(index);
+            }
         }
 
-        private int getSuccessfulUploads() {
-            return this.successfulUploads;
+        private void completeUpload(int index) {
+            // the upload scheduler does acknowledge the index before the callback is called
+            uploadScheduler.acknowledge(index);
+            onUploadSuccessful(index);
         }
 
         private int getFailedOperations() {
@@ -156,6 +172,16 @@ public class EnrollmentPresenterTest {
         verify(view).promptForEnrollmentProcessExplanation();
     }
 
+    @Test
+    public void startBiometricOperation_spooledUploadsOfOtherUsersAreNotResumed() throws Exception {
+        when(tokenProvider.getBcid()).thenReturn(BCID);
+
+        presenter.startBiometricOperation();
+
+        verify(uploadSpool).getRecords(BCID);
+        verify(tokenProvider).requestEnrollmentToken(ctx);
+    }
+
     @Test
     public void startBiometricOperation_ifTokenRequestFailed_resetBiometricOperation() throws Exception {
         doThrow(RuntimeException.class).when(tokenProvider).requestEnrollmentToken(ctx);
@@ -175,6 +201,19 @@ public class EnrollmentPresenterTest {
         assertThat(presenter.showWarningCalledWith, is(e));
     }
 
+    @Test
+    public void startBiometricOperation_ifBwsIsUnavailable_failsWithoutRequestingToken() throws Exception {
+        CircuitOpenException e = new CircuitOpenException("bws.example.com/extension/upload");
+        doThrow(e).when(bioIdWebserviceClient).checkAvailability();
+
+        presenter.startBiometricOperation();
+
+        verify(tokenProvider, never()).requestEnrollmentToken(ctx);
+        verify(view, never()).showInitialisationInfo();
+        assertThat(presenter.resetBiometricOperationCalled, is(true));
+        assertThat(presenter.showWarningCalledWith, is(e));
+    }
+
     @Test
     public void promptForProcessExplanationAccepted_captureImagePairSessionTriggered() throws Exception {
         presenter.promptForProcessExplanationAccepted();
@@ -193,7 +232,7 @@ public class EnrollmentPresenterTest {
 
     @Test
     public void promptToTurn90DegreesAccepted_captureImagePairSessionTriggered() throws Exception {
-        presenter.setSuccessfulUploads(42);
+        presenter.setAcknowledgedUploads(42);
         presenter.promptToTurn90DegreesAccepted();
 
         assertThat(presenter.captureImagePairCalledWithFirstParam, is(42));
@@ -216,37 +255,42 @@ public class EnrollmentPresenterTest {
     }
 
     @Test
-    public void onUploadSuccessful_counterIsIncremented() throws Exception {
-        presenter.setSuccessfulUploads(10);
+    public void onUploadSuccessful_ifImageWithMotionWasUploadedBeforeReferenceImage_waitForReferenceImageUploadToComplete()
+            throws Exception {
+        presenter.setAcknowledgedUploads(6);  // three pairs already uploaded
+
+        presenter.completeUpload(7);
 
-        presenter.onUploadSuccessful();
+        verify(view, never()).showEnrollingInfo();
 
-        assertThat(presenter.getSuccessfulUploads(), is(11));
+        presenter.completeUpload(6);
+
+        verify(view).showEnrollingInfo();
     }
 
     @Test
     public void onUploadSuccessful_enrollingInfoIsShown() throws Exception {
-        presenter.setSuccessfulUploads(7);
+        presenter.setAcknowledgedUploads(7);
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(7);
 
         verify(view).showEnrollingInfo();
     }
 
     @Test
     public void onUploadSuccessful_resetBiometricOperation() throws Exception {
-        presenter.setSuccessfulUploads(7);
+        presenter.setAcknowledgedUploads(7);
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(7);
 
         assertThat(presenter.resetBiometricOperationCalled, is(true));
     }
 
     @Test
     public void onUploadSuccessful_ifEnrollmentWasSuccessful_successWillBeShownBeforeNavigatingBack() throws Exception {
-        presenter.setSuccessfulUploads(7);
+        presenter.setAcknowledgedUploads(7);
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(7);
 
         verify(view).showEnrollmentSuccess();
         verify(view).navigateBack(true);
@@ -254,24 +298,24 @@ public class EnrollmentPresenterTest {
 
     @Test
     public void onUploadSuccessful_ifEnrollmentWasNotSuccessful_warningWillBeShown() throws Exception {
-        presenter.setSuccessfulUploads(7);
+        presenter.setAcknowledgedUploads(7);
         RuntimeException e = new RuntimeException("enrollment not successful");
         doThrow(e).when(bioIdWebserviceClient).enroll(ENROLLMENT_TOKEN);
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(7);
 
         assertThat(presenter.showWarningCalledWith, is(e));
     }
 
     @Test
     public void onUploadSuccessful_ifEnrollmentWasNotSuccessful_operationWillBeRestarted() throws Exception {
-        presenter.setSuccessfulUploads(7);
+        presenter.setAcknowledgedUploads(7);
         RuntimeException e = new RuntimeException("enrollment not successful");
         doThrow(e).when(bioIdWebserviceClient).enroll(ENROLLMENT_TOKEN);
         presenter.setFailedOperations(0);
         when(ENROLLMENT_TOKEN.getMaxTries()).thenReturn(3);
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(7);
 
         assertThat(presenter.captureImagePairCalledWithFirstParam, is(0));
         assertThat(presenter.captureImagePairCalledWithSecondParam, is(MovementDirection.any));
@@ -280,35 +324,35 @@ public class EnrollmentPresenterTest {
 
     @Test
     public void onUploadSuccessful_ifEnrollmentWasNotSuccessful_failedOperationCounterIsIncremented() throws Exception {
-        presenter.setSuccessfulUploads(7);
+        presenter.setAcknowledgedUploads(7);
         RuntimeException e = new RuntimeException("enrollment not successful");
         doThrow(e).when(bioIdWebserviceClient).enroll(ENROLLMENT_TOKEN);
         presenter.setFailedOperations(0);
         when(ENROLLMENT_TOKEN.getMaxTries()).thenReturn(3);
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(7);
 
         assertThat(presenter.getFailedOperations(), is(1));
     }
 
     @Test
     public void onUploadSuccessful_ifEnrollmentWasNotSuccessful_maxTriesAreExceeded_navigateBackWithoutSuccess() throws Exception {
-        presenter.setSuccessfulUploads(7);
+        presenter.setAcknowledgedUploads(7);
         RuntimeException e = new RuntimeException("enrollment not successful");
         doThrow(e).when(bioIdWebserviceClient).enroll(ENROLLMENT_TOKEN);
         presenter.setFailedOperations(1);
         when(ENROLLMENT_TOKEN.getMaxTries()).thenReturn(2);
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(7);
 
         verify(view).navigateBack(false);
     }
 
     @Test
     public void onUploadSuccessful_ifFirstImageOfPairWasUploaded_waitForSecondImageUploadToComplete() throws Exception {
-        presenter.setSuccessfulUploads(2);  // one pair already uploaded + reference image of second pair
+        presenter.setAcknowledgedUploads(2);  // one pair already uploaded + reference image of second pair
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(2);
 
         verify(view, never()).promptToTurn90Degrees();
         verify(bioIdWebserviceClient, never()).enroll(any(EnrollmentToken.class));
@@ -316,11 +360,96 @@ public class EnrollmentPresenterTest {
 
     @Test
     public void onUploadSuccessful_ifLessThanFourImagePairsAreUploaded_promptToTurn90Degrees() throws Exception {
-        presenter.setSuccessfulUploads(5);  // three pairs already uploaded -> one missing
+        presenter.setAcknowledgedUploads(5);  // three pairs already uploaded -> one missing
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(5);
 
         verify(view).promptToTurn90Degrees();
         verify(bioIdWebserviceClient, never()).enroll(any(EnrollmentToken.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void promptForProcessExplanationAccepted_spooledUploadsAreDiscarded() throws Exception {
+        when(tokenProvider.getBcid()).thenReturn(BCID);
+
+        presenter.promptForProcessExplanationAccepted();
+
+        verify(uploadSpool).clear(BCID);
+    }
+
+    @Test
+    public void promptForProcessExplanationAccepted_imagePairIsNotCapturedBeforeSpooledUploadsAreDiscarded() throws Exception {
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+
+        presenter.promptForProcessExplanationAccepted();
+
+        verify(uploadSpool, never()).clear(any());
+        assertThat(presenter.captureImagePairCalledWithFirstParam, is(-1));
+    }
+
+    @Test
+    public void onUploadSuccessful_spooledUploadIsAcknowledgedWithinTheBackground() throws Exception {
+        when(ENROLLMENT_TOKEN.getToken()).thenReturn("token");
+        backgroundHandler.doNothingOnRunOnBackgroundThread();
+
+        presenter.completeUpload(0);
+
+        verify(uploadSpool, never()).acknowledge("token", 0);
+    }
+
+    @Test
+    public void onUploadSuccessful_spooledUploadRetriesAreReset() throws Exception {
+        presenter.spooledUploadRetries = 3;
+
+        presenter.completeUpload(0);
+
+        assertThat(presenter.spooledUploadRetries, is(0));
+    }
+
+    @Test
+    public void onUploadSuccessful_spooledUploadIsAcknowledged() throws Exception {
+        when(ENROLLMENT_TOKEN.getToken()).thenReturn("token");
+
+        presenter.completeUpload(0);
+
+        verify(uploadSpool).acknowledge("token", 0);
+    }
+
+    @Test
+    public void onUploadSuccessful_ifEnrollmentWasSuccessful_spooledUploadsAreDiscarded() throws Exception {
+        when(tokenProvider.getBcid()).thenReturn(BCID);
+        presenter.setAcknowledgedUploads(7);
+
+        presenter.completeUpload(7);
+
+        verify(uploadSpool).clear(BCID);
+    }
+
+    @Test
+    public void onUploadFailed_ifSpooledUploadFailedTemporarily_uploadIsRetriedWithoutCapturingTheImagePairAgain()
+            throws Exception {
+        when(ENROLLMENT_TOKEN.getToken()).thenReturn("token");
+        when(uploadSpool.get("token", 2)).thenReturn(spooledRecord);
+        backgroundHandler.doNothingOnRunWithDelay();
+
+        presenter.onUploadFailed(2, new NoConnectionException(new IOException()));
+
+        verify(backgroundHandler).runWithDelay(any(Runnable.class), anyLong());
+        assertThat(presenter.spooledUploadRetries, is(1));
+        assertThat(presenter.captureImagePairCalledWithFirstParam, is(-1));
+        assertThat(presenter.showWarningCalledWith, is(nullValue()));
+    }
+
+    @Test
+    public void onUploadFailed_ifCircuitBreakerIsOpen_spooledUploadIsNotRetried() throws Exception {
+        when(ENROLLMENT_TOKEN.getToken()).thenReturn("token");
+        when(uploadSpool.get("token", 2)).thenReturn(spooledRecord);
+        backgroundHandler.doNothingOnRunWithDelay();
+        CircuitOpenException e = new CircuitOpenException("bws.example.com/extension/upload");
+
+        presenter.onUploadFailed(2, e);
+
+        assertThat(presenter.spooledUploadRetries, is(0));
+        assertThat(presenter.showWarningCalledWith, is(e));
+    }
+}
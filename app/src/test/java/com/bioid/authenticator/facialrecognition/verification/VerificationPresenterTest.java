@@ -5,10 +5,12 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 
 import com.bioid.authenticator.base.logging.LoggingHelper;
+import com.bioid.authenticator.base.network.NoConnectionException;
 import com.bioid.authenticator.base.network.ServerErrorException;
 import com.bioid.authenticator.base.network.bioid.webservice.BioIdWebserviceClient;
 import com.bioid.authenticator.base.network.bioid.webservice.LiveDetectionException;
 import com.bioid.authenticator.base.network.bioid.webservice.MovementDirection;
+import com.bioid.authenticator.base.network.bioid.webservice.MultipleFacesFoundException;
 import com.bioid.authenticator.base.network.bioid.webservice.NoFaceFoundException;
 import com.bioid.authenticator.base.network.bioid.webservice.token.VerificationToken;
 import com.bioid.authenticator.base.network.bioid.webservice.token.VerificationTokenProvider;
@@ -27,6 +29,8 @@ import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.io.IOException;
+
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doThrow;
@@ -116,12 +120,20 @@ public class VerificationPresenterTest {
             this.bwsToken = bwsToken;
         }
 
-        private void setSuccessfulUploads(int successfulUploads) {
-            this.successfulUploads = successfulUploads;
+        private void setAcknowledgedUploads(int acknowledgedUploads) {
+            for (int index = 0; index < acknowledgedUploads; index++) {
+                uploadScheduler.acknowledge(index);
+            }
+        }
+
+        private boolean isUploadAcknowledged(int index) {
+            return uploadScheduler.isAcknowledged(index);
         }
 
-        private int getSuccessfulUploads() {
-            return this.successfulUploads;
+        private void completeUpload(int index) {
+            // the upload scheduler does acknowledge the index before the callback is called
+            uploadScheduler.acknowledge(index);
+            onUploadSuccessful(index);
         }
 
         private void setFailedUploads(int failedUploads) {
@@ -312,28 +324,34 @@ public class VerificationPresenterTest {
     }
 
     @Test
-    public void onUploadSuccessful_counterIsIncremented() throws Exception {
-        presenter.setSuccessfulUploads(10);
+    public void onUploadSuccessful_withChallengeResponse_ifUploadsCompleteOutOfOrder_verifyWillBeCalledForLastMissingImage()
+            throws Exception {
+        presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
+        presenter.setAcknowledgedUploads(2);  // mocked challenge: left, right, up
+
+        presenter.completeUpload(3);
 
-        presenter.onUploadSuccessful();
+        assertThat(presenter.verifyCalled, is(false));
+
+        presenter.completeUpload(2);
 
-        assertThat(presenter.getSuccessfulUploads(), is(11));
+        assertThat(presenter.verifyCalled, is(true));
     }
 
     @Test
     public void onUploadSuccessful_ifFirstImageOfPairWasUploaded_waitForSecondImageUploadToComplete() throws Exception {
-        presenter.setSuccessfulUploads(2);  // one pair already uploaded + reference image of second pair
+        presenter.setAcknowledgedUploads(2);  // one pair already uploaded + reference image of second pair
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(2);
 
         assertThat(presenter.verifyCalled, is(false));
     }
 
     @Test
     public void onUploadSuccessful_verifyWillBeCalled() throws Exception {
-        presenter.setSuccessfulUploads(1);
+        presenter.setAcknowledgedUploads(1);
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(1);
 
         assertThat(presenter.verifyCalled, is(true));
     }
@@ -341,9 +359,9 @@ public class VerificationPresenterTest {
     @Test
     public void onUploadSuccessful_withChallengeResponse_ifLastImageOfChallengeWasUploaded_verifyWillBeCalled() throws Exception {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(3);  // mocked challenge: left, right, up
+        presenter.setAcknowledgedUploads(3);  // mocked challenge: left, right, up
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(3);
 
         assertThat(presenter.verifyCalled, is(true));
     }
@@ -352,9 +370,9 @@ public class VerificationPresenterTest {
     public void onUploadSuccessful_withChallengeResponse_ifNotLastImageOfChallengeWasUploaded_verifyNotWillBeCalled()
             throws Exception {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(1);  // mocked challenge: left, right, up
+        presenter.setAcknowledgedUploads(1);  // mocked challenge: left, right, up
 
-        presenter.onUploadSuccessful();
+        presenter.completeUpload(1);
 
         assertThat(presenter.verifyCalled, is(false));
     }
@@ -457,39 +475,67 @@ public class VerificationPresenterTest {
     @Test
     public void onUploadFailed_noFaceFoundErrorWillBeSuppressedWithinChallengeResponse() throws Exception {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(10);
+        presenter.setAcknowledgedUploads(1);
         presenter.setFailedUploads(10);
 
-        presenter.onUploadFailed(new NoFaceFoundException());
+        presenter.onUploadFailed(1, new NoFaceFoundException());
 
-        assertThat(presenter.getSuccessfulUploads(), is(11));
+        assertThat(presenter.isUploadAcknowledged(1), is(true));
         assertThat(presenter.getFailedUploads(), is(10));
     }
 
     @Test
     public void onUploadFailed_liveDetectionErrorWillBeSuppressedWithinChallengeResponse() throws Exception {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(10);
+        presenter.setAcknowledgedUploads(1);
         presenter.setFailedUploads(10);
 
-        presenter.onUploadFailed(new LiveDetectionException());
+        presenter.onUploadFailed(1, new LiveDetectionException());
 
-        assertThat(presenter.getSuccessfulUploads(), is(11));
+        assertThat(presenter.isUploadAcknowledged(1), is(true));
         assertThat(presenter.getFailedUploads(), is(10));
     }
 
     @Test
     public void onUploadFailed_otherErrorsWillNotBeSuppressedWithinChallengeResponse() throws Exception {
         presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
-        presenter.setSuccessfulUploads(10);
+        presenter.setAcknowledgedUploads(1);
         presenter.setFailedUploads(10);
 
-        presenter.onUploadFailed(new ServerErrorException());
+        presenter.onUploadFailed(1, new ServerErrorException());
 
-        assertThat(presenter.getSuccessfulUploads(), is(10));
+        assertThat(presenter.isUploadAcknowledged(1), is(false));
         assertThat(presenter.getFailedUploads(), is(11));
     }
 
+    @Test
+    public void onUploadFailed_qualityRejectionsOfPreviousImagePairWillBeSuppressedWithinChallengeResponse() throws Exception {
+        presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
+        presenter.setAcknowledgedUploads(1);
+        presenter.setFailedUploads(10);
+        presenter.captureImagePair(2, MovementDirection.right, MovementDirection.up);  // capturing has moved on
+
+        presenter.onUploadFailed(1, new MultipleFacesFoundException());
+
+        assertThat(presenter.isUploadAcknowledged(1), is(true));
+        assertThat(presenter.getFailedUploads(), is(10));
+    }
+
+    @Test
+    public void onUploadFailed_connectionErrorOfPreviousImagePairIsShownWithinChallengeResponse() throws Exception {
+        presenter.setBwsToken(VERIFICATION_TOKEN_WITH_CHALLENGE);
+        presenter.setAcknowledgedUploads(1);
+        presenter.captureImagePair(2, MovementDirection.right, MovementDirection.up);  // capturing has moved on
+        NoConnectionException e = new NoConnectionException(new IOException());
+
+        presenter.onUploadFailed(1, e);
+
+        assertThat(presenter.isUploadAcknowledged(1), is(false));
+        assertThat(presenter.verifyCalled, is(false));
+        assertThat(presenter.resetBiometricOperationCalled, is(true));
+        assertThat(presenter.showWarningCalledWith, is(e));
+    }
+
     @Test
     public void resetBiometricOperation_doesResetValues() throws Exception {
         presenter.nextPairForChallenge = 42;